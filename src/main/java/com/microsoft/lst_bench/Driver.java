@@ -28,10 +28,16 @@ import com.microsoft.lst_bench.input.config.ExperimentConfig;
 import com.microsoft.lst_bench.input.config.TelemetryConfig;
 import com.microsoft.lst_bench.sql.ConnectionManager;
 import com.microsoft.lst_bench.telemetry.JDBCTelemetryRegistry;
+import com.microsoft.lst_bench.telemetry.LiveMetrics;
+import com.microsoft.lst_bench.telemetry.MetricsEndpoint;
 import com.microsoft.lst_bench.telemetry.TelemetryHook;
 import java.io.File;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.LinkedHashMap;
 import java.util.Map;
+import jdk.jfr.Configuration;
+import jdk.jfr.Recording;
 import org.apache.commons.cli.CommandLine;
 import org.apache.commons.cli.CommandLineParser;
 import org.apache.commons.cli.DefaultParser;
@@ -54,6 +60,7 @@ public class Driver {
   private static final String OPT_INPUT_CONNECTION_CONFIG_FILE = "connections-config";
   private static final String OPT_INPUT_EXPERIMENT_CONFIG_FILE = "experiment-config";
   private static final String OPT_INPUT_TELEMETRY_CONFIG_FILE = "input-log-config";
+  private static final String OPT_OUTPUT_FLIGHT_RECORDING_FILE = "flight-recording";
 
   /** Defeat instantiation. */
   private Driver() {}
@@ -65,6 +72,7 @@ public class Driver {
     String inputConnectionsConfigFile = null;
     String inputExperimentConfigFile = null;
     String inputTelemetryConfigFile = null;
+    String outputFlightRecordingFile = null;
 
     // Retrieve program input values
     final Options options = createOptions();
@@ -89,6 +97,9 @@ public class Driver {
         if (cmd.hasOption(OPT_INPUT_TELEMETRY_CONFIG_FILE)) {
           inputTelemetryConfigFile = cmd.getOptionValue(OPT_INPUT_TELEMETRY_CONFIG_FILE);
         }
+        if (cmd.hasOption(OPT_OUTPUT_FLIGHT_RECORDING_FILE)) {
+          outputFlightRecordingFile = cmd.getOptionValue(OPT_OUTPUT_FLIGHT_RECORDING_FILE);
+        }
       }
     } catch (MissingOptionException | UnrecognizedOptionException e) {
       usageAndHelp();
@@ -128,12 +139,7 @@ public class Driver {
     final ConnectionManager telemetryConnectionManager =
         ConnectionManager.from(telemetryConfig.getConnection());
     final JDBCTelemetryRegistry telemetryRegistry =
-        new JDBCTelemetryRegistry(
-            telemetryConnectionManager,
-            telemetryConfig.isExecuteDDL(),
-            telemetryConfig.getDDLFile(),
-            telemetryConfig.getInsertFile(),
-            telemetryConfig.getParameterValues());
+        new JDBCTelemetryRegistry(telemetryConnectionManager, telemetryConfig);
     Thread telemetryHook = new TelemetryHook(telemetryRegistry);
     Runtime.getRuntime().addShutdownHook(telemetryHook);
 
@@ -141,10 +147,78 @@ public class Driver {
     final BenchmarkConfig benchmarkConfig =
         BenchmarkConfig.from(experimentConfig, taskLibrary, workload);
 
+    // Create live metrics endpoint, if configured
+    LiveMetrics metrics = null;
+    MetricsEndpoint metricsEndpoint = null;
+    if (telemetryConfig.getMetricsEndpoint() != null) {
+      metrics = new LiveMetrics();
+      metrics.registerGauge("telemetry_buffered_events", telemetryRegistry::getBufferedEvents);
+      metrics.registerGauge("telemetry_dropped_events", telemetryRegistry::getDroppedEvents);
+      metrics.registerGauge("telemetry_spilled_events", telemetryRegistry::getSpilledEvents);
+      metrics.registerGauge("telemetry_blocked_writes", telemetryRegistry::getBlockedWrites);
+      for (Map.Entry<String, ConnectionManager> entry : idToConnectionManager.entrySet()) {
+        metrics.registerConnection(entry.getKey(), entry.getValue());
+      }
+      metricsEndpoint =
+          new MetricsEndpoint(telemetryConfig.getMetricsEndpoint().getPort(), metrics);
+    }
+
+    // Start flight recording, if requested
+    final Recording recording =
+        outputFlightRecordingFile == null
+            ? null
+            : startFlightRecording(Paths.get(outputFlightRecordingFile));
+
     // Run experiment
     final BenchmarkRunnable experiment =
-        new LSTBenchmarkExecutor(idToConnectionManager, benchmarkConfig, telemetryRegistry);
-    experiment.execute();
+        new LSTBenchmarkExecutor(
+            idToConnectionManager, benchmarkConfig, telemetryRegistry, metrics);
+    try {
+      experiment.execute();
+    } finally {
+      if (metricsEndpoint != null) {
+        metricsEndpoint.close();
+      }
+      // Close pooled connections that are kept across phases and repetitions
+      for (ConnectionManager connectionManager : idToConnectionManager.values()) {
+        connectionManager.close();
+      }
+      // Write the remaining events before closing the telemetry connections, the hook is only
+      // needed if the driver exits before reaching this point
+      telemetryRegistry.close();
+      removeShutdownHook(telemetryHook);
+      telemetryConnectionManager.close();
+      if (recording != null) {
+        // Stopping the recording dumps it to its destination
+        recording.stop();
+        recording.close();
+        LOGGER.info("Flight recording written to: {}", outputFlightRecordingFile);
+      }
+    }
+  }
+
+  private static void removeShutdownHook(Thread hook) {
+    try {
+      Runtime.getRuntime().removeShutdownHook(hook);
+    } catch (IllegalStateException e) {
+      // The JVM is already shutting down
+    }
+  }
+
+  /**
+   * Starts a flight recording with the default JDK settings and the events of each execution level.
+   * The recording is written to the given file when it is stopped, or when the JVM shuts down
+   * before that.
+   */
+  private static Recording startFlightRecording(Path destination) throws Exception {
+    Recording recording = new Recording(Configuration.getConfiguration("default"));
+    recording.setName("lst-bench");
+    recording.setToDisk(true);
+    recording.setDestination(destination);
+    recording.setDumpOnExit(true);
+    recording.start();
+    LOGGER.info("Started flight recording to: {}", destination);
+    return recording;
   }
 
   private static Options createOptions() {
@@ -205,6 +279,18 @@ public class Driver {
             .build();
     options.addOption(inputTelemetryConfigFile);
 
+    final Option outputFlightRecordingFile =
+        Option.builder()
+            .option("r")
+            .longOpt(OPT_OUTPUT_FLIGHT_RECORDING_FILE)
+            .hasArg()
+            .argName("arg")
+            .desc(
+                "Path to output file where a JDK Flight Recorder recording of the run is written"
+                    + " (optional)")
+            .build();
+    options.addOption(outputFlightRecordingFile);
+
     return options;
   }
 
@@ -0,0 +1,186 @@
+/*
+ * Copyright (c) Microsoft Corporation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.microsoft.lst_bench.common;
+
+import com.microsoft.lst_bench.input.Phase;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Generates the arrival times of the tasks of a session in an open-loop phase.
+ *
+ * <p>The arrival rate is a piecewise linear function of the time since the start of the phase,
+ * defined by the initial rate and the stages in the profile. Arrivals are generated by time
+ * rescaling: the k-th arrival happens when the integral of the rate reaches k for a constant
+ * process, or the sum of k exponentially distributed variables with mean 1 for a Poisson process.
+ */
+public class ArrivalSchedule {
+
+  private final Phase.ArrivalProcess process;
+  private final List<Segment> segments;
+  private final Random random;
+  private final long startNanos;
+
+  // Position of the last arrival, in seconds since the start of the schedule
+  private int segmentIndex;
+  private double currentSeconds;
+
+  /**
+   * Creates an arrival schedule.
+   *
+   * @param arrival the arrival configuration
+   * @param sessionIndex the index of the session in the phase, used to derive its random seed
+   * @param startNanos the value of {@link System#nanoTime()} that arrivals are relative to
+   */
+  public ArrivalSchedule(Phase.Arrival arrival, int sessionIndex, long startNanos) {
+    validate(arrival);
+    this.process = arrival.getProcess();
+    this.segments = createSegments(arrival);
+    this.random =
+        arrival.getSeed() == null ? new Random() : new Random(arrival.getSeed() + sessionIndex);
+    this.startNanos = startNanos;
+    this.segmentIndex = 0;
+    this.currentSeconds = 0;
+  }
+
+  /** Returns the value of {@link System#nanoTime()} at which the next task arrives. */
+  public long nextArrivalNanos() {
+    double area;
+    switch (process) {
+      case CONSTANT:
+        area = 1;
+        break;
+      case POISSON:
+        area = -Math.log(1 - random.nextDouble());
+        break;
+      default:
+        throw new IllegalStateException("Unknown arrival process: " + process);
+    }
+    advance(area);
+    return startNanos + (long) (currentSeconds * 1_000_000_000L);
+  }
+
+  /** Moves the current position forward until the integral of the rate equals the given area. */
+  private void advance(double area) {
+    for (; ; ) {
+      Segment segment = segments.get(segmentIndex);
+      double startRate = segment.rateAt(currentSeconds);
+      double length = segment.endSeconds - currentSeconds;
+      double segmentArea = (startRate + segment.endRate) / 2 * length;
+      if (area <= segmentArea) {
+        // Solve slope / 2 * x^2 + startRate * x = area
+        double slope = segment.getSlope();
+        double x;
+        if (slope == 0) {
+          x = area / startRate;
+        } else {
+          x = (-startRate + Math.sqrt(startRate * startRate + 2 * slope * area)) / slope;
+        }
+        currentSeconds += x;
+        return;
+      }
+      area -= segmentArea;
+      currentSeconds = segment.endSeconds;
+      segmentIndex++;
+    }
+  }
+
+  private static List<Segment> createSegments(Phase.Arrival arrival) {
+    List<Segment> segments = new ArrayList<>();
+    double level = arrival.getRate();
+    double seconds = 0;
+    if (arrival.getProfile() != null) {
+      for (Phase.ArrivalStage stage : arrival.getProfile()) {
+        double endSeconds = seconds + stage.getDurationSeconds();
+        switch (stage.getShape()) {
+          case STEP:
+            segments.add(new Segment(seconds, endSeconds, stage.getRate(), stage.getRate()));
+            level = stage.getRate();
+            break;
+          case RAMP:
+            segments.add(new Segment(seconds, endSeconds, level, stage.getRate()));
+            level = stage.getRate();
+            break;
+          case SPIKE:
+            segments.add(new Segment(seconds, endSeconds, stage.getRate(), stage.getRate()));
+            break;
+          default:
+            throw new IllegalStateException("Unknown stage shape: " + stage.getShape());
+        }
+        seconds = endSeconds;
+      }
+    }
+    // The last rate is kept after the profile ends
+    segments.add(new Segment(seconds, Double.POSITIVE_INFINITY, level, level));
+    return segments;
+  }
+
+  /**
+   * Validates an arrival configuration.
+   *
+   * @throws IllegalArgumentException if the configuration is invalid
+   */
+  public static void validate(Phase.Arrival arrival) {
+    if (arrival.getRate() < 0) {
+      throw new IllegalArgumentException("Arrival rate cannot be negative");
+    }
+    double level = arrival.getRate();
+    if (arrival.getProfile() != null) {
+      for (Phase.ArrivalStage stage : arrival.getProfile()) {
+        if (stage.getDurationSeconds() <= 0) {
+          throw new IllegalArgumentException("Arrival stage duration must be positive");
+        }
+        if (stage.getRate() < 0) {
+          throw new IllegalArgumentException("Arrival stage rate cannot be negative");
+        }
+        if (stage.getShape() != Phase.StageShape.SPIKE) {
+          level = stage.getRate();
+        }
+      }
+    }
+    if (level <= 0) {
+      throw new IllegalArgumentException(
+          "Arrival rate must be positive after the profile ends, otherwise tasks never arrive");
+    }
+  }
+
+  /** A time interval where the rate changes linearly. */
+  private static class Segment {
+    private final double startSeconds;
+    private final double endSeconds;
+    private final double startRate;
+    private final double endRate;
+
+    private Segment(double startSeconds, double endSeconds, double startRate, double endRate) {
+      this.startSeconds = startSeconds;
+      this.endSeconds = endSeconds;
+      this.startRate = startRate;
+      this.endRate = endRate;
+    }
+
+    private double getSlope() {
+      if (startRate == endRate) {
+        return 0;
+      }
+      return (endRate - startRate) / (endSeconds - startSeconds);
+    }
+
+    private double rateAt(double seconds) {
+      return startRate + getSlope() * (seconds - startSeconds);
+    }
+  }
+}
@@ -25,21 +25,29 @@ import com.microsoft.lst_bench.exec.SessionExec;
 import com.microsoft.lst_bench.exec.TaskExec;
 import com.microsoft.lst_bench.exec.WorkloadExec;
 import com.microsoft.lst_bench.input.Phase;
+import com.microsoft.lst_bench.input.RetryPolicy;
 import com.microsoft.lst_bench.input.Session;
 import com.microsoft.lst_bench.input.Task;
 import com.microsoft.lst_bench.input.TaskLibrary;
 import com.microsoft.lst_bench.input.TaskTemplate;
 import com.microsoft.lst_bench.input.Workload;
 import com.microsoft.lst_bench.input.config.ExperimentConfig;
-import com.microsoft.lst_bench.sql.SQLParser;
-import com.microsoft.lst_bench.util.FileParser;
+import com.microsoft.lst_bench.input.config.ExperimentConfig.ExecutorMode;
+import com.microsoft.lst_bench.input.config.ExperimentConfig.RoutingStrategy;
+import com.microsoft.lst_bench.input.config.ExperimentConfig.TimingMode;
+import com.microsoft.lst_bench.sql.DefaultSQLExceptionClassifier;
+import com.microsoft.lst_bench.sql.SQLExceptionClassifier;
 import com.microsoft.lst_bench.util.StringUtils;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Pattern;
 import java.util.stream.Collectors;
+import javax.annotation.Nullable;
 
 /** A benchmark configuration. */
 public class BenchmarkConfig {
@@ -48,13 +56,63 @@ public class BenchmarkConfig {
   private final int repetitions;
   private final Map<String, String> metadata;
   private final WorkloadExec workload;
+  private final RoutingStrategy connectionRouting;
+  private final ExecutorMode executorMode;
+  private final TimingMode timingMode;
+  @Nullable private final Long statementTimeoutSeconds;
+  @Nullable private final Long taskTimeoutSeconds;
+  private final boolean failFast;
+  private final boolean latencyHistograms;
+  private final boolean latencyBreakdown;
+  private final SQLExceptionClassifier exceptionClassifier;
+
+  // Used to create the tasks of new cycles in duration-bounded phases
+  private final Map<String, Phase> idToPhase;
+  private final Map<String, TaskTemplate> idToTaskTemplate;
+  private final ExperimentConfig experimentConfig;
+  private final TaskFileCache fileCache;
+  private final Map<String, AtomicInteger> taskTemplateIdToPermuteOrderCounter;
+  private final Map<String, AtomicInteger> taskTemplateIdToParameterValuesCounter;
 
   private BenchmarkConfig(
-      String id, int repetitions, Map<String, String> metadata, WorkloadExec workload) {
+      String id,
+      int repetitions,
+      Map<String, String> metadata,
+      WorkloadExec workload,
+      RoutingStrategy connectionRouting,
+      ExecutorMode executorMode,
+      TimingMode timingMode,
+      @Nullable Long statementTimeoutSeconds,
+      @Nullable Long taskTimeoutSeconds,
+      boolean failFast,
+      boolean latencyHistograms,
+      boolean latencyBreakdown,
+      SQLExceptionClassifier exceptionClassifier,
+      Map<String, Phase> idToPhase,
+      Map<String, TaskTemplate> idToTaskTemplate,
+      ExperimentConfig experimentConfig,
+      TaskFileCache fileCache,
+      Map<String, AtomicInteger> taskTemplateIdToPermuteOrderCounter,
+      Map<String, AtomicInteger> taskTemplateIdToParameterValuesCounter) {
     this.id = id;
     this.repetitions = repetitions;
     this.metadata = Collections.unmodifiableMap(metadata);
     this.workload = workload;
+    this.connectionRouting = connectionRouting;
+    this.executorMode = executorMode;
+    this.timingMode = timingMode;
+    this.statementTimeoutSeconds = statementTimeoutSeconds;
+    this.taskTimeoutSeconds = taskTimeoutSeconds;
+    this.failFast = failFast;
+    this.latencyHistograms = latencyHistograms;
+    this.latencyBreakdown = latencyBreakdown;
+    this.exceptionClassifier = exceptionClassifier;
+    this.idToPhase = idToPhase;
+    this.idToTaskTemplate = idToTaskTemplate;
+    this.experimentConfig = experimentConfig;
+    this.fileCache = fileCache;
+    this.taskTemplateIdToPermuteOrderCounter = taskTemplateIdToPermuteOrderCounter;
+    this.taskTemplateIdToParameterValuesCounter = taskTemplateIdToParameterValuesCounter;
   }
 
   public String getId() {
@@ -73,6 +131,75 @@ public class BenchmarkConfig {
     return workload;
   }
 
+  public RoutingStrategy getConnectionRouting() {
+    return connectionRouting;
+  }
+
+  public ExecutorMode getExecutorMode() {
+    return executorMode;
+  }
+
+  public TimingMode getTimingMode() {
+    return timingMode;
+  }
+
+  /** Returns the statement timeout, or null if statements do not time out. */
+  @Nullable public Long getStatementTimeoutSeconds() {
+    return statementTimeoutSeconds;
+  }
+
+  /** Returns the task timeout, or null if tasks do not time out. */
+  @Nullable public Long getTaskTimeoutSeconds() {
+    return taskTimeoutSeconds;
+  }
+
+  public boolean isFailFast() {
+    return failFast;
+  }
+
+  public boolean isLatencyHistograms() {
+    return latencyHistograms;
+  }
+
+  public boolean isLatencyBreakdown() {
+    return latencyBreakdown;
+  }
+
+  public SQLExceptionClassifier getExceptionClassifier() {
+    return exceptionClassifier;
+  }
+
+  /**
+   * Creates the tasks for a new cycle of a session in a duration-bounded phase. Each cycle draws
+   * the next permutation orders and parameter values from the task templates, wrapping around when
+   * all of them have been used. The files of the task templates are not read again, since they are
+   * cached when the configuration is loaded, and sessions only share the counters of the templates,
+   * so this can be called concurrently without blocking.
+   *
+   * @param phaseId the identifier of the phase
+   * @param sessionIndex the index of the session in the phase
+   * @return the tasks for the new cycle
+   */
+  public List<TaskExec> createSessionCycleTasks(String phaseId, int sessionIndex) {
+    Session session = idToPhase.get(phaseId).getSessions().get(sessionIndex);
+    List<TaskExec> tasks = new ArrayList<>();
+    for (int j = 0; j < session.getTasks().size(); j++) {
+      Task task = session.getTasks().get(j);
+      String taskId = task.getTemplateId() + "_" + j;
+      tasks.add(
+          createTaskExec(
+              taskId,
+              task,
+              idToTaskTemplate,
+              experimentConfig,
+              fileCache,
+              taskTemplateIdToPermuteOrderCounter,
+              taskTemplateIdToParameterValuesCounter,
+              true));
+    }
+    return tasks;
+  }
+
   /**
    * Creates a benchmark configuration from the experiment configuration, task library, and
    * workload.
@@ -84,14 +211,70 @@ public class BenchmarkConfig {
    */
   public static BenchmarkConfig from(
       ExperimentConfig experimentConfig, TaskLibrary taskLibrary, Workload workload) {
+    validateTimeout("Statement", experimentConfig.getStatementTimeoutSeconds());
+    validateTimeout("Task", experimentConfig.getTaskTimeoutSeconds());
     Map<String, TaskTemplate> idToTaskTemplate = parseTaskLibrary(taskLibrary);
+    TaskFileCache fileCache = new TaskFileCache();
+    Map<String, AtomicInteger> taskTemplateIdToPermuteOrderCounter = new ConcurrentHashMap<>();
+    Map<String, AtomicInteger> taskTemplateIdToParameterValuesCounter = new ConcurrentHashMap<>();
     ImmutableWorkloadExec workloadExec =
-        createWorkloadExec(workload, idToTaskTemplate, experimentConfig);
+        createWorkloadExec(
+            workload,
+            idToTaskTemplate,
+            experimentConfig,
+            fileCache,
+            taskTemplateIdToPermuteOrderCounter,
+            taskTemplateIdToParameterValuesCounter);
+    Map<String, Phase> idToPhase = new HashMap<>();
+    for (Phase phase : workload.getPhases()) {
+      idToPhase.put(phase.getId(), phase);
+    }
     return new BenchmarkConfig(
         experimentConfig.getId(),
         experimentConfig.getRepetitions(),
         experimentConfig.getMetadata(),
-        workloadExec);
+        workloadExec,
+        experimentConfig.getConnectionRouting() == null
+            ? RoutingStrategy.ROUND_ROBIN
+            : experimentConfig.getConnectionRouting(),
+        experimentConfig.getExecutorMode() == null
+            ? ExecutorMode.PLATFORM
+            : experimentConfig.getExecutorMode(),
+        experimentConfig.getTimingMode() == null
+            ? TimingMode.WALL_CLOCK
+            : experimentConfig.getTimingMode(),
+        experimentConfig.getStatementTimeoutSeconds(),
+        experimentConfig.getTaskTimeoutSeconds(),
+        Boolean.TRUE.equals(experimentConfig.isFailFast()),
+        Boolean.TRUE.equals(experimentConfig.isLatencyHistograms()),
+        Boolean.TRUE.equals(experimentConfig.isLatencyBreakdown()),
+        createExceptionClassifier(experimentConfig.getExceptionClassifier()),
+        idToPhase,
+        idToTaskTemplate,
+        experimentConfig,
+        fileCache,
+        taskTemplateIdToPermuteOrderCounter,
+        taskTemplateIdToParameterValuesCounter);
+  }
+
+  private static SQLExceptionClassifier createExceptionClassifier(@Nullable String className) {
+    if (className == null) {
+      return new DefaultSQLExceptionClassifier();
+    }
+    try {
+      return Class.forName(className)
+          .asSubclass(SQLExceptionClassifier.class)
+          .getDeclaredConstructor()
+          .newInstance();
+    } catch (ReflectiveOperationException | ClassCastException e) {
+      throw new IllegalArgumentException("Unable to create exception classifier: " + className, e);
+    }
+  }
+
+  private static void validateTimeout(String name, @Nullable Long timeoutSeconds) {
+    if (timeoutSeconds != null && timeoutSeconds <= 0) {
+      throw new IllegalArgumentException(name + " timeout must be positive");
+    }
   }
 
   /**
@@ -118,22 +301,36 @@ public class BenchmarkConfig {
    * @param workload the workload to execute
    * @param idToTaskTemplate a map of task templates with unique IDs
    * @param experimentConfig the experiment configuration
+   * @param taskTemplateIdToPermuteOrderCounter counters of permutation orders used per template
+   * @param taskTemplateIdToParameterValuesCounter counters of parameter values used per template
    * @return a workload execution
    * @throws IllegalArgumentException if the workload contains an invalid task template ID
    */
   private static ImmutableWorkloadExec createWorkloadExec(
       Workload workload,
       Map<String, TaskTemplate> idToTaskTemplate,
-      ExperimentConfig experimentConfig) {
-    Map<String, Integer> taskTemplateIdToPermuteOrderCounter = new HashMap<>();
-    Map<String, Integer> taskTemplateIdToParameterValuesCounter = new HashMap<>();
+      ExperimentConfig experimentConfig,
+      TaskFileCache fileCache,
+      Map<String, AtomicInteger> taskTemplateIdToPermuteOrderCounter,
+      Map<String, AtomicInteger> taskTemplateIdToParameterValuesCounter) {
     List<PhaseExec> phases = new ArrayList<>();
     for (Phase phase : workload.getPhases()) {
+      List<String> dependsOn;
+      if (phase.getDependsOn() != null) {
+        dependsOn = phase.getDependsOn();
+      } else if (phases.isEmpty()) {
+        dependsOn = Collections.emptyList();
+      } else {
+        // By default, phases run in the order they are declared
+        dependsOn = Collections.singletonList(phases.get(phases.size() - 1).getId());
+      }
       PhaseExec phaseExec =
           createPhaseExec(
               phase,
+              dependsOn,
               idToTaskTemplate,
               experimentConfig,
+              fileCache,
               taskTemplateIdToPermuteOrderCounter,
               taskTemplateIdToParameterValuesCounter);
       phases.add(phaseExec);
@@ -143,34 +340,55 @@ public class BenchmarkConfig {
 
   private static PhaseExec createPhaseExec(
       Phase phase,
+      List<String> dependsOn,
       Map<String, TaskTemplate> idToTaskTemplate,
       ExperimentConfig experimentConfig,
-      Map<String, Integer> taskTemplateIdToPermuteOrderCounter,
-      Map<String, Integer> taskTemplateIdToParameterValuesCounter) {
+      TaskFileCache fileCache,
+      Map<String, AtomicInteger> taskTemplateIdToPermuteOrderCounter,
+      Map<String, AtomicInteger> taskTemplateIdToParameterValuesCounter) {
+    if (phase.getArrival() != null) {
+      ArrivalSchedule.validate(phase.getArrival());
+    }
+    if (phase.getDurationSeconds() != null && phase.getDurationSeconds() <= 0) {
+      throw new IllegalArgumentException(
+          "Duration of phase " + phase.getId() + " must be positive");
+    }
     List<SessionExec> sessions = new ArrayList<>();
     for (int i = 0; i < phase.getSessions().size(); i++) {
       Session session = phase.getSessions().get(i);
       String sessionId = String.valueOf(i);
+      // The endpoint set for a session takes precedence over the one set for its phase
+      String targetEndpoint =
+          session.getTargetEndpoint() != null
+              ? session.getTargetEndpoint()
+              : phase.getTargetEndpoint();
       SessionExec sessionExec =
           createSessionExec(
               sessionId,
               session,
+              targetEndpoint,
               idToTaskTemplate,
               experimentConfig,
+              fileCache,
               taskTemplateIdToPermuteOrderCounter,
               taskTemplateIdToParameterValuesCounter);
       sessions.add(sessionExec);
     }
-    return ImmutablePhaseExec.of(phase.getId(), sessions);
+    return ImmutablePhaseExec.of(phase.getId(), sessions)
+        .withDependsOn(dependsOn)
+        .withArrival(phase.getArrival())
+        .withDurationSeconds(phase.getDurationSeconds());
   }
 
   private static SessionExec createSessionExec(
       String sessionId,
       Session session,
+      String targetEndpoint,
       Map<String, TaskTemplate> idToTaskTemplate,
       ExperimentConfig experimentConfig,
-      Map<String, Integer> taskTemplateIdToPermuteOrderCounter,
-      Map<String, Integer> taskTemplateIdToParameterValuesCounter) {
+      TaskFileCache fileCache,
+      Map<String, AtomicInteger> taskTemplateIdToPermuteOrderCounter,
+      Map<String, AtomicInteger> taskTemplateIdToParameterValuesCounter) {
     List<TaskExec> tasks = new ArrayList<>();
     for (int j = 0; j < session.getTasks().size(); j++) {
       Task task = session.getTasks().get(j);
@@ -181,11 +399,13 @@ public class BenchmarkConfig {
               task,
               idToTaskTemplate,
               experimentConfig,
+              fileCache,
               taskTemplateIdToPermuteOrderCounter,
-              taskTemplateIdToParameterValuesCounter);
+              taskTemplateIdToParameterValuesCounter,
+              false);
       tasks.add(taskExec);
     }
-    return ImmutableSessionExec.of(sessionId, tasks);
+    return ImmutableSessionExec.of(sessionId, tasks).withTargetEndpoint(targetEndpoint);
   }
 
   private static TaskExec createTaskExec(
@@ -193,8 +413,10 @@ public class BenchmarkConfig {
       Task task,
       Map<String, TaskTemplate> idToTaskTemplate,
       ExperimentConfig experimentConfig,
-      Map<String, Integer> taskTemplateIdToPermuteOrderCounter,
-      Map<String, Integer> taskTemplateIdToParameterValuesCounter) {
+      TaskFileCache fileCache,
+      Map<String, AtomicInteger> taskTemplateIdToPermuteOrderCounter,
+      Map<String, AtomicInteger> taskTemplateIdToParameterValuesCounter,
+      boolean wrapAround) {
     TaskTemplate taskTemplate = idToTaskTemplate.get(task.getTemplateId());
     if (taskTemplate == null) {
       throw new IllegalArgumentException("Unknown task template id: " + task.getTemplateId());
@@ -204,33 +426,111 @@ public class BenchmarkConfig {
             taskTemplate,
             task,
             experimentConfig,
+            fileCache,
             taskTemplateIdToPermuteOrderCounter,
-            taskTemplateIdToParameterValuesCounter);
-    return ImmutableTaskExec.of(taskId, files).withTimeTravelPhaseId(task.getTimeTravelPhaseId());
+            taskTemplateIdToParameterValuesCounter,
+            wrapAround);
+    // The retry policy of the task takes precedence over the one of the template
+    RetryPolicy retryPolicy = task.getRetry() != null ? task.getRetry() : taskTemplate.getRetry();
+    if (retryPolicy != null) {
+      RetryBackoff.validate(retryPolicy);
+    }
+    return ImmutableTaskExec.of(taskId, files)
+        .withTimeTravelPhaseId(task.getTimeTravelPhaseId())
+        .withRetryPolicy(retryPolicy)
+        .withFileParallelism(taskTemplate.getFileParallelism())
+        .withFetchSize(validateFetchSize(taskTemplate.getFetchSize(), taskTemplate.getId()))
+        .withResultConsumption(taskTemplate.getResultConsumption())
+        .withIsPrepared(taskTemplate.getBindParameters() != null)
+        .withBatchSize(validateBatchSize(taskTemplate))
+        .withFileGroups(createFileGroups(taskTemplate, files));
+  }
+
+  @Nullable private static Integer validateBatchSize(TaskTemplate taskTemplate) {
+    if (taskTemplate.getBatchSize() == null) {
+      return null;
+    }
+    if (taskTemplate.getBatchSize() <= 0) {
+      throw new IllegalArgumentException(
+          "Batch size of task template " + taskTemplate.getId() + " must be positive");
+    }
+    if (taskTemplate.getBindParameters() != null) {
+      throw new IllegalArgumentException(
+          "Task template "
+              + taskTemplate.getId()
+              + " cannot specify both a batch size and bind parameters");
+    }
+    return taskTemplate.getBatchSize();
+  }
+
+  @Nullable private static Integer validateFetchSize(@Nullable Integer fetchSize, String id) {
+    if (fetchSize != null && fetchSize < 0) {
+      throw new IllegalArgumentException("Fetch size of " + id + " cannot be negative");
+    }
+    return fetchSize;
+  }
+
+  private static List<Integer> createFileGroups(TaskTemplate taskTemplate, List<FileExec> files) {
+    if (taskTemplate.getFileParallelism() != null && taskTemplate.getFileParallelism() <= 0) {
+      throw new IllegalArgumentException(
+          "File parallelism of task template " + taskTemplate.getId() + " must be positive");
+    }
+    if (taskTemplate.getFileGroups() == null) {
+      return Collections.emptyList();
+    }
+    List<Pattern> patterns =
+        taskTemplate.getFileGroups().stream().map(Pattern::compile).collect(Collectors.toList());
+    List<Integer> fileGroups = new ArrayList<>();
+    for (FileExec file : files) {
+      int group = 0;
+      while (group < patterns.size() && !patterns.get(group).matcher(file.getId()).matches()) {
+        group++;
+      }
+      if (group == patterns.size()) {
+        throw new IllegalArgumentException(
+            "File "
+                + file.getId()
+                + " does not match any file group of task template "
+                + taskTemplate.getId());
+      }
+      fileGroups.add(group);
+    }
+    return fileGroups;
   }
 
   private static List<FileExec> createFileExecList(
       TaskTemplate taskTemplate,
       Task task,
       ExperimentConfig experimentConfig,
-      Map<String, Integer> taskTemplateIdToPermuteOrderCounter,
-      Map<String, Integer> taskTemplateIdToParameterValuesCounter) {
+      TaskFileCache fileCache,
+      Map<String, AtomicInteger> taskTemplateIdToPermuteOrderCounter,
+      Map<String, AtomicInteger> taskTemplateIdToParameterValuesCounter,
+      boolean wrapAround) {
     List<FileExec> files = new ArrayList<>();
     for (String file : taskTemplate.getFiles()) {
-      files.add(SQLParser.getStatements(file));
+      files.add(fileCache.getStatements(file));
     }
-    files = applyPermutationOrder(taskTemplate, task, taskTemplateIdToPermuteOrderCounter, files);
+    files =
+        applyPermutationOrder(
+            taskTemplate, task, fileCache, taskTemplateIdToPermuteOrderCounter, wrapAround, files);
     files = applyReplaceRegex(task, files);
     files =
         applyParameterValues(
-            taskTemplate, experimentConfig, taskTemplateIdToParameterValuesCounter, files);
+            taskTemplate,
+            experimentConfig,
+            fileCache,
+            taskTemplateIdToParameterValuesCounter,
+            wrapAround,
+            files);
     return files;
   }
 
   private static List<FileExec> applyPermutationOrder(
       TaskTemplate taskTemplate,
       Task task,
-      Map<String, Integer> taskTemplateIdToPermuteOrderCounter,
+      TaskFileCache fileCache,
+      Map<String, AtomicInteger> taskTemplateIdToPermuteOrderCounter,
+      boolean wrapAround,
       List<FileExec> files) {
     if (taskTemplate.getPermutationOrdersDirectory() == null) {
       // Create statements with certain order
@@ -243,13 +543,20 @@ public class BenchmarkConfig {
     int counter;
     if (Boolean.TRUE.equals(task.isPermuteOrder())) {
       counter =
-          taskTemplateIdToPermuteOrderCounter.compute(
-              taskTemplate.getId(), (k, v) -> v == null ? 1 : v + 1);
+          taskTemplateIdToPermuteOrderCounter
+              .computeIfAbsent(taskTemplate.getId(), k -> new AtomicInteger())
+              .incrementAndGet();
+      if (wrapAround) {
+        // Order 0 is the default one, permutations start at 1
+        int count =
+            fileCache.getPermutationOrderCount(taskTemplate.getPermutationOrdersDirectory());
+        counter = count > 1 ? (counter - 1) % (count - 1) + 1 : 0;
+      }
     } else {
       counter = 0;
     }
     List<String> permutationOrder =
-        FileParser.getPermutationOrder(taskTemplate.getPermutationOrdersDirectory(), counter);
+        fileCache.getPermutationOrder(taskTemplate.getPermutationOrdersDirectory(), counter);
     List<FileExec> sortedFiles = new ArrayList<>();
     for (String fileId : permutationOrder) {
       sortedFiles.add(idToFile.get(fileId));
@@ -275,22 +582,39 @@ public class BenchmarkConfig {
   private static List<FileExec> applyParameterValues(
       TaskTemplate taskTemplate,
       ExperimentConfig experimentConfig,
-      Map<String, Integer> taskTemplateIdToParameterValuesCounter,
+      TaskFileCache fileCache,
+      Map<String, AtomicInteger> taskTemplateIdToParameterValuesCounter,
+      boolean wrapAround,
       List<FileExec> files) {
     Map<String, Object> parameterValues = new HashMap<>();
     if (taskTemplate.getParameterValuesFile() != null) {
       // Include parameter values defined in the task template
+      int counter =
+          taskTemplateIdToParameterValuesCounter
+              .computeIfAbsent(taskTemplate.getId(), k -> new AtomicInteger())
+              .incrementAndGet();
+      if (wrapAround) {
+        int count = fileCache.getParameterValuesCount(taskTemplate.getParameterValuesFile());
+        counter = count > 0 ? (counter - 1) % count + 1 : counter;
+      }
       parameterValues.putAll(
-          FileParser.getParameterValues(
-              taskTemplate.getParameterValuesFile(),
-              taskTemplateIdToParameterValuesCounter.compute(
-                  taskTemplate.getId(), (k, v) -> v == null ? 1 : v + 1)));
+          fileCache.getParameterValues(taskTemplate.getParameterValuesFile(), counter));
     }
     if (experimentConfig.getParameterValues() != null) {
       // Include experiment-specific parameter values (they can override the ones defined in
       // the task template)
       parameterValues.putAll(experimentConfig.getParameterValues());
     }
+    if (taskTemplate.getBindParameters() != null) {
+      // Bind parameters are set on the prepared statements instead of replaced in the text
+      files =
+          files.stream()
+              .map(
+                  f ->
+                      StringUtils.bindParameters(
+                          f, parameterValues, taskTemplate.getBindParameters()))
+              .collect(Collectors.toList());
+    }
     return files.stream()
         .map(f -> StringUtils.replaceParameters(f, parameterValues))
         .collect(Collectors.toList());
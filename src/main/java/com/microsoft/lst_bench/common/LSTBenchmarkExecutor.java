@@ -15,38 +15,81 @@
  */
 package com.microsoft.lst_bench.common;
 
+import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.microsoft.lst_bench.exec.FileExec;
 import com.microsoft.lst_bench.exec.PhaseExec;
 import com.microsoft.lst_bench.exec.SessionExec;
 import com.microsoft.lst_bench.exec.StatementExec;
 import com.microsoft.lst_bench.exec.TaskExec;
-import com.microsoft.lst_bench.exec.WorkloadExec;
+import com.microsoft.lst_bench.input.RetryPolicy;
+import com.microsoft.lst_bench.input.TaskTemplate.ResultConsumption;
+import com.microsoft.lst_bench.input.config.ExperimentConfig.TimingMode;
 import com.microsoft.lst_bench.sql.ConnectionManager;
+import com.microsoft.lst_bench.sql.ConnectionRouter;
+import com.microsoft.lst_bench.sql.PooledConnection;
+import com.microsoft.lst_bench.sql.PreparedStatementCache;
+import com.microsoft.lst_bench.sql.ResultSetConsumer;
+import com.microsoft.lst_bench.sql.SQLExceptionClassifier;
+import com.microsoft.lst_bench.sql.SQLExceptionClassifier.Category;
+import com.microsoft.lst_bench.sql.StatementWatchdog;
 import com.microsoft.lst_bench.telemetry.EventInfo;
 import com.microsoft.lst_bench.telemetry.EventInfo.EventType;
 import com.microsoft.lst_bench.telemetry.EventInfo.Status;
 import com.microsoft.lst_bench.telemetry.ImmutableEventInfo;
 import com.microsoft.lst_bench.telemetry.JDBCTelemetryRegistry;
+import com.microsoft.lst_bench.telemetry.LatencyHistograms;
+import com.microsoft.lst_bench.telemetry.LiveMetrics;
+import com.microsoft.lst_bench.telemetry.MonotonicClock;
+import com.microsoft.lst_bench.telemetry.PayloadBuilder;
+import com.microsoft.lst_bench.telemetry.SpanContext;
+import com.microsoft.lst_bench.telemetry.StatementEventBuffer;
+import com.microsoft.lst_bench.telemetry.jfr.ExperimentEvent;
+import com.microsoft.lst_bench.telemetry.jfr.FileEvent;
+import com.microsoft.lst_bench.telemetry.jfr.PhaseEvent;
+import com.microsoft.lst_bench.telemetry.jfr.SessionEvent;
+import com.microsoft.lst_bench.telemetry.jfr.StatementEvent;
+import com.microsoft.lst_bench.telemetry.jfr.TaskEvent;
 import com.microsoft.lst_bench.util.DateTimeFormatter;
 import com.microsoft.lst_bench.util.StringUtils;
-import java.sql.Connection;
+import java.sql.BatchUpdateException;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.SQLTimeoutException;
 import java.sql.Statement;
 import java.time.Instant;
 import java.time.temporal.ChronoUnit;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import javax.annotation.Nullable;
 import org.apache.commons.lang3.Validate;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -55,97 +98,154 @@ import org.slf4j.LoggerFactory;
 public class LSTBenchmarkExecutor extends BenchmarkRunnable {
   private static final Logger LOGGER = LoggerFactory.getLogger(LSTBenchmarkExecutor.class);
 
-  private final Map<String, ConnectionManager> idToConnectionManager;
+  private static final ObjectMapper MAPPER = new ObjectMapper();
+
+  private static final long NANOS_PER_MILLI = TimeUnit.MILLISECONDS.toNanos(1);
+  private static final long NANOS_PER_SECOND = TimeUnit.SECONDS.toNanos(1);
+
+  private static final int STATEMENT_EVENT_BUFFER_CAPACITY = 1_024;
+  // Time a session waits for each additional connection to run files in parallel
+  private static final long ADDITIONAL_CONNECTION_TIMEOUT_SECONDS = 10;
+
+  private final ConnectionRouter connectionRouter;
+  private final PhaseGraph phaseGraph;
+  private final StatementWatchdog statementWatchdog;
   private final BenchmarkConfig config;
   private final JDBCTelemetryRegistry telemetryRegistry;
+  @Nullable private final LiveMetrics metrics;
+  // Clock of the current repetition in monotonic mode, or null if events use the system clock
+  @Nullable private volatile MonotonicClock clock;
 
   public LSTBenchmarkExecutor(
       Map<String, ConnectionManager> idToConnectionManager,
       BenchmarkConfig config,
       JDBCTelemetryRegistry telemetryRegistry) {
+    this(idToConnectionManager, config, telemetryRegistry, null);
+  }
+
+  public LSTBenchmarkExecutor(
+      Map<String, ConnectionManager> idToConnectionManager,
+      BenchmarkConfig config,
+      JDBCTelemetryRegistry telemetryRegistry,
+      @Nullable LiveMetrics metrics) {
     super();
-    this.idToConnectionManager = Collections.unmodifiableMap(idToConnectionManager);
+    this.connectionRouter =
+        new ConnectionRouter(idToConnectionManager, config.getConnectionRouting());
+    this.phaseGraph = new PhaseGraph(config.getWorkload().getPhases());
+    this.statementWatchdog = new StatementWatchdog();
     this.config = config;
     this.telemetryRegistry = telemetryRegistry;
+    this.metrics = metrics;
+    for (PhaseExec phase : config.getWorkload().getPhases()) {
+      connectionRouter.validate(phase);
+    }
   }
 
   /** This method runs the experiment. */
   public void execute() throws Exception {
     LOGGER.info("Running experiment: {}", config.getId());
 
-    final WorkloadExec workload = config.getWorkload();
     final String experimentStartTimeStr = DateTimeFormatter.U_FORMATTER.format(Instant.now());
     LOGGER.info("Experiment start time: {}", experimentStartTimeStr);
 
     for (int i = 0; i < config.getRepetitions(); i++) {
       LOGGER.info("Starting repetition: {}", i);
-      final Instant repetitionStartTime = Instant.now();
+      // Every event of the repetition is timed from the same base in monotonic mode
+      clock = config.getTimingMode() == TimingMode.MONOTONIC ? new MonotonicClock() : null;
+      final Instant repetitionStartTime = now();
+      // Each repetition is a trace, with the experiment event as its root span
+      final SpanContext experimentSpan = SpanContext.root();
+      final ExperimentEvent experimentJfrEvent = new ExperimentEvent(i);
+      experimentJfrEvent.begin();
       Map<String, Object> experimentMetadata = new HashMap<>(config.getMetadata());
+      final LatencyHistograms repetitionHistograms =
+          config.isLatencyHistograms() ? new LatencyHistograms(null) : null;
+      ExecutorService executor = null;
+      ExecutorService phaseExecutor = null;
       try {
         // Thread pool size to max number of concurrent sessions
-        int maxConcurrentSessions = 1;
-        for (PhaseExec phase : workload.getPhases()) {
-          if (phase.getSessions().size() > maxConcurrentSessions) {
-            maxConcurrentSessions = phase.getSessions().size();
-          }
-        }
-        final ExecutorService executor = Executors.newFixedThreadPool(maxConcurrentSessions);
+        executor =
+            SessionExecutors.create(
+                config.getExecutorMode(), phaseGraph.getMaxConcurrentSessions());
+        // Phases only wait for other phases, so they run on their own threads
+        phaseExecutor = Executors.newCachedThreadPool();
         // Fill in specific runtime parameter values
         Map<String, Object> runtimeParameterValues = new HashMap<>();
         runtimeParameterValues.put("repetition", i);
         runtimeParameterValues.put("experiment_start_time", experimentStartTimeStr);
         experimentMetadata.putAll(runtimeParameterValues);
-        // Go over phases and execute
-        Map<String, Instant> phaseIdToEndTime = new HashMap<>();
-        for (PhaseExec phase : workload.getPhases()) {
-          LOGGER.info("Running " + phase.getId() + " phase...");
-          final Instant phaseStartTime = Instant.now();
-          EventInfo eventInfo;
-          try {
-            final List<Worker> threads = new ArrayList<>();
-            for (SessionExec session : phase.getSessions()) {
-              threads.add(
-                  new Worker(
-                      // TODO: Multiple connections
-                      idToConnectionManager.values().iterator().next(),
-                      session,
-                      runtimeParameterValues,
-                      phaseIdToEndTime));
-            }
-            checkResults(executor.invokeAll(threads));
-            eventInfo = writePhaseEvent(phaseStartTime, phase.getId(), Status.SUCCESS);
-          } catch (Exception e) {
-            LOGGER.error("Exception executing phase: " + phase.getId());
-            writePhaseEvent(phaseStartTime, phase.getId(), Status.FAILURE);
-            throw e;
-          } finally {
-            telemetryRegistry.flush();
-          }
-          LOGGER.info(
-              "Phase {} finished in {} seconds.",
-              phase.getId(),
-              ChronoUnit.SECONDS.between(phaseStartTime, eventInfo.getEndTime()));
-          phaseIdToEndTime.put(phase.getId(), eventInfo.getEndTime());
+        // Schedule phases as soon as the phases they depend on complete
+        Map<String, Instant> phaseIdToEndTime = new ConcurrentHashMap<>();
+        Map<String, CompletableFuture<Void>> phaseIdToFuture = new HashMap<>();
+        CompletableFuture<Void> failure = new CompletableFuture<>();
+        for (PhaseExec phase : phaseGraph.getPhases()) {
+          final ExecutorService sessionExecutor = executor;
+          CompletableFuture<Void> future =
+              CompletableFuture.allOf(
+                      phase.getDependsOn().stream()
+                          .map(phaseIdToFuture::get)
+                          .toArray(CompletableFuture[]::new))
+                  .thenRunAsync(
+                      () -> {
+                        try {
+                          executePhase(
+                              phase,
+                              sessionExecutor,
+                              runtimeParameterValues,
+                              phaseIdToEndTime,
+                              repetitionHistograms,
+                              experimentSpan);
+                        } catch (Exception e) {
+                          throw new CompletionException(e);
+                        }
+                      },
+                      phaseExecutor);
+          // Stop waiting as soon as any phase fails
+          future.whenComplete(
+              (v, e) -> {
+                if (e != null) {
+                  failure.completeExceptionally(e);
+                }
+              });
+          phaseIdToFuture.put(phase.getId(), future);
         }
+        awaitPhases(phaseIdToFuture, failure);
 
         executor.shutdown();
         Validate.isTrue(executor.awaitTermination(1, TimeUnit.MINUTES));
+        phaseExecutor.shutdown();
 
         // Log end-to-end execution of experiment.
+        experimentJfrEvent.complete(config.getId(), Status.SUCCESS);
         writeExperimentEvent(
+            experimentSpan,
             repetitionStartTime,
             config.getId(),
             Status.SUCCESS,
-            new ObjectMapper().writeValueAsString(experimentMetadata));
+            MAPPER.writeValueAsString(experimentMetadata));
       } catch (Exception e) {
         LOGGER.error("Exception executing experiment: " + config.getId());
+        if (executor != null) {
+          // Sessions still running would otherwise keep the executor threads alive
+          executor.shutdownNow();
+        }
+        if (phaseExecutor != null) {
+          phaseExecutor.shutdownNow();
+        }
+        experimentJfrEvent.complete(config.getId(), getFailureStatus(e));
         writeExperimentEvent(
+            experimentSpan,
             repetitionStartTime,
             config.getId(),
-            Status.FAILURE,
-            new ObjectMapper().writeValueAsString(experimentMetadata));
+            getFailureStatus(e),
+            MAPPER.writeValueAsString(experimentMetadata));
         throw e;
       } finally {
+        writeLatencySummaries(
+            repetitionHistograms,
+            experimentSpan,
+            repetitionStartTime,
+            Map.of("scope", "repetition", "repetition", i));
         telemetryRegistry.flush();
       }
       LOGGER.info("Finished repetition {}", i);
@@ -153,150 +253,1550 @@ public class LSTBenchmarkExecutor extends BenchmarkRunnable {
     LOGGER.info("Finished experiment: {}", config.getId());
   }
 
-  private void checkResults(List<Future<Boolean>> results) {
-    for (Future<Boolean> result : results) {
+  private void executePhase(
+      PhaseExec phase,
+      ExecutorService executor,
+      Map<String, Object> runtimeParameterValues,
+      Map<String, Instant> phaseIdToEndTime,
+      @Nullable LatencyHistograms repetitionHistograms,
+      SpanContext experimentSpan)
+      throws Exception {
+    LOGGER.info("Running " + phase.getId() + " phase...");
+    final SpanContext phaseSpan = experimentSpan.createChild();
+    final Instant phaseStartTime = now();
+    final long phaseStartNanos = System.nanoTime();
+    // Latencies of the events of the phase also roll up into the histograms of the repetition
+    final LatencyHistograms phaseHistograms =
+        repetitionHistograms == null ? null : new LatencyHistograms(repetitionHistograms);
+    final LiveMetrics.Phase phaseMetrics =
+        metrics == null ? null : metrics.startPhase(phase.getId());
+    final PhaseEvent phaseJfrEvent = new PhaseEvent();
+    phaseJfrEvent.begin();
+    EventInfo eventInfo;
+    long completedTasks;
+    // Created once for the phase, since tasks may run their files in parallel on every execution
+    final ExecutorService fileExecutor = SessionExecutors.createUnbounded(config.getExecutorMode());
+    try {
+      final List<Worker> threads = new ArrayList<>();
+      for (int j = 0; j < phase.getSessions().size(); j++) {
+        threads.add(
+            new Worker(
+                phase,
+                j,
+                phaseStartNanos,
+                runtimeParameterValues,
+                phaseIdToEndTime,
+                phaseHistograms,
+                phaseMetrics,
+                phaseSpan,
+                fileExecutor));
+      }
+      awaitSessions(executor, threads);
+      completedTasks = getCompletedTasks(threads);
+      phaseJfrEvent.setCompletedTasks(completedTasks);
+      phaseJfrEvent.complete(phase.getId(), Status.SUCCESS);
+      eventInfo =
+          writePhaseEvent(
+              repetitionHistograms,
+              phaseSpan,
+              phaseStartTime,
+              phase.getId(),
+              Status.SUCCESS,
+              createPhasePayload(phaseStartNanos, completedTasks));
+    } catch (Exception e) {
+      LOGGER.error("Exception executing phase: " + phase.getId());
+      phaseJfrEvent.complete(phase.getId(), getFailureStatus(e));
+      writePhaseEvent(
+          repetitionHistograms,
+          phaseSpan,
+          phaseStartTime,
+          phase.getId(),
+          getFailureStatus(e),
+          null);
+      throw e;
+    } finally {
+      // Sessions wait for the files they run, so no file is running anymore
+      fileExecutor.shutdown();
+      if (phaseMetrics != null) {
+        metrics.finishPhase(phaseMetrics);
+      }
+      writeLatencySummaries(
+          phaseHistograms,
+          phaseSpan,
+          phaseStartTime,
+          Map.of(
+              "scope",
+              "phase",
+              "phase_id",
+              phase.getId(),
+              "repetition",
+              runtimeParameterValues.get("repetition")));
+      telemetryRegistry.flush();
+    }
+    LOGGER.info(
+        "Phase {} finished in {} seconds, {} tasks completed.",
+        phase.getId(),
+        ChronoUnit.SECONDS.between(phaseStartTime, eventInfo.getEndTime()),
+        completedTasks);
+    // Dependent phases start after this phase completes, so they will see its end time
+    phaseIdToEndTime.put(phase.getId(), eventInfo.getEndTime());
+  }
+
+  /** Waits until all phases complete, or throws the exception of the first phase that fails. */
+  private static void awaitPhases(
+      Map<String, CompletableFuture<Void>> phaseIdToFuture, CompletableFuture<Void> failure)
+      throws Exception {
+    try {
+      CompletableFuture.anyOf(
+              CompletableFuture.allOf(phaseIdToFuture.values().toArray(new CompletableFuture[0])),
+              failure)
+          .get();
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof CompletionException && cause.getCause() != null) {
+        cause = cause.getCause();
+      }
+      if (cause instanceof Exception) {
+        throw (Exception) cause;
+      }
+      throw e;
+    }
+  }
+
+  /**
+   * Runs the sessions of a phase and waits for all of them to finish. If fail-fast is enabled, the
+   * first session that fails cancels the rest. The exception of the first session that fails is
+   * rethrown once every session has finished.
+   */
+  private void awaitSessions(ExecutorService executor, List<Worker> workers) throws Exception {
+    CompletionService<Boolean> completionService = new ExecutorCompletionService<>(executor);
+    for (Worker worker : workers) {
+      completionService.submit(worker);
+    }
+    Exception firstException = null;
+    for (int i = 0; i < workers.size(); i++) {
       try {
-        Validate.isTrue(result.get());
-      } catch (InterruptedException | ExecutionException e) {
-        throw new RuntimeException("Thread did not finish correctly", e);
+        Validate.isTrue(completionService.take().get());
+      } catch (ExecutionException e) {
+        if (firstException == null) {
+          firstException =
+              e.getCause() instanceof Exception
+                  ? (Exception) e.getCause()
+                  : new RuntimeException("Thread did not finish correctly", e);
+          if (config.isFailFast()) {
+            LOGGER.warn("Cancelling sessions after a session failed");
+            for (Worker worker : workers) {
+              worker.cancel();
+            }
+          }
+        }
       }
     }
+    if (firstException != null) {
+      throw firstException;
+    }
+  }
+
+  /** Returns the status reported in telemetry for an execution that threw an exception. */
+  private static Status getFailureStatus(Exception e) {
+    if (e instanceof SQLTimeoutException) {
+      return Status.TIMEOUT;
+    } else if (e instanceof CancellationException) {
+      return Status.CANCELLED;
+    }
+    return Status.FAILURE;
+  }
+
+  private static CancellationException createCancellationException(@Nullable Exception cause) {
+    CancellationException e = new CancellationException("Session was cancelled");
+    e.initCause(cause);
+    return e;
+  }
+
+  private static long getCompletedTasks(List<Worker> workers) {
+    long completedTasks = 0;
+    for (Worker worker : workers) {
+      completedTasks += worker.getCompletedTasks();
+    }
+    return completedTasks;
+  }
+
+  private static String createPhasePayload(long phaseStartNanos, long completedTasks)
+      throws JsonProcessingException {
+    double elapsedSeconds = (System.nanoTime() - phaseStartNanos) / (double) NANOS_PER_SECOND;
+    return MAPPER.writeValueAsString(
+        Map.of(
+            "completed_tasks",
+            completedTasks,
+            "elapsed_seconds",
+            elapsedSeconds,
+            "throughput_tasks_per_second",
+            elapsedSeconds > 0 ? completedTasks / elapsedSeconds : 0));
+  }
+
+  /** Returns the current time, from the clock of the repetition in monotonic mode. */
+  private Instant now() {
+    MonotonicClock repetitionClock = clock;
+    return repetitionClock == null ? Instant.now() : repetitionClock.now();
+  }
+
+  /** Writes an event, recording its latency in the histograms if they are enabled. */
+  private void writeEvent(EventInfo eventInfo, @Nullable LatencyHistograms histograms) {
+    if (histograms != null) {
+      histograms.record(eventInfo);
+    }
+    telemetryRegistry.writeEvent(eventInfo);
+  }
+
+  /**
+   * Writes the latency summaries of a phase or repetition, if the histograms are enabled. The
+   * summaries are children of the span of the phase or repetition.
+   */
+  private void writeLatencySummaries(
+      @Nullable LatencyHistograms histograms,
+      SpanContext span,
+      Instant startTime,
+      Map<String, Object> scope) {
+    if (histograms == null) {
+      return;
+    }
+    for (EventInfo summary : histograms.summarize(startTime, scope)) {
+      telemetryRegistry.writeEvent(
+          ImmutableEventInfo.copyOf(summary).withSpanContext(span.createChild()));
+    }
   }
 
   private EventInfo writeExperimentEvent(
-      Instant startTime, String id, Status status, String payload) {
+      SpanContext span, Instant startTime, String id, Status status, String payload) {
     EventInfo eventInfo =
-        ImmutableEventInfo.of(startTime, Instant.now(), id, EventType.EXEC_EXPERIMENT, status)
-            .withPayload(payload);
+        ImmutableEventInfo.of(startTime, now(), id, EventType.EXEC_EXPERIMENT, status)
+            .withPayload(payload)
+            .withSpanContext(span);
     telemetryRegistry.writeEvent(eventInfo);
     return eventInfo;
   }
 
-  private EventInfo writePhaseEvent(Instant startTime, String id, Status status) {
+  private EventInfo writePhaseEvent(
+      @Nullable LatencyHistograms histograms,
+      SpanContext span,
+      Instant startTime,
+      String id,
+      Status status,
+      @Nullable String payload) {
     EventInfo eventInfo =
-        ImmutableEventInfo.of(startTime, Instant.now(), id, EventType.EXEC_PHASE, status);
-    telemetryRegistry.writeEvent(eventInfo);
+        ImmutableEventInfo.of(startTime, now(), id, EventType.EXEC_PHASE, status)
+            .withPayload(payload)
+            .withSpanContext(span);
+    writeEvent(eventInfo, histograms);
     return eventInfo;
   }
 
-  private EventInfo writeSessionEvent(Instant startTime, String id, Status status) {
+  private EventInfo writeSessionEvent(
+      @Nullable LatencyHistograms histograms,
+      SpanContext span,
+      Instant startTime,
+      String id,
+      Status status,
+      String payload) {
     EventInfo eventInfo =
-        ImmutableEventInfo.of(startTime, Instant.now(), id, EventType.EXEC_SESSION, status);
-    telemetryRegistry.writeEvent(eventInfo);
+        ImmutableEventInfo.of(startTime, now(), id, EventType.EXEC_SESSION, status)
+            .withPayload(payload)
+            .withSpanContext(span);
+    writeEvent(eventInfo, histograms);
     return eventInfo;
   }
 
-  private EventInfo writeTaskEvent(Instant startTime, String id, Status status) {
+  private EventInfo writeTaskEvent(
+      @Nullable LatencyHistograms histograms,
+      SpanContext span,
+      Instant startTime,
+      String id,
+      Status status,
+      @Nullable String payload) {
     EventInfo eventInfo =
-        ImmutableEventInfo.of(startTime, Instant.now(), id, EventType.EXEC_TASK, status);
-    telemetryRegistry.writeEvent(eventInfo);
+        ImmutableEventInfo.of(startTime, now(), id, EventType.EXEC_TASK, status)
+            .withPayload(payload)
+            .withSpanContext(span);
+    writeEvent(eventInfo, histograms);
     return eventInfo;
   }
 
-  private EventInfo writeFileEvent(Instant startTime, String id, Status status) {
+  private EventInfo writeFileEvent(
+      @Nullable LatencyHistograms histograms,
+      SpanContext span,
+      Instant startTime,
+      String id,
+      Status status) {
     EventInfo eventInfo =
-        ImmutableEventInfo.of(startTime, Instant.now(), id, EventType.EXEC_FILE, status);
-    telemetryRegistry.writeEvent(eventInfo);
+        ImmutableEventInfo.of(startTime, now(), id, EventType.EXEC_FILE, status)
+            .withSpanContext(span);
+    writeEvent(eventInfo, histograms);
     return eventInfo;
   }
 
-  private EventInfo writeStatementEvent(Instant startTime, String id, Status status) {
+  private EventInfo writeStatementEvent(
+      @Nullable LatencyHistograms histograms,
+      SpanContext span,
+      Instant startTime,
+      String id,
+      Status status,
+      String payload) {
     EventInfo eventInfo =
-        ImmutableEventInfo.of(startTime, Instant.now(), id, EventType.EXEC_STATEMENT, status);
-    telemetryRegistry.writeEvent(eventInfo);
+        ImmutableEventInfo.of(startTime, now(), id, EventType.EXEC_STATEMENT, status)
+            .withPayload(payload)
+            .withSpanContext(span);
+    writeEvent(eventInfo, histograms);
     return eventInfo;
   }
 
   public class Worker implements Callable<Boolean> {
-    private final ConnectionManager connectionManager;
+    // Connection assigned by the router when the session starts
+    private String connectionId;
+    private ConnectionManager connectionManager;
+    private final PhaseExec phase;
+    private final int sessionIndex;
     private final SessionExec session;
     private final Map<String, Object> runtimeParameterValues;
+    // Runtime parameter values of the tasks that time travel to each phase
+    private final Map<String, Map<String, Object>> timeTravelPhaseIdToValues;
     private final Map<String, Instant> phaseIdToEndTime;
+    // Histograms of the phase, if latency histograms are enabled
+    @Nullable private final LatencyHistograms histograms;
+    // Live metrics of the phase, if the metrics endpoint is enabled
+    @Nullable private final LiveMetrics.Phase phaseMetrics;
+    // Span of the phase, the parent of the span of the session
+    private final SpanContext phaseSpan;
+    @Nullable private final ArrivalSchedule arrivalSchedule;
+    // If the phase is duration-bounded, the session cycles through its tasks until this time
+    @Nullable private final Long deadlineNanos;
+    private long completedTasks;
+    // If the task has a timeout, its statements are cancelled at this time
+    @Nullable private Long taskDeadlineNanos;
+    // Statements being executed, so they can be cancelled
+    private final Set<Statement> runningStatements;
+    private final CountDownLatch cancelled;
+    // Thread of the session while it waits for a connection, so cancelling the session wakes it up
+    private final AtomicReference<Thread> acquiringThread;
+    // Statement event buffers of files that completed, reused by the next files in monotonic mode.
+    // Files of the same task may run concurrently, so each one takes its own buffer.
+    private final Queue<StatementEventBuffer> statementEventBuffers;
+    // Connection of the session, which is replaced if a task is retried after a connection error.
+    // In open-loop mode, each arrival borrows a connection of its own instead.
+    @Nullable private PooledConnection sessionConnection;
+    // Workers running the tasks that arrived at an open-loop session
+    private final Set<Worker> activeArrivals;
+    // Runs the files of tasks that run files in parallel, shared by the sessions of the phase
+    private final ExecutorService fileExecutor;
 
     public Worker(
-        ConnectionManager connectionManager,
-        SessionExec session,
+        PhaseExec phase,
+        int sessionIndex,
+        long phaseStartNanos,
         Map<String, Object> runtimeParameterValues,
-        Map<String, Instant> phaseIdToEndTime) {
-      this.connectionManager = connectionManager;
-      this.session = session;
-      this.runtimeParameterValues = runtimeParameterValues;
+        Map<String, Instant> phaseIdToEndTime,
+        @Nullable LatencyHistograms histograms,
+        @Nullable LiveMetrics.Phase phaseMetrics,
+        SpanContext phaseSpan,
+        ExecutorService fileExecutor) {
+      this.phase = phase;
+      this.sessionIndex = sessionIndex;
+      this.session = phase.getSessions().get(sessionIndex);
+      this.runtimeParameterValues = Collections.unmodifiableMap(runtimeParameterValues);
+      this.timeTravelPhaseIdToValues = new HashMap<>();
       this.phaseIdToEndTime = phaseIdToEndTime;
+      this.histograms = histograms;
+      this.phaseMetrics = phaseMetrics;
+      this.phaseSpan = phaseSpan;
+      this.arrivalSchedule =
+          phase.getArrival() == null
+              ? null
+              : new ArrivalSchedule(phase.getArrival(), sessionIndex, phaseStartNanos);
+      this.deadlineNanos =
+          phase.getDurationSeconds() == null
+              ? null
+              : phaseStartNanos + TimeUnit.SECONDS.toNanos(phase.getDurationSeconds());
+      this.completedTasks = 0;
+      this.runningStatements = ConcurrentHashMap.newKeySet();
+      this.cancelled = new CountDownLatch(1);
+      this.acquiringThread = new AtomicReference<>();
+      this.statementEventBuffers = new ConcurrentLinkedQueue<>();
+      this.activeArrivals = ConcurrentHashMap.newKeySet();
+      this.fileExecutor = fileExecutor;
+    }
+
+    /** Creates a worker that runs a task that arrived at an open-loop session. */
+    private Worker(Worker session) {
+      this.connectionId = session.connectionId;
+      this.connectionManager = session.connectionManager;
+      this.phase = session.phase;
+      this.sessionIndex = session.sessionIndex;
+      this.session = session.session;
+      this.runtimeParameterValues = session.runtimeParameterValues;
+      this.timeTravelPhaseIdToValues = new HashMap<>();
+      this.phaseIdToEndTime = session.phaseIdToEndTime;
+      this.histograms = session.histograms;
+      this.phaseMetrics = session.phaseMetrics;
+      this.phaseSpan = session.phaseSpan;
+      this.arrivalSchedule = null;
+      this.deadlineNanos = session.deadlineNanos;
+      this.completedTasks = 0;
+      this.runningStatements = ConcurrentHashMap.newKeySet();
+      this.cancelled = new CountDownLatch(1);
+      this.acquiringThread = new AtomicReference<>();
+      // Arrivals of a session share the statement event buffers, which are thread-safe
+      this.statementEventBuffers = session.statementEventBuffers;
+      this.activeArrivals = ConcurrentHashMap.newKeySet();
+      this.fileExecutor = session.fileExecutor;
+    }
+
+    /** Returns the number of tasks completed successfully by this worker. */
+    public long getCompletedTasks() {
+      return completedTasks;
+    }
+
+    /** Cancels the session. Statements that are running are cancelled through the driver. */
+    public void cancel() {
+      cancelled.countDown();
+      Thread thread = acquiringThread.get();
+      if (thread != null) {
+        thread.interrupt();
+      }
+      for (Statement statement : runningStatements) {
+        StatementWatchdog.cancelQuietly(statement);
+      }
+      for (Worker arrival : activeArrivals) {
+        arrival.cancel();
+      }
+    }
+
+    private boolean isCancelled() {
+      return cancelled.getCount() == 0;
+    }
+
+    /**
+     * Borrows a connection for the session. The wait for a connection from an exhausted pool is
+     * interrupted if the session is cancelled.
+     */
+    private PooledConnection acquireConnection() throws SQLException {
+      return acquireConnection(-1);
+    }
+
+    /**
+     * Borrows a connection for the session like {@link #acquireConnection()}, but waits at most the
+     * given time for it unless the time is negative.
+     *
+     * @return the connection, or null if none was available in time
+     */
+    @Nullable private PooledConnection acquireConnection(long timeoutSeconds) throws SQLException {
+      acquiringThread.set(Thread.currentThread());
+      try {
+        if (isCancelled()) {
+          throw createCancellationException(null);
+        }
+        return timeoutSeconds < 0
+            ? connectionManager.acquireConnection()
+            : connectionManager.tryAcquireConnection(timeoutSeconds, TimeUnit.SECONDS);
+      } catch (SQLException e) {
+        if (isCancelled()) {
+          throw createCancellationException(e);
+        }
+        throw e;
+      } finally {
+        acquiringThread.set(null);
+        if (isCancelled()) {
+          // Clear the interrupt of the cancellation, the session stops at its next check
+          Thread.interrupted();
+        }
+      }
     }
 
     @Override
-    public Boolean call() throws SQLException {
-      Instant sessionStartTime = Instant.now();
-      try (Connection connection = connectionManager.createConnection()) {
-        for (TaskExec task : session.getTasks()) {
-          Instant taskStartTime = Instant.now();
+    public Boolean call() throws SQLException, JsonProcessingException, InterruptedException {
+      connectionId = connectionRouter.assign(phase.getId(), session);
+      connectionManager = connectionRouter.getConnectionManager(connectionId);
+      if (metrics != null) {
+        metrics.sessionStarted();
+      }
+      try {
+        return executeSession();
+      } finally {
+        connectionRouter.release(connectionId);
+        if (metrics != null) {
+          metrics.sessionFinished();
+        }
+      }
+    }
+
+    private Boolean executeSession()
+        throws SQLException, JsonProcessingException, InterruptedException {
+      final Instant acquireStartTime = now();
+      final SpanContext sessionSpan = phaseSpan.createChild();
+      final SessionEvent sessionJfrEvent = new SessionEvent(connectionId);
+      sessionJfrEvent.begin();
+      final PooledConnection acquiredConnection;
+      try {
+        // In open-loop mode, the session only dispatches arrivals, which borrow their connections
+        acquiredConnection = arrivalSchedule == null ? acquireConnection() : null;
+      } catch (Exception e) {
+        LOGGER.error("Exception acquiring connection for session: " + session.getId());
+        sessionJfrEvent.complete(session.getId(), getFailureStatus(e));
+        writeSessionEvent(
+            histograms,
+            sessionSpan,
+            acquireStartTime,
+            session.getId(),
+            getFailureStatus(e),
+            MAPPER.writeValueAsString(Map.of("connection_id", connectionId)));
+        throw e;
+      }
+      // Time spent acquiring the connection is reported separately from the session execution
+      Instant sessionStartTime = now();
+      String sessionPayload =
+          MAPPER.writeValueAsString(
+              Map.of(
+                  "connection_id",
+                  connectionId,
+                  "connection_acquire_time_ms",
+                  ChronoUnit.MILLIS.between(acquireStartTime, sessionStartTime)));
+      sessionConnection = acquiredConnection;
+      try {
+        try {
+          executeTasks(sessionSpan);
+        } catch (Exception e) {
+          // Do not give back a connection that may be in an unknown state
+          if (sessionConnection != null) {
+            sessionConnection.invalidate();
+          }
+          throw e;
+        } finally {
+          if (sessionConnection != null) {
+            sessionConnection.close();
+            sessionConnection = null;
+          }
+        }
+      } catch (Exception e) {
+        LOGGER.error("Exception executing session: " + session.getId());
+        sessionJfrEvent.complete(session.getId(), getFailureStatus(e));
+        writeSessionEvent(
+            histograms,
+            sessionSpan,
+            sessionStartTime,
+            session.getId(),
+            getFailureStatus(e),
+            sessionPayload);
+        throw e;
+      }
+      sessionJfrEvent.complete(session.getId(), Status.SUCCESS);
+      writeSessionEvent(
+          histograms,
+          sessionSpan,
+          sessionStartTime,
+          session.getId(),
+          Status.SUCCESS,
+          sessionPayload);
+      return true;
+    }
+
+    private void executeTasks(SpanContext sessionSpan)
+        throws SQLException, JsonProcessingException, InterruptedException {
+      if (arrivalSchedule != null) {
+        dispatchArrivals(sessionSpan);
+        return;
+      }
+      List<TaskExec> tasks = session.getTasks();
+      int cycle = 0;
+      for (; ; ) {
+        for (TaskExec task : tasks) {
+          Map<String, Object> taskPayload = new HashMap<>();
+          if (deadlineNanos != null) {
+            taskPayload.put("cycle", cycle);
+          }
+          if (isPastDeadline()) {
+            return;
+          }
+          if (isCancelled()) {
+            throw createCancellationException(null);
+          }
+          executeTask(task, taskPayload, sessionSpan);
+          completedTasks++;
+          if (phaseMetrics != null) {
+            phaseMetrics.taskCompleted();
+          }
+        }
+        if (deadlineNanos == null || tasks.isEmpty() || isPastDeadline()) {
+          return;
+        }
+        // Next cycle draws new permutation orders and parameter values
+        tasks = config.createSessionCycleTasks(phase.getId(), sessionIndex);
+        cycle++;
+      }
+    }
+
+    /**
+     * Open-loop mode: dispatches each task when it arrives to a worker of its own, so it does not
+     * wait for the previous tasks of the session to complete. A task only waits in the queue for a
+     * thread and a connection to be free, which is reported as its queueing delay. If a task fails,
+     * the tasks of the session that are still running are cancelled.
+     */
+    private void dispatchArrivals(SpanContext sessionSpan)
+        throws SQLException, JsonProcessingException, InterruptedException {
+      ExecutorService arrivalExecutor = SessionExecutors.createUnbounded(config.getExecutorMode());
+      CompletionService<Worker> arrivals = new ExecutorCompletionService<>(arrivalExecutor);
+      int pendingArrivals = 0;
+      boolean success = false;
+      try {
+        List<TaskExec> tasks = session.getTasks();
+        int cycle = 0;
+        for (; ; ) {
+          for (TaskExec task : tasks) {
+            long arrivalNanos = arrivalSchedule.nextArrivalNanos();
+            if (deadlineNanos != null && arrivalNanos - deadlineNanos >= 0) {
+              tasks = Collections.emptyList();
+              break;
+            }
+            // Collect the tasks that complete while waiting for the next one to arrive
+            for (long waitNanos = arrivalNanos - System.nanoTime();
+                waitNanos > 0;
+                waitNanos = arrivalNanos - System.nanoTime()) {
+              if (pendingArrivals == 0) {
+                if (cancelled.await(waitNanos, TimeUnit.NANOSECONDS)) {
+                  throw createCancellationException(null);
+                }
+                break;
+              }
+              Future<Worker> completed = arrivals.poll(waitNanos, TimeUnit.NANOSECONDS);
+              if (completed != null) {
+                pendingArrivals--;
+                collectArrival(completed);
+              }
+            }
+            if (isCancelled()) {
+              throw createCancellationException(null);
+            }
+            Map<String, Object> taskPayload = new HashMap<>();
+            if (deadlineNanos != null) {
+              taskPayload.put("cycle", cycle);
+            }
+            Worker arrival = new Worker(this);
+            activeArrivals.add(arrival);
+            if (isCancelled()) {
+              arrival.cancel();
+            }
+            arrivals.submit(
+                () -> {
+                  try {
+                    arrival.executeArrival(task, taskPayload, arrivalNanos, sessionSpan);
+                    return arrival;
+                  } finally {
+                    activeArrivals.remove(arrival);
+                  }
+                });
+            pendingArrivals++;
+          }
+          if (deadlineNanos == null || tasks.isEmpty() || isPastDeadline()) {
+            break;
+          }
+          // Next cycle draws new permutation orders and parameter values
+          tasks = config.createSessionCycleTasks(phase.getId(), sessionIndex);
+          cycle++;
+        }
+        for (; pendingArrivals > 0; pendingArrivals--) {
+          collectArrival(arrivals.take());
+        }
+        success = true;
+      } finally {
+        if (!success) {
+          for (Worker arrival : activeArrivals) {
+            arrival.cancel();
+          }
+        }
+        arrivalExecutor.shutdownNow();
+        awaitTermination(arrivalExecutor);
+      }
+    }
+
+    /** Adds the tasks completed by an arrival, or rethrows the exception of its task. */
+    private void collectArrival(Future<Worker> completed)
+        throws SQLException, JsonProcessingException, InterruptedException {
+      try {
+        completedTasks += completed.get().getCompletedTasks();
+      } catch (ExecutionException e) {
+        Throwable cause = e.getCause();
+        if (cause instanceof SQLException) {
+          throw (SQLException) cause;
+        } else if (cause instanceof JsonProcessingException) {
+          throw (JsonProcessingException) cause;
+        } else if (cause instanceof InterruptedException) {
+          throw (InterruptedException) cause;
+        } else if (cause instanceof RuntimeException) {
+          throw (RuntimeException) cause;
+        }
+        throw new RuntimeException("Task did not finish correctly", cause);
+      }
+    }
+
+    /**
+     * Runs a task that arrived at an open-loop session on a connection of its own. The time from
+     * the arrival until the connection is obtained is the queueing delay of the task.
+     */
+    private void executeArrival(
+        TaskExec task, Map<String, Object> taskPayload, long arrivalNanos, SpanContext sessionSpan)
+        throws SQLException, JsonProcessingException, InterruptedException {
+      sessionConnection = acquireConnection();
+      try {
+        long queueDelayNanos = Math.max(0, System.nanoTime() - arrivalNanos);
+        taskPayload.put("queue_delay_ms", queueDelayNanos / (double) NANOS_PER_MILLI);
+        if (isPastDeadline()) {
+          return;
+        }
+        executeTask(task, taskPayload, sessionSpan);
+        completedTasks++;
+        if (phaseMetrics != null) {
+          phaseMetrics.taskCompleted();
+        }
+      } catch (Exception e) {
+        // Do not give back a connection that may be in an unknown state
+        if (sessionConnection != null) {
+          sessionConnection.invalidate();
+        }
+        throw e;
+      } finally {
+        if (sessionConnection != null) {
+          sessionConnection.close();
+          sessionConnection = null;
+        }
+      }
+    }
+
+    private boolean isPastDeadline() {
+      return deadlineNanos != null && System.nanoTime() - deadlineNanos >= 0;
+    }
+
+    private void executeTask(
+        TaskExec task, Map<String, Object> taskPayload, SpanContext sessionSpan)
+        throws SQLException, JsonProcessingException, InterruptedException {
+      RetryPolicy retryPolicy = task.getRetryPolicy();
+      for (int attempt = 1; ; attempt++) {
+        Map<String, Object> attemptPayload = new HashMap<>(taskPayload);
+        if (retryPolicy != null) {
+          attemptPayload.put("attempt", attempt);
+        }
+        // Connections for the files that run in parallel are borrowed before the task is timed,
+        // so waiting for them is reported separately from the task latency
+        long fileConnectionsStartNanos = System.nanoTime();
+        List<PooledConnection> fileConnections = acquireFileConnections(task);
+        if (getFileParallelism(task) > 1) {
+          attemptPayload.put(
+              "file_connection_acquire_time_ms",
+              (System.nanoTime() - fileConnectionsStartNanos) / (double) NANOS_PER_MILLI);
+        }
+        // Task execution time does not include the queueing delay
+        Instant taskStartTime = now();
+        // Each attempt is a span of its own
+        SpanContext taskSpan = sessionSpan.createChild();
+        TaskEvent taskJfrEvent = new TaskEvent(attempt);
+        taskJfrEvent.begin();
+        taskDeadlineNanos =
+            config.getTaskTimeoutSeconds() == null
+                ? null
+                : System.nanoTime() + TimeUnit.SECONDS.toNanos(config.getTaskTimeoutSeconds());
+        try {
+          boolean filesSucceeded = false;
           try {
             Map<String, Object> values = getRuntimeParameterValues(task);
-            executeTask(connection, task, values);
+            executeFiles(sessionConnection, fileConnections, task, values, taskSpan);
+            filesSucceeded = true;
+          } finally {
+            closeFileConnections(fileConnections, filesSucceeded);
+          }
+        } catch (Exception e) {
+          LOGGER.error("Exception executing task: " + task.getId());
+          Long retryDelayMs = null;
+          boolean replaceConnection = false;
+          if (retryPolicy != null && e instanceof SQLException && !isCancelled()) {
+            SQLExceptionClassifier classifier = config.getExceptionClassifier();
+            Category category = classifier.classify((SQLException) e);
+            attemptPayload.put("error_category", category.toString());
+            if (attempt < retryPolicy.getMaxAttempts()
+                && RetryBackoff.isRetryable(retryPolicy, category)) {
+              retryDelayMs = RetryBackoff.computeDelayMs(retryPolicy, attempt);
+              attemptPayload.put("retry_delay_ms", retryDelayMs);
+              // Retrying on a connection that was dropped would fail the same way
+              replaceConnection = classifier.isConnectionError((SQLException) e);
+              if (replaceConnection) {
+                attemptPayload.put("connection_replaced", true);
+              }
+            }
+          }
+          taskJfrEvent.complete(task.getId(), getFailureStatus(e));
+          writeTaskEvent(
+              histograms,
+              taskSpan,
+              taskStartTime,
+              task.getId(),
+              getFailureStatus(e),
+              toPayload(attemptPayload));
+          if (retryDelayMs == null) {
+            throw e;
+          }
+          LOGGER.warn(
+              "Retrying task {} in {} ms after failed attempt {}",
+              task.getId(),
+              retryDelayMs,
+              attempt);
+          if (replaceConnection) {
+            replaceSessionConnection();
+          }
+          if (cancelled.await(retryDelayMs, TimeUnit.MILLISECONDS)) {
+            throw createCancellationException(e);
+          }
+          continue;
+        }
+        taskJfrEvent.complete(task.getId(), Status.SUCCESS);
+        writeTaskEvent(
+            histograms,
+            taskSpan,
+            taskStartTime,
+            task.getId(),
+            Status.SUCCESS,
+            toPayload(attemptPayload));
+        return;
+      }
+    }
+
+    /**
+     * Discards the connection of the session and borrows a new one. The connection is given back
+     * first, so that a session never holds two connections of a pool while waiting for one.
+     */
+    private void replaceSessionConnection() throws SQLException {
+      PooledConnection failedConnection = sessionConnection;
+      sessionConnection = null;
+      failedConnection.invalidate();
+      try {
+        failedConnection.close();
+      } catch (SQLException e) {
+        LOGGER.warn("Error closing connection of session {}", session.getId(), e);
+      }
+      sessionConnection = acquireConnection();
+    }
+
+    @Nullable private String toPayload(Map<String, Object> payload) throws JsonProcessingException {
+      return payload.isEmpty() ? null : MAPPER.writeValueAsString(payload);
+    }
+
+    private static int getFileParallelism(TaskExec task) {
+      return task.getFileParallelism() == null
+          ? 1
+          : Math.min(task.getFileParallelism(), task.getFiles().size());
+    }
+
+    /**
+     * Borrows the additional connections used by the files of a task that run in parallel. The
+     * session connection is used by one of the files, the rest use additional connections. The
+     * session already holds a connection, so waiting indefinitely for more could deadlock with
+     * other sessions doing the same. Files run on the connections obtained in time instead.
+     */
+    private List<PooledConnection> acquireFileConnections(TaskExec task) throws SQLException {
+      int parallelism = getFileParallelism(task);
+      List<PooledConnection> fileConnections = new ArrayList<>();
+      try {
+        for (int i = 1; i < parallelism; i++) {
+          PooledConnection fileConnection =
+              acquireConnection(ADDITIONAL_CONNECTION_TIMEOUT_SECONDS);
+          if (fileConnection == null) {
+            LOGGER.warn(
+                "Running files of task {} with parallelism {} instead of {}, no more connections"
+                    + " were available",
+                task.getId(),
+                fileConnections.size() + 1,
+                parallelism);
+            break;
+          }
+          fileConnections.add(fileConnection);
+        }
+      } catch (SQLException | RuntimeException e) {
+        closeFileConnections(fileConnections, false);
+        throw e;
+      }
+      return fileConnections;
+    }
+
+    private void executeFiles(
+        PooledConnection connection,
+        List<PooledConnection> fileConnections,
+        TaskExec task,
+        Map<String, Object> values,
+        SpanContext taskSpan)
+        throws SQLException {
+      List<List<FileExec>> fileGroups = getFileGroups(task);
+      if (fileConnections.isEmpty()) {
+        for (List<FileExec> fileGroup : fileGroups) {
+          for (FileExec file : fileGroup) {
+            executeFile(connection, task, file, values, taskSpan);
+          }
+        }
+        return;
+      }
+      BlockingQueue<PooledConnection> connections =
+          new ArrayBlockingQueue<>(fileConnections.size() + 1);
+      connections.add(connection);
+      connections.addAll(fileConnections);
+      // Threads running files of this task, so they can be interrupted if another file fails. The
+      // threads are shared with other tasks, so they are only interrupted while in this set.
+      Set<Thread> fileThreads = new HashSet<>();
+      AtomicBoolean filesFailed = new AtomicBoolean();
+      for (List<FileExec> fileGroup : fileGroups) {
+        CountDownLatch filesFinished = new CountDownLatch(fileGroup.size());
+        List<Future<Void>> results = new ArrayList<>();
+        for (FileExec file : fileGroup) {
+          results.add(
+              fileExecutor.submit(
+                  () -> {
+                    synchronized (fileThreads) {
+                      fileThreads.add(Thread.currentThread());
+                    }
+                    try {
+                      if (filesFailed.get()) {
+                        throw createCancellationException(null);
+                      }
+                      PooledConnection fileConnection = connections.take();
+                      try {
+                        executeFile(fileConnection, task, file, values, taskSpan);
+                      } finally {
+                        connections.add(fileConnection);
+                      }
+                      return null;
+                    } finally {
+                      synchronized (fileThreads) {
+                        fileThreads.remove(Thread.currentThread());
+                      }
+                      // The thread is reused by other files, so it must not stay interrupted
+                      Thread.interrupted();
+                      filesFinished.countDown();
+                    }
+                  }));
+        }
+        boolean success = false;
+        try {
+          for (Future<Void> result : results) {
+            awaitFile(result);
+          }
+          success = true;
+        } finally {
+          if (!success) {
+            // Interrupting the threads does not stop statements that are already running on the
+            // other connections, so they are cancelled through the driver
+            filesFailed.set(true);
+            synchronized (fileThreads) {
+              for (Thread fileThread : fileThreads) {
+                fileThread.interrupt();
+              }
+            }
+            for (Statement statement : runningStatements) {
+              StatementWatchdog.cancelQuietly(statement);
+            }
+            awaitFiles(filesFinished);
+          }
+        }
+      }
+    }
+
+    private void closeFileConnections(List<PooledConnection> fileConnections, boolean success)
+        throws SQLException {
+      for (PooledConnection fileConnection : fileConnections) {
+        if (!success) {
+          fileConnection.invalidate();
+        }
+        fileConnection.close();
+      }
+    }
+
+    /** Splits the files of a task into groups that must run one after another. */
+    private List<List<FileExec>> getFileGroups(TaskExec task) {
+      if (task.getFileGroups().isEmpty()) {
+        return Collections.singletonList(task.getFiles());
+      }
+      Map<Integer, List<FileExec>> groupToFiles = new TreeMap<>();
+      for (int i = 0; i < task.getFiles().size(); i++) {
+        groupToFiles
+            .computeIfAbsent(task.getFileGroups().get(i), k -> new ArrayList<>())
+            .add(task.getFiles().get(i));
+      }
+      return new ArrayList<>(groupToFiles.values());
+    }
+
+    private void awaitFile(Future<Void> result) throws SQLException {
+      try {
+        result.get();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new RuntimeException("Interrupted while waiting for file execution", e);
+      } catch (ExecutionException e) {
+        if (e.getCause() instanceof SQLException) {
+          throw (SQLException) e.getCause();
+        } else if (e.getCause() instanceof RuntimeException) {
+          throw (RuntimeException) e.getCause();
+        }
+        throw new RuntimeException("File did not finish correctly", e.getCause());
+      }
+    }
+
+    /** Waits for the files of a task that failed to stop, before their connections are closed. */
+    private void awaitFiles(CountDownLatch filesFinished) {
+      try {
+        if (!filesFinished.await(1, TimeUnit.MINUTES)) {
+          LOGGER.warn("Files of session {} did not terminate in time", session.getId());
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+
+    private void awaitTermination(ExecutorService executor) {
+      try {
+        if (!executor.awaitTermination(1, TimeUnit.MINUTES)) {
+          LOGGER.warn("Tasks of session {} did not terminate in time", session.getId());
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+
+    private void executeFile(
+        PooledConnection connection,
+        TaskExec task,
+        FileExec file,
+        Map<String, Object> values,
+        SpanContext taskSpan)
+        throws SQLException {
+      Instant fileStartTime = now();
+      SpanContext fileSpan = taskSpan.createChild();
+      FileEvent fileJfrEvent = new FileEvent();
+      fileJfrEvent.begin();
+      // In monotonic mode, statement events are kept as primitive values until the file ends
+      StatementEventBuffer statementEvents = clock == null ? null : acquireStatementEventBuffer();
+      // Reused by the statements of the file, so a statement does not allocate them
+      ResultSetConsumer results = new ResultSetConsumer();
+      PayloadBuilder statementPayloadBuilder = new PayloadBuilder();
+      try {
+        List<StatementExec> statements = file.getStatements();
+        int batchSize = task.getBatchSize() == null ? 1 : task.getBatchSize();
+        for (int i = 0; i < statements.size(); i += batchSize) {
+          // Files that run in parallel are interrupted when another file of the task fails
+          if (isCancelled() || Thread.currentThread().isInterrupted()) {
+            throw createCancellationException(null);
+          }
+          if (taskDeadlineNanos != null && System.nanoTime() - taskDeadlineNanos >= 0) {
+            throw new SQLTimeoutException(
+                "Task timed out after " + config.getTaskTimeoutSeconds() + " seconds");
+          }
+          if (task.getBatchSize() != null) {
+            executeBatch(
+                connection,
+                statements.subList(i, Math.min(i + batchSize, statements.size())),
+                values,
+                fileSpan);
+            continue;
+          }
+          StatementExec statement = statements.get(i);
+          long statementStartNanos = System.nanoTime();
+          Instant statementStartTime = statementEvents == null ? Instant.now() : null;
+          StatementEvent statementJfrEvent = StatementEvent.createIfEnabled();
+          if (statementJfrEvent != null) {
+            statementJfrEvent.begin();
+          }
+          String statementPayload;
+          try {
+            statementPayload =
+                executeStatement(
+                    connection,
+                    task,
+                    statement,
+                    values,
+                    results,
+                    statementPayloadBuilder,
+                    statementJfrEvent);
           } catch (Exception e) {
-            LOGGER.error("Exception executing task: " + task.getId());
-            writeTaskEvent(taskStartTime, task.getId(), Status.FAILURE);
+            LOGGER.error("Exception executing statement: " + statement.getId());
+            if (statementJfrEvent != null) {
+              statementJfrEvent.complete(statement.getId(), getFailureStatus(e));
+            }
+            recordStatementEvent(
+                statementEvents,
+                fileSpan,
+                statementStartNanos,
+                statementStartTime,
+                statement.getId(),
+                getFailureStatus(e),
+                null);
             throw e;
           }
-          writeTaskEvent(taskStartTime, task.getId(), Status.SUCCESS);
+          if (statementJfrEvent != null) {
+            statementJfrEvent.complete(statement.getId(), Status.SUCCESS);
+          }
+          recordStatementEvent(
+              statementEvents,
+              fileSpan,
+              statementStartNanos,
+              statementStartTime,
+              statement.getId(),
+              Status.SUCCESS,
+              statementPayload);
         }
       } catch (Exception e) {
-        LOGGER.error("Exception executing session: " + session.getId());
-        writeSessionEvent(sessionStartTime, session.getId(), Status.FAILURE);
+        LOGGER.error("Exception executing file: " + file.getId());
+        fileJfrEvent.complete(file.getId(), getFailureStatus(e));
+        writeFileEvent(histograms, fileSpan, fileStartTime, file.getId(), getFailureStatus(e));
+        releaseStatementEventBuffer(statementEvents);
         throw e;
       }
-      writeSessionEvent(sessionStartTime, session.getId(), Status.SUCCESS);
-      return true;
+      fileJfrEvent.complete(file.getId(), Status.SUCCESS);
+      writeFileEvent(histograms, fileSpan, fileStartTime, file.getId(), Status.SUCCESS);
+      // Handed to the registry after the end time of the file is taken
+      releaseStatementEventBuffer(statementEvents);
     }
 
-    private void executeTask(Connection connection, TaskExec task, Map<String, Object> values)
+    /**
+     * Writes a statement event, or adds it to the buffer of the file in monotonic mode, recording
+     * its latency in the histograms right away. The buffer is handed to the registry when it is
+     * full.
+     */
+    private void recordStatementEvent(
+        @Nullable StatementEventBuffer statementEvents,
+        SpanContext fileSpan,
+        long startNanos,
+        @Nullable Instant startTime,
+        String id,
+        Status status,
+        @Nullable String payload) {
+      long endNanos = System.nanoTime();
+      if (phaseMetrics != null) {
+        phaseMetrics.statementExecuted(status, endNanos - startNanos);
+      }
+      if (statementEvents == null) {
+        writeStatementEvent(histograms, fileSpan.createChild(), startTime, id, status, payload);
+        return;
+      }
+      if (histograms != null) {
+        histograms.record(
+            EventType.EXEC_STATEMENT,
+            id,
+            Math.max(0, TimeUnit.NANOSECONDS.toMicros(endNanos - startNanos)));
+      }
+      if (statementEvents.add(
+          startNanos, endNanos, id, status, payload, fileSpan, SpanContext.newSpanId())) {
+        telemetryRegistry.writeStatementEvents(statementEvents);
+      }
+    }
+
+    /** Returns a buffer for the statement events of a file, reusing one from a previous file. */
+    private StatementEventBuffer acquireStatementEventBuffer() {
+      StatementEventBuffer statementEvents = statementEventBuffers.poll();
+      return statementEvents != null
+          ? statementEvents
+          : new StatementEventBuffer(STATEMENT_EVENT_BUFFER_CAPACITY, clock);
+    }
+
+    /** Writes the statement events left in the buffer of a file and keeps it for reuse. */
+    private void releaseStatementEventBuffer(@Nullable StatementEventBuffer statementEvents) {
+      if (statementEvents == null) {
+        return;
+      }
+      telemetryRegistry.writeStatementEvents(statementEvents);
+      statementEventBuffers.add(statementEvents);
+    }
+
+    /**
+     * Executes a batch of statements. An event is written for each statement with the update count
+     * returned by the driver, if any, and the start and end times of the batch.
+     */
+    private void executeBatch(
+        PooledConnection connection,
+        List<StatementExec> batch,
+        Map<String, Object> values,
+        SpanContext fileSpan)
         throws SQLException {
-      for (FileExec file : task.getFiles()) {
-        Instant fileStartTime = Instant.now();
+      Instant batchStartTime = now();
+      long batchStartNanos = System.nanoTime();
+      StatementEvent[] statementJfrEvents = new StatementEvent[batch.size()];
+      for (int i = 0; i < batch.size(); i++) {
+        statementJfrEvents[i] = StatementEvent.createIfEnabled();
+        if (statementJfrEvents[i] != null) {
+          statementJfrEvents[i].begin();
+        }
+      }
+      int[] updateCounts;
+      try {
+        updateCounts = executeBatchStatements(connection, batch, values);
+      } catch (Exception e) {
+        LOGGER.error("Exception executing batch starting at statement: " + batch.get(0).getId());
+        // Statements processed before the error succeeded, depending on the driver
+        BatchUpdateException batchException = null;
+        if (e instanceof BatchUpdateException) {
+          batchException = (BatchUpdateException) e;
+        } else if (e.getCause() instanceof BatchUpdateException) {
+          batchException = (BatchUpdateException) e.getCause();
+        }
+        int[] partialUpdateCounts =
+            batchException == null || batchException.getUpdateCounts() == null
+                ? new int[0]
+                : batchException.getUpdateCounts();
+        for (int i = 0; i < batch.size(); i++) {
+          if (i < partialUpdateCounts.length
+              && partialUpdateCounts[i] != Statement.EXECUTE_FAILED) {
+            completeBatchStatement(
+                statementJfrEvents[i],
+                batch.get(i).getId(),
+                Status.SUCCESS,
+                batchStartNanos,
+                partialUpdateCounts[i]);
+            writeStatementEvent(
+                histograms,
+                fileSpan.createChild(),
+                batchStartTime,
+                batch.get(i).getId(),
+                Status.SUCCESS,
+                getBatchPayload(batch, partialUpdateCounts[i]));
+          } else {
+            completeBatchStatement(
+                statementJfrEvents[i],
+                batch.get(i).getId(),
+                getFailureStatus(e),
+                batchStartNanos,
+                Statement.EXECUTE_FAILED);
+            writeStatementEvent(
+                histograms,
+                fileSpan.createChild(),
+                batchStartTime,
+                batch.get(i).getId(),
+                getFailureStatus(e),
+                null);
+          }
+        }
+        throw e;
+      }
+      for (int i = 0; i < batch.size(); i++) {
+        int updateCount = i < updateCounts.length ? updateCounts[i] : Statement.SUCCESS_NO_INFO;
+        completeBatchStatement(
+            statementJfrEvents[i],
+            batch.get(i).getId(),
+            Status.SUCCESS,
+            batchStartNanos,
+            updateCount);
+        writeStatementEvent(
+            histograms,
+            fileSpan.createChild(),
+            batchStartTime,
+            batch.get(i).getId(),
+            Status.SUCCESS,
+            getBatchPayload(batch, updateCount));
+      }
+    }
+
+    /**
+     * Completes the flight recorder event of a statement of a batch and counts it in the live
+     * metrics, with the latency of the batch.
+     */
+    private void completeBatchStatement(
+        @Nullable StatementEvent statementJfrEvent,
+        String id,
+        Status status,
+        long batchStartNanos,
+        int updateCount) {
+      if (statementJfrEvent != null) {
+        if (updateCount >= 0) {
+          statementJfrEvent.setRows(updateCount);
+        }
+        statementJfrEvent.complete(id, status);
+      }
+      if (phaseMetrics != null) {
+        phaseMetrics.statementExecuted(status, System.nanoTime() - batchStartNanos);
+      }
+    }
+
+    private int[] executeBatchStatements(
+        PooledConnection connection, List<StatementExec> batch, Map<String, Object> values)
+        throws SQLException {
+      try (Statement s = connection.getConnection().createStatement()) {
+        runningStatements.add(s);
+        connectionRouter.statementStarted(connectionId);
         try {
-          for (StatementExec statement : file.getStatements()) {
-            Instant statementStartTime = Instant.now();
-            try (Statement s = connection.createStatement()) {
-              boolean hasResults =
-                  s.execute(StringUtils.replaceParameters(statement, values).getStatement());
-              if (hasResults) {
-                ResultSet rs = s.getResultSet();
-                while (rs.next()) {
-                  // do nothing
-                }
+          // Cancel may have been called, or the file interrupted, before the statement was
+          // registered
+          if (isCancelled() || Thread.currentThread().isInterrupted()) {
+            throw createCancellationException(null);
+          }
+          for (StatementExec statement : batch) {
+            String sql = statement.getTemplate().render(values);
+            connection.trackSessionStatement(sql);
+            s.addBatch(sql);
+          }
+          StatementWatchdog.Watch watch = watchStatement(s);
+          try {
+            int[] updateCounts = s.executeBatch();
+            if (watch != null && watch.isExpired()) {
+              // The driver could not cancel the batch, but it still exceeded the timeout
+              throw new SQLTimeoutException(
+                  "Batch starting at statement "
+                      + batch.get(0).getId()
+                      + " completed after timing out");
+            }
+            return updateCounts;
+          } catch (SQLTimeoutException e) {
+            throw e;
+          } catch (SQLException e) {
+            if (watch != null && watch.isExpired()) {
+              throw new SQLTimeoutException(
+                  "Batch starting at statement "
+                      + batch.get(0).getId()
+                      + " was cancelled after timing out",
+                  e);
+            } else if (isCancelled()) {
+              throw createCancellationException(e);
+            }
+            throw e;
+          } finally {
+            if (watch != null) {
+              watch.close();
+            }
+          }
+        } finally {
+          runningStatements.remove(s);
+          connectionRouter.statementFinished(connectionId);
+        }
+      }
+    }
+
+    private String getBatchPayload(List<StatementExec> batch, int updateCount) {
+      Map<String, Object> payload = new LinkedHashMap<>();
+      payload.put("batch_size", batch.size());
+      if (updateCount >= 0) {
+        payload.put("update_count", updateCount);
+      }
+      try {
+        return toPayload(payload);
+      } catch (JsonProcessingException e) {
+        throw new IllegalStateException("Error serializing statement payload", e);
+      }
+    }
+
+    /**
+     * Executes a statement and reads its results according to the result consumption of the task.
+     *
+     * @return the payload for the statement event, with the number of rows, their estimated size or
+     *     fingerprint, and the time to the first row, or null if the statement did not return
+     *     results. If the latency breakdown is enabled, the payload also has the time spent in each
+     *     client-side segment of the execution. The number of rows is also set on the flight
+     *     recorder event, if any. The results are read with the given consumer and the payload is
+     *     written with the given builder, which are reused by the statements of the file.
+     */
+    @Nullable private String executeStatement(
+        PooledConnection connection,
+        TaskExec task,
+        StatementExec statement,
+        Map<String, Object> values,
+        ResultSetConsumer results,
+        PayloadBuilder statementPayload,
+        @Nullable StatementEvent statementJfrEvent)
+        throws SQLException {
+      // The clock is only read for the breakdown when it is enabled
+      boolean latencyBreakdown = config.isLatencyBreakdown();
+      long renderStartNanos = latencyBreakdown ? System.nanoTime() : 0L;
+      String sql = statement.getTemplate().render(values);
+      long renderEndNanos = latencyBreakdown ? System.nanoTime() : 0L;
+      connection.trackSessionStatement(sql);
+      statementPayload.reset();
+      Statement s;
+      if (task.isPrepared()) {
+        long prepareStartNanos = System.nanoTime();
+        PreparedStatementCache statementCache = connection.getStatementCache();
+        PreparedStatement ps = statementCache.get(statement.getId(), sql);
+        statementPayload.add("prepared_cache_hit", ps != null);
+        if (ps == null) {
+          ps = statementCache.prepare(connection.getConnection(), statement.getId(), sql);
+        }
+        statementPayload.add(
+            "prepare_time_ms", (System.nanoTime() - prepareStartNanos) / (double) NANOS_PER_MILLI);
+        s = ps;
+      } else {
+        s = connection.getConnection().createStatement();
+      }
+      boolean success = false;
+      runningStatements.add(s);
+      connectionRouter.statementStarted(connectionId);
+      try {
+        // Cancel may have been called, or the file interrupted, before the statement was registered
+        if (isCancelled() || Thread.currentThread().isInterrupted()) {
+          throw createCancellationException(null);
+        }
+        Integer fetchSize =
+            task.getFetchSize() != null ? task.getFetchSize() : connectionManager.getFetchSize();
+        if (fetchSize != null) {
+          s.setFetchSize(fetchSize);
+        }
+        StatementWatchdog.Watch watch = watchStatement(s);
+        try {
+          long bindStartNanos = latencyBreakdown ? System.nanoTime() : 0L;
+          if (task.isPrepared()) {
+            PreparedStatement ps = (PreparedStatement) s;
+            for (int i = 0; i < statement.getParameters().size(); i++) {
+              ps.setObject(i + 1, statement.getParameters().get(i));
+            }
+          }
+          long executeStartNanos = System.nanoTime();
+          boolean hasResults;
+          if (task.isPrepared()) {
+            hasResults = ((PreparedStatement) s).execute();
+            statementPayload.add(
+                "execute_time_ms",
+                (System.nanoTime() - executeStartNanos) / (double) NANOS_PER_MILLI);
+          } else {
+            hasResults = s.execute(sql);
+          }
+          long executeEndNanos = latencyBreakdown ? System.nanoTime() : 0L;
+          long drainEndNanos = executeEndNanos;
+          ResultConsumption consumption =
+              task.getResultConsumption() != null
+                  ? task.getResultConsumption()
+                  : ResultConsumption.COUNT;
+          if (hasResults) {
+            try (ResultSet rs = s.getResultSet()) {
+              results.read(rs, consumption);
+              if (latencyBreakdown) {
+                drainEndNanos = System.nanoTime();
               }
-            } catch (Exception e) {
-              LOGGER.error("Exception executing statement: " + statement.getId());
-              writeStatementEvent(statementStartTime, statement.getId(), Status.FAILURE);
-              throw e;
             }
-            writeStatementEvent(statementStartTime, statement.getId(), Status.SUCCESS);
           }
-        } catch (Exception e) {
-          LOGGER.error("Exception executing file: " + file.getId());
-          writeFileEvent(fileStartTime, file.getId(), Status.FAILURE);
+          if (latencyBreakdown) {
+            if (!task.isPrepared()) {
+              // Closed here so it is timed, closing it again below has no effect
+              s.close();
+            }
+            long closeEndNanos = System.nanoTime();
+            // Consecutive segments, from rendering the statement until it is closed
+            statementPayload
+                .beginObject("latency_breakdown")
+                .add("render_ms", (renderEndNanos - renderStartNanos) / (double) NANOS_PER_MILLI)
+                .add("prepare_ms", (bindStartNanos - renderEndNanos) / (double) NANOS_PER_MILLI)
+                .add("bind_ms", (executeStartNanos - bindStartNanos) / (double) NANOS_PER_MILLI)
+                .add(
+                    "submit_to_return_ms",
+                    (executeEndNanos - executeStartNanos) / (double) NANOS_PER_MILLI);
+            if (hasResults && results.hasFirstRow()) {
+              long firstRowNanos = results.getFirstRowNanos();
+              statementPayload
+                  .add(
+                      "return_to_first_row_ms",
+                      (firstRowNanos - executeEndNanos) / (double) NANOS_PER_MILLI)
+                  .add("drain_ms", (drainEndNanos - firstRowNanos) / (double) NANOS_PER_MILLI);
+            } else {
+              statementPayload.add(
+                  "drain_ms", (drainEndNanos - executeEndNanos) / (double) NANOS_PER_MILLI);
+            }
+            statementPayload
+                .add("close_ms", (closeEndNanos - drainEndNanos) / (double) NANOS_PER_MILLI)
+                .endObject();
+          }
+          if (watch != null && watch.isExpired()) {
+            // The driver could not cancel the statement, but it still exceeded the timeout
+            throw new SQLTimeoutException(
+                "Statement " + statement.getId() + " completed after timing out");
+          }
+          if (hasResults && consumption != ResultConsumption.SKIP) {
+            statementPayload.add("rows", results.getRows());
+            if (statementJfrEvent != null) {
+              statementJfrEvent.setRows(results.getRows());
+            }
+            if (consumption == ResultConsumption.MATERIALIZE) {
+              statementPayload.add("estimated_bytes", results.getEstimatedBytes());
+            } else if (consumption == ResultConsumption.FINGERPRINT) {
+              statementPayload.addHex("result_fingerprint", results.getFingerprint());
+            }
+            if (results.hasFirstRow()) {
+              statementPayload.add(
+                  "time_to_first_row_ms",
+                  (results.getFirstRowNanos() - executeStartNanos) / (double) NANOS_PER_MILLI);
+            }
+          }
+          success = true;
+          return statementPayload.build();
+        } catch (SQLTimeoutException e) {
+          throw e;
+        } catch (SQLException e) {
+          if (watch != null && watch.isExpired()) {
+            throw new SQLTimeoutException(
+                "Statement " + statement.getId() + " was cancelled after timing out", e);
+          } else if (isCancelled()) {
+            throw createCancellationException(e);
+          }
           throw e;
+        } finally {
+          if (watch != null) {
+            watch.close();
+          }
+        }
+      } finally {
+        runningStatements.remove(s);
+        connectionRouter.statementFinished(connectionId);
+        if (!task.isPrepared()) {
+          s.close();
+        } else if (!success) {
+          // Do not reuse a statement that may be in an unknown state
+          connection.getStatementCache().invalidate(statement.getId());
+        }
+      }
+    }
+
+    /**
+     * Sets the statement and task timeouts on a statement. The driver is asked to enforce the
+     * statement timeout, and the watchdog cancels the statement if the driver does not enforce it
+     * or if the task times out first.
+     */
+    @Nullable private StatementWatchdog.Watch watchStatement(Statement s) throws SQLException {
+      long timeoutNanos = Long.MAX_VALUE;
+      if (config.getStatementTimeoutSeconds() != null) {
+        try {
+          s.setQueryTimeout(Math.toIntExact(config.getStatementTimeoutSeconds()));
+        } catch (SQLFeatureNotSupportedException e) {
+          // Rely on the watchdog only
         }
-        writeFileEvent(fileStartTime, file.getId(), Status.SUCCESS);
+        timeoutNanos = TimeUnit.SECONDS.toNanos(config.getStatementTimeoutSeconds());
+      }
+      if (taskDeadlineNanos != null) {
+        timeoutNanos = Math.min(timeoutNanos, taskDeadlineNanos - System.nanoTime());
       }
+      if (timeoutNanos == Long.MAX_VALUE) {
+        return null;
+      }
+      return statementWatchdog.watch(s, timeoutNanos);
     }
 
+    /**
+     * Returns the runtime parameter values for a task. The returned map is shared and must not be
+     * modified.
+     */
     private Map<String, Object> getRuntimeParameterValues(TaskExec task) {
+      if (task.getTimeTravelPhaseId() == null) {
+        return runtimeParameterValues;
+      }
+      // The time travel phase is a dependency of this phase, so its end time does not change
+      return timeTravelPhaseIdToValues.computeIfAbsent(
+          task.getTimeTravelPhaseId(), this::createTimeTravelParameterValues);
+    }
+
+    private Map<String, Object> createTimeTravelParameterValues(String timeTravelPhaseId) {
       Map<String, Object> values = new HashMap<>(this.runtimeParameterValues);
-      if (task.getTimeTravelPhaseId() != null) {
-        Instant ttPhaseEndTime = phaseIdToEndTime.get(task.getTimeTravelPhaseId());
-        if (ttPhaseEndTime == null) {
-          throw new RuntimeException(
-              "Time travel phase identifier not found: " + task.getTimeTravelPhaseId());
-        }
-        // We round to the next second to make sure we are capturing the changes in case
-        // are consecutive phases
-        String timeTravelValue =
-            DateTimeFormatter.AS_OF_FORMATTER.format(
-                ttPhaseEndTime.truncatedTo(ChronoUnit.SECONDS).plusSeconds(1));
-        values.put("asof", "TIMESTAMP AS OF " + StringUtils.quote(timeTravelValue));
-      }
-      return values;
+      Instant ttPhaseEndTime = phaseIdToEndTime.get(timeTravelPhaseId);
+      if (ttPhaseEndTime == null) {
+        throw new RuntimeException("Time travel phase identifier not found: " + timeTravelPhaseId);
+      }
+      // We round to the next second to make sure we are capturing the changes in case
+      // are consecutive phases
+      String timeTravelValue =
+          DateTimeFormatter.AS_OF_FORMATTER.format(
+              ttPhaseEndTime.truncatedTo(ChronoUnit.SECONDS).plusSeconds(1));
+      values.put("asof", "TIMESTAMP AS OF " + StringUtils.quote(timeTravelValue));
+      return Collections.unmodifiableMap(values);
     }
   }
 }
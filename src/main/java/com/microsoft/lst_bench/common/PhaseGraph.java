@@ -0,0 +1,122 @@
+/*
+ * Copyright (c) Microsoft Corporation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.microsoft.lst_bench.common;
+
+import com.microsoft.lst_bench.exec.PhaseExec;
+import com.microsoft.lst_bench.exec.SessionExec;
+import com.microsoft.lst_bench.exec.TaskExec;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Dependency graph between the phases of a workload. A phase can only depend on phases declared
+ * before it, so the declaration order is always a valid execution order and the graph cannot
+ * contain cycles.
+ */
+public class PhaseGraph {
+
+  private final List<PhaseExec> phases;
+  private final Map<String, Set<String>> idToAncestors;
+
+  /**
+   * Creates the dependency graph for a list of phases.
+   *
+   * @param phases the phases in declaration order
+   * @throws IllegalArgumentException if a phase identifier is duplicated, a phase depends on a
+   *     phase that is not declared before it, or a task time travels to a phase that is not
+   *     guaranteed to have finished when the task runs
+   */
+  public PhaseGraph(List<PhaseExec> phases) {
+    this.phases = Collections.unmodifiableList(phases);
+    this.idToAncestors = new HashMap<>();
+    for (PhaseExec phase : phases) {
+      if (idToAncestors.containsKey(phase.getId())) {
+        throw new IllegalArgumentException("Duplicate phase id: " + phase.getId());
+      }
+      Set<String> ancestors = new HashSet<>();
+      for (String dependency : phase.getDependsOn()) {
+        Set<String> dependencyAncestors = idToAncestors.get(dependency);
+        if (dependencyAncestors == null) {
+          throw new IllegalArgumentException(
+              "Phase "
+                  + phase.getId()
+                  + " depends on "
+                  + dependency
+                  + ", which is not declared before it");
+        }
+        ancestors.add(dependency);
+        ancestors.addAll(dependencyAncestors);
+      }
+      idToAncestors.put(phase.getId(), Collections.unmodifiableSet(ancestors));
+      validateTimeTravel(phase, ancestors);
+    }
+  }
+
+  /**
+   * Time travel queries use the end time of the target phase, so that phase must have finished
+   * before the task runs.
+   */
+  private static void validateTimeTravel(PhaseExec phase, Set<String> ancestors) {
+    for (SessionExec session : phase.getSessions()) {
+      for (TaskExec task : session.getTasks()) {
+        if (task.getTimeTravelPhaseId() != null
+            && !ancestors.contains(task.getTimeTravelPhaseId())) {
+          throw new IllegalArgumentException(
+              "Task "
+                  + task.getId()
+                  + " in phase "
+                  + phase.getId()
+                  + " time travels to phase "
+                  + task.getTimeTravelPhaseId()
+                  + ", which is not a dependency of the phase");
+        }
+      }
+    }
+  }
+
+  public List<PhaseExec> getPhases() {
+    return phases;
+  }
+
+  /** Returns the identifiers of the phases that a phase depends on, directly or transitively. */
+  public Set<String> getAncestors(String phaseId) {
+    return idToAncestors.get(phaseId);
+  }
+
+  /**
+   * Returns an upper bound on the number of sessions that may run concurrently. Only phases that do
+   * not depend on each other, directly or transitively, can run at the same time.
+   */
+  public int getMaxConcurrentSessions() {
+    int maxConcurrentSessions = 1;
+    for (PhaseExec phase : phases) {
+      int concurrentSessions = phase.getSessions().size();
+      for (PhaseExec other : phases) {
+        if (other != phase
+            && !getAncestors(phase.getId()).contains(other.getId())
+            && !getAncestors(other.getId()).contains(phase.getId())) {
+          concurrentSessions += other.getSessions().size();
+        }
+      }
+      maxConcurrentSessions = Math.max(maxConcurrentSessions, concurrentSessions);
+    }
+    return maxConcurrentSessions;
+  }
+}
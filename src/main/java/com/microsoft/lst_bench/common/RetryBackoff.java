@@ -0,0 +1,86 @@
+/*
+ * Copyright (c) Microsoft Corporation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.microsoft.lst_bench.common;
+
+import com.microsoft.lst_bench.input.RetryPolicy;
+import com.microsoft.lst_bench.sql.SQLExceptionClassifier.Category;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+/** Utility class to apply task retry policies. */
+public class RetryBackoff {
+
+  static final long DEFAULT_INITIAL_BACKOFF_MS = 100;
+  static final long DEFAULT_MAX_BACKOFF_MS = 30_000;
+  static final double DEFAULT_BACKOFF_MULTIPLIER = 2;
+  static final double DEFAULT_JITTER = 0.5;
+  static final List<Category> DEFAULT_RETRY_ON = List.of(Category.CONFLICT, Category.TRANSIENT);
+
+  private RetryBackoff() {
+    // Defeat instantiation
+  }
+
+  /** Returns whether a task that failed with an error of the given category can be retried. */
+  public static boolean isRetryable(RetryPolicy policy, Category category) {
+    List<Category> retryOn = policy.getRetryOn() == null ? DEFAULT_RETRY_ON : policy.getRetryOn();
+    return retryOn.contains(category);
+  }
+
+  /**
+   * Computes the delay before the next attempt. The delay grows exponentially with the number of
+   * failed attempts up to the maximum backoff, and a random fraction of it given by the jitter is
+   * subtracted so that sessions that conflicted with each other do not retry in lockstep.
+   *
+   * @param policy the retry policy
+   * @param failedAttempts the number of attempts that failed so far, starting at 1
+   * @return the delay in milliseconds
+   */
+  public static long computeDelayMs(RetryPolicy policy, int failedAttempts) {
+    long initial =
+        policy.getInitialBackoffMs() == null
+            ? DEFAULT_INITIAL_BACKOFF_MS
+            : policy.getInitialBackoffMs();
+    long max = policy.getMaxBackoffMs() == null ? DEFAULT_MAX_BACKOFF_MS : policy.getMaxBackoffMs();
+    double multiplier =
+        policy.getBackoffMultiplier() == null
+            ? DEFAULT_BACKOFF_MULTIPLIER
+            : policy.getBackoffMultiplier();
+    double jitter = policy.getJitter() == null ? DEFAULT_JITTER : policy.getJitter();
+    double delay = Math.min(max, initial * Math.pow(multiplier, failedAttempts - 1));
+    return Math.round(delay * (1 - jitter * ThreadLocalRandom.current().nextDouble()));
+  }
+
+  /**
+   * Validates a retry policy.
+   *
+   * @throws IllegalArgumentException if the policy is invalid
+   */
+  public static void validate(RetryPolicy policy) {
+    if (policy.getMaxAttempts() < 1) {
+      throw new IllegalArgumentException("Retry max attempts must be at least 1");
+    }
+    if ((policy.getInitialBackoffMs() != null && policy.getInitialBackoffMs() < 0)
+        || (policy.getMaxBackoffMs() != null && policy.getMaxBackoffMs() < 0)) {
+      throw new IllegalArgumentException("Retry backoff cannot be negative");
+    }
+    if (policy.getBackoffMultiplier() != null && policy.getBackoffMultiplier() < 1) {
+      throw new IllegalArgumentException("Retry backoff multiplier must be at least 1");
+    }
+    if (policy.getJitter() != null && (policy.getJitter() < 0 || policy.getJitter() > 1)) {
+      throw new IllegalArgumentException("Retry jitter must be between 0 and 1");
+    }
+  }
+}
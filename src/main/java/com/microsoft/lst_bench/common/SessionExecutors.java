@@ -0,0 +1,91 @@
+/*
+ * Copyright (c) Microsoft Corporation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.microsoft.lst_bench.common;
+
+import com.microsoft.lst_bench.input.config.ExperimentConfig.ExecutorMode;
+import java.lang.reflect.InvocationTargetException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/** Utility class to create the executor services that run sessions. */
+public class SessionExecutors {
+
+  private SessionExecutors() {
+    // Defeat instantiation
+  }
+
+  /**
+   * Creates an executor service to run sessions.
+   *
+   * <p>In {@link ExecutorMode#PLATFORM} mode, the executor is a pool with one platform thread per
+   * concurrent session. In {@link ExecutorMode#VIRTUAL} mode, each session runs on its own virtual
+   * thread. Since sessions spend most of their time blocked on JDBC calls, virtual threads allow
+   * simulating a large number of concurrent sessions without allocating an OS thread for each of
+   * them. Virtual threads require the application to run on Java 21 or later.
+   *
+   * @param mode the type of threads used to run sessions
+   * @param maxConcurrentSessions the maximum number of sessions that will run concurrently
+   * @return an executor service
+   * @throws IllegalStateException if virtual threads are not supported by the running JVM
+   */
+  public static ExecutorService create(ExecutorMode mode, int maxConcurrentSessions) {
+    switch (mode) {
+      case PLATFORM:
+        return Executors.newFixedThreadPool(maxConcurrentSessions);
+      case VIRTUAL:
+        return newVirtualThreadPerTaskExecutor();
+      default:
+        throw new IllegalStateException("Unknown executor mode: " + mode);
+    }
+  }
+
+  /**
+   * Creates an executor service without a bound on the number of tasks running concurrently, e.g.,
+   * to run the tasks that arrive at an open-loop session. In {@link ExecutorMode#PLATFORM} mode,
+   * idle platform threads are reused; in {@link ExecutorMode#VIRTUAL} mode, each task runs on its
+   * own virtual thread.
+   *
+   * @param mode the type of threads used to run tasks
+   * @return an executor service
+   * @throws IllegalStateException if virtual threads are not supported by the running JVM
+   */
+  public static ExecutorService createUnbounded(ExecutorMode mode) {
+    switch (mode) {
+      case PLATFORM:
+        return Executors.newCachedThreadPool();
+      case VIRTUAL:
+        return newVirtualThreadPerTaskExecutor();
+      default:
+        throw new IllegalStateException("Unknown executor mode: " + mode);
+    }
+  }
+
+  private static ExecutorService newVirtualThreadPerTaskExecutor() {
+    // Resolved reflectively so the application can still be compiled for and run on Java 17
+    try {
+      return (ExecutorService)
+          Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+    } catch (NoSuchMethodException | IllegalAccessException e) {
+      throw new IllegalStateException(
+          "Virtual thread executor mode requires Java 21 or later, running on Java "
+              + Runtime.version(),
+          e);
+    } catch (InvocationTargetException e) {
+      throw new IllegalStateException(
+          "Unable to create virtual thread executor", e.getTargetException());
+    }
+  }
+}
@@ -0,0 +1,87 @@
+/*
+ * Copyright (c) Microsoft Corporation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.microsoft.lst_bench.common;
+
+import com.microsoft.lst_bench.exec.FileExec;
+import com.microsoft.lst_bench.sql.SQLParser;
+import com.microsoft.lst_bench.util.FileParser;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Parsed SQL, permutation order and parameter values files of the task templates. Each file is read
+ * the first time it is used, which happens while the configuration is loaded, so new cycles of
+ * duration-bounded phases are created without reading from disk. Parsed files are immutable and can
+ * be shared by concurrent sessions.
+ */
+class TaskFileCache {
+
+  private final Map<String, FileExec> pathToFile;
+  private final Map<String, List<List<String>>> directoryToPermutationOrders;
+  private final Map<String, List<Map<String, Object>>> pathToParameterValues;
+
+  TaskFileCache() {
+    this.pathToFile = new ConcurrentHashMap<>();
+    this.directoryToPermutationOrders = new ConcurrentHashMap<>();
+    this.pathToParameterValues = new ConcurrentHashMap<>();
+  }
+
+  FileExec getStatements(String path) {
+    FileExec file = pathToFile.get(path);
+    return file != null ? file : pathToFile.computeIfAbsent(path, SQLParser::getStatements);
+  }
+
+  int getPermutationOrderCount(String directory) {
+    return getPermutationOrders(directory).size();
+  }
+
+  List<String> getPermutationOrder(String directory, int counter) {
+    List<List<String>> permutationOrders = getPermutationOrders(directory);
+    if (counter >= permutationOrders.size()) {
+      throw new IllegalArgumentException(
+          "Cannot find permutation order file with index: " + counter);
+    }
+    return permutationOrders.get(counter);
+  }
+
+  private List<List<String>> getPermutationOrders(String directory) {
+    List<List<String>> permutationOrders = directoryToPermutationOrders.get(directory);
+    return permutationOrders != null
+        ? permutationOrders
+        : directoryToPermutationOrders.computeIfAbsent(directory, FileParser::getPermutationOrders);
+  }
+
+  int getParameterValuesCount(String path) {
+    return getParameterValues(path).size();
+  }
+
+  /** Returns the parameter values of a line of the file, where line 1 follows the header. */
+  Map<String, Object> getParameterValues(String path, int counter) {
+    List<Map<String, Object>> parameterValues = getParameterValues(path);
+    if (counter < 1 || counter > parameterValues.size()) {
+      throw new IllegalArgumentException("Cannot find parameter values with index: " + counter);
+    }
+    return parameterValues.get(counter - 1);
+  }
+
+  private List<Map<String, Object>> getParameterValues(String path) {
+    List<Map<String, Object>> parameterValues = pathToParameterValues.get(path);
+    return parameterValues != null
+        ? parameterValues
+        : pathToParameterValues.computeIfAbsent(path, FileParser::getParameterValues);
+  }
+}
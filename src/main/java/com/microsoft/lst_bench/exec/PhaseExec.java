@@ -15,7 +15,9 @@
  */
 package com.microsoft.lst_bench.exec;
 
+import com.microsoft.lst_bench.input.Phase;
 import java.util.List;
+import javax.annotation.Nullable;
 import org.immutables.value.Value;
 
 /** Represents a phase in a workload. */
@@ -26,4 +28,13 @@ public interface PhaseExec {
   String getId();
 
   List<SessionExec> getSessions();
+
+  @Value.Parameter(false)
+  List<String> getDependsOn();
+
+  @Value.Parameter(false)
+  @Nullable Phase.Arrival getArrival();
+
+  @Value.Parameter(false)
+  @Nullable Long getDurationSeconds();
 }
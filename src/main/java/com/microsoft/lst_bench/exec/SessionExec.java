@@ -16,6 +16,7 @@
 package com.microsoft.lst_bench.exec;
 
 import java.util.List;
+import javax.annotation.Nullable;
 import org.immutables.value.Value;
 
 /** Represents a session in a phase. */
@@ -26,4 +27,7 @@ public interface SessionExec {
   String getId();
 
   List<TaskExec> getTasks();
+
+  @Value.Parameter(false)
+  @Nullable String getTargetEndpoint();
 }
@@ -15,6 +15,8 @@
  */
 package com.microsoft.lst_bench.exec;
 
+import com.microsoft.lst_bench.util.StatementTemplate;
+import java.util.List;
 import org.immutables.value.Value;
 
 /** Represents a statement in a file. */
@@ -25,4 +27,17 @@ public interface StatementExec {
   String getId();
 
   String getStatement();
+
+  /**
+   * Values of the bind parameters of the statement, in the order in which they appear. If the task
+   * is prepared, they are bound to the statement with {@link java.sql.PreparedStatement#setObject}.
+   */
+  @Value.Parameter(false)
+  List<Object> getParameters();
+
+  /** Compiled form of the statement text, used to replace runtime parameters. */
+  @Value.Lazy
+  default StatementTemplate getTemplate() {
+    return StatementTemplate.compile(getStatement());
+  }
 }
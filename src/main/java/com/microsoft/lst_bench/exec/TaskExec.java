@@ -15,6 +15,8 @@
  */
 package com.microsoft.lst_bench.exec;
 
+import com.microsoft.lst_bench.input.RetryPolicy;
+import com.microsoft.lst_bench.input.TaskTemplate;
 import java.util.List;
 import javax.annotation.Nullable;
 import org.immutables.value.Value;
@@ -30,4 +32,33 @@ public interface TaskExec {
 
   @Value.Parameter(false)
   @Nullable String getTimeTravelPhaseId();
+
+  @Value.Parameter(false)
+  @Nullable Integer getFileParallelism();
+
+  /**
+   * Group of each file, in the same order as the files. Files in a group start after all files in
+   * previous groups complete. If empty, all files belong to the same group.
+   */
+  @Value.Parameter(false)
+  List<Integer> getFileGroups();
+
+  @Value.Parameter(false)
+  @Nullable RetryPolicy getRetryPolicy();
+
+  @Value.Parameter(false)
+  @Nullable Integer getFetchSize();
+
+  @Value.Parameter(false)
+  @Nullable Integer getBatchSize();
+
+  /** Whether the statements of the task are executed as cached prepared statements. */
+  @Value.Parameter(false)
+  @Value.Default
+  default boolean isPrepared() {
+    return false;
+  }
+
+  @Value.Parameter(false)
+  @Nullable TaskTemplate.ResultConsumption getResultConsumption();
 }
@@ -16,9 +16,11 @@
 package com.microsoft.lst_bench.input;
 
 import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonProperty;
 import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
 import com.fasterxml.jackson.databind.annotation.JsonSerialize;
 import java.util.List;
+import javax.annotation.Nullable;
 import org.immutables.value.Value;
 
 /** POJO class meant to be used to deserialize an input phase. */
@@ -31,4 +33,76 @@ public interface Phase {
   String getId();
 
   List<Session> getSessions();
+
+  @JsonProperty("target_endpoint")
+  @Nullable String getTargetEndpoint();
+
+  @Nullable Arrival getArrival();
+
+  /**
+   * Identifiers of the phases that must complete before this phase starts. If not specified, the
+   * phase depends on the phase declared right before it.
+   */
+  @JsonProperty("depends_on")
+  @Nullable List<String> getDependsOn();
+
+  /**
+   * If specified, sessions in the phase keep cycling through their tasks until the duration
+   * elapses, instead of running them once.
+   */
+  @JsonProperty("duration_seconds")
+  @Nullable Long getDurationSeconds();
+
+  /**
+   * Open-loop arrival configuration. If specified, each session in the phase receives its tasks
+   * following the arrival process instead of running them back-to-back.
+   */
+  @Value.Immutable
+  @JsonSerialize(as = ImmutableArrival.class)
+  @JsonDeserialize(as = ImmutableArrival.class)
+  @JsonInclude(JsonInclude.Include.NON_NULL)
+  interface Arrival {
+    ArrivalProcess getProcess();
+
+    /** Initial arrival rate, in tasks per second per session. */
+    double getRate();
+
+    @Nullable Long getSeed();
+
+    @Nullable List<ArrivalStage> getProfile();
+  }
+
+  /** A stage in a time-varying arrival rate profile. */
+  @Value.Immutable
+  @JsonSerialize(as = ImmutableArrivalStage.class)
+  @JsonDeserialize(as = ImmutableArrivalStage.class)
+  interface ArrivalStage {
+    StageShape getShape();
+
+    @JsonProperty("duration_seconds")
+    double getDurationSeconds();
+
+    double getRate();
+  }
+
+  /** Enumerates the processes that can be used to generate arrivals. */
+  enum ArrivalProcess {
+    @JsonProperty("constant")
+    CONSTANT,
+    @JsonProperty("poisson")
+    POISSON;
+  }
+
+  /** Enumerates the shapes of a stage in an arrival rate profile. */
+  enum StageShape {
+    /** The rate changes to the stage rate for the duration of the stage. */
+    @JsonProperty("step")
+    STEP,
+    /** The rate changes linearly from the previous rate to the stage rate. */
+    @JsonProperty("ramp")
+    RAMP,
+    /** The rate changes to the stage rate and returns to the previous rate after the stage. */
+    @JsonProperty("spike")
+    SPIKE;
+  }
 }
@@ -0,0 +1,56 @@
+/*
+ * Copyright (c) Microsoft Corporation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.microsoft.lst_bench.input;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+import com.microsoft.lst_bench.sql.SQLExceptionClassifier;
+import java.util.List;
+import javax.annotation.Nullable;
+import org.immutables.value.Value;
+
+/**
+ * POJO class meant to be used to deserialize an input retry policy. A task with a retry policy is
+ * executed again when it fails with an error of one of the retryable categories, waiting for an
+ * exponentially increasing and randomized delay between attempts.
+ */
+@Value.Immutable
+@Value.Style(jdkOnly = true)
+@JsonSerialize(as = ImmutableRetryPolicy.class)
+@JsonDeserialize(as = ImmutableRetryPolicy.class)
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public interface RetryPolicy {
+  /** Maximum number of times the task is executed, including the first attempt. */
+  @JsonProperty("max_attempts")
+  int getMaxAttempts();
+
+  @JsonProperty("initial_backoff_ms")
+  @Nullable Long getInitialBackoffMs();
+
+  @JsonProperty("max_backoff_ms")
+  @Nullable Long getMaxBackoffMs();
+
+  @JsonProperty("backoff_multiplier")
+  @Nullable Double getBackoffMultiplier();
+
+  /** Fraction of each delay that is randomized, between 0 (no jitter) and 1 (full jitter). */
+  @Nullable Double getJitter();
+
+  @JsonProperty("retry_on")
+  @Nullable List<SQLExceptionClassifier.Category> getRetryOn();
+}
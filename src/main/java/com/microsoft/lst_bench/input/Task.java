@@ -42,6 +42,9 @@ public interface Task {
   @JsonProperty("replace_regex")
   @Nullable List<ReplaceRegex> getReplaceRegex();
 
+  /** Retry policy for this task. It takes precedence over the policy of the task template. */
+  @Nullable RetryPolicy getRetry();
+
   @Value.Immutable
   @JsonSerialize(as = ImmutableReplaceRegex.class)
   @JsonDeserialize(as = ImmutableReplaceRegex.class)
@@ -46,4 +46,65 @@ public interface TaskTemplate {
 
   @JsonProperty("supports_time_travel")
   @Nullable Boolean supportsTimeTravel();
+
+  /**
+   * Maximum number of files of a task based on this template that can run concurrently. Each file
+   * that runs concurrently uses its own connection.
+   */
+  @JsonProperty("file_parallelism")
+  @Nullable Integer getFileParallelism();
+
+  /**
+   * Regular expressions that split the files into groups by name. Each file belongs to the group of
+   * the first expression that it matches, and a group starts after the previous group completes.
+   */
+  @JsonProperty("file_groups")
+  @Nullable List<String> getFileGroups();
+
+  @Nullable RetryPolicy getRetry();
+
+  /**
+   * Number of rows that the driver fetches from the server at a time when reading the results of a
+   * task based on this template. It takes precedence over the fetch size of the connection.
+   */
+  @JsonProperty("fetch_size")
+  @Nullable Integer getFetchSize();
+
+  /**
+   * Parameters that are bound to prepared statements instead of replaced in the text of the
+   * statements. If it is specified, the statements of tasks based on this template are executed as
+   * prepared statements, which are cached per connection.
+   */
+  @JsonProperty("bind_parameters")
+  @Nullable List<String> getBindParameters();
+
+  /**
+   * Number of statements of a file that are sent together with {@link java.sql.Statement#addBatch}
+   * and {@link java.sql.Statement#executeBatch}. Batches can only contain statements that do not
+   * return results.
+   */
+  @JsonProperty("batch_size")
+  @Nullable Integer getBatchSize();
+
+  @JsonProperty("result_consumption")
+  @Nullable ResultConsumption getResultConsumption();
+
+  /** How the results of the statements in a task are read. */
+  enum ResultConsumption {
+    /** Results are not read. */
+    @JsonProperty("skip")
+    SKIP,
+    /** Rows are iterated and counted without reading their values. */
+    @JsonProperty("count")
+    COUNT,
+    /** Every column value is read, and the size of the results is estimated. */
+    @JsonProperty("materialize")
+    MATERIALIZE,
+    /**
+     * Every column value is read and hashed into a fingerprint of the results that does not depend
+     * on the order of the rows, so that the answers of different runs can be compared.
+     */
+    @JsonProperty("fingerprint")
+    FINGERPRINT
+  }
 }
@@ -16,6 +16,7 @@
 package com.microsoft.lst_bench.input.config;
 
 import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonProperty;
 import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
 import com.fasterxml.jackson.databind.annotation.JsonSerialize;
 import javax.annotation.Nullable;
@@ -37,4 +38,35 @@ public interface ConnectionConfig {
   @Nullable String getUsername();
 
   @Nullable String getPassword();
+
+  @Nullable Pool getPool();
+
+  /**
+   * Number of rows that the driver fetches from the server at a time when reading results. If it is
+   * not specified, the default of the driver is used.
+   */
+  @JsonProperty("fetch_size")
+  @Nullable Integer getFetchSize();
+
+  /** Represents the configuration of the pool of connections for an endpoint. */
+  @Value.Immutable
+  @JsonSerialize(as = ImmutablePool.class)
+  @JsonDeserialize(as = ImmutablePool.class)
+  @JsonInclude(JsonInclude.Include.NON_NULL)
+  interface Pool {
+    @JsonProperty("max_size")
+    int getMaxSize();
+
+    @JsonProperty("validation_timeout_seconds")
+    @Nullable Integer getValidationTimeoutSeconds();
+
+    @JsonProperty("max_idle_time_seconds")
+    @Nullable Long getMaxIdleTimeSeconds();
+
+    @JsonProperty("max_lifetime_seconds")
+    @Nullable Long getMaxLifetimeSeconds();
+
+    @JsonProperty("acquire_timeout_seconds")
+    @Nullable Long getAcquireTimeoutSeconds();
+  }
 }
@@ -40,4 +40,74 @@ public interface ExperimentConfig {
 
   @JsonProperty("parameter_values")
   @Nullable Map<String, Object> getParameterValues();
+
+  @JsonProperty("connection_routing")
+  @Nullable RoutingStrategy getConnectionRouting();
+
+  @JsonProperty("executor_mode")
+  @Nullable ExecutorMode getExecutorMode();
+
+  @JsonProperty("statement_timeout_seconds")
+  @Nullable Long getStatementTimeoutSeconds();
+
+  @JsonProperty("task_timeout_seconds")
+  @Nullable Long getTaskTimeoutSeconds();
+
+  @JsonProperty("fail_fast")
+  @Nullable Boolean isFailFast();
+
+  /** Whether latency histogram summaries are written at the end of each phase and repetition. */
+  @JsonProperty("latency_histograms")
+  @Nullable Boolean isLatencyHistograms();
+
+  /** Whether the client-side latency breakdown of each statement is added to its payload. */
+  @JsonProperty("latency_breakdown")
+  @Nullable Boolean isLatencyBreakdown();
+
+  @JsonProperty("timing_mode")
+  @Nullable TimingMode getTimingMode();
+
+  /** Fully qualified name of the class used to classify errors for task retries. */
+  @JsonProperty("exception_classifier")
+  @Nullable String getExceptionClassifier();
+
+  /** Enumerates the strategies to assign sessions without a target endpoint to connections. */
+  enum RoutingStrategy {
+    /** Sessions are assigned to the connections in turn. */
+    @JsonProperty("round_robin")
+    ROUND_ROBIN,
+    /**
+     * Sessions are assigned when they start to the connection with the fewest statements running,
+     * and then the fewest active sessions, at the time.
+     */
+    @JsonProperty("least_busy")
+    LEAST_BUSY,
+    /**
+     * Sessions are assigned by hashing the phase and session identifiers, so a session is assigned
+     * to the same connection on every run with the same connections.
+     */
+    @JsonProperty("hash_by_session")
+    HASH_BY_SESSION;
+  }
+
+  /** Enumerates the clocks that can be used to time events. */
+  enum TimingMode {
+    /** Start and end times are read from the system clock. */
+    @JsonProperty("wall_clock")
+    WALL_CLOCK,
+    /**
+     * Times are measured with {@link System#nanoTime()} from one wall-clock base per repetition,
+     * and statement events are buffered as primitive values until the end of each file.
+     */
+    @JsonProperty("monotonic")
+    MONOTONIC;
+  }
+
+  /** Enumerates the types of threads that can be used to run sessions. */
+  enum ExecutorMode {
+    @JsonProperty("platform")
+    PLATFORM,
+    @JsonProperty("virtual")
+    VIRTUAL;
+  }
 }
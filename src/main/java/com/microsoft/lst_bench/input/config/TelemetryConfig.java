@@ -19,6 +19,8 @@ import com.fasterxml.jackson.annotation.JsonInclude;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
 import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+import com.microsoft.lst_bench.telemetry.EventInfo.EventType;
+import java.util.List;
 import java.util.Map;
 import javax.annotation.Nullable;
 import org.immutables.value.Value;
@@ -45,4 +47,126 @@ public interface TelemetryConfig {
 
   @JsonProperty("parameter_values")
   @Nullable Map<String, Object> getParameterValues();
+
+  /**
+   * Maximum number of events bound to a single insert statement. It does not apply when events are
+   * written with the DuckDB appender.
+   */
+  @JsonProperty("insert_chunk_size")
+  @Nullable Integer getInsertChunkSize();
+
+  /**
+   * Configuration of the background flusher. If it is not specified, events are kept in memory and
+   * flushed at the end of each phase and repetition.
+   */
+  @Nullable Flush getFlush();
+
+  /**
+   * Configuration of the local journal. If it is specified, events are also appended to a journal
+   * on local disk that survives a crash of the driver.
+   */
+  @Nullable Journal getJournal();
+
+  /**
+   * Configuration of the live metrics endpoint. If it is specified, metrics of the run are served
+   * in the Prometheus text format on the loopback address while the experiment runs.
+   */
+  @JsonProperty("metrics_endpoint")
+  @Nullable MetricsEndpoint getMetricsEndpoint();
+
+  /**
+   * Sampling policies of the event types whose events are not all written. Events of other types
+   * are always written.
+   */
+  @Nullable List<Sampling> getSampling();
+
+  /** Represents the configuration of the background flusher. */
+  @Value.Immutable
+  @JsonSerialize(as = ImmutableFlush.class)
+  @JsonDeserialize(as = ImmutableFlush.class)
+  @JsonInclude(JsonInclude.Include.NON_NULL)
+  interface Flush {
+    @JsonProperty("interval_seconds")
+    @Nullable Long getIntervalSeconds();
+
+    @JsonProperty("batch_size")
+    @Nullable Integer getBatchSize();
+
+    @JsonProperty("queue_capacity")
+    @Nullable Integer getQueueCapacity();
+
+    @JsonProperty("overflow_policy")
+    @Nullable OverflowPolicy getOverflowPolicy();
+
+    @JsonProperty("block_timeout_ms")
+    @Nullable Long getBlockTimeoutMs();
+
+    @JsonProperty("spill_directory")
+    @Nullable String getSpillDirectory();
+  }
+
+  /** Represents the configuration of the local journal. */
+  @Value.Immutable
+  @JsonSerialize(as = ImmutableJournal.class)
+  @JsonDeserialize(as = ImmutableJournal.class)
+  @JsonInclude(JsonInclude.Include.NON_NULL)
+  interface Journal {
+    String getDirectory();
+
+    @JsonProperty("segment_size_mb")
+    @Nullable Integer getSegmentSizeMb();
+
+    @JsonProperty("write_to_database")
+    @Nullable Boolean isWriteToDatabase();
+  }
+
+  /** Represents the configuration of the live metrics endpoint. */
+  @Value.Immutable
+  @JsonSerialize(as = ImmutableMetricsEndpoint.class)
+  @JsonDeserialize(as = ImmutableMetricsEndpoint.class)
+  @JsonInclude(JsonInclude.Include.NON_NULL)
+  interface MetricsEndpoint {
+    int getPort();
+  }
+
+  /**
+   * Represents the sampling policy of an event type. An event is written if any of the enabled
+   * rules keeps it.
+   */
+  @Value.Immutable
+  @JsonSerialize(as = ImmutableSampling.class)
+  @JsonDeserialize(as = ImmutableSampling.class)
+  @JsonInclude(JsonInclude.Include.NON_NULL)
+  interface Sampling {
+    @JsonProperty("event_type")
+    EventType getEventType();
+
+    /** Fraction of the events kept at random. */
+    @Nullable Double getRate();
+
+    /** Whether events that did not succeed are always kept. */
+    @JsonProperty("keep_failures")
+    @Nullable Boolean isKeepFailures();
+
+    /** Number of the slowest events between flushes that are kept. */
+    @JsonProperty("keep_slowest")
+    @Nullable Integer getKeepSlowest();
+
+    /** Events slower than this percentile of the events seen so far are kept. */
+    @JsonProperty("keep_above_percentile")
+    @Nullable Double getKeepAbovePercentile();
+  }
+
+  /** What happens to an event that is written while the queue of the flusher is full. */
+  enum OverflowPolicy {
+    /** The writer waits until the flusher makes room in the queue. */
+    @JsonProperty("block")
+    BLOCK,
+    /** The event is discarded and counted. */
+    @JsonProperty("drop")
+    DROP,
+    /** The event is written to a local file and replayed once the flusher catches up. */
+    @JsonProperty("spill")
+    SPILL
+  }
 }
@@ -19,11 +19,15 @@ import com.microsoft.lst_bench.input.config.ConnectionConfig;
 import java.sql.Connection;
 import java.sql.DriverManager;
 import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
 import javax.annotation.Nullable;
 import org.apache.commons.lang3.StringUtils;
 
-/** Simple JDBC connection manager. */
-public class ConnectionManager {
+/**
+ * Simple JDBC connection manager. If the connection configuration includes a pool, connections
+ * acquired through this manager are reused across sessions, phases, and repetitions.
+ */
+public class ConnectionManager implements AutoCloseable {
 
   private final String url;
 
@@ -31,12 +35,24 @@ public class ConnectionManager {
 
   @Nullable private final String password;
 
-  private ConnectionManager(String url, String username, String password) {
+  @Nullable private final ConnectionPool pool;
+
+  @Nullable private final Integer fetchSize;
+
+  private ConnectionManager(
+      String url,
+      String username,
+      String password,
+      ConnectionConfig.Pool poolConfig,
+      Integer fetchSize) {
     this.url = url;
     this.username = username;
     this.password = password;
+    this.pool = poolConfig == null ? null : new ConnectionPool(this, poolConfig);
+    this.fetchSize = fetchSize;
   }
 
+  /** Creates a new physical connection, bypassing the pool. */
   public Connection createConnection() throws SQLException {
     if (StringUtils.isEmpty(username)) {
       return DriverManager.getConnection(url);
@@ -45,6 +61,61 @@ public class ConnectionManager {
     }
   }
 
+  /**
+   * Borrows a connection from the pool, or creates a new one if pooling is not enabled. The
+   * returned connection must be closed to give it back.
+   */
+  public PooledConnection acquireConnection() throws SQLException {
+    if (pool == null) {
+      return new PooledConnection(createConnection(), null);
+    }
+    return pool.acquire();
+  }
+
+  /**
+   * Borrows a connection from the pool like {@link #acquireConnection()}, but waits at most the
+   * given time if the pool is exhausted, and the wait can be interrupted.
+   *
+   * @return the connection, or null if the pool had no connection available in time
+   */
+  @Nullable public PooledConnection tryAcquireConnection(long timeout, TimeUnit unit) throws SQLException {
+    if (pool == null) {
+      return new PooledConnection(createConnection(), null);
+    }
+    return pool.tryAcquire(unit.toNanos(timeout));
+  }
+
+  /** Returns the fetch size for statements on this connection, or null for the driver default. */
+  @Nullable public Integer getFetchSize() {
+    return fetchSize;
+  }
+
+  public boolean isPooled() {
+    return pool != null;
+  }
+
+  /** Returns the maximum number of connections in the pool, or null if not pooled. */
+  @Nullable public Integer getPoolMaxSize() {
+    return pool == null ? null : pool.getMaxSize();
+  }
+
+  /** Returns the number of connections currently open in the pool, or 0 if not pooled. */
+  public int getPoolSize() {
+    return pool == null ? 0 : pool.getSize();
+  }
+
+  /** Returns the number of pooled connections currently borrowed, or 0 if not pooled. */
+  public int getPoolBorrowed() {
+    return pool == null ? 0 : pool.getBorrowed();
+  }
+
+  @Override
+  public void close() {
+    if (pool != null) {
+      pool.close();
+    }
+  }
+
   public static ConnectionManager from(ConnectionConfig connectionConfig) {
     try {
       Class.forName(connectionConfig.getDriver());
@@ -52,7 +123,15 @@ public class ConnectionManager {
       throw new IllegalArgumentException(
           "Unable to load driver class: " + connectionConfig.getDriver(), e);
     }
+    if (connectionConfig.getFetchSize() != null && connectionConfig.getFetchSize() < 0) {
+      throw new IllegalArgumentException(
+          "Fetch size of connection " + connectionConfig.getId() + " cannot be negative");
+    }
     return new ConnectionManager(
-        connectionConfig.getUrl(), connectionConfig.getUsername(), connectionConfig.getPassword());
+        connectionConfig.getUrl(),
+        connectionConfig.getUsername(),
+        connectionConfig.getPassword(),
+        connectionConfig.getPool(),
+        connectionConfig.getFetchSize());
   }
 }
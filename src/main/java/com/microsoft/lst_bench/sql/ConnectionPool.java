@@ -0,0 +1,295 @@
+/*
+ * Copyright (c) Microsoft Corporation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.microsoft.lst_bench.sql;
+
+import com.microsoft.lst_bench.input.config.ConnectionConfig;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.SQLTransientConnectionException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import javax.annotation.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Bounded pool of JDBC connections. Connections are validated when they are borrowed, and their
+ * session state is reset when they are returned, so it does not leak into the next borrower. They
+ * are evicted when they have been idle or alive for longer than the configured limits. Expired
+ * connections are evicted lazily, whenever a connection is borrowed or returned.
+ */
+class ConnectionPool {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(ConnectionPool.class);
+
+  private static final int DEFAULT_VALIDATION_TIMEOUT_SECONDS = 5;
+  private static final long DEFAULT_MAX_IDLE_TIME_SECONDS = 600;
+  private static final long DEFAULT_MAX_LIFETIME_SECONDS = 1800;
+
+  private final ConnectionManager connectionManager;
+  private final int maxSize;
+  private final int validationTimeoutSeconds;
+  private final long maxIdleTimeNanos;
+  private final long maxLifetimeNanos;
+  private final long acquireTimeoutNanos;
+
+  private final ReentrantLock lock;
+  private final Condition available;
+  // Most recently returned connections are at the head
+  private final Deque<PooledConnection> idle;
+  private int size;
+  private int borrowed;
+  private boolean closed;
+
+  ConnectionPool(ConnectionManager connectionManager, ConnectionConfig.Pool poolConfig) {
+    if (poolConfig.getMaxSize() <= 0) {
+      throw new IllegalArgumentException("Pool max size must be positive");
+    }
+    this.connectionManager = connectionManager;
+    this.maxSize = poolConfig.getMaxSize();
+    this.validationTimeoutSeconds =
+        poolConfig.getValidationTimeoutSeconds() == null
+            ? DEFAULT_VALIDATION_TIMEOUT_SECONDS
+            : poolConfig.getValidationTimeoutSeconds();
+    this.maxIdleTimeNanos =
+        TimeUnit.SECONDS.toNanos(
+            poolConfig.getMaxIdleTimeSeconds() == null
+                ? DEFAULT_MAX_IDLE_TIME_SECONDS
+                : poolConfig.getMaxIdleTimeSeconds());
+    this.maxLifetimeNanos =
+        TimeUnit.SECONDS.toNanos(
+            poolConfig.getMaxLifetimeSeconds() == null
+                ? DEFAULT_MAX_LIFETIME_SECONDS
+                : poolConfig.getMaxLifetimeSeconds());
+    this.acquireTimeoutNanos =
+        poolConfig.getAcquireTimeoutSeconds() == null
+            ? -1
+            : TimeUnit.SECONDS.toNanos(poolConfig.getAcquireTimeoutSeconds());
+    this.lock = new ReentrantLock();
+    this.available = lock.newCondition();
+    this.idle = new ArrayDeque<>();
+    this.size = 0;
+    this.borrowed = 0;
+    this.closed = false;
+  }
+
+  /**
+   * Borrows a connection, waiting at most the acquire timeout, if any, for one to be returned if
+   * the pool is exhausted. The wait can be interrupted, e.g., when the session is cancelled.
+   */
+  PooledConnection acquire() throws SQLException {
+    PooledConnection connection = acquire(acquireTimeoutNanos);
+    if (connection == null) {
+      throw new SQLTransientConnectionException("Timed out waiting for a connection from the pool");
+    }
+    return connection;
+  }
+
+  /**
+   * Borrows a connection, waiting at most the given time for one to be returned if the pool is
+   * exhausted. The wait can be interrupted.
+   *
+   * @return the connection, or null if none was available in time
+   */
+  @Nullable PooledConnection tryAcquire(long timeoutNanos) throws SQLException {
+    return acquire(Math.max(0, timeoutNanos));
+  }
+
+  /**
+   * Borrows a connection. A negative timeout waits until one is available. The wait can be
+   * interrupted.
+   */
+  @Nullable private PooledConnection acquire(long timeoutNanos) throws SQLException {
+    long deadline = System.nanoTime() + timeoutNanos;
+    for (; ; ) {
+      PooledConnection candidate = null;
+      boolean create = false;
+      List<PooledConnection> expired;
+      lock.lock();
+      try {
+        if (closed) {
+          throw new SQLException("Connection pool is closed");
+        }
+        expired = removeExpired(System.nanoTime());
+        if (!idle.isEmpty()) {
+          candidate = idle.pollFirst();
+          borrowed++;
+        } else if (size < maxSize) {
+          size++;
+          borrowed++;
+          create = true;
+        } else if (timeoutNanos < 0) {
+          available.await();
+        } else {
+          long remaining = deadline - System.nanoTime();
+          if (remaining <= 0) {
+            return null;
+          }
+          available.awaitNanos(remaining);
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new SQLTransientConnectionException(
+            "Interrupted while waiting for a connection from the pool", e);
+      } finally {
+        lock.unlock();
+      }
+      closeQuietly(expired);
+
+      if (create) {
+        try {
+          return new PooledConnection(connectionManager.createConnection(), this);
+        } catch (SQLException | RuntimeException e) {
+          discard(null);
+          throw e;
+        }
+      } else if (candidate != null) {
+        if (isValid(candidate)) {
+          candidate.borrowed();
+          return candidate;
+        }
+        LOGGER.warn("Discarding pooled connection that failed validation");
+        discard(candidate);
+      }
+    }
+  }
+
+  void release(PooledConnection connection) throws SQLException {
+    if (!connection.isInvalid() && !connection.resetSessionState()) {
+      connection.invalidate();
+    }
+    long now = System.nanoTime();
+    List<PooledConnection> expired;
+    lock.lock();
+    try {
+      borrowed--;
+      if (closed
+          || connection.isInvalid()
+          || now - connection.getCreationTimeNanos() >= maxLifetimeNanos) {
+        size--;
+        available.signal();
+        expired = new ArrayList<>();
+        expired.add(connection);
+      } else {
+        connection.setLastReleaseTimeNanos(now);
+        idle.addFirst(connection);
+        available.signal();
+        expired = removeExpired(now);
+      }
+    } finally {
+      lock.unlock();
+    }
+    closeQuietly(expired);
+  }
+
+  /** Closes all idle connections. Connections that are in use are closed when returned. */
+  void close() {
+    List<PooledConnection> connections;
+    lock.lock();
+    try {
+      closed = true;
+      connections = new ArrayList<>(idle);
+      size -= idle.size();
+      idle.clear();
+      available.signalAll();
+    } finally {
+      lock.unlock();
+    }
+    closeQuietly(connections);
+  }
+
+  int getMaxSize() {
+    return maxSize;
+  }
+
+  int getSize() {
+    lock.lock();
+    try {
+      return size;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  int getBorrowed() {
+    lock.lock();
+    try {
+      return borrowed;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  private boolean isValid(PooledConnection connection) {
+    try {
+      return connection.getConnection().isValid(validationTimeoutSeconds);
+    } catch (SQLFeatureNotSupportedException e) {
+      // Driver cannot validate connections, assume it is valid
+      return true;
+    } catch (SQLException e) {
+      return false;
+    }
+  }
+
+  private void discard(PooledConnection connection) {
+    lock.lock();
+    try {
+      size--;
+      borrowed--;
+      available.signal();
+    } finally {
+      lock.unlock();
+    }
+    if (connection != null) {
+      closeQuietly(List.of(connection));
+    }
+  }
+
+  /** Removes expired idle connections from the pool. Must be called while holding the lock. */
+  private List<PooledConnection> removeExpired(long now) {
+    List<PooledConnection> expired = new ArrayList<>();
+    Iterator<PooledConnection> it = idle.iterator();
+    while (it.hasNext()) {
+      PooledConnection connection = it.next();
+      if (now - connection.getLastReleaseTimeNanos() >= maxIdleTimeNanos
+          || now - connection.getCreationTimeNanos() >= maxLifetimeNanos) {
+        it.remove();
+        size--;
+        expired.add(connection);
+      }
+    }
+    if (!expired.isEmpty()) {
+      available.signalAll();
+    }
+    return expired;
+  }
+
+  private static void closeQuietly(List<PooledConnection> connections) {
+    for (PooledConnection connection : connections) {
+      try {
+        connection.closePhysically();
+      } catch (SQLException e) {
+        LOGGER.warn("Error while closing pooled connection", e);
+      }
+    }
+  }
+}
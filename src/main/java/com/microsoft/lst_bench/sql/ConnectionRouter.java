@@ -0,0 +1,245 @@
+/*
+ * Copyright (c) Microsoft Corporation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.microsoft.lst_bench.sql;
+
+import com.microsoft.lst_bench.exec.PhaseExec;
+import com.microsoft.lst_bench.exec.SessionExec;
+import com.microsoft.lst_bench.exec.TaskExec;
+import com.microsoft.lst_bench.input.config.ExperimentConfig.RoutingStrategy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Assigns sessions to connections. A session that specifies a target endpoint is always assigned to
+ * that connection, while the rest are distributed among all connections according to the routing
+ * strategy. Sessions are assigned when they start, so the load of the connections at that time,
+ * including the sessions of concurrent phases, is taken into account.
+ */
+public class ConnectionRouter {
+
+  private final Map<String, ConnectionManager> idToConnectionManager;
+  private final List<String> connectionIds;
+  private final RoutingStrategy strategy;
+
+  // Number of statements running on each connection, updated without holding the lock
+  private final Map<String, AtomicInteger> idToRunningStatements;
+  // Number of sessions currently assigned to each connection, guarded by this router
+  private final Map<String, Integer> idToActiveSessions;
+  private int nextIndex;
+
+  public ConnectionRouter(
+      Map<String, ConnectionManager> idToConnectionManager, RoutingStrategy strategy) {
+    if (idToConnectionManager.isEmpty()) {
+      throw new IllegalArgumentException("At least one connection is required");
+    }
+    this.idToConnectionManager = Collections.unmodifiableMap(idToConnectionManager);
+    this.connectionIds =
+        Collections.unmodifiableList(new ArrayList<>(idToConnectionManager.keySet()));
+    this.strategy = strategy;
+    Map<String, AtomicInteger> runningStatements = new HashMap<>();
+    this.idToActiveSessions = new HashMap<>();
+    for (String connectionId : connectionIds) {
+      runningStatements.put(connectionId, new AtomicInteger());
+      this.idToActiveSessions.put(connectionId, 0);
+    }
+    this.idToRunningStatements = Collections.unmodifiableMap(runningStatements);
+    this.nextIndex = 0;
+  }
+
+  /**
+   * Assigns a connection to a session when it starts. Every assignment needs to be paired with a
+   * call to {@link #release(String)} once the session finishes.
+   *
+   * @param phaseId the identifier of the phase the session belongs to
+   * @param session the session to assign
+   * @return the identifier of the connection assigned to the session
+   * @throws IllegalArgumentException if the target endpoint of the session is unknown
+   */
+  public synchronized String assign(String phaseId, SessionExec session) {
+    String connectionId;
+    if (session.getTargetEndpoint() != null) {
+      connectionId = session.getTargetEndpoint();
+      if (!idToConnectionManager.containsKey(connectionId)) {
+        throw new IllegalArgumentException("Unknown target endpoint: " + connectionId);
+      }
+    } else {
+      switch (strategy) {
+        case ROUND_ROBIN:
+          connectionId = connectionIds.get(nextIndex);
+          nextIndex = (nextIndex + 1) % connectionIds.size();
+          break;
+        case LEAST_BUSY:
+          connectionId = getLeastBusyConnection();
+          break;
+        case HASH_BY_SESSION:
+          connectionId =
+              connectionIds.get(
+                  Math.floorMod(hash(phaseId + "/" + session.getId()), connectionIds.size()));
+          break;
+        default:
+          throw new IllegalStateException("Unknown routing strategy: " + strategy);
+      }
+    }
+    idToActiveSessions.merge(connectionId, 1, Integer::sum);
+    return connectionId;
+  }
+
+  /**
+   * Returns the connection with the fewest running statements. Ties are broken by the number of
+   * active sessions, since sessions that just started have not run a statement yet, and then in
+   * turn, so sessions that start at the same time on idle connections are spread evenly.
+   */
+  private String getLeastBusyConnection() {
+    String leastBusy = null;
+    int leastRunningStatements = Integer.MAX_VALUE;
+    int leastActiveSessions = Integer.MAX_VALUE;
+    for (int i = 0; i < connectionIds.size(); i++) {
+      String connectionId = connectionIds.get((nextIndex + i) % connectionIds.size());
+      int runningStatements = idToRunningStatements.get(connectionId).get();
+      int activeSessions = idToActiveSessions.get(connectionId);
+      if (runningStatements < leastRunningStatements
+          || (runningStatements == leastRunningStatements
+              && activeSessions < leastActiveSessions)) {
+        leastBusy = connectionId;
+        leastRunningStatements = runningStatements;
+        leastActiveSessions = activeSessions;
+      }
+    }
+    nextIndex = (nextIndex + 1) % connectionIds.size();
+    return leastBusy;
+  }
+
+  /** Records that a statement started running on a connection. */
+  public void statementStarted(String connectionId) {
+    idToRunningStatements.get(connectionId).incrementAndGet();
+  }
+
+  /** Records that a statement previously started on a connection finished. */
+  public void statementFinished(String connectionId) {
+    idToRunningStatements.get(connectionId).decrementAndGet();
+  }
+
+  /**
+   * Hashes the key of a session. Session identifiers are consecutive numbers within a phase, so the
+   * phase identifier is part of the key and the bits of its hash code are mixed, otherwise the
+   * assignment would be equivalent to round robin.
+   */
+  static int hash(String key) {
+    long h = key.hashCode();
+    // Finalizer of MurmurHash3
+    h ^= h >>> 33;
+    h *= 0xff51afd7ed558ccdL;
+    h ^= h >>> 33;
+    h *= 0xc4ceb9fe1a85ec53L;
+    h ^= h >>> 33;
+    return (int) h;
+  }
+
+  /** Releases a connection previously assigned to a session. */
+  public synchronized void release(String connectionId) {
+    idToActiveSessions.merge(connectionId, -1, Integer::sum);
+  }
+
+  public ConnectionManager getConnectionManager(String connectionId) {
+    return idToConnectionManager.get(connectionId);
+  }
+
+  /**
+   * Validates that every target endpoint referenced by the sessions of a phase is a known
+   * connection, and that the pools can lend a connection to every session of the phase at the same
+   * time, plus the additional connections its tasks use to run files in parallel. Pools are only
+   * checked if some task of the phase runs files in parallel, otherwise sessions simply wait for a
+   * connection to be returned. Sessions without a target endpoint are checked against the combined
+   * size of the pools when there is more than one connection, since the connection they are
+   * assigned to is only known when the phase runs.
+   *
+   * @throws IllegalArgumentException if a target endpoint is unknown or a pool is too small
+   */
+  public void validate(PhaseExec phase) {
+    Map<String, Integer> idToRequiredConnections = new HashMap<>();
+    int unassignedRequiredConnections = 0;
+    boolean parallelFiles = false;
+    for (SessionExec session : phase.getSessions()) {
+      String connectionId = session.getTargetEndpoint();
+      if (connectionId != null && !idToConnectionManager.containsKey(connectionId)) {
+        throw new IllegalArgumentException("Unknown target endpoint: " + connectionId);
+      } else if (connectionId == null && connectionIds.size() == 1) {
+        connectionId = connectionIds.get(0);
+      }
+      int requiredConnections = getRequiredConnections(session);
+      parallelFiles |= requiredConnections > 1;
+      if (connectionId != null) {
+        idToRequiredConnections.merge(connectionId, requiredConnections, Integer::sum);
+      } else {
+        unassignedRequiredConnections += requiredConnections;
+      }
+    }
+    if (!parallelFiles) {
+      return;
+    }
+    int availableConnections = 0;
+    for (String connectionId : connectionIds) {
+      Integer maxSize = idToConnectionManager.get(connectionId).getPoolMaxSize();
+      int requiredConnections = idToRequiredConnections.getOrDefault(connectionId, 0);
+      if (maxSize == null) {
+        // Connections that are not pooled are not limited
+        availableConnections = Integer.MAX_VALUE;
+        continue;
+      } else if (requiredConnections > maxSize) {
+        throw new IllegalArgumentException(
+            "Pool of connection "
+                + connectionId
+                + " has a max size of "
+                + maxSize
+                + ", but phase "
+                + phase.getId()
+                + " may use up to "
+                + requiredConnections
+                + " connections at once");
+      }
+      if (availableConnections != Integer.MAX_VALUE) {
+        availableConnections += maxSize - requiredConnections;
+      }
+    }
+    if (unassignedRequiredConnections > availableConnections) {
+      throw new IllegalArgumentException(
+          "Pools of the connections have room for "
+              + availableConnections
+              + " more connections, but phase "
+              + phase.getId()
+              + " may use up to "
+              + unassignedRequiredConnections
+              + " connections at once for the sessions without a target endpoint");
+    }
+  }
+
+  /** Returns the number of connections a session may hold at once. */
+  private static int getRequiredConnections(SessionExec session) {
+    int requiredConnections = 1;
+    for (TaskExec task : session.getTasks()) {
+      if (task.getFileParallelism() != null) {
+        requiredConnections =
+            Math.max(
+                requiredConnections, Math.min(task.getFileParallelism(), task.getFiles().size()));
+      }
+    }
+    return requiredConnections;
+  }
+}
@@ -0,0 +1,78 @@
+/*
+ * Copyright (c) Microsoft Corporation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.microsoft.lst_bench.sql;
+
+import java.sql.SQLException;
+import java.sql.SQLRecoverableException;
+import java.sql.SQLTimeoutException;
+import java.sql.SQLTransactionRollbackException;
+import java.sql.SQLTransientException;
+import java.util.List;
+
+/**
+ * Default error classifier. Errors are classified based on the JDBC exception type, the SQL state,
+ * and the exceptions that the table formats throw on commit conflicts, which drivers usually only
+ * surface in the error message.
+ */
+public class DefaultSQLExceptionClassifier implements SQLExceptionClassifier {
+
+  // Serialization failure and deadlock
+  private static final List<String> CONFLICT_SQL_STATES = List.of("40001", "40P01");
+
+  private static final List<String> CONFLICT_MESSAGES =
+      List.of(
+          // Delta
+          "ConcurrentAppendException",
+          "ConcurrentDeleteReadException",
+          "ConcurrentDeleteDeleteException",
+          "ConcurrentTransactionException",
+          "MetadataChangedException",
+          "ProtocolChangedException",
+          // Iceberg
+          "CommitFailedException",
+          // Hudi
+          "HoodieWriteConflictException");
+
+  @Override
+  public Category classify(SQLException e) {
+    if (e instanceof SQLTimeoutException) {
+      // Timeouts are enforced by the benchmark and must not be retried
+      return Category.FATAL;
+    }
+    for (Throwable t = e; t != null; t = t.getCause()) {
+      if (t instanceof SQLTransactionRollbackException) {
+        return Category.CONFLICT;
+      }
+      if (t instanceof SQLException
+          && ((SQLException) t).getSQLState() != null
+          && CONFLICT_SQL_STATES.contains(((SQLException) t).getSQLState())) {
+        return Category.CONFLICT;
+      }
+      String message = t.getMessage();
+      if (message != null && CONFLICT_MESSAGES.stream().anyMatch(message::contains)) {
+        return Category.CONFLICT;
+      }
+    }
+    if (e instanceof SQLTransientException || e instanceof SQLRecoverableException) {
+      return Category.TRANSIENT;
+    }
+    if (e.getSQLState() != null && e.getSQLState().startsWith("08")) {
+      // Connection exception
+      return Category.TRANSIENT;
+    }
+    return Category.FATAL;
+  }
+}
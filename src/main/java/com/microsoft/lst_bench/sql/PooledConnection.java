@@ -0,0 +1,134 @@
+/*
+ * Copyright (c) Microsoft Corporation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.microsoft.lst_bench.sql;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import javax.annotation.Nullable;
+
+/**
+ * A JDBC connection borrowed from a {@link ConnectionManager}. Closing it returns the underlying
+ * connection to the pool, or closes it if the manager does not pool connections or the connection
+ * was invalidated. Closing it again before it is borrowed again has no effect.
+ *
+ * <p>The session state of a pooled connection that can be read through JDBC, i.e., the auto-commit
+ * mode, catalog, schema, read-only mode, and transaction isolation, is restored to the state it had
+ * when the connection was created before the connection is returned. Statements that change other
+ * session state, such as SET or USE, mark the connection so it is discarded instead.
+ */
+public class PooledConnection implements AutoCloseable {
+
+  private final Connection connection;
+  @Nullable private final ConnectionPool pool;
+  private final long creationTimeNanos;
+  private long lastReleaseTimeNanos;
+  private boolean invalid;
+  private final PreparedStatementCache statementCache;
+  // Session state when the connection was created, restored when it is returned to the pool
+  @Nullable private final SessionState initialState;
+  private volatile boolean sessionStateChanged;
+  // Set when the connection is closed by its borrower, and cleared when it is borrowed again
+  private final AtomicBoolean closed;
+
+  PooledConnection(Connection connection, @Nullable ConnectionPool pool) {
+    this.connection = connection;
+    this.pool = pool;
+    this.creationTimeNanos = System.nanoTime();
+    this.lastReleaseTimeNanos = creationTimeNanos;
+    this.invalid = false;
+    this.statementCache = new PreparedStatementCache();
+    this.initialState = pool == null ? null : SessionState.capture(connection);
+    this.sessionStateChanged = false;
+    this.closed = new AtomicBoolean();
+  }
+
+  public Connection getConnection() {
+    return connection;
+  }
+
+  /** Returns the prepared statements of the connection, which live as long as the connection. */
+  public PreparedStatementCache getStatementCache() {
+    return statementCache;
+  }
+
+  /**
+   * Marks the connection so it is discarded instead of returned to the pool, e.g., after an error
+   * that may have left it in an unknown state.
+   */
+  public void invalidate() {
+    this.invalid = true;
+  }
+
+  boolean isInvalid() {
+    return invalid;
+  }
+
+  /**
+   * Marks the connection so it is discarded instead of returned to the pool if the statement
+   * changes session state that cannot be restored through JDBC.
+   */
+  public void trackSessionStatement(String sql) {
+    if (!sessionStateChanged && SessionState.changesSessionState(sql)) {
+      sessionStateChanged = true;
+    }
+  }
+
+  /**
+   * Restores the session state the connection had when it was created, rolling back any open
+   * transaction.
+   *
+   * @return whether the connection can be reused by another borrower
+   */
+  boolean resetSessionState() {
+    return !sessionStateChanged && (initialState == null || initialState.restore(connection));
+  }
+
+  /** Called by the pool when the connection is lent to a new borrower. */
+  void borrowed() {
+    closed.set(false);
+  }
+
+  long getCreationTimeNanos() {
+    return creationTimeNanos;
+  }
+
+  long getLastReleaseTimeNanos() {
+    return lastReleaseTimeNanos;
+  }
+
+  void setLastReleaseTimeNanos(long lastReleaseTimeNanos) {
+    this.lastReleaseTimeNanos = lastReleaseTimeNanos;
+  }
+
+  /** Closes the underlying JDBC connection. */
+  void closePhysically() throws SQLException {
+    statementCache.clear();
+    connection.close();
+  }
+
+  @Override
+  public void close() throws SQLException {
+    if (!closed.compareAndSet(false, true)) {
+      return;
+    }
+    if (pool == null) {
+      closePhysically();
+    } else {
+      pool.release(this);
+    }
+  }
+}
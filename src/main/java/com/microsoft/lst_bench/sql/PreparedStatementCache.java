@@ -0,0 +1,102 @@
+/*
+ * Copyright (c) Microsoft Corporation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.microsoft.lst_bench.sql;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.Map;
+import javax.annotation.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Prepared statements of a connection, keyed by statement identifier. A connection is used by a
+ * single thread at a time, so the cache is not thread-safe. Statements are prepared again if the
+ * text for an identifier changes, e.g., because a runtime parameter has a new value.
+ */
+public class PreparedStatementCache {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(PreparedStatementCache.class);
+
+  private final Map<String, Entry> idToEntry = new HashMap<>();
+
+  /**
+   * Returns the cached statement for an identifier if it was prepared with the same text.
+   *
+   * @param id the statement identifier
+   * @param sql the statement text
+   * @return the cached statement, or null if it needs to be prepared
+   */
+  @Nullable public PreparedStatement get(String id, String sql) {
+    Entry entry = idToEntry.get(id);
+    if (entry == null) {
+      return null;
+    }
+    if (!entry.sql.equals(sql)) {
+      invalidate(id);
+      return null;
+    }
+    return entry.statement;
+  }
+
+  /** Prepares a statement on a connection and adds it to the cache. */
+  public PreparedStatement prepare(Connection connection, String id, String sql)
+      throws SQLException {
+    invalidate(id);
+    PreparedStatement statement = connection.prepareStatement(sql);
+    idToEntry.put(id, new Entry(sql, statement));
+    return statement;
+  }
+
+  /**
+   * Removes a statement from the cache and closes it, e.g., after an error that may have left it in
+   * an unknown state.
+   */
+  public void invalidate(String id) {
+    Entry entry = idToEntry.remove(id);
+    if (entry != null) {
+      closeQuietly(entry.statement);
+    }
+  }
+
+  /** Removes all statements from the cache and closes them. */
+  public void clear() {
+    for (Entry entry : idToEntry.values()) {
+      closeQuietly(entry.statement);
+    }
+    idToEntry.clear();
+  }
+
+  private static void closeQuietly(PreparedStatement statement) {
+    try {
+      statement.close();
+    } catch (SQLException e) {
+      LOGGER.warn("Error while closing prepared statement", e);
+    }
+  }
+
+  private static class Entry {
+    private final String sql;
+    private final PreparedStatement statement;
+
+    private Entry(String sql, PreparedStatement statement) {
+      this.sql = sql;
+      this.statement = statement;
+    }
+  }
+}
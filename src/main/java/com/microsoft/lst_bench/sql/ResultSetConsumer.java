@@ -0,0 +1,319 @@
+/*
+ * Copyright (c) Microsoft Corporation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.microsoft.lst_bench.sql;
+
+import com.microsoft.lst_bench.input.TaskTemplate.ResultConsumption;
+import java.math.BigDecimal;
+import java.sql.Date;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.sql.Types;
+import javax.annotation.Nullable;
+
+/**
+ * Reads the results of a statement according to a result consumption strategy and keeps track of
+ * how much data was returned.
+ *
+ * <p>The fingerprint of a result set is the sum of the hashes of its rows, so it does not depend on
+ * the order of the rows but it does depend on how many times each row appears. Values are read with
+ * primitive accessors and hashed in place whenever the type allows it, so computing the fingerprint
+ * allocates little more than counting the rows.
+ */
+public class ResultSetConsumer {
+
+  private static final long NULL_HASH = 0x6A09E667F3BCC909L;
+  private static final long ROW_MULTIPLIER = 0x9E3779B97F4A7C15L;
+  private static final long FNV_OFFSET_BASIS = 0xCBF29CE484222325L;
+  private static final long FNV_PRIME = 0x100000001B3L;
+  // Decimals with this many significant digits can be told apart by their closest double
+  private static final int MAX_DOUBLE_DIGITS = 15;
+
+  private long rows;
+  private long estimatedBytes;
+  private long fingerprint;
+  private long firstRowNanos;
+
+  /**
+   * Reads a result set.
+   *
+   * @param rs the result set to read
+   * @param consumption how the rows are read
+   * @return the statistics of the result set
+   * @throws SQLException if the driver fails to read the results
+   */
+  public static ResultSetConsumer consume(ResultSet rs, ResultConsumption consumption)
+      throws SQLException {
+    ResultSetConsumer consumer = new ResultSetConsumer();
+    consumer.read(rs, consumption);
+    return consumer;
+  }
+
+  /**
+   * Reads a result set, replacing the statistics of the previous one. Reusing a consumer for the
+   * statements of a file saves allocating one per statement.
+   *
+   * @param rs the result set to read
+   * @param consumption how the rows are read
+   * @throws SQLException if the driver fails to read the results
+   */
+  public void read(ResultSet rs, ResultConsumption consumption) throws SQLException {
+    rows = 0;
+    estimatedBytes = 0;
+    fingerprint = 0;
+    firstRowNanos = 0;
+    switch (consumption) {
+      case SKIP:
+        break;
+      case COUNT:
+        while (rs.next()) {
+          addRow();
+        }
+        break;
+      case MATERIALIZE:
+        int[] columnTypes = getColumnTypes(rs);
+        while (rs.next()) {
+          addRow();
+          for (int i = 0; i < columnTypes.length; i++) {
+            estimatedBytes += readColumn(rs, i + 1, columnTypes[i]);
+          }
+        }
+        break;
+      case FINGERPRINT:
+        columnTypes = getColumnTypes(rs);
+        while (rs.next()) {
+          addRow();
+          long rowHash = 0;
+          for (int i = 0; i < columnTypes.length; i++) {
+            rowHash = rowHash * ROW_MULTIPLIER + mix(hashColumn(rs, i + 1, columnTypes[i]));
+          }
+          fingerprint += mix(rowHash);
+        }
+        break;
+      default:
+        throw new IllegalStateException("Unknown result consumption: " + consumption);
+    }
+  }
+
+  private void addRow() {
+    if (rows++ == 0) {
+      firstRowNanos = System.nanoTime();
+    }
+  }
+
+  private static int[] getColumnTypes(ResultSet rs) throws SQLException {
+    ResultSetMetaData metaData = rs.getMetaData();
+    int[] columnTypes = new int[metaData.getColumnCount()];
+    for (int i = 0; i < columnTypes.length; i++) {
+      columnTypes[i] = metaData.getColumnType(i + 1);
+    }
+    return columnTypes;
+  }
+
+  /**
+   * Reads the value of a column with the accessor for its type and returns an estimate of its size
+   * in bytes. Fixed-width types use the size of their binary representation, while variable-width
+   * types use the length of their value.
+   */
+  private static long readColumn(ResultSet rs, int column, int type) throws SQLException {
+    switch (type) {
+      case Types.BOOLEAN:
+      case Types.BIT:
+      case Types.TINYINT:
+        rs.getByte(column);
+        return rs.wasNull() ? 0 : 1;
+      case Types.SMALLINT:
+        rs.getShort(column);
+        return rs.wasNull() ? 0 : 2;
+      case Types.INTEGER:
+        rs.getInt(column);
+        return rs.wasNull() ? 0 : 4;
+      case Types.BIGINT:
+        rs.getLong(column);
+        return rs.wasNull() ? 0 : 8;
+      case Types.REAL:
+      case Types.FLOAT:
+        rs.getFloat(column);
+        return rs.wasNull() ? 0 : 4;
+      case Types.DOUBLE:
+        rs.getDouble(column);
+        return rs.wasNull() ? 0 : 8;
+      case Types.DECIMAL:
+      case Types.NUMERIC:
+        return rs.getBigDecimal(column) == null ? 0 : 16;
+      case Types.DATE:
+        return rs.getDate(column) == null ? 0 : 4;
+      case Types.TIMESTAMP:
+      case Types.TIMESTAMP_WITH_TIMEZONE:
+        return rs.getTimestamp(column) == null ? 0 : 8;
+      case Types.BINARY:
+      case Types.VARBINARY:
+      case Types.LONGVARBINARY:
+        byte[] bytes = rs.getBytes(column);
+        return bytes == null ? 0 : bytes.length;
+      case Types.CHAR:
+      case Types.VARCHAR:
+      case Types.LONGVARCHAR:
+      case Types.NCHAR:
+      case Types.NVARCHAR:
+        String string = rs.getString(column);
+        return string == null ? 0 : string.length();
+      default:
+        Object value = rs.getObject(column);
+        return value == null ? 0 : value.toString().length();
+    }
+  }
+
+  /**
+   * Reads the value of a column with the accessor for its type and returns its hash. Floating point
+   * values are hashed with single precision, so that differences in the last bits caused by the
+   * order in which an engine aggregates them do not change the fingerprint, and decimals are hashed
+   * regardless of their scale.
+   */
+  private static long hashColumn(ResultSet rs, int column, int type) throws SQLException {
+    long hash;
+    switch (type) {
+      case Types.BOOLEAN:
+      case Types.BIT:
+        hash = rs.getBoolean(column) ? 1 : 0;
+        break;
+      case Types.TINYINT:
+      case Types.SMALLINT:
+      case Types.INTEGER:
+      case Types.BIGINT:
+        hash = rs.getLong(column);
+        break;
+      case Types.REAL:
+      case Types.FLOAT:
+      case Types.DOUBLE:
+        float value = (float) rs.getDouble(column);
+        // Positive and negative zero are equal
+        hash = value == 0 ? 0 : Float.floatToIntBits(value);
+        break;
+      case Types.DECIMAL:
+      case Types.NUMERIC:
+        BigDecimal decimal = rs.getBigDecimal(column);
+        hash = decimal == null ? NULL_HASH : hashDecimal(decimal);
+        break;
+      case Types.DATE:
+        Date date = rs.getDate(column);
+        hash = date == null ? NULL_HASH : date.getTime();
+        break;
+      case Types.TIMESTAMP:
+      case Types.TIMESTAMP_WITH_TIMEZONE:
+        Timestamp timestamp = rs.getTimestamp(column);
+        hash = timestamp == null ? NULL_HASH : timestamp.getTime() * 31 + timestamp.getNanos();
+        break;
+      case Types.BINARY:
+      case Types.VARBINARY:
+      case Types.LONGVARBINARY:
+        byte[] bytes = rs.getBytes(column);
+        if (bytes == null) {
+          hash = NULL_HASH;
+        } else {
+          hash = FNV_OFFSET_BASIS;
+          for (byte b : bytes) {
+            hash = (hash ^ b) * FNV_PRIME;
+          }
+        }
+        break;
+      case Types.CHAR:
+      case Types.VARCHAR:
+      case Types.LONGVARCHAR:
+      case Types.NCHAR:
+      case Types.NVARCHAR:
+        hash = hashString(rs.getString(column));
+        break;
+      default:
+        Object object = rs.getObject(column);
+        hash = hashString(object == null ? null : object.toString());
+    }
+    return rs.wasNull() ? NULL_HASH : hash;
+  }
+
+  /**
+   * Hashes a decimal regardless of its scale, since engines may return the same value with
+   * different scales, e.g., 1.0 and 1.00. Decimals with up to {@link #MAX_DOUBLE_DIGITS}
+   * significant digits are hashed through their closest double, which is the same for every scale
+   * of a value, distinct for distinct values, and computed without allocating for the decimals
+   * returned by most queries. Only longer decimals are stripped of their trailing zeros.
+   */
+  static long hashDecimal(BigDecimal decimal) {
+    if (decimal.signum() == 0) {
+      return 0;
+    }
+    if (decimal.precision() > MAX_DOUBLE_DIGITS) {
+      decimal = decimal.stripTrailingZeros();
+      if (decimal.precision() > MAX_DOUBLE_DIGITS) {
+        return decimal.hashCode();
+      }
+    }
+    return Double.doubleToLongBits(decimal.doubleValue());
+  }
+
+  private static long hashString(@Nullable String string) {
+    if (string == null) {
+      return NULL_HASH;
+    }
+    long hash = FNV_OFFSET_BASIS;
+    for (int i = 0; i < string.length(); i++) {
+      hash = (hash ^ string.charAt(i)) * FNV_PRIME;
+    }
+    return hash;
+  }
+
+  /**
+   * Finalization step of 64-bit MurmurHash3 (fmix64), which spreads every input bit over the whole
+   * hash.
+   */
+  static long mix(long hash) {
+    hash ^= hash >>> 33;
+    hash *= 0xFF51AFD7ED558CCDL;
+    hash ^= hash >>> 33;
+    hash *= 0xC4CEB9FE1A85EC53L;
+    hash ^= hash >>> 33;
+    return hash;
+  }
+
+  /** Returns the number of rows read, which is 0 if results were skipped. */
+  public long getRows() {
+    return rows;
+  }
+
+  /** Returns the estimated size of the values read in bytes, which is 0 unless materialized. */
+  public long getEstimatedBytes() {
+    return estimatedBytes;
+  }
+
+  /** Returns the fingerprint of the rows read, which is 0 unless fingerprinted. */
+  public long getFingerprint() {
+    return fingerprint;
+  }
+
+  /** Returns whether a row was read, so the time of the first row is known. */
+  public boolean hasFirstRow() {
+    return rows > 0;
+  }
+
+  /**
+   * Returns the value of {@link System#nanoTime()} when the first row was read, which is only
+   * meaningful if {@link #hasFirstRow()}.
+   */
+  public long getFirstRowNanos() {
+    return firstRowNanos;
+  }
+}
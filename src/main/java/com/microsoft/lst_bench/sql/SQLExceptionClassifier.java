@@ -0,0 +1,66 @@
+/*
+ * Copyright (c) Microsoft Corporation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.microsoft.lst_bench.sql;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import java.sql.SQLException;
+import java.sql.SQLNonTransientConnectionException;
+import java.sql.SQLRecoverableException;
+import java.sql.SQLTransientConnectionException;
+
+/**
+ * Classifies the errors thrown by statements, so the executor can decide whether a failed task can
+ * be retried. Implementations must have a public constructor without arguments and be thread-safe.
+ */
+public interface SQLExceptionClassifier {
+
+  /** Returns the category of an error. */
+  Category classify(SQLException e);
+
+  /**
+   * Returns whether an error means that the connection was lost, in which case a retry needs a new
+   * connection. By default, these are recoverable and connection exceptions, and errors with a SQL
+   * state of class 08, anywhere in the chain of causes.
+   */
+  default boolean isConnectionError(SQLException e) {
+    for (Throwable t = e; t != null; t = t.getCause()) {
+      if (t instanceof SQLRecoverableException
+          || t instanceof SQLNonTransientConnectionException
+          || t instanceof SQLTransientConnectionException) {
+        return true;
+      }
+      if (t instanceof SQLException
+          && ((SQLException) t).getSQLState() != null
+          && ((SQLException) t).getSQLState().startsWith("08")) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /** Enumerates the categories of errors. */
+  enum Category {
+    /** The transaction conflicted with a concurrent transaction, e.g., optimistic concurrency. */
+    @JsonProperty("conflict")
+    CONFLICT,
+    /** The error is likely to go away if the operation is retried, e.g., a network failure. */
+    @JsonProperty("transient")
+    TRANSIENT,
+    /** Retrying the operation will not help. */
+    @JsonProperty("fatal")
+    FATAL;
+  }
+}
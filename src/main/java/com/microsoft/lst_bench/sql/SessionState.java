@@ -0,0 +1,159 @@
+/*
+ * Copyright (c) Microsoft Corporation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.microsoft.lst_bench.sql;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Objects;
+import javax.annotation.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Session state of a JDBC connection that can be read and restored through JDBC. Properties that
+ * the driver does not support are not captured, so they are not restored either.
+ */
+class SessionState {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(SessionState.class);
+
+  private static final String[] SESSION_STATEMENT_PREFIXES = {"SET", "RESET", "USE"};
+
+  @Nullable private final Boolean autoCommit;
+  @Nullable private final String catalog;
+  @Nullable private final String schema;
+  @Nullable private final Boolean readOnly;
+  @Nullable private final Integer transactionIsolation;
+  private final boolean catalogSupported;
+  private final boolean schemaSupported;
+
+  private SessionState(
+      @Nullable Boolean autoCommit,
+      @Nullable String catalog,
+      boolean catalogSupported,
+      @Nullable String schema,
+      boolean schemaSupported,
+      @Nullable Boolean readOnly,
+      @Nullable Integer transactionIsolation) {
+    this.autoCommit = autoCommit;
+    this.catalog = catalog;
+    this.catalogSupported = catalogSupported;
+    this.schema = schema;
+    this.schemaSupported = schemaSupported;
+    this.readOnly = readOnly;
+    this.transactionIsolation = transactionIsolation;
+  }
+
+  static SessionState capture(Connection connection) {
+    Boolean autoCommit = null;
+    String catalog = null;
+    boolean catalogSupported = false;
+    String schema = null;
+    boolean schemaSupported = false;
+    Boolean readOnly = null;
+    Integer transactionIsolation = null;
+    try {
+      autoCommit = connection.getAutoCommit();
+    } catch (SQLException | RuntimeException e) {
+      // Not supported by the driver
+    }
+    try {
+      catalog = connection.getCatalog();
+      catalogSupported = true;
+    } catch (SQLException | RuntimeException e) {
+      // Not supported by the driver
+    }
+    try {
+      schema = connection.getSchema();
+      schemaSupported = true;
+    } catch (SQLException | RuntimeException | AbstractMethodError e) {
+      // Not supported by the driver
+    }
+    try {
+      readOnly = connection.isReadOnly();
+    } catch (SQLException | RuntimeException e) {
+      // Not supported by the driver
+    }
+    try {
+      transactionIsolation = connection.getTransactionIsolation();
+    } catch (SQLException | RuntimeException e) {
+      // Not supported by the driver
+    }
+    return new SessionState(
+        autoCommit,
+        catalog,
+        catalogSupported,
+        schema,
+        schemaSupported,
+        readOnly,
+        transactionIsolation);
+  }
+
+  /**
+   * Restores the captured state on a connection, rolling back any open transaction first. Only the
+   * properties that changed are set.
+   *
+   * @return whether the state was restored
+   */
+  boolean restore(Connection connection) {
+    try {
+      if (autoCommit != null && connection.getAutoCommit() != autoCommit) {
+        if (!connection.getAutoCommit()) {
+          connection.rollback();
+        }
+        connection.setAutoCommit(autoCommit);
+      } else if (autoCommit != null && !autoCommit) {
+        connection.rollback();
+      }
+      if (catalogSupported && !Objects.equals(connection.getCatalog(), catalog)) {
+        connection.setCatalog(catalog);
+      }
+      if (schemaSupported && !Objects.equals(connection.getSchema(), schema)) {
+        connection.setSchema(schema);
+      }
+      if (readOnly != null && connection.isReadOnly() != readOnly) {
+        connection.setReadOnly(readOnly);
+      }
+      if (transactionIsolation != null
+          && connection.getTransactionIsolation() != transactionIsolation) {
+        connection.setTransactionIsolation(transactionIsolation);
+      }
+      return true;
+    } catch (SQLException | RuntimeException e) {
+      LOGGER.warn("Unable to restore the session state of a pooled connection", e);
+      return false;
+    }
+  }
+
+  /**
+   * Returns whether a statement changes session state that cannot be read through JDBC, i.e., it
+   * starts with SET, RESET, or USE.
+   */
+  static boolean changesSessionState(String sql) {
+    int start = 0;
+    while (start < sql.length() && Character.isWhitespace(sql.charAt(start))) {
+      start++;
+    }
+    for (String prefix : SESSION_STATEMENT_PREFIXES) {
+      int end = start + prefix.length();
+      if (sql.regionMatches(true, start, prefix, 0, prefix.length())
+          && (end == sql.length() || !Character.isLetterOrDigit(sql.charAt(end)))) {
+        return true;
+      }
+    }
+    return false;
+  }
+}
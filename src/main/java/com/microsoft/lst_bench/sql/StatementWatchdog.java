@@ -0,0 +1,103 @@
+/*
+ * Copyright (c) Microsoft Corporation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.microsoft.lst_bench.sql;
+
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Cancels statements that run for longer than their timeout. Not all JDBC drivers honor {@link
+ * Statement#setQueryTimeout(int)}, so the watchdog calls {@link Statement#cancel()} from a separate
+ * thread when the timeout expires.
+ */
+public class StatementWatchdog implements AutoCloseable {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(StatementWatchdog.class);
+
+  private final ScheduledThreadPoolExecutor scheduler;
+
+  public StatementWatchdog() {
+    this.scheduler =
+        new ScheduledThreadPoolExecutor(
+            1,
+            r -> {
+              Thread thread = new Thread(r, "statement-watchdog");
+              thread.setDaemon(true);
+              return thread;
+            });
+    // Most statements complete before their timeout, do not keep their timers around
+    this.scheduler.setRemoveOnCancelPolicy(true);
+    // Do not keep a thread alive while no statements are being watched
+    this.scheduler.setKeepAliveTime(1, TimeUnit.MINUTES);
+    this.scheduler.allowCoreThreadTimeOut(true);
+  }
+
+  /**
+   * Starts watching a statement. The returned watch must be closed when the statement completes.
+   *
+   * @param statement the statement to cancel if it times out
+   * @param timeoutNanos the time after which the statement is cancelled
+   * @return a watch that tells whether the statement was cancelled due to the timeout
+   */
+  public Watch watch(Statement statement, long timeoutNanos) {
+    Watch watch = new Watch();
+    watch.timer =
+        scheduler.schedule(
+            () -> {
+              watch.expired.set(true);
+              cancelQuietly(statement);
+            },
+            Math.max(0, timeoutNanos),
+            TimeUnit.NANOSECONDS);
+    return watch;
+  }
+
+  /** Cancels a statement, logging any error instead of throwing it. */
+  public static void cancelQuietly(Statement statement) {
+    try {
+      statement.cancel();
+    } catch (SQLException e) {
+      LOGGER.warn("Error while cancelling statement", e);
+    }
+  }
+
+  @Override
+  public void close() {
+    scheduler.shutdownNow();
+  }
+
+  /** Timer for a single statement. */
+  public static class Watch implements AutoCloseable {
+    private final AtomicBoolean expired = new AtomicBoolean(false);
+    private ScheduledFuture<?> timer;
+
+    /** Returns whether the timeout expired and the statement was cancelled. */
+    public boolean isExpired() {
+      return expired.get();
+    }
+
+    @Override
+    public void close() {
+      timer.cancel(false);
+    }
+  }
+}
@@ -0,0 +1,84 @@
+/*
+ * Copyright (c) Microsoft Corporation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.microsoft.lst_bench.telemetry;
+
+import java.util.Collection;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Unbounded multi-producer, single-consumer queue of telemetry events.
+ *
+ * <p>Producers never block or retry: adding an event is a single atomic swap of the head of a
+ * linked list, followed by linking the previous head to the new node. Events added by the same
+ * producer are drained in the order in which they were added. Only one thread at a time may drain
+ * the buffer.
+ */
+public class EventBuffer {
+
+  // Most recently added node, swapped by producers
+  private final AtomicReference<Node> head;
+  // Last node drained by the consumer, whose event has already been taken
+  private Node tail;
+
+  public EventBuffer() {
+    Node stub = new Node(null);
+    this.head = new AtomicReference<>(stub);
+    this.tail = stub;
+  }
+
+  /** Adds an event to the buffer. Can be called concurrently by any number of threads. */
+  public void add(EventInfo event) {
+    Node node = new Node(event);
+    Node previous = head.getAndSet(node);
+    // Between the swap and this write the node is not reachable yet, the consumer stops before it
+    previous.next = node;
+  }
+
+  /**
+   * Moves the events in the buffer to a collection. Events added concurrently may be left for the
+   * next call. Must not be called concurrently.
+   *
+   * @param events the collection to add the events to
+   * @return the number of events drained
+   */
+  public int drainTo(Collection<EventInfo> events) {
+    int count = 0;
+    Node next = tail.next;
+    while (next != null) {
+      events.add(next.event);
+      // Let the drained event be garbage collected while the node serves as the new stub
+      next.event = null;
+      tail = next;
+      next = next.next;
+      count++;
+    }
+    return count;
+  }
+
+  /** Returns whether the buffer has no events that can be drained. */
+  public boolean isEmpty() {
+    return tail.next == null;
+  }
+
+  private static class Node {
+    private EventInfo event;
+    private volatile Node next;
+
+    private Node(EventInfo event) {
+      this.event = event;
+    }
+  }
+}
@@ -36,6 +36,10 @@ public interface EventInfo {
   @Value.Parameter(false)
   @Nullable String getPayload();
 
+  /** Returns the span of the event in the trace of its repetition, if it belongs to one. */
+  @Value.Parameter(false)
+  @Nullable SpanContext getSpanContext();
+
   /** Enumerates the different types of events that can be captured. */
   enum EventType {
     EXEC_EXPERIMENT,
@@ -43,13 +47,23 @@ public interface EventInfo {
     EXEC_SESSION,
     EXEC_TASK,
     EXEC_FILE,
-    EXEC_STATEMENT;
+    EXEC_STATEMENT,
+    /** A flush of the telemetry events by the background flusher. */
+    FLUSH_TELEMETRY,
+    /** A summary of the latencies of the events with the same type and id in a phase or run. */
+    LATENCY_HISTOGRAM,
+    /** The number of events of a sampled type, including those that were not written. */
+    SAMPLING_SUMMARY;
   }
 
   /** Enumerates the different types of status that can be captured. */
   enum Status {
     SUCCESS,
     FAILURE,
+    /** The execution exceeded its statement or task timeout and was cancelled. */
+    TIMEOUT,
+    /** The execution was cancelled because another session in the phase failed. */
+    CANCELLED,
     UNKNOWN;
   }
 }
@@ -0,0 +1,261 @@
+/*
+ * Copyright (c) Microsoft Corporation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.microsoft.lst_bench.telemetry;
+
+import com.microsoft.lst_bench.exec.StatementExec;
+import com.microsoft.lst_bench.sql.PooledConnection;
+import com.microsoft.lst_bench.util.StringUtils;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import javax.annotation.Nullable;
+import org.duckdb.DuckDBAppender;
+import org.duckdb.DuckDBConnection;
+
+/**
+ * Writes telemetry events with the statements of the insert file. The events are bound to the
+ * {@code ${tuples}} placeholder of a statement in chunks, one row of parameter markers per event,
+ * so the statement size is bounded and the values do not need to be escaped. If the statement is a
+ * plain {@code INSERT INTO <table> VALUES ${tuples}} and the connection is a DuckDB connection, the
+ * events are written with the DuckDB appender instead. Statements without the placeholder are
+ * executed as they are. All statements run in a single transaction if the database supports
+ * transactions, so a failed insert writes none of the events and retrying it does not duplicate
+ * them.
+ */
+public class EventInserter {
+
+  private static final String TUPLES_PARAMETER = "tuples";
+  // Columns of the telemetry table, one per event field
+  private static final int COLUMNS = 9;
+  private static final String ROW_MARKERS = "(?, ?, ?, ?, ?, ?, ?, ?, ?)";
+
+  private static final Pattern APPENDABLE_INSERT_PATTERN =
+      Pattern.compile(
+          "^\\s*INSERT\\s+INTO\\s+([\\w.]+)\\s+VALUES\\s+\\$\\{tuples}\\s*;?\\s*$",
+          Pattern.CASE_INSENSITIVE);
+
+  private final List<StatementExec> statements;
+  private final int chunkSize;
+
+  public EventInserter(List<StatementExec> statements, int chunkSize) {
+    if (chunkSize <= 0) {
+      throw new IllegalArgumentException("Telemetry insert chunk size must be positive");
+    }
+    this.statements = statements;
+    this.chunkSize = chunkSize;
+  }
+
+  /** Writes the events with every statement of the insert file. */
+  public void insert(PooledConnection connection, List<EventInfo> events) throws SQLException {
+    insert(connection, events, Collections.emptyList());
+  }
+
+  /**
+   * Writes the events, followed by the statement events of the buffers, with every statement of the
+   * insert file. If the connection is in autocommit mode and the database supports transactions,
+   * the statements are committed together, and rolled back if any of them fails.
+   */
+  public void insert(
+      PooledConnection connection,
+      List<EventInfo> events,
+      List<StatementEventBuffer> statementEvents)
+      throws SQLException {
+    Connection jdbcConnection = connection.getConnection();
+    boolean transactional =
+        jdbcConnection.getAutoCommit() && jdbcConnection.getMetaData().supportsTransactions();
+    if (!transactional) {
+      insertWithStatements(connection, events, statementEvents);
+      return;
+    }
+    jdbcConnection.setAutoCommit(false);
+    try {
+      insertWithStatements(connection, events, statementEvents);
+      jdbcConnection.commit();
+    } catch (SQLException | RuntimeException e) {
+      try {
+        jdbcConnection.rollback();
+      } catch (SQLException rollbackException) {
+        e.addSuppressed(rollbackException);
+      }
+      throw e;
+    } finally {
+      jdbcConnection.setAutoCommit(true);
+    }
+  }
+
+  private void insertWithStatements(
+      PooledConnection connection,
+      List<EventInfo> events,
+      List<StatementEventBuffer> statementEvents)
+      throws SQLException {
+    for (StatementExec statement : statements) {
+      if (!statement.getStatement().contains("${" + TUPLES_PARAMETER + "}")) {
+        try (Statement s = connection.getConnection().createStatement()) {
+          s.execute(statement.getStatement());
+        }
+        continue;
+      }
+      String table = getAppendableTable(statement);
+      if (table != null && connection.getConnection() instanceof DuckDBConnection) {
+        insertWithAppender(
+            (DuckDBConnection) connection.getConnection(), table, events, statementEvents);
+      } else {
+        insertWithPreparedStatement(connection, statement, events, statementEvents);
+      }
+    }
+  }
+
+  /**
+   * Binds the events to the statement in chunks. Full chunks reuse the same prepared statement from
+   * the cache of the connection, and the last partial chunk is prepared separately.
+   */
+  void insertWithPreparedStatement(
+      PooledConnection connection,
+      StatementExec statement,
+      List<EventInfo> events,
+      List<StatementEventBuffer> statementEvents)
+      throws SQLException {
+    Rows rows = new Rows(events, statementEvents);
+    int rowCount = rows.size();
+    for (int from = 0; from < rowCount; from += chunkSize) {
+      int chunkRows = Math.min(chunkSize, rowCount - from);
+      String id = chunkRows == chunkSize ? statement.getId() : statement.getId() + "_tail";
+      String sql =
+          StringUtils.replaceParameters(
+                  statement,
+                  Collections.singletonMap(
+                      TUPLES_PARAMETER,
+                      String.join(", ", Collections.nCopies(chunkRows, ROW_MARKERS))))
+              .getStatement();
+      PreparedStatement preparedStatement = connection.getStatementCache().get(id, sql);
+      if (preparedStatement == null) {
+        preparedStatement =
+            connection.getStatementCache().prepare(connection.getConnection(), id, sql);
+      }
+      try {
+        int index = 1;
+        for (int row = 0; row < chunkRows; row++) {
+          for (String column : rows.next()) {
+            preparedStatement.setString(index++, column);
+          }
+        }
+        preparedStatement.execute();
+      } catch (SQLException e) {
+        connection.getStatementCache().invalidate(id);
+        throw e;
+      }
+    }
+  }
+
+  /** Appends the events to a DuckDB table, whose columns are the event fields in order. */
+  void insertWithAppender(
+      DuckDBConnection connection,
+      String table,
+      List<EventInfo> events,
+      List<StatementEventBuffer> statementEvents)
+      throws SQLException {
+    int separator = table.lastIndexOf('.');
+    String schema = separator < 0 ? "main" : table.substring(0, separator);
+    Rows rows = new Rows(events, statementEvents);
+    try (DuckDBAppender appender =
+        connection.createAppender(schema, table.substring(separator + 1))) {
+      for (int row = rows.size(); row > 0; row--) {
+        appender.beginRow();
+        for (String column : rows.next()) {
+          appender.append(column);
+        }
+        appender.endRow();
+      }
+      appender.flush();
+    }
+  }
+
+  /**
+   * Returns the table of the first statement that only inserts the events, or null if there is
+   * none.
+   */
+  @Nullable String getTable() {
+    for (StatementExec statement : statements) {
+      String table = getAppendableTable(statement);
+      if (table != null) {
+        return table;
+      }
+    }
+    return null;
+  }
+
+  /** Returns the target table if the statement only inserts the events, or null otherwise. */
+  @Nullable static String getAppendableTable(StatementExec statement) {
+    Matcher matcher = APPENDABLE_INSERT_PATTERN.matcher(statement.getStatement());
+    return matcher.matches() ? matcher.group(1) : null;
+  }
+
+  /**
+   * Iterates over the events and then over the statement events of the buffers, as the values of
+   * the columns of the telemetry table. The same array is returned for every row.
+   */
+  private static class Rows {
+    private final List<EventInfo> events;
+    private final List<StatementEventBuffer> statementEvents;
+    private final String[] columns;
+    private int eventIndex;
+    private int bufferIndex;
+    private int bufferEventIndex;
+
+    private Rows(List<EventInfo> events, List<StatementEventBuffer> statementEvents) {
+      this.events = events;
+      this.statementEvents = statementEvents;
+      this.columns = new String[COLUMNS];
+    }
+
+    private int size() {
+      int size = events.size();
+      for (StatementEventBuffer buffer : statementEvents) {
+        size += buffer.size();
+      }
+      return size;
+    }
+
+    /** Returns the columns of the next row. Must only be called while there are rows left. */
+    private String[] next() {
+      if (eventIndex < events.size()) {
+        EventInfo event = events.get(eventIndex++);
+        SpanContext span = event.getSpanContext();
+        columns[0] = event.getStartTime().toString();
+        columns[1] = event.getEndTime().toString();
+        columns[2] = event.getEventId();
+        columns[3] = event.getEventType().toString();
+        columns[4] = event.getStatus().toString();
+        columns[5] = event.getPayload();
+        columns[6] = span == null ? null : span.getTraceId();
+        columns[7] = span == null ? null : SpanContext.formatSpanId(span.getSpanId());
+        columns[8] = span == null ? null : SpanContext.formatSpanId(span.getParentSpanId());
+        return columns;
+      }
+      while (bufferEventIndex == statementEvents.get(bufferIndex).size()) {
+        bufferIndex++;
+        bufferEventIndex = 0;
+      }
+      statementEvents.get(bufferIndex).getColumns(bufferEventIndex++, columns);
+      return columns;
+    }
+  }
+}
@@ -0,0 +1,306 @@
+/*
+ * Copyright (c) Microsoft Corporation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.microsoft.lst_bench.telemetry;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.CRC32;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Append-only local journal of telemetry events that survives a crash of the driver.
+ *
+ * <p>Events are appended as binary records to a memory-mapped segment file, so once a record is
+ * written it is in the page cache of the operating system even if the JVM dies. When a segment is
+ * full, it is forced to disk and the journal rotates to a new one. Each segment starts with a
+ * header:
+ *
+ * <pre>
+ *   int magic, int format version
+ * </pre>
+ *
+ * followed by records with a fixed layout:
+ *
+ * <pre>
+ *   int body length, int CRC32 of the body,
+ *   long start seconds, int start nanos, long end seconds, int end nanos,
+ *   byte event type, byte status, int event id length, int payload length (-1 if null),
+ *   int trace id length (-1 if null), long span id, long parent span id,
+ *   event id bytes, payload bytes, trace id bytes (UTF-8)
+ * </pre>
+ *
+ * The body length of a record is written after its body, so a reader finds either a complete record
+ * or a zero length where the segment ends. Records torn by a crash of the operating system are
+ * detected by their checksum. Segments are read back with {@link EventJournalReader}.
+ *
+ * <p>Writers reserve the space of a record by advancing the position of the segment with a
+ * compare-and-set, and then write the record without holding a lock, so concurrent sessions only
+ * wait for each other when the segment is rotated. If the driver crashes while records are being
+ * written, a record published after one that was still in flight is not read back.
+ */
+public class EventJournal implements AutoCloseable {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(EventJournal.class);
+
+  static final int MAGIC = 0x4c53544a;
+  static final int FORMAT_VERSION = 2;
+  static final int SEGMENT_HEADER_BYTES = 8;
+  static final int RECORD_HEADER_BYTES = 8;
+  static final int FIXED_BODY_BYTES = 54;
+  static final String SEGMENT_PREFIX = "telemetry-journal-";
+  static final String SEGMENT_SUFFIX = ".seg";
+
+  private final Path directory;
+  private final int segmentSize;
+  private final LongAdder appendedEvents;
+  // Events written by sessions that were still running when the journal was closed
+  private final LongAdder lateEvents;
+
+  // Replaced while holding the lock of this journal, and read by writers without it
+  private volatile Segment segment;
+  private volatile boolean closed;
+  // Guarded by this journal
+  private long segmentNumber;
+
+  /**
+   * Creates a journal in the directory. Segments left by a previous run are kept, and new segments
+   * are numbered after them.
+   */
+  public EventJournal(Path directory, int segmentSize) throws IOException {
+    if (segmentSize <= SEGMENT_HEADER_BYTES + RECORD_HEADER_BYTES + FIXED_BODY_BYTES) {
+      throw new IllegalArgumentException("Telemetry journal segment size is too small");
+    }
+    Files.createDirectories(directory);
+    this.directory = directory;
+    this.segmentSize = segmentSize;
+    this.appendedEvents = new LongAdder();
+    this.lateEvents = new LongAdder();
+    List<Path> segments = EventJournalReader.listSegments(directory);
+    this.segmentNumber =
+        segments.isEmpty() ? 0 : parseSegmentNumber(segments.get(segments.size() - 1)) + 1;
+    this.segment = openSegment(segmentSize);
+    LOGGER.info("Telemetry events are journaled to {}", directory);
+  }
+
+  /**
+   * Appends an event to the current segment, rotating to a new one if it does not fit. Events
+   * appended after the journal is closed are dropped and counted.
+   *
+   * @return whether the event was appended
+   */
+  public boolean append(EventInfo event) {
+    byte[] id = event.getEventId().getBytes(StandardCharsets.UTF_8);
+    byte[] payload =
+        event.getPayload() == null ? null : event.getPayload().getBytes(StandardCharsets.UTF_8);
+    SpanContext span = event.getSpanContext();
+    byte[] traceId = span == null ? null : span.getTraceId().getBytes(StandardCharsets.UTF_8);
+    int bodyLength =
+        FIXED_BODY_BYTES
+            + id.length
+            + (payload == null ? 0 : payload.length)
+            + (traceId == null ? 0 : traceId.length);
+    int recordLength = RECORD_HEADER_BYTES + bodyLength;
+    Segment current;
+    int recordStart;
+    while (true) {
+      if (closed) {
+        lateEvents.increment();
+        return false;
+      }
+      current = segment;
+      current.writers.incrementAndGet();
+      recordStart = current.reserve(recordLength);
+      if (recordStart >= 0) {
+        break;
+      }
+      current.writers.decrementAndGet();
+      rotate(current, recordLength);
+    }
+    try {
+      ByteBuffer record = current.buffer.duplicate();
+      int bodyStart = recordStart + RECORD_HEADER_BYTES;
+      record.position(bodyStart);
+      record.putLong(event.getStartTime().getEpochSecond());
+      record.putInt(event.getStartTime().getNano());
+      record.putLong(event.getEndTime().getEpochSecond());
+      record.putInt(event.getEndTime().getNano());
+      record.put((byte) event.getEventType().ordinal());
+      record.put((byte) event.getStatus().ordinal());
+      record.putInt(id.length);
+      record.putInt(payload == null ? -1 : payload.length);
+      record.putInt(traceId == null ? -1 : traceId.length);
+      record.putLong(span == null ? 0 : span.getSpanId());
+      record.putLong(span == null ? 0 : span.getParentSpanId());
+      record.put(id);
+      if (payload != null) {
+        record.put(payload);
+      }
+      if (traceId != null) {
+        record.put(traceId);
+      }
+      int recordEnd = record.position();
+      CRC32 crc = new CRC32();
+      crc.update(record.duplicate().position(bodyStart).limit(recordEnd));
+      record.putInt(recordStart + Integer.BYTES, (int) crc.getValue());
+      // Publish the record last, readers stop at the first zero length
+      record.putInt(recordStart, bodyLength);
+    } finally {
+      current.writers.decrementAndGet();
+    }
+    appendedEvents.increment();
+    return true;
+  }
+
+  /** Returns the number of events appended by this journal. */
+  public long getAppendedEvents() {
+    return appendedEvents.sum();
+  }
+
+  /** Returns the number of events dropped because they were appended after the journal closed. */
+  public long getLateEvents() {
+    return lateEvents.sum();
+  }
+
+  /** Forces the records appended so far to disk. */
+  public synchronized void force() {
+    if (!closed) {
+      segment.buffer.force();
+    }
+  }
+
+  /**
+   * Replaces a full segment with a new one that fits the record, unless another writer already did.
+   * The full segment is closed once the records reserved in it are written.
+   */
+  private synchronized void rotate(Segment full, int recordLength) {
+    if (closed || segment != full) {
+      return;
+    }
+    try {
+      segmentNumber++;
+      segment =
+          openSegment(Math.max(segmentSize, SEGMENT_HEADER_BYTES + recordLength + Integer.BYTES));
+      full.seal();
+      full.close();
+    } catch (IOException e) {
+      throw new UncheckedIOException("Error while rotating telemetry journal segment", e);
+    }
+  }
+
+  private Segment openSegment(int size) throws IOException {
+    Path file = directory.resolve(segmentName(segmentNumber));
+    FileChannel channel =
+        FileChannel.open(
+            file, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    // The mapped region is zero-filled, so unwritten records read as the end of the segment
+    MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+    buffer.putInt(MAGIC);
+    buffer.putInt(FORMAT_VERSION);
+    return new Segment(channel, buffer);
+  }
+
+  static String segmentName(long segmentNumber) {
+    return String.format("%s%08d%s", SEGMENT_PREFIX, segmentNumber, SEGMENT_SUFFIX);
+  }
+
+  static long parseSegmentNumber(Path segment) {
+    String name = segment.getFileName().toString();
+    return Long.parseLong(
+        name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+  }
+
+  /** Forces the current segment to disk and closes it. The segments are kept for recovery. */
+  @Override
+  public synchronized void close() {
+    if (closed) {
+      return;
+    }
+    closed = true;
+    segment.seal();
+    try {
+      segment.close();
+    } catch (IOException e) {
+      LOGGER.warn("Error while closing telemetry journal segment", e);
+    }
+    LOGGER.info("{} telemetry events were journaled to {}", appendedEvents, directory);
+  }
+
+  /** A mapped segment file and the position up to which its space is reserved. */
+  private static class Segment {
+
+    // Position of a segment that no longer accepts records
+    private static final int SEALED = Integer.MAX_VALUE;
+
+    private final FileChannel channel;
+    private final MappedByteBuffer buffer;
+    private final AtomicInteger position;
+    // Writers that may have reserved space and not finished writing their record
+    private final AtomicInteger writers;
+
+    Segment(FileChannel channel, MappedByteBuffer buffer) {
+      this.channel = channel;
+      this.buffer = buffer;
+      this.position = new AtomicInteger(SEGMENT_HEADER_BYTES);
+      this.writers = new AtomicInteger();
+    }
+
+    /**
+     * Reserves space for a record, keeping room for the zero length that marks the end of the
+     * segment.
+     *
+     * @return the start of the record, or -1 if the segment is sealed or the record does not fit
+     */
+    int reserve(int recordLength) {
+      while (true) {
+        int start = position.get();
+        if (start == SEALED || buffer.capacity() - start < recordLength + Integer.BYTES) {
+          return -1;
+        }
+        if (position.compareAndSet(start, start + recordLength)) {
+          return start;
+        }
+      }
+    }
+
+    /** Stops the segment from accepting records. */
+    void seal() {
+      position.set(SEALED);
+    }
+
+    /**
+     * Waits for the writers of the records reserved in the sealed segment, then forces it to disk
+     * and closes it.
+     */
+    void close() throws IOException {
+      while (writers.get() > 0) {
+        Thread.onSpinWait();
+      }
+      buffer.force();
+      channel.close();
+    }
+  }
+}
@@ -0,0 +1,168 @@
+/*
+ * Copyright (c) Microsoft Corporation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.microsoft.lst_bench.telemetry;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.yaml.YAMLMapper;
+import com.microsoft.lst_bench.input.config.TelemetryConfig;
+import com.microsoft.lst_bench.sql.ConnectionManager;
+import com.microsoft.lst_bench.sql.PooledConnection;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.SQLException;
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.CommandLineParser;
+import org.apache.commons.cli.DefaultParser;
+import org.apache.commons.cli.HelpFormatter;
+import org.apache.commons.cli.MissingOptionException;
+import org.apache.commons.cli.Option;
+import org.apache.commons.cli.Options;
+import org.apache.commons.cli.UnrecognizedOptionException;
+import org.apache.commons.lang3.Validate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Loads the events of a telemetry journal into the telemetry tables, using the connection, DDL
+ * file, and insert file of a telemetry configuration. Events are inserted in batches, and the first
+ * batch that fails stops the load.
+ *
+ * <p>If the events of the run were also written to the database, loading the journal of a run that
+ * crashed inserts again the events that were flushed before the crash.
+ */
+public class EventJournalLoader {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(EventJournalLoader.class);
+
+  private static final String OPT_INPUT_TELEMETRY_CONFIG_FILE = "input-log-config";
+  private static final String OPT_INPUT_JOURNAL_DIRECTORY = "journal-directory";
+
+  private static final int BATCH_SIZE = 10_000;
+
+  private final ConnectionManager connectionManager;
+  private final EventInserter eventInserter;
+
+  public EventJournalLoader(TelemetryConfig telemetryConfig) throws SQLException {
+    this.connectionManager = ConnectionManager.from(telemetryConfig.getConnection());
+    this.eventInserter =
+        JDBCTelemetryRegistry.createEventInserter(
+            telemetryConfig.getInsertFile(),
+            telemetryConfig.getParameterValues(),
+            telemetryConfig.getInsertChunkSize());
+    if (telemetryConfig.isExecuteDDL()) {
+      JDBCTelemetryRegistry.executeDdl(
+          connectionManager, telemetryConfig.getDDLFile(), telemetryConfig.getParameterValues());
+    }
+  }
+
+  /**
+   * Inserts the events of the journal in the directory.
+   *
+   * @return the number of events loaded
+   * @throws SQLException if a batch of events could not be inserted
+   */
+  public long load(Path journalDirectory) throws IOException, SQLException {
+    SQLException[] failure = new SQLException[1];
+    try (PooledConnection connection = connectionManager.acquireConnection()) {
+      long loadedEvents =
+          new EventJournalReader(journalDirectory)
+              .read(
+                  batch -> {
+                    try {
+                      eventInserter.insert(connection, batch);
+                      return true;
+                    } catch (SQLException e) {
+                      failure[0] = e;
+                      return false;
+                    }
+                  },
+                  BATCH_SIZE);
+      if (failure[0] != null) {
+        LOGGER.error("Loading stopped after {} telemetry events", loadedEvents);
+        throw failure[0];
+      }
+      LOGGER.info("Loaded {} telemetry events from {}", loadedEvents, journalDirectory);
+      return loadedEvents;
+    } finally {
+      connectionManager.close();
+    }
+  }
+
+  /** Main method. */
+  public static void main(String[] args) throws Exception {
+    String inputTelemetryConfigFile = null;
+    String inputJournalDirectory = null;
+
+    // Retrieve program input values
+    final Options options = createOptions();
+    final CommandLineParser parser = new DefaultParser();
+    try {
+      final CommandLine cmd = parser.parse(options, args);
+      inputTelemetryConfigFile = cmd.getOptionValue(OPT_INPUT_TELEMETRY_CONFIG_FILE);
+      inputJournalDirectory = cmd.getOptionValue(OPT_INPUT_JOURNAL_DIRECTORY);
+    } catch (MissingOptionException | UnrecognizedOptionException e) {
+      usageAndHelp();
+      return;
+    }
+
+    final ObjectMapper mapper = new YAMLMapper();
+    final TelemetryConfig telemetryConfig =
+        mapper.readValue(new File(inputTelemetryConfigFile), TelemetryConfig.class);
+    if (inputJournalDirectory == null && telemetryConfig.getJournal() != null) {
+      inputJournalDirectory = telemetryConfig.getJournal().getDirectory();
+    }
+    Validate.notNull(inputJournalDirectory, "Journal directory is required.");
+
+    new EventJournalLoader(telemetryConfig).load(Paths.get(inputJournalDirectory));
+  }
+
+  private static Options createOptions() {
+    final Options options = new Options();
+
+    final Option inputTelemetryConfigFile =
+        Option.builder()
+            .required()
+            .option("t")
+            .longOpt(OPT_INPUT_TELEMETRY_CONFIG_FILE)
+            .hasArg()
+            .argName("arg")
+            .desc("Path to input file containing the telemetry gathering config details")
+            .build();
+    options.addOption(inputTelemetryConfigFile);
+
+    final Option inputJournalDirectory =
+        Option.builder()
+            .option("j")
+            .longOpt(OPT_INPUT_JOURNAL_DIRECTORY)
+            .hasArg()
+            .argName("arg")
+            .desc("Path to the journal directory (default: the directory in the telemetry config)")
+            .build();
+    options.addOption(inputJournalDirectory);
+
+    return options;
+  }
+
+  private static void usageAndHelp() {
+    // Print usage and help
+    final HelpFormatter formatter = new HelpFormatter();
+    formatter.setWidth(120);
+    formatter.printHelp(
+        "java -cp <classpath> " + EventJournalLoader.class.getName(), createOptions(), true);
+  }
+}
@@ -0,0 +1,181 @@
+/*
+ * Copyright (c) Microsoft Corporation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.microsoft.lst_bench.telemetry;
+
+import com.microsoft.lst_bench.telemetry.EventInfo.EventType;
+import com.microsoft.lst_bench.telemetry.EventInfo.Status;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+import javax.annotation.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Recovers the events of a telemetry journal written by {@link EventJournal}, including the
+ * segments of a run that crashed. Each segment is read up to its last complete record.
+ */
+public class EventJournalReader {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(EventJournalReader.class);
+
+  private static final EventType[] EVENT_TYPES = EventType.values();
+  private static final Status[] STATUSES = Status.values();
+
+  private final Path directory;
+
+  public EventJournalReader(Path directory) {
+    this.directory = directory;
+  }
+
+  /**
+   * Reads the events of every segment in the order in which they were appended, in batches.
+   *
+   * @param insert receives a batch of events and returns whether it was processed successfully
+   * @param batchSize the maximum number of events in a batch
+   * @return the number of events processed, which stops at the first batch that fails
+   */
+  public long read(Predicate<List<EventInfo>> insert, int batchSize) throws IOException {
+    List<EventInfo> batch = new ArrayList<>(batchSize);
+    long events = 0;
+    for (Path segment : listSegments(directory)) {
+      ByteBuffer buffer = mapSegment(segment);
+      if (buffer == null) {
+        continue;
+      }
+      EventInfo event;
+      while ((event = readRecord(segment, buffer)) != null) {
+        batch.add(event);
+        if (batch.size() == batchSize) {
+          if (!insert.test(batch)) {
+            return events;
+          }
+          events += batch.size();
+          batch.clear();
+        }
+      }
+    }
+    if (!batch.isEmpty() && insert.test(batch)) {
+      events += batch.size();
+    }
+    return events;
+  }
+
+  /** Maps a segment and reads its header, or returns null if it is not a journal segment. */
+  @Nullable private static ByteBuffer mapSegment(Path segment) throws IOException {
+    ByteBuffer buffer;
+    try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.READ)) {
+      buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+    }
+    if (buffer.remaining() < EventJournal.SEGMENT_HEADER_BYTES
+        || buffer.getInt() != EventJournal.MAGIC) {
+      LOGGER.warn("Skipping {}, it is not a telemetry journal segment", segment);
+      return null;
+    }
+    int version = buffer.getInt();
+    if (version != EventJournal.FORMAT_VERSION) {
+      throw new IOException(
+          "Unsupported telemetry journal format version " + version + " in " + segment);
+    }
+    return buffer;
+  }
+
+  /**
+   * Reads the next record of a segment, or returns null at the end of the segment or at the first
+   * record that is incomplete or corrupted.
+   */
+  @Nullable private static EventInfo readRecord(Path segment, ByteBuffer buffer) {
+    if (buffer.remaining() < EventJournal.RECORD_HEADER_BYTES) {
+      return null;
+    }
+    int recordStart = buffer.position();
+    int bodyLength = buffer.getInt();
+    int checksum = buffer.getInt();
+    if (bodyLength == 0) {
+      // End of the segment
+      return null;
+    }
+    if (bodyLength < EventJournal.FIXED_BODY_BYTES || bodyLength > buffer.remaining()) {
+      LOGGER.warn("Truncated telemetry journal record at offset {} of {}", recordStart, segment);
+      return null;
+    }
+    ByteBuffer body = buffer.slice().limit(bodyLength);
+    CRC32 crc = new CRC32();
+    crc.update(body.duplicate());
+    if ((int) crc.getValue() != checksum) {
+      LOGGER.warn("Corrupted telemetry journal record at offset {} of {}", recordStart, segment);
+      return null;
+    }
+    buffer.position(recordStart + EventJournal.RECORD_HEADER_BYTES + bodyLength);
+    return readEvent(body);
+  }
+
+  private static EventInfo readEvent(ByteBuffer body) {
+    Instant startTime = Instant.ofEpochSecond(body.getLong(), body.getInt());
+    Instant endTime = Instant.ofEpochSecond(body.getLong(), body.getInt());
+    EventType eventType = EVENT_TYPES[body.get()];
+    Status status = STATUSES[body.get()];
+    int idLength = body.getInt();
+    int payloadLength = body.getInt();
+    int traceIdLength = body.getInt();
+    long spanId = body.getLong();
+    long parentSpanId = body.getLong();
+    String eventId = readString(body, idLength);
+    String payload = payloadLength < 0 ? null : readString(body, payloadLength);
+    SpanContext span =
+        traceIdLength < 0
+            ? null
+            : ImmutableSpanContext.of(readString(body, traceIdLength), spanId, parentSpanId);
+    return ImmutableEventInfo.of(startTime, endTime, eventId, eventType, status)
+        .withPayload(payload)
+        .withSpanContext(span);
+  }
+
+  private static String readString(ByteBuffer body, int length) {
+    byte[] bytes = new byte[length];
+    body.get(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  /** Returns the segments in the directory, ordered by segment number. */
+  static List<Path> listSegments(Path directory) throws IOException {
+    if (!Files.isDirectory(directory)) {
+      return List.of();
+    }
+    try (Stream<Path> files = Files.list(directory)) {
+      return files
+          .filter(
+              f -> {
+                String name = f.getFileName().toString();
+                return name.startsWith(EventJournal.SEGMENT_PREFIX)
+                    && name.endsWith(EventJournal.SEGMENT_SUFFIX);
+              })
+          .sorted()
+          .collect(Collectors.toList());
+    }
+  }
+}
@@ -0,0 +1,307 @@
+/*
+ * Copyright (c) Microsoft Corporation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.microsoft.lst_bench.telemetry;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.microsoft.lst_bench.input.config.TelemetryConfig;
+import com.microsoft.lst_bench.telemetry.EventInfo.EventType;
+import com.microsoft.lst_bench.telemetry.EventInfo.Status;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import javax.annotation.Nullable;
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+
+/**
+ * Decides which telemetry events are written, according to the sampling policy of their type. An
+ * event is kept if it did not succeed and failures are kept, if it is slower than the configured
+ * percentile of the events of its type seen so far, or at random with the configured rate.
+ * Otherwise, it is a candidate for the slowest events between flushes, which are kept when the
+ * sampler is drained.
+ *
+ * <p>The number of events of each type and status, and their total duration, are counted exactly
+ * whether they are kept or not, and reported as {@link EventType#SAMPLING_SUMMARY} events when the
+ * sampler is drained. Counting and sampling do not take locks, except to track the slowest events
+ * while they are slower than the ones already tracked.
+ */
+public class EventSampler {
+
+  private static final ObjectMapper MAPPER = new ObjectMapper();
+
+  private static final int SIGNIFICANT_DIGITS = 3;
+  // On average, the percentile threshold is recomputed once every this many events
+  private static final int THRESHOLD_UPDATE_PERIOD = 1_024;
+  // The percentile threshold is not used until this many events have been seen
+  private static final long THRESHOLD_MIN_EVENTS = 100;
+  private static final double NANOS_PER_MILLI = TimeUnit.MILLISECONDS.toNanos(1);
+
+  // Indexed by event type ordinal, null for types that are not sampled
+  private final Policy[] policies;
+  private Instant lastDrainTime;
+
+  public EventSampler(List<TelemetryConfig.Sampling> samplingConfigs) {
+    this.policies = new Policy[EventType.values().length];
+    for (TelemetryConfig.Sampling samplingConfig : samplingConfigs) {
+      EventType eventType = samplingConfig.getEventType();
+      if (policies[eventType.ordinal()] != null) {
+        throw new IllegalArgumentException("Duplicate sampling policy for " + eventType);
+      }
+      policies[eventType.ordinal()] = new Policy(eventType, samplingConfig);
+    }
+    this.lastDrainTime = Instant.now();
+  }
+
+  /**
+   * Counts an event and returns whether it must be written now. Events that are not written now may
+   * still be returned by {@link #drain()} if they are among the slowest.
+   */
+  public boolean sample(EventInfo event) {
+    Policy policy = policies[event.getEventType().ordinal()];
+    return policy == null || policy.sample(event);
+  }
+
+  /** Returns whether events of the type have a sampling policy. */
+  public boolean isSampled(EventType eventType) {
+    return policies[eventType.ordinal()] != null;
+  }
+
+  /**
+   * Returns the slowest events kept since the previous drain, followed by one summary event per
+   * sampled event type with the events counted since the previous drain.
+   */
+  public synchronized List<EventInfo> drain() {
+    Instant drainTime = Instant.now();
+    List<EventInfo> events = new ArrayList<>();
+    for (Policy policy : policies) {
+      if (policy != null) {
+        policy.drainSlowest(events);
+      }
+    }
+    for (Policy policy : policies) {
+      if (policy != null) {
+        EventInfo summary = policy.summarize(lastDrainTime, drainTime);
+        if (summary != null) {
+          events.add(summary);
+        }
+      }
+    }
+    lastDrainTime = drainTime;
+    return events;
+  }
+
+  private static long getDurationNanos(EventInfo event) {
+    return Math.max(0, Duration.between(event.getStartTime(), event.getEndTime()).toNanos());
+  }
+
+  /** Sampling state of an event type. */
+  private static class Policy {
+    private final EventType eventType;
+    private final double rate;
+    private final boolean keepFailures;
+
+    // Slowest events not kept by the other rules, ordered by increasing duration
+    private final int keepSlowest;
+    private final ReentrantLock slowestLock;
+    private final PriorityQueue<EventInfo> slowest;
+    // Duration of the fastest tracked event once the queue is full, read without the lock
+    private volatile long slowestMinNanos;
+
+    // Latencies in microseconds, for the percentile threshold
+    private final double keepAbovePercentile;
+    @Nullable private final Recorder recorder;
+    @Nullable private final Histogram histogram;
+    private final ReentrantLock histogramLock;
+    private volatile long thresholdMicros;
+
+    // Cumulative counters, reported as the difference with the previous drain
+    private final LongAdder[] statusToEvents;
+    private final LongAdder keptEvents;
+    private final LongAdder durationNanos;
+    private final long[] reportedStatusToEvents;
+    private long reportedKeptEvents;
+    private long reportedDurationNanos;
+
+    Policy(EventType eventType, TelemetryConfig.Sampling samplingConfig) {
+      this.eventType = eventType;
+      this.rate = samplingConfig.getRate() == null ? 0 : samplingConfig.getRate();
+      this.keepFailures =
+          samplingConfig.isKeepFailures() == null || samplingConfig.isKeepFailures();
+      this.keepSlowest =
+          samplingConfig.getKeepSlowest() == null ? 0 : samplingConfig.getKeepSlowest();
+      if (rate < 0 || rate > 1 || keepSlowest < 0) {
+        throw new IllegalArgumentException(
+            "Sampling rate must be between 0 and 1, and the number of slowest events kept must"
+                + " not be negative");
+      }
+      this.slowestLock = new ReentrantLock();
+      this.slowest =
+          new PriorityQueue<>(
+              Math.max(1, keepSlowest), Comparator.comparingLong(EventSampler::getDurationNanos));
+      this.slowestMinNanos = -1;
+      if (samplingConfig.getKeepAbovePercentile() == null) {
+        this.keepAbovePercentile = 0;
+        this.recorder = null;
+        this.histogram = null;
+      } else {
+        this.keepAbovePercentile = samplingConfig.getKeepAbovePercentile();
+        if (keepAbovePercentile <= 0 || keepAbovePercentile >= 100) {
+          throw new IllegalArgumentException("Sampling percentile must be between 0 and 100");
+        }
+        this.recorder = new Recorder(SIGNIFICANT_DIGITS);
+        this.histogram = new Histogram(SIGNIFICANT_DIGITS);
+      }
+      this.histogramLock = new ReentrantLock();
+      this.thresholdMicros = Long.MAX_VALUE;
+      this.statusToEvents = new LongAdder[Status.values().length];
+      for (int i = 0; i < statusToEvents.length; i++) {
+        statusToEvents[i] = new LongAdder();
+      }
+      this.keptEvents = new LongAdder();
+      this.durationNanos = new LongAdder();
+      this.reportedStatusToEvents = new long[statusToEvents.length];
+    }
+
+    boolean sample(EventInfo event) {
+      long eventDurationNanos = getDurationNanos(event);
+      statusToEvents[event.getStatus().ordinal()].increment();
+      durationNanos.add(eventDurationNanos);
+      if (isKept(event, eventDurationNanos)) {
+        keptEvents.increment();
+        return true;
+      }
+      if (keepSlowest > 0) {
+        offerSlowest(event, eventDurationNanos);
+      }
+      return false;
+    }
+
+    private boolean isKept(EventInfo event, long eventDurationNanos) {
+      if (keepFailures && event.getStatus() != Status.SUCCESS) {
+        return true;
+      }
+      if (recorder != null) {
+        long eventDurationMicros = TimeUnit.NANOSECONDS.toMicros(eventDurationNanos);
+        recorder.recordValue(eventDurationMicros);
+        if (ThreadLocalRandom.current().nextInt(THRESHOLD_UPDATE_PERIOD) == 0) {
+          updateThreshold();
+        }
+        if (eventDurationMicros > thresholdMicros) {
+          return true;
+        }
+      }
+      return rate > 0 && ThreadLocalRandom.current().nextDouble() < rate;
+    }
+
+    /** Recomputes the percentile threshold, unless another thread is already doing it. */
+    private void updateThreshold() {
+      if (!histogramLock.tryLock()) {
+        return;
+      }
+      try {
+        histogram.add(recorder.getIntervalHistogram());
+        if (histogram.getTotalCount() >= THRESHOLD_MIN_EVENTS) {
+          thresholdMicros = histogram.getValueAtPercentile(keepAbovePercentile);
+        }
+      } finally {
+        histogramLock.unlock();
+      }
+    }
+
+    private void offerSlowest(EventInfo event, long eventDurationNanos) {
+      if (eventDurationNanos <= slowestMinNanos) {
+        return;
+      }
+      slowestLock.lock();
+      try {
+        if (slowest.size() < keepSlowest) {
+          slowest.add(event);
+        } else if (eventDurationNanos > getDurationNanos(slowest.peek())) {
+          slowest.poll();
+          slowest.add(event);
+        }
+        if (slowest.size() == keepSlowest) {
+          slowestMinNanos = getDurationNanos(slowest.peek());
+        }
+      } finally {
+        slowestLock.unlock();
+      }
+    }
+
+    void drainSlowest(List<EventInfo> events) {
+      slowestLock.lock();
+      try {
+        keptEvents.add(slowest.size());
+        events.addAll(slowest);
+        slowest.clear();
+        slowestMinNanos = -1;
+      } finally {
+        slowestLock.unlock();
+      }
+    }
+
+    /** Returns the summary of the events counted since the previous drain, or null if none. */
+    @Nullable EventInfo summarize(Instant startTime, Instant endTime) {
+      Map<String, Object> statusCounts = new LinkedHashMap<>();
+      long events = 0;
+      for (Status status : Status.values()) {
+        long total = statusToEvents[status.ordinal()].sum();
+        long count = total - reportedStatusToEvents[status.ordinal()];
+        reportedStatusToEvents[status.ordinal()] = total;
+        if (count > 0) {
+          statusCounts.put(status.toString(), count);
+          events += count;
+        }
+      }
+      long totalKeptEvents = keptEvents.sum();
+      long kept = totalKeptEvents - reportedKeptEvents;
+      reportedKeptEvents = totalKeptEvents;
+      long totalDurationNanos = durationNanos.sum();
+      long duration = totalDurationNanos - reportedDurationNanos;
+      reportedDurationNanos = totalDurationNanos;
+      if (events == 0) {
+        return null;
+      }
+      Map<String, Object> payload = new LinkedHashMap<>();
+      payload.put("event_type", eventType.toString());
+      payload.put("events", events);
+      payload.put("kept_events", kept);
+      payload.put("status_counts", statusCounts);
+      payload.put("total_duration_ms", duration / NANOS_PER_MILLI);
+      try {
+        return ImmutableEventInfo.of(
+                startTime,
+                endTime,
+                eventType.toString(),
+                EventType.SAMPLING_SUMMARY,
+                Status.SUCCESS)
+            .withPayload(MAPPER.writeValueAsString(payload));
+      } catch (JsonProcessingException e) {
+        throw new IllegalStateException("Error serializing sampling summary payload", e);
+      }
+    }
+  }
+}
@@ -0,0 +1,201 @@
+/*
+ * Copyright (c) Microsoft Corporation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.microsoft.lst_bench.telemetry;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.microsoft.lst_bench.telemetry.EventInfo.EventType;
+import com.microsoft.lst_bench.telemetry.EventInfo.Status;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Predicate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Local file where telemetry events are written, one JSON object per line, when the registry queue
+ * is full. Spilled events are replayed into the database by the flusher once it catches up.
+ */
+public class EventSpill implements AutoCloseable {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(EventSpill.class);
+
+  private static final ObjectMapper MAPPER = new ObjectMapper();
+
+  private final Path file;
+  private final Path replayFile;
+
+  // Guarded by this spill
+  private BufferedWriter writer;
+  private long spilledEvents;
+
+  public EventSpill(Path directory) throws IOException {
+    Files.createDirectories(directory);
+    this.file = Files.createTempFile(directory, "telemetry-spill-", ".jsonl");
+    this.replayFile = file.resolveSibling(file.getFileName() + ".replay");
+    LOGGER.info("Telemetry events that do not fit in the queue are spilled to {}", file);
+  }
+
+  /** Appends an event to the spill file. */
+  public synchronized void write(EventInfo event) {
+    ObjectNode node = MAPPER.createObjectNode();
+    node.put("event_start_time", event.getStartTime().toString());
+    node.put("event_end_time", event.getEndTime().toString());
+    node.put("event_id", event.getEventId());
+    node.put("event_type", event.getEventType().toString());
+    node.put("event_status", event.getStatus().toString());
+    node.put("event_data", event.getPayload());
+    SpanContext span = event.getSpanContext();
+    if (span != null) {
+      node.put("trace_id", span.getTraceId());
+      node.put("span_id", SpanContext.formatSpanId(span.getSpanId()));
+      node.put("parent_span_id", SpanContext.formatSpanId(span.getParentSpanId()));
+    }
+    try {
+      if (writer == null) {
+        writer =
+            Files.newBufferedWriter(
+                file, StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+      }
+      writer.write(MAPPER.writeValueAsString(node));
+      writer.newLine();
+      // Spilled events must survive a crash of the driver
+      writer.flush();
+    } catch (IOException e) {
+      throw new UncheckedIOException("Error while spilling telemetry event", e);
+    }
+    spilledEvents++;
+  }
+
+  /** Returns whether there are spilled events that have not been replayed. */
+  public synchronized boolean isEmpty() {
+    return spilledEvents == 0;
+  }
+
+  /**
+   * Replays the spilled events in batches. Events spilled while replaying are kept for the next
+   * replay, as well as the events of the batch that failed and the ones after it.
+   *
+   * @param insert writes a batch of events and returns whether it succeeded
+   * @param batchSize the maximum number of events in a batch
+   * @return whether all spilled events were replayed
+   */
+  public boolean replay(Predicate<List<EventInfo>> insert, int batchSize) {
+    synchronized (this) {
+      if (spilledEvents == 0) {
+        return true;
+      }
+      // Writers keep spilling to a new file while the current one is replayed
+      closeWriter();
+      try {
+        Files.move(file, replayFile, StandardCopyOption.REPLACE_EXISTING);
+      } catch (IOException e) {
+        throw new UncheckedIOException("Error while rotating telemetry spill file", e);
+      }
+      spilledEvents = 0;
+    }
+    boolean success = true;
+    try (BufferedReader reader = Files.newBufferedReader(replayFile, StandardCharsets.UTF_8)) {
+      List<EventInfo> batch = new ArrayList<>();
+      String line;
+      while ((line = reader.readLine()) != null) {
+        batch.add(parse(line));
+        if (batch.size() == batchSize) {
+          success = replayBatch(insert, batch, success);
+          batch.clear();
+        }
+      }
+      if (!batch.isEmpty()) {
+        success = replayBatch(insert, batch, success);
+      }
+      Files.delete(replayFile);
+    } catch (IOException e) {
+      throw new UncheckedIOException("Error while replaying telemetry spill file", e);
+    }
+    return success;
+  }
+
+  private boolean replayBatch(
+      Predicate<List<EventInfo>> insert, List<EventInfo> batch, boolean success) {
+    if (success && insert.test(batch)) {
+      return true;
+    }
+    // Spill the events again so they are replayed later
+    batch.forEach(this::write);
+    return false;
+  }
+
+  private static EventInfo parse(String line) throws IOException {
+    JsonNode node = MAPPER.readTree(line);
+    JsonNode payload = node.get("event_data");
+    JsonNode traceId = node.get("trace_id");
+    SpanContext span = null;
+    if (traceId != null) {
+      JsonNode parentSpanId = node.get("parent_span_id");
+      span =
+          ImmutableSpanContext.of(
+              traceId.asText(),
+              SpanContext.parseSpanId(node.get("span_id").asText()),
+              SpanContext.parseSpanId(
+                  parentSpanId == null || parentSpanId.isNull() ? null : parentSpanId.asText()));
+    }
+    return ImmutableEventInfo.of(
+            Instant.parse(node.get("event_start_time").asText()),
+            Instant.parse(node.get("event_end_time").asText()),
+            node.get("event_id").asText(),
+            EventType.valueOf(node.get("event_type").asText()),
+            Status.valueOf(node.get("event_status").asText()))
+        .withPayload(payload == null || payload.isNull() ? null : payload.asText())
+        .withSpanContext(span);
+  }
+
+  private void closeWriter() {
+    if (writer != null) {
+      try {
+        writer.close();
+      } catch (IOException e) {
+        LOGGER.warn("Error while closing telemetry spill file", e);
+      }
+      writer = null;
+    }
+  }
+
+  /** Closes the spill file, deleting it if all spilled events were replayed. */
+  @Override
+  public synchronized void close() {
+    closeWriter();
+    if (spilledEvents == 0) {
+      try {
+        Files.deleteIfExists(file);
+      } catch (IOException e) {
+        LOGGER.warn("Error while deleting telemetry spill file", e);
+      }
+    } else {
+      LOGGER.warn("{} telemetry events could not be written and remain in {}", spilledEvents, file);
+    }
+  }
+}
@@ -15,55 +15,229 @@
  */
 package com.microsoft.lst_bench.telemetry;
 
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.microsoft.lst_bench.exec.StatementExec;
+import com.microsoft.lst_bench.input.config.TelemetryConfig;
 import com.microsoft.lst_bench.sql.ConnectionManager;
+import com.microsoft.lst_bench.sql.PooledConnection;
 import com.microsoft.lst_bench.sql.SQLParser;
+import com.microsoft.lst_bench.telemetry.EventInfo.EventType;
+import com.microsoft.lst_bench.telemetry.EventInfo.Status;
 import com.microsoft.lst_bench.util.StringUtils;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Paths;
 import java.sql.Connection;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.time.Instant;
 import java.util.ArrayList;
 import java.util.Collections;
-import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
 import java.util.stream.Collectors;
+import javax.annotation.Nullable;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-/** A telemetry registry that writes events to a JDBC database. */
-public class JDBCTelemetryRegistry {
+/**
+ * A telemetry registry that writes events to a JDBC database.
+ *
+ * <p>If a flush configuration is provided, a background thread writes the events when the number of
+ * buffered events reaches the batch size or the flush interval elapses, and the number of buffered
+ * events is bounded by the queue capacity. Otherwise, events are written when {@link #flush()} is
+ * called.
+ *
+ * <p>If a journal configuration is provided, every event is also appended to a local {@link
+ * EventJournal} before it is buffered, so the events of a run survive a crash of the driver and can
+ * be loaded later with {@link EventJournalLoader}. The journal can also replace the database as the
+ * only destination of the events during the run.
+ */
+public class JDBCTelemetryRegistry implements AutoCloseable {
 
   private static final Logger LOGGER = LoggerFactory.getLogger(JDBCTelemetryRegistry.class);
 
+  private static final ObjectMapper MAPPER = new ObjectMapper();
+
+  private static final long DEFAULT_FLUSH_INTERVAL_SECONDS = 10;
+  private static final int DEFAULT_FLUSH_BATCH_SIZE = 10_000;
+  private static final int DEFAULT_QUEUE_CAPACITY = 100_000;
+  private static final long DEFAULT_BLOCK_TIMEOUT_MS = 30_000;
+  private static final int DEFAULT_INSERT_CHUNK_SIZE = 1_000;
+  private static final int DEFAULT_JOURNAL_SEGMENT_SIZE_MB = 64;
+  private static final int BYTES_PER_MB = 1024 * 1024;
+
   private final ConnectionManager connectionManager;
 
-  private final List<StatementExec> insertFileStatements;
+  private final EventInserter eventInserter;
+
+  // Sessions and phases write events concurrently without blocking each other
+  private final EventBuffer eventsStream;
 
-  // TODO: Make writing events thread-safe.
-  private List<EventInfo> eventsStream;
+  // Events drained from the stream but not written yet, guarded by this registry. Flushes are
+  // serialized, so the stream is drained by one thread at a time.
+  private final List<EventInfo> pendingEvents;
+  // Statement events handed over as columns, written after the other events of the same flush
+  private final Queue<StatementEventBuffer> statementEventsStream;
+  private final List<StatementEventBuffer> pendingStatementEvents;
 
-  public JDBCTelemetryRegistry(
-      ConnectionManager connectionManager,
-      boolean executeDdl,
-      String ddlFile,
-      String insertFile,
-      Map<String, Object> parameterValues)
+  // Local journal, if configured. Events are only buffered for the database if they are written
+  // to it.
+  @Nullable private final EventJournal journal;
+  private final boolean writeToDatabase;
+  // Sampler of the event types with a sampling policy, if any
+  @Nullable private final EventSampler sampler;
+
+  // Background flusher, if configured
+  @Nullable private final Thread flusher;
+  private final long flushIntervalNanos;
+  private final int flushBatchSize;
+  private final TelemetryConfig.OverflowPolicy overflowPolicy;
+  // Time a write waits for room in the queue with the block policy before it spills the event
+  private final long blockTimeoutNanos;
+  // Each buffered or pending event holds a permit until it is written
+  @Nullable private final Semaphore queuePermits;
+  @Nullable private final EventSpill spill;
+  private final AtomicLong bufferedEvents;
+  private volatile boolean flushRequested;
+  private volatile boolean closed;
+  // Set by the first call to close, which may come from the driver or from the shutdown hook
+  private final AtomicBoolean closing;
+
+  // Metrics of the background flusher
+  private final LongAdder droppedEvents;
+  private final LongAdder spilledEvents;
+  private final LongAdder blockedWrites;
+
+  /**
+   * Creates a registry with the DDL, insert statements, and optional flusher, journal, and sampling
+   * policies of the telemetry configuration. Events are written with the given connection manager,
+   * which is not closed by the registry.
+   */
+  public JDBCTelemetryRegistry(ConnectionManager connectionManager, TelemetryConfig telemetryConfig)
       throws SQLException {
+    Map<String, Object> parameterValues = telemetryConfig.getParameterValues();
+    TelemetryConfig.Flush flushConfig = telemetryConfig.getFlush();
+    TelemetryConfig.Journal journalConfig = telemetryConfig.getJournal();
+    List<TelemetryConfig.Sampling> samplingConfigs = telemetryConfig.getSampling();
     this.connectionManager = connectionManager;
-    this.eventsStream = new ArrayList<>();
-    this.insertFileStatements =
+    this.eventsStream = new EventBuffer();
+    this.pendingEvents = new ArrayList<>();
+    this.statementEventsStream = new ConcurrentLinkedQueue<>();
+    this.pendingStatementEvents = new ArrayList<>();
+    this.eventInserter =
+        createEventInserter(
+            telemetryConfig.getInsertFile(), parameterValues, telemetryConfig.getInsertChunkSize());
+    this.bufferedEvents = new AtomicLong();
+    this.closing = new AtomicBoolean();
+    this.droppedEvents = new LongAdder();
+    this.spilledEvents = new LongAdder();
+    this.blockedWrites = new LongAdder();
+    // Create the tables if they don't exist.
+    if (telemetryConfig.isExecuteDDL()) {
+      executeDdl(connectionManager, telemetryConfig.getDDLFile(), parameterValues);
+    }
+    this.sampler =
+        samplingConfigs == null || samplingConfigs.isEmpty()
+            ? null
+            : new EventSampler(samplingConfigs);
+    if (journalConfig == null) {
+      this.journal = null;
+      this.writeToDatabase = true;
+    } else {
+      try {
+        this.journal =
+            new EventJournal(
+                Paths.get(journalConfig.getDirectory()),
+                journalConfig.getSegmentSizeMb() == null
+                    ? DEFAULT_JOURNAL_SEGMENT_SIZE_MB * BYTES_PER_MB
+                    : Math.toIntExact((long) journalConfig.getSegmentSizeMb() * BYTES_PER_MB));
+      } catch (IOException e) {
+        throw new UncheckedIOException("Unable to create telemetry journal", e);
+      }
+      this.writeToDatabase =
+          journalConfig.isWriteToDatabase() == null || journalConfig.isWriteToDatabase();
+    }
+    if (flushConfig == null) {
+      this.flusher = null;
+      this.flushIntervalNanos = 0;
+      this.flushBatchSize = Integer.MAX_VALUE;
+      this.overflowPolicy = TelemetryConfig.OverflowPolicy.BLOCK;
+      this.blockTimeoutNanos = 0;
+      this.queuePermits = null;
+      this.spill = null;
+      return;
+    }
+    this.flushIntervalNanos =
+        TimeUnit.SECONDS.toNanos(
+            flushConfig.getIntervalSeconds() == null
+                ? DEFAULT_FLUSH_INTERVAL_SECONDS
+                : flushConfig.getIntervalSeconds());
+    this.flushBatchSize =
+        flushConfig.getBatchSize() == null ? DEFAULT_FLUSH_BATCH_SIZE : flushConfig.getBatchSize();
+    int queueCapacity =
+        flushConfig.getQueueCapacity() == null
+            ? DEFAULT_QUEUE_CAPACITY
+            : flushConfig.getQueueCapacity();
+    if (flushIntervalNanos <= 0 || flushBatchSize <= 0 || queueCapacity <= 0) {
+      throw new IllegalArgumentException(
+          "Telemetry flush interval, batch size, and queue capacity must be positive");
+    }
+    this.overflowPolicy =
+        flushConfig.getOverflowPolicy() == null
+            ? TelemetryConfig.OverflowPolicy.BLOCK
+            : flushConfig.getOverflowPolicy();
+    this.blockTimeoutNanos =
+        TimeUnit.MILLISECONDS.toNanos(
+            flushConfig.getBlockTimeoutMs() == null
+                ? DEFAULT_BLOCK_TIMEOUT_MS
+                : flushConfig.getBlockTimeoutMs());
+    this.queuePermits = new Semaphore(queueCapacity);
+    // Writers that block too long, e.g., because the database is down, spill their events too
+    if (overflowPolicy == TelemetryConfig.OverflowPolicy.SPILL
+        || overflowPolicy == TelemetryConfig.OverflowPolicy.BLOCK) {
+      try {
+        this.spill =
+            new EventSpill(
+                Paths.get(
+                    flushConfig.getSpillDirectory() == null
+                        ? System.getProperty("java.io.tmpdir")
+                        : flushConfig.getSpillDirectory()));
+      } catch (IOException e) {
+        throw new UncheckedIOException("Unable to create telemetry spill file", e);
+      }
+    } else {
+      this.spill = null;
+    }
+    this.flusher = new Thread(this::runFlusher, "telemetry-flusher");
+    this.flusher.setDaemon(true);
+    this.flusher.start();
+  }
+
+  /** Creates the writer of the events with the statements of the insert file. */
+  static EventInserter createEventInserter(
+      String insertFile, Map<String, Object> parameterValues, @Nullable Integer insertChunkSize) {
+    return new EventInserter(
         Collections.unmodifiableList(
             SQLParser.getStatements(insertFile).getStatements().stream()
                 .map(s -> StringUtils.replaceParameters(s, parameterValues))
-                .collect(Collectors.toList()));
-    // Create the tables if they don't exist.
-    if (executeDdl) {
-      executeDdl(ddlFile, parameterValues);
-    }
+                .collect(Collectors.toList())),
+        insertChunkSize == null ? DEFAULT_INSERT_CHUNK_SIZE : insertChunkSize);
   }
 
-  private void executeDdl(String ddlFile, Map<String, Object> parameterValues) throws SQLException {
+  static void executeDdl(
+      ConnectionManager connectionManager, String ddlFile, Map<String, Object> parameterValues)
+      throws SQLException {
     LOGGER.info("Creating new logging tables...");
     try (Connection connection = connectionManager.createConnection();
         Statement statement = connection.createStatement()) {
@@ -76,40 +250,297 @@ public class JDBCTelemetryRegistry {
     LOGGER.info("Logging tables created.");
   }
 
-  /** Inserts an event into the stream. */
+  /**
+   * Inserts an event into the stream, unless its type is sampled and the sampler does not keep it.
+   * It never blocks while the queue of the background flusher has room, even while events are being
+   * flushed. Otherwise, the overflow policy applies.
+   */
   public void writeEvent(EventInfo eventInfo) {
+    writeEvent(eventInfo, true);
+  }
+
+  private void writeEvent(EventInfo eventInfo, boolean mayBlock) {
+    if (sampler != null && !sampler.sample(eventInfo)) {
+      return;
+    }
+    appendEvent(eventInfo, mayBlock);
+  }
+
+  /**
+   * Writes the statement events of a buffer and leaves it empty, so the caller can reuse it. Unless
+   * the events go to the journal or statement events are sampled, the columns of the buffer are
+   * queued as they are and only converted when they are written to the database. If the queue of
+   * the background flusher does not have room for all of them, each event is converted and the
+   * overflow policy applies to it.
+   */
+  public void writeStatementEvents(StatementEventBuffer statementEvents) {
+    int size = statementEvents.size();
+    if (size == 0) {
+      return;
+    }
+    if (journal != null
+        || (sampler != null && sampler.isSampled(EventType.EXEC_STATEMENT))
+        || (queuePermits != null && !queuePermits.tryAcquire(size))) {
+      statementEvents.drain(this::writeEvent);
+      return;
+    }
+    statementEventsStream.add(statementEvents.drainToCopy());
+    long previousBufferedEvents = bufferedEvents.getAndAdd(size);
+    if (previousBufferedEvents < flushBatchSize
+        && previousBufferedEvents + size >= flushBatchSize
+        && flusher != null) {
+      LockSupport.unpark(flusher);
+    }
+  }
+
+  /**
+   * Appends an event to the journal, if any, and to the stream. A writer that may not block, such
+   * as the flusher itself, drops the event instead of blocking when the queue is full.
+   */
+  private void appendEvent(EventInfo eventInfo, boolean mayBlock) {
+    if (journal != null) {
+      boolean journaled = journal.append(eventInfo);
+      if (!writeToDatabase) {
+        if (!journaled) {
+          droppedEvents.increment();
+        }
+        return;
+      }
+    }
+    if (queuePermits != null && !queuePermits.tryAcquire()) {
+      switch (overflowPolicy) {
+        case BLOCK:
+          if (!mayBlock) {
+            droppedEvents.increment();
+            return;
+          }
+          blockedWrites.increment();
+          if (!awaitQueuePermit()) {
+            spill.write(eventInfo);
+            spilledEvents.increment();
+            return;
+          }
+          break;
+        case DROP:
+          droppedEvents.increment();
+          return;
+        case SPILL:
+          spill.write(eventInfo);
+          spilledEvents.increment();
+          return;
+        default:
+          throw new IllegalStateException("Unknown overflow policy: " + overflowPolicy);
+      }
+    }
     eventsStream.add(eventInfo);
+    // Counted without a flusher too, so the depth of the buffer can be reported
+    if (bufferedEvents.incrementAndGet() == flushBatchSize && flusher != null) {
+      LockSupport.unpark(flusher);
+    }
+  }
+
+  /**
+   * Waits up to the block timeout for room in the queue. The database may stay unavailable for a
+   * long time, and sessions must not stall on telemetry for that long.
+   *
+   * @return whether there is room for the event, otherwise it must be spilled
+   */
+  private boolean awaitQueuePermit() {
+    try {
+      return queuePermits.tryAcquire(blockTimeoutNanos, TimeUnit.NANOSECONDS);
+    } catch (InterruptedException e) {
+      // Spilling keeps the event of a session that is being cancelled
+      Thread.currentThread().interrupt();
+      return false;
+    }
+  }
+
+  /** Returns the number of events buffered in memory and not yet handed to the database. */
+  public long getBufferedEvents() {
+    return bufferedEvents.get();
   }
 
-  /** Flushes the events to the database. */
+  /**
+   * Returns the number of events dropped because the queue of the flusher was full, or because they
+   * were written to the journal after it was closed.
+   */
+  public long getDroppedEvents() {
+    return droppedEvents.sum();
+  }
+
+  /** Returns the number of events spilled to disk because the queue of the flusher was full. */
+  public long getSpilledEvents() {
+    return spilledEvents.sum();
+  }
+
+  /** Returns the number of writes that blocked because the queue of the flusher was full. */
+  public long getBlockedWrites() {
+    return blockedWrites.sum();
+  }
+
+  /**
+   * Flushes the events to the database. Concurrent calls are serialized. If writing the events
+   * fails, they are kept and written in the next flush. With a background flusher, it only wakes up
+   * the flusher and returns without waiting. The slowest events kept by the sampler and the
+   * sampling summaries, if any, are added first, and the journal, if any, is forced to disk.
+   */
   public void flush() {
+    drainSampler();
+    if (journal != null) {
+      journal.force();
+    }
+    if (flusher != null) {
+      flushRequested = true;
+      LockSupport.unpark(flusher);
+      return;
+    }
+    writeBufferedEvents();
+  }
+
+  private void drainSampler() {
+    if (sampler == null) {
+      return;
+    }
+    for (EventInfo eventInfo : sampler.drain()) {
+      appendEvent(eventInfo, true);
+    }
+  }
+
+  private void runFlusher() {
+    long nextFlushNanos = System.nanoTime() + flushIntervalNanos;
+    while (!closed) {
+      long remainingNanos = nextFlushNanos - System.nanoTime();
+      if (remainingNanos > 0 && !flushRequested && bufferedEvents.get() < flushBatchSize) {
+        LockSupport.parkNanos(this, remainingNanos);
+        continue;
+      }
+      flushRequested = false;
+      Instant flushStartTime = Instant.now();
+      long flushStartNanos = System.nanoTime();
+      int writtenEvents = writeBufferedEvents();
+      writeFlushEvent(flushStartTime, flushStartNanos, writtenEvents);
+      nextFlushNanos = System.nanoTime() + flushIntervalNanos;
+    }
+  }
+
+  /**
+   * Records the latency of a background flush and the state of the queue. The event goes through
+   * the sampler, journal, and queue like any other event, except that it is dropped rather than
+   * blocking when the queue is full, so the flusher never waits on its own queue.
+   */
+  private void writeFlushEvent(Instant startTime, long startNanos, int writtenEvents) {
+    if (writtenEvents == 0) {
+      return;
+    }
+    Map<String, Object> payload = new LinkedHashMap<>();
+    payload.put("written_events", Math.max(writtenEvents, 0));
+    payload.put("flush_time_ms", (System.nanoTime() - startNanos) / 1_000_000.0);
+    payload.put("queued_events", bufferedEvents.get());
+    payload.put("dropped_events", droppedEvents.sum());
+    payload.put("spilled_events", spilledEvents.sum());
+    payload.put("blocked_writes", blockedWrites.sum());
+    String payloadString;
+    try {
+      payloadString = MAPPER.writeValueAsString(payload);
+    } catch (JsonProcessingException e) {
+      throw new IllegalStateException("Error serializing flush payload", e);
+    }
+    writeEvent(
+        ImmutableEventInfo.of(
+                startTime,
+                Instant.now(),
+                "telemetry_flush",
+                EventType.FLUSH_TELEMETRY,
+                writtenEvents < 0 ? Status.FAILURE : Status.SUCCESS)
+            .withPayload(payloadString),
+        false);
+  }
+
+  /**
+   * Writes the buffered events and replays the spilled ones.
+   *
+   * @return the number of events written, 0 if there were none, or -1 if writing failed
+   */
+  private synchronized int writeBufferedEvents() {
     LOGGER.info("Flushing events to database...");
-    try (Connection connection = connectionManager.createConnection();
-        Statement statement = connection.createStatement()) {
-      Map<String, Object> values = new HashMap<>();
-      values.put(
-          "tuples",
-          eventsStream.stream()
-              .map(
-                  o ->
-                      String.join(
-                          ",",
-                          StringUtils.quote(o.getStartTime().toString()),
-                          StringUtils.quote(o.getEndTime().toString()),
-                          StringUtils.quote(o.getEventId()),
-                          StringUtils.quote(o.getEventType().toString()),
-                          StringUtils.quote(o.getStatus().toString()),
-                          StringUtils.quote(o.getPayload())))
-              .collect(Collectors.joining("),(", "(", ")")));
-      for (StatementExec query : insertFileStatements) {
-        String currentQuery = StringUtils.replaceParameters(query, values).getStatement();
-        statement.execute(currentQuery);
+    int drainedEvents = eventsStream.drainTo(pendingEvents);
+    for (StatementEventBuffer statementEvents = statementEventsStream.poll();
+        statementEvents != null;
+        statementEvents = statementEventsStream.poll()) {
+      pendingStatementEvents.add(statementEvents);
+      drainedEvents += statementEvents.size();
+    }
+    bufferedEvents.addAndGet(-drainedEvents);
+    int writtenEvents = pendingEvents.size();
+    for (StatementEventBuffer statementEvents : pendingStatementEvents) {
+      writtenEvents += statementEvents.size();
+    }
+    if (writtenEvents == 0 && (spill == null || spill.isEmpty())) {
+      LOGGER.info("No events to flush.");
+      return 0;
+    }
+    if (writtenEvents > 0) {
+      if (!insertEvents(pendingEvents, pendingStatementEvents)) {
+        // Keep the events so they are written in the next flush
+        return -1;
+      }
+      pendingEvents.clear();
+      pendingStatementEvents.clear();
+      if (queuePermits != null) {
+        queuePermits.release(writtenEvents);
       }
+    }
+    if (spill != null && !spill.replay(this::insertEvents, flushBatchSize)) {
+      return -1;
+    }
+    LOGGER.info("Events flushed to database.");
+    return writtenEvents;
+  }
 
-      eventsStream = new ArrayList<>();
-      LOGGER.info("Events flushed to database.");
+  private boolean insertEvents(List<EventInfo> events) {
+    return insertEvents(events, Collections.emptyList());
+  }
+
+  private boolean insertEvents(List<EventInfo> events, List<StatementEventBuffer> statementEvents) {
+    try (PooledConnection connection = connectionManager.acquireConnection()) {
+      eventInserter.insert(connection, events, statementEvents);
+      return true;
     } catch (SQLException e) {
       LOGGER.error("Error while flushing events to database", e);
+      return false;
+    }
+  }
+
+  /**
+   * Stops the background flusher, if any, and writes the remaining events. Writers that are blocked
+   * on a full queue are released by the final flush.
+   */
+  @Override
+  public void close() {
+    if (!closing.compareAndSet(false, true)) {
+      return;
+    }
+    drainSampler();
+    closed = true;
+    if (flusher != null) {
+      LockSupport.unpark(flusher);
+      try {
+        flusher.join();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+    writeBufferedEvents();
+    if (spill != null) {
+      spill.close();
+    }
+    if (journal != null) {
+      journal.close();
+    }
+    if (droppedEvents.sum() > 0) {
+      LOGGER.warn(
+          "{} telemetry events were dropped because the queue was full or the registry was closed",
+          droppedEvents);
     }
   }
 }
@@ -0,0 +1,128 @@
+/*
+ * Copyright (c) Microsoft Corporation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.microsoft.lst_bench.telemetry;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.microsoft.lst_bench.telemetry.EventInfo.EventType;
+import com.microsoft.lst_bench.telemetry.EventInfo.Status;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import javax.annotation.Nullable;
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+
+/**
+ * Latency histograms of telemetry events, keyed by event type and event id, so percentiles are
+ * available at the end of a phase or repetition without reading back the raw events.
+ *
+ * <p>Latencies are recorded in microseconds with 3 significant digits. Recording is wait-free and
+ * can be done concurrently by any number of sessions. Histograms created with a parent also record
+ * every latency in the parent, so the histograms of a phase roll up into those of its repetition.
+ */
+public class LatencyHistograms {
+
+  private static final ObjectMapper MAPPER = new ObjectMapper();
+
+  private static final int SIGNIFICANT_DIGITS = 3;
+  private static final double MICROS_PER_MILLI = 1_000.0;
+
+  @Nullable private final LatencyHistograms parent;
+  private final Map<EventType, Map<String, Recorder>> typeToIdToRecorder;
+
+  public LatencyHistograms(@Nullable LatencyHistograms parent) {
+    this.parent = parent;
+    this.typeToIdToRecorder = new EnumMap<>(EventType.class);
+    for (EventType eventType : EventType.values()) {
+      typeToIdToRecorder.put(eventType, new ConcurrentHashMap<>());
+    }
+  }
+
+  /** Records the latency of an event. */
+  public void record(EventInfo event) {
+    long latencyMicros =
+        Math.max(0, ChronoUnit.MICROS.between(event.getStartTime(), event.getEndTime()));
+    record(event.getEventType(), event.getEventId(), latencyMicros);
+  }
+
+  /** Records the latency of an event that is not available as an {@link EventInfo}. */
+  public void record(EventType eventType, String eventId, long latencyMicros) {
+    typeToIdToRecorder
+        .get(eventType)
+        .computeIfAbsent(eventId, id -> new Recorder(SIGNIFICANT_DIGITS))
+        .recordValue(latencyMicros);
+    if (parent != null) {
+      parent.record(eventType, eventId, latencyMicros);
+    }
+  }
+
+  /**
+   * Creates one {@link EventType#LATENCY_HISTOGRAM} event per event type and id with the count,
+   * mean, percentiles, and maximum of the latencies recorded since the previous call. Must not be
+   * called concurrently.
+   *
+   * @param startTime the start time of the summary events, usually the start of the scope
+   * @param scope entries that identify the phase or repetition, added to every payload
+   * @return the summary events
+   */
+  public List<EventInfo> summarize(Instant startTime, Map<String, Object> scope) {
+    List<EventInfo> summaries = new ArrayList<>();
+    Instant endTime = Instant.now();
+    for (Map.Entry<EventType, Map<String, Recorder>> typeEntry : typeToIdToRecorder.entrySet()) {
+      for (Map.Entry<String, Recorder> idEntry : typeEntry.getValue().entrySet()) {
+        Histogram histogram = idEntry.getValue().getIntervalHistogram();
+        if (histogram.getTotalCount() == 0) {
+          continue;
+        }
+        summaries.add(
+            ImmutableEventInfo.of(
+                    startTime,
+                    endTime,
+                    idEntry.getKey(),
+                    EventType.LATENCY_HISTOGRAM,
+                    Status.SUCCESS)
+                .withPayload(createPayload(typeEntry.getKey(), histogram, scope)));
+      }
+    }
+    return summaries;
+  }
+
+  private static String createPayload(
+      EventType eventType, Histogram histogram, Map<String, Object> scope) {
+    Map<String, Object> payload = new LinkedHashMap<>();
+    payload.put("event_type", eventType.toString());
+    payload.putAll(scope);
+    payload.put("count", histogram.getTotalCount());
+    payload.put("min_ms", histogram.getMinValue() / MICROS_PER_MILLI);
+    payload.put("mean_ms", histogram.getMean() / MICROS_PER_MILLI);
+    payload.put("p50_ms", histogram.getValueAtPercentile(50.0) / MICROS_PER_MILLI);
+    payload.put("p90_ms", histogram.getValueAtPercentile(90.0) / MICROS_PER_MILLI);
+    payload.put("p99_ms", histogram.getValueAtPercentile(99.0) / MICROS_PER_MILLI);
+    payload.put("p999_ms", histogram.getValueAtPercentile(99.9) / MICROS_PER_MILLI);
+    payload.put("max_ms", histogram.getMaxValue() / MICROS_PER_MILLI);
+    try {
+      return MAPPER.writeValueAsString(payload);
+    } catch (JsonProcessingException e) {
+      throw new IllegalStateException("Error serializing latency histogram payload", e);
+    }
+  }
+}
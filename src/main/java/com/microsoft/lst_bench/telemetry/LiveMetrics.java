@@ -0,0 +1,254 @@
+/*
+ * Copyright (c) Microsoft Corporation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.microsoft.lst_bench.telemetry;
+
+import com.microsoft.lst_bench.sql.ConnectionManager;
+import com.microsoft.lst_bench.telemetry.EventInfo.Status;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Live counters and gauges of an experiment run, exposed in the Prometheus text format by {@link
+ * MetricsEndpoint}.
+ *
+ * <p>Updates are lock-free, so sessions update them from the statement path without contending with
+ * each other or with scrapes. Metrics of a phase accumulate across repetitions.
+ */
+public class LiveMetrics {
+
+  private static final String PREFIX = "lst_bench_";
+
+  // Upper bounds of the statement latency buckets, in seconds
+  private static final double[] LATENCY_BUCKETS_SECONDS = {
+    0.001, 0.005, 0.01, 0.05, 0.1, 0.5, 1, 5, 10, 30, 60, 300, 1800, 7200
+  };
+  private static final long[] LATENCY_BUCKETS_NANOS = new long[LATENCY_BUCKETS_SECONDS.length];
+
+  static {
+    for (int i = 0; i < LATENCY_BUCKETS_SECONDS.length; i++) {
+      LATENCY_BUCKETS_NANOS[i] = (long) (LATENCY_BUCKETS_SECONDS[i] * TimeUnit.SECONDS.toNanos(1));
+    }
+  }
+
+  private final LongAdder inFlightSessions;
+  // Sorted so the output is stable between scrapes
+  private final Map<String, Phase> idToPhase;
+  private final Map<String, ConnectionManager> idToConnectionManager;
+  private final Map<String, LongSupplier> nameToGauge;
+
+  public LiveMetrics() {
+    this.inFlightSessions = new LongAdder();
+    this.idToPhase = new ConcurrentSkipListMap<>();
+    this.idToConnectionManager = new ConcurrentSkipListMap<>();
+    this.nameToGauge = new ConcurrentHashMap<>();
+  }
+
+  /** Adds the pool usage of a connection to the metrics. */
+  public void registerConnection(String connectionId, ConnectionManager connectionManager) {
+    idToConnectionManager.put(connectionId, connectionManager);
+  }
+
+  /**
+   * Adds a gauge whose value is read on every scrape.
+   *
+   * @param name the name of the gauge, without the common prefix
+   * @param gauge returns the current value
+   */
+  public void registerGauge(String name, LongSupplier gauge) {
+    nameToGauge.put(name, gauge);
+  }
+
+  /** Marks a phase as running and returns its metrics, which sessions update directly. */
+  public Phase startPhase(String phaseId) {
+    Phase phase = idToPhase.computeIfAbsent(phaseId, id -> new Phase());
+    phase.running.increment();
+    return phase;
+  }
+
+  /** Marks a phase as no longer running. */
+  public void finishPhase(Phase phase) {
+    phase.running.decrement();
+  }
+
+  public void sessionStarted() {
+    inFlightSessions.increment();
+  }
+
+  public void sessionFinished() {
+    inFlightSessions.decrement();
+  }
+
+  /** Writes the current value of every metric in the Prometheus text exposition format. */
+  public String scrape() {
+    StringBuilder sb = new StringBuilder();
+    writeHeader(sb, "sessions_in_flight", "gauge", "Sessions currently running.");
+    writeSample(sb, "sessions_in_flight", "", inFlightSessions.sum());
+
+    writeHeader(sb, "phase_running", "gauge", "Whether a phase is currently running.");
+    for (Map.Entry<String, Phase> entry : idToPhase.entrySet()) {
+      writeSample(
+          sb,
+          "phase_running",
+          label("phase", entry.getKey()),
+          entry.getValue().running.sum() > 0 ? 1 : 0);
+    }
+
+    writeHeader(sb, "statements_total", "counter", "Statements executed, by phase and status.");
+    for (Map.Entry<String, Phase> entry : idToPhase.entrySet()) {
+      for (Status status : Status.values()) {
+        long count = entry.getValue().statements[status.ordinal()].sum();
+        if (count > 0) {
+          writeSample(
+              sb,
+              "statements_total",
+              label("phase", entry.getKey())
+                  + ","
+                  + label("status", status.toString().toLowerCase(Locale.ROOT)),
+              count);
+        }
+      }
+    }
+
+    writeHeader(sb, "tasks_completed_total", "counter", "Tasks completed successfully.");
+    for (Map.Entry<String, Phase> entry : idToPhase.entrySet()) {
+      writeSample(
+          sb,
+          "tasks_completed_total",
+          label("phase", entry.getKey()),
+          entry.getValue().completedTasks.sum());
+    }
+
+    writeHeader(
+        sb, "statement_duration_seconds", "histogram", "Latency of the executed statements.");
+    for (Map.Entry<String, Phase> entry : idToPhase.entrySet()) {
+      entry.getValue().writeLatencyHistogram(sb, label("phase", entry.getKey()));
+    }
+
+    writeHeader(sb, "connection_pool_size", "gauge", "Connections open in the pool.");
+    for (Map.Entry<String, ConnectionManager> entry : idToConnectionManager.entrySet()) {
+      writeSample(
+          sb,
+          "connection_pool_size",
+          label("connection", entry.getKey()),
+          entry.getValue().getPoolSize());
+    }
+    writeHeader(sb, "connection_pool_borrowed", "gauge", "Pooled connections borrowed.");
+    for (Map.Entry<String, ConnectionManager> entry : idToConnectionManager.entrySet()) {
+      writeSample(
+          sb,
+          "connection_pool_borrowed",
+          label("connection", entry.getKey()),
+          entry.getValue().getPoolBorrowed());
+    }
+
+    for (Map.Entry<String, LongSupplier> entry : nameToGauge.entrySet()) {
+      writeHeader(sb, entry.getKey(), "gauge", null);
+      writeSample(sb, entry.getKey(), "", entry.getValue().getAsLong());
+    }
+    return sb.toString();
+  }
+
+  private static void writeHeader(StringBuilder sb, String name, String type, String help) {
+    if (help != null) {
+      sb.append("# HELP ").append(PREFIX).append(name).append(' ').append(help).append('\n');
+    }
+    sb.append("# TYPE ").append(PREFIX).append(name).append(' ').append(type).append('\n');
+  }
+
+  private static void writeSample(StringBuilder sb, String name, String labels, double value) {
+    sb.append(PREFIX).append(name);
+    if (!labels.isEmpty()) {
+      sb.append('{').append(labels).append('}');
+    }
+    sb.append(' ');
+    if (value == Math.rint(value) && !Double.isInfinite(value)) {
+      sb.append((long) value);
+    } else {
+      sb.append(value);
+    }
+    sb.append('\n');
+  }
+
+  private static String label(String name, String value) {
+    return name
+        + "=\""
+        + value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n")
+        + "\"";
+  }
+
+  /** Metrics of a phase. */
+  public static class Phase {
+    private final LongAdder running;
+    private final LongAdder[] statements;
+    private final LongAdder completedTasks;
+    private final LongAdder[] latencyBuckets;
+    private final LongAdder latencySumNanos;
+
+    private Phase() {
+      this.running = new LongAdder();
+      this.statements = new LongAdder[Status.values().length];
+      for (int i = 0; i < statements.length; i++) {
+        statements[i] = new LongAdder();
+      }
+      this.completedTasks = new LongAdder();
+      // The last bucket counts the statements above every bound
+      this.latencyBuckets = new LongAdder[LATENCY_BUCKETS_NANOS.length + 1];
+      for (int i = 0; i < latencyBuckets.length; i++) {
+        latencyBuckets[i] = new LongAdder();
+      }
+      this.latencySumNanos = new LongAdder();
+    }
+
+    /** Counts an executed statement and records its latency. */
+    public void statementExecuted(Status status, long latencyNanos) {
+      statements[status.ordinal()].increment();
+      int bucket = 0;
+      while (bucket < LATENCY_BUCKETS_NANOS.length
+          && latencyNanos > LATENCY_BUCKETS_NANOS[bucket]) {
+        bucket++;
+      }
+      latencyBuckets[bucket].increment();
+      latencySumNanos.add(latencyNanos);
+    }
+
+    public void taskCompleted() {
+      completedTasks.increment();
+    }
+
+    private void writeLatencyHistogram(StringBuilder sb, String labels) {
+      String name = "statement_duration_seconds";
+      long cumulative = 0;
+      for (int i = 0; i < LATENCY_BUCKETS_SECONDS.length; i++) {
+        cumulative += latencyBuckets[i].sum();
+        writeSample(
+            sb,
+            name + "_bucket",
+            labels + "," + label("le", Double.toString(LATENCY_BUCKETS_SECONDS[i])),
+            cumulative);
+      }
+      cumulative += latencyBuckets[LATENCY_BUCKETS_SECONDS.length].sum();
+      writeSample(sb, name + "_bucket", labels + "," + label("le", "+Inf"), cumulative);
+      writeSample(
+          sb, name + "_sum", labels, latencySumNanos.sum() / (double) TimeUnit.SECONDS.toNanos(1));
+      writeSample(sb, name + "_count", labels, cumulative);
+    }
+  }
+}
@@ -0,0 +1,44 @@
+/*
+ * Copyright (c) Microsoft Corporation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.microsoft.lst_bench.telemetry;
+
+import java.time.Instant;
+
+/**
+ * Clock that measures time with {@link System#nanoTime()} and converts it to wall-clock time from a
+ * single base captured when the clock is created. Durations between its instants are not affected
+ * by NTP adjustments of the system clock, and have nanosecond resolution.
+ */
+public class MonotonicClock {
+
+  private final Instant baseTime;
+  private final long baseNanos;
+
+  public MonotonicClock() {
+    this.baseTime = Instant.now();
+    this.baseNanos = System.nanoTime();
+  }
+
+  /** Returns the current time. */
+  public Instant now() {
+    return toInstant(System.nanoTime());
+  }
+
+  /** Converts a value returned by {@link System#nanoTime()} to wall-clock time. */
+  public Instant toInstant(long nanoTime) {
+    return baseTime.plusNanos(nanoTime - baseNanos);
+  }
+}
@@ -0,0 +1,347 @@
+/*
+ * Copyright (c) Microsoft Corporation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.microsoft.lst_bench.telemetry;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.yaml.YAMLMapper;
+import com.microsoft.lst_bench.input.config.TelemetryConfig;
+import com.microsoft.lst_bench.sql.ConnectionManager;
+import com.microsoft.lst_bench.telemetry.EventInfo.EventType;
+import com.microsoft.lst_bench.telemetry.EventInfo.Status;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.CommandLineParser;
+import org.apache.commons.cli.DefaultParser;
+import org.apache.commons.cli.HelpFormatter;
+import org.apache.commons.cli.MissingOptionException;
+import org.apache.commons.cli.Option;
+import org.apache.commons.cli.Options;
+import org.apache.commons.cli.UnrecognizedOptionException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Exports telemetry events as spans in the OTLP JSON encoding, so traces can be loaded into tools
+ * that understand OpenTelemetry. The output has one {@code ExportTraceServiceRequest} per line, as
+ * written by the OpenTelemetry file exporter. Events that are not part of a trace are skipped.
+ *
+ * <p>Events are read from a telemetry journal or, given a telemetry configuration, from the table
+ * of its insert file. If the configuration has a journal that replaces the database, the events are
+ * read from the journal instead, since the table does not have them.
+ *
+ * <p>Each span is named after the event id, with the event type, status, and payload as attributes.
+ * Events that did not succeed have an error status.
+ */
+public class OtlpTraceExporter implements AutoCloseable {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(OtlpTraceExporter.class);
+
+  private static final String OPT_INPUT_TELEMETRY_CONFIG_FILE = "input-log-config";
+  private static final String OPT_INPUT_JOURNAL_DIRECTORY = "journal-directory";
+  private static final String OPT_OUTPUT_FILE = "output-file";
+
+  private static final int BATCH_SIZE = 10_000;
+
+  private static final String SERVICE_NAME = "lst-bench";
+  private static final String SCOPE_NAME = "com.microsoft.lst_bench";
+  private static final int SPAN_KIND_INTERNAL = 1;
+  private static final int STATUS_CODE_OK = 1;
+  private static final int STATUS_CODE_ERROR = 2;
+
+  private final OutputStream out;
+  private final JsonFactory factory;
+
+  public OtlpTraceExporter(OutputStream out) {
+    this.out = out;
+    this.factory = new JsonFactory();
+  }
+
+  /**
+   * Writes the events that are part of a trace as one request.
+   *
+   * @return the number of spans written
+   */
+  public int write(List<EventInfo> events) throws IOException {
+    int spans = 0;
+    JsonGenerator generator = factory.createGenerator(out, JsonEncoding.UTF8);
+    generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+    generator.writeStartObject();
+    generator.writeArrayFieldStart("resourceSpans");
+    generator.writeStartObject();
+    generator.writeObjectFieldStart("resource");
+    generator.writeArrayFieldStart("attributes");
+    writeAttribute(generator, "service.name", SERVICE_NAME);
+    generator.writeEndArray();
+    generator.writeEndObject();
+    generator.writeArrayFieldStart("scopeSpans");
+    generator.writeStartObject();
+    generator.writeObjectFieldStart("scope");
+    generator.writeStringField("name", SCOPE_NAME);
+    generator.writeEndObject();
+    generator.writeArrayFieldStart("spans");
+    for (EventInfo event : events) {
+      if (event.getSpanContext() != null) {
+        writeSpan(generator, event);
+        spans++;
+      }
+    }
+    generator.writeEndArray();
+    generator.writeEndObject();
+    generator.writeEndArray();
+    generator.writeEndObject();
+    generator.writeEndArray();
+    generator.writeEndObject();
+    generator.close();
+    out.write('\n');
+    return spans;
+  }
+
+  private static void writeSpan(JsonGenerator generator, EventInfo event) throws IOException {
+    SpanContext span = event.getSpanContext();
+    generator.writeStartObject();
+    generator.writeStringField("traceId", span.getTraceId());
+    generator.writeStringField("spanId", SpanContext.formatSpanId(span.getSpanId()));
+    if (span.getParentSpanId() != 0) {
+      generator.writeStringField("parentSpanId", SpanContext.formatSpanId(span.getParentSpanId()));
+    }
+    generator.writeStringField("name", event.getEventId());
+    generator.writeNumberField("kind", SPAN_KIND_INTERNAL);
+    // 64-bit integers are strings in the JSON encoding
+    generator.writeStringField("startTimeUnixNano", toUnixNanos(event.getStartTime()));
+    generator.writeStringField("endTimeUnixNano", toUnixNanos(event.getEndTime()));
+    generator.writeArrayFieldStart("attributes");
+    writeAttribute(generator, "lst_bench.event_type", event.getEventType().toString());
+    writeAttribute(generator, "lst_bench.event_status", event.getStatus().toString());
+    if (event.getPayload() != null) {
+      writeAttribute(generator, "lst_bench.event_data", event.getPayload());
+    }
+    generator.writeEndArray();
+    generator.writeObjectFieldStart("status");
+    if (event.getStatus() == Status.SUCCESS) {
+      generator.writeNumberField("code", STATUS_CODE_OK);
+    } else {
+      generator.writeNumberField("code", STATUS_CODE_ERROR);
+      generator.writeStringField("message", event.getStatus().toString());
+    }
+    generator.writeEndObject();
+    generator.writeEndObject();
+  }
+
+  private static void writeAttribute(JsonGenerator generator, String key, String value)
+      throws IOException {
+    generator.writeStartObject();
+    generator.writeStringField("key", key);
+    generator.writeObjectFieldStart("value");
+    generator.writeStringField("stringValue", value);
+    generator.writeEndObject();
+    generator.writeEndObject();
+  }
+
+  private static String toUnixNanos(Instant instant) {
+    return Long.toString(instant.getEpochSecond() * 1_000_000_000L + instant.getNano());
+  }
+
+  @Override
+  public void close() throws IOException {
+    out.close();
+  }
+
+  /**
+   * Exports the events of the journal in the directory to a file.
+   *
+   * @return the number of spans exported
+   */
+  public static long export(Path journalDirectory, Path outputFile) throws IOException {
+    long[] spans = new long[1];
+    try (OtlpTraceExporter exporter = new OtlpTraceExporter(Files.newOutputStream(outputFile))) {
+      new EventJournalReader(journalDirectory)
+          .read(
+              batch -> {
+                try {
+                  spans[0] += exporter.write(batch);
+                  return true;
+                } catch (IOException e) {
+                  throw new UncheckedIOException(e);
+                }
+              },
+              BATCH_SIZE);
+    }
+    LOGGER.info("Exported {} spans from {} to {}", spans[0], journalDirectory, outputFile);
+    return spans[0];
+  }
+
+  /**
+   * Exports the events of a telemetry configuration to a file. The events are read from the journal
+   * if it replaces the database, or from the table of the insert file otherwise.
+   *
+   * @return the number of spans exported
+   * @throws IllegalArgumentException if the table cannot be determined from the insert file
+   */
+  public static long export(TelemetryConfig telemetryConfig, Path outputFile)
+      throws IOException, SQLException {
+    TelemetryConfig.Journal journalConfig = telemetryConfig.getJournal();
+    if (journalConfig != null && Boolean.FALSE.equals(journalConfig.isWriteToDatabase())) {
+      return export(Paths.get(journalConfig.getDirectory()), outputFile);
+    }
+    String table =
+        JDBCTelemetryRegistry.createEventInserter(
+                telemetryConfig.getInsertFile(),
+                telemetryConfig.getParameterValues(),
+                telemetryConfig.getInsertChunkSize())
+            .getTable();
+    if (table == null) {
+      throw new IllegalArgumentException(
+          "Unable to determine the telemetry table from insert file "
+              + telemetryConfig.getInsertFile()
+              + ", export the journal instead");
+    }
+    long spans = 0;
+    try (ConnectionManager connectionManager =
+            ConnectionManager.from(telemetryConfig.getConnection());
+        Connection connection = connectionManager.createConnection();
+        Statement statement = connection.createStatement();
+        ResultSet rs =
+            statement.executeQuery(
+                "SELECT event_start_time, event_end_time, event_id, event_type, event_status, "
+                    + "event_data, trace_id, span_id, parent_span_id FROM "
+                    + table
+                    + " WHERE trace_id IS NOT NULL");
+        OtlpTraceExporter exporter = new OtlpTraceExporter(Files.newOutputStream(outputFile))) {
+      List<EventInfo> batch = new ArrayList<>(BATCH_SIZE);
+      while (rs.next()) {
+        batch.add(
+            ImmutableEventInfo.of(
+                    Instant.parse(rs.getString(1)),
+                    Instant.parse(rs.getString(2)),
+                    rs.getString(3),
+                    EventType.valueOf(rs.getString(4)),
+                    Status.valueOf(rs.getString(5)))
+                .withPayload(rs.getString(6))
+                .withSpanContext(
+                    ImmutableSpanContext.of(
+                        rs.getString(7),
+                        SpanContext.parseSpanId(rs.getString(8)),
+                        SpanContext.parseSpanId(rs.getString(9)))));
+        if (batch.size() == BATCH_SIZE) {
+          spans += exporter.write(batch);
+          batch.clear();
+        }
+      }
+      if (!batch.isEmpty()) {
+        spans += exporter.write(batch);
+      }
+    }
+    LOGGER.info("Exported {} spans from {} to {}", spans, table, outputFile);
+    return spans;
+  }
+
+  /** Main method. */
+  public static void main(String[] args) throws Exception {
+    String inputTelemetryConfigFile;
+    String inputJournalDirectory;
+    String outputFile;
+
+    // Retrieve program input values
+    final Options options = createOptions();
+    final CommandLineParser parser = new DefaultParser();
+    try {
+      final CommandLine cmd = parser.parse(options, args);
+      inputTelemetryConfigFile = cmd.getOptionValue(OPT_INPUT_TELEMETRY_CONFIG_FILE);
+      inputJournalDirectory = cmd.getOptionValue(OPT_INPUT_JOURNAL_DIRECTORY);
+      outputFile = cmd.getOptionValue(OPT_OUTPUT_FILE);
+    } catch (MissingOptionException | UnrecognizedOptionException e) {
+      usageAndHelp();
+      return;
+    }
+    if ((inputTelemetryConfigFile == null) == (inputJournalDirectory == null)) {
+      // Exactly one source of events is required
+      usageAndHelp();
+      return;
+    }
+
+    if (inputJournalDirectory != null) {
+      export(Paths.get(inputJournalDirectory), Paths.get(outputFile));
+    } else {
+      final ObjectMapper mapper = new YAMLMapper();
+      final TelemetryConfig telemetryConfig =
+          mapper.readValue(new File(inputTelemetryConfigFile), TelemetryConfig.class);
+      export(telemetryConfig, Paths.get(outputFile));
+    }
+  }
+
+  private static Options createOptions() {
+    final Options options = new Options();
+
+    final Option inputTelemetryConfigFile =
+        Option.builder()
+            .option("t")
+            .longOpt(OPT_INPUT_TELEMETRY_CONFIG_FILE)
+            .hasArg()
+            .argName("arg")
+            .desc(
+                "Path to input file containing the telemetry gathering config details, to export the"
+                    + " events of its telemetry table, or of its journal if it replaces the database")
+            .build();
+    options.addOption(inputTelemetryConfigFile);
+
+    final Option inputJournalDirectory =
+        Option.builder()
+            .option("j")
+            .longOpt(OPT_INPUT_JOURNAL_DIRECTORY)
+            .hasArg()
+            .argName("arg")
+            .desc("Path to the telemetry journal directory, to export its events instead")
+            .build();
+    options.addOption(inputJournalDirectory);
+
+    final Option outputFile =
+        Option.builder()
+            .required()
+            .option("o")
+            .longOpt(OPT_OUTPUT_FILE)
+            .hasArg()
+            .argName("arg")
+            .desc("Path to output file where the spans are written in the OTLP JSON encoding")
+            .build();
+    options.addOption(outputFile);
+
+    return options;
+  }
+
+  private static void usageAndHelp() {
+    // Print usage and help
+    final HelpFormatter formatter = new HelpFormatter();
+    formatter.setWidth(120);
+    formatter.printHelp(
+        "java -cp <classpath> " + OtlpTraceExporter.class.getName(), createOptions(), true);
+  }
+}
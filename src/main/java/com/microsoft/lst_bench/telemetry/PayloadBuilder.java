@@ -0,0 +1,103 @@
+/*
+ * Copyright (c) Microsoft Corporation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.microsoft.lst_bench.telemetry;
+
+import javax.annotation.Nullable;
+
+/**
+ * Builds the JSON payload of a frequent event, such as a statement event, in a reusable string
+ * builder. It writes the same compact JSON as the object mapper used for the other payloads, but
+ * without an intermediate map or a serializer per event. Field names and string values are written
+ * as they are, so they must not need escaping.
+ *
+ * <p>A builder must only be used by one thread at a time.
+ */
+public class PayloadBuilder {
+
+  private final StringBuilder json;
+  // Whether the object being written has no fields yet
+  private boolean empty;
+
+  public PayloadBuilder() {
+    this.json = new StringBuilder();
+    reset();
+  }
+
+  /** Discards the fields written so far and starts a new payload. */
+  public PayloadBuilder reset() {
+    json.setLength(0);
+    json.append('{');
+    empty = true;
+    return this;
+  }
+
+  public PayloadBuilder add(String name, long value) {
+    appendName(name).append(value);
+    return this;
+  }
+
+  public PayloadBuilder add(String name, double value) {
+    appendName(name).append(value);
+    return this;
+  }
+
+  public PayloadBuilder add(String name, boolean value) {
+    appendName(name).append(value);
+    return this;
+  }
+
+  public PayloadBuilder add(String name, String value) {
+    appendName(name).append('"').append(value).append('"');
+    return this;
+  }
+
+  /** Adds a value as a string of 16 hexadecimal digits. */
+  public PayloadBuilder addHex(String name, long value) {
+    String hex = Long.toHexString(value);
+    appendName(name).append('"');
+    for (int i = hex.length(); i < 16; i++) {
+      json.append('0');
+    }
+    json.append(hex).append('"');
+    return this;
+  }
+
+  /** Starts a nested object, whose fields are added until {@link #endObject()} is called. */
+  public PayloadBuilder beginObject(String name) {
+    appendName(name).append('{');
+    empty = true;
+    return this;
+  }
+
+  public PayloadBuilder endObject() {
+    json.append('}');
+    empty = false;
+    return this;
+  }
+
+  /** Returns the payload, or null if it has no fields. The builder must be reset to be reused. */
+  @Nullable public String build() {
+    return empty ? null : json.append('}').toString();
+  }
+
+  private StringBuilder appendName(String name) {
+    if (!empty) {
+      json.append(',');
+    }
+    empty = false;
+    return json.append('"').append(name).append("\":");
+  }
+}
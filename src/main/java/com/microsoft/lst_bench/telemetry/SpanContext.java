@@ -0,0 +1,77 @@
+/*
+ * Copyright (c) Microsoft Corporation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.microsoft.lst_bench.telemetry;
+
+import java.util.concurrent.ThreadLocalRandom;
+import org.immutables.value.Value;
+
+/**
+ * Position of an event in the trace of a repetition. Each event is a span, and its parent is the
+ * span of the execution that contains it: statement, file, task, session, phase, and experiment.
+ * Ids are random, with the trace id as 32 hexadecimal digits and span ids as 64-bit values, which
+ * are only formatted when the event is written.
+ */
+@Value.Immutable
+@Value.Style(jdkOnly = true, allParameters = true, defaults = @Value.Immutable(builder = false))
+public interface SpanContext {
+  String getTraceId();
+
+  long getSpanId();
+
+  /** Returns the span id of the parent, or 0 if this is the root span of the trace. */
+  long getParentSpanId();
+
+  /** Creates the root span of a new trace. */
+  static SpanContext root() {
+    ThreadLocalRandom random = ThreadLocalRandom.current();
+    String traceId = toHex(random.nextLong()) + toHex(random.nextLong());
+    return ImmutableSpanContext.of(traceId, newSpanId(), 0);
+  }
+
+  /** Creates a span whose parent is this span. */
+  default SpanContext createChild() {
+    return createChild(newSpanId());
+  }
+
+  /** Creates a span with the given id whose parent is this span. */
+  default SpanContext createChild(long spanId) {
+    return ImmutableSpanContext.of(getTraceId(), spanId, getSpanId());
+  }
+
+  /** Returns a random span id, which is never 0. */
+  static long newSpanId() {
+    long spanId;
+    do {
+      spanId = ThreadLocalRandom.current().nextLong();
+    } while (spanId == 0);
+    return spanId;
+  }
+
+  /** Formats a span id as 16 hexadecimal digits, or returns null for 0. */
+  static String formatSpanId(long spanId) {
+    return spanId == 0 ? null : toHex(spanId);
+  }
+
+  /** Parses a span id formatted with {@link #formatSpanId(long)}. */
+  static long parseSpanId(String spanId) {
+    return spanId == null ? 0 : Long.parseUnsignedLong(spanId, 16);
+  }
+
+  private static String toHex(long value) {
+    String hex = Long.toHexString(value);
+    return "0".repeat(16 - hex.length()) + hex;
+  }
+}
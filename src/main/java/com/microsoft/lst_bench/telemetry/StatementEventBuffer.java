@@ -0,0 +1,154 @@
+/*
+ * Copyright (c) Microsoft Corporation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.microsoft.lst_bench.telemetry;
+
+import com.microsoft.lst_bench.telemetry.EventInfo.EventType;
+import com.microsoft.lst_bench.telemetry.EventInfo.Status;
+import java.util.Arrays;
+import java.util.function.Consumer;
+import javax.annotation.Nullable;
+
+/**
+ * Reusable buffer of statement events stored as primitive columns, with start and end times as
+ * {@link System#nanoTime()} values of the clock of the buffer. Adding an event only stores its
+ * fields in preallocated arrays, so recording a statement allocates nothing. The span of each event
+ * is stored as the span of its parent and its own span id. The registry copies the columns when the
+ * buffer is handed to it and the inserter writes them as they are, so events are only converted to
+ * wall-clock time and span ids to strings when they are written to the database. Events can also be
+ * drained as {@link EventInfo}, for sinks that need them. A drained buffer can be reused.
+ *
+ * <p>A buffer must only be used by one thread at a time.
+ */
+public class StatementEventBuffer {
+
+  private final MonotonicClock clock;
+  private final long[] startNanos;
+  private final long[] endNanos;
+  private final String[] eventIds;
+  private final Status[] statuses;
+  private final String[] payloads;
+  private final SpanContext[] parentSpans;
+  private final long[] spanIds;
+  private int size;
+
+  public StatementEventBuffer(int capacity, MonotonicClock clock) {
+    this.clock = clock;
+    this.startNanos = new long[capacity];
+    this.endNanos = new long[capacity];
+    this.eventIds = new String[capacity];
+    this.statuses = new Status[capacity];
+    this.payloads = new String[capacity];
+    this.parentSpans = new SpanContext[capacity];
+    this.spanIds = new long[capacity];
+  }
+
+  /** Creates a buffer with the events of another buffer, without room for more. */
+  private StatementEventBuffer(StatementEventBuffer other) {
+    this.clock = other.clock;
+    this.size = other.size;
+    this.startNanos = Arrays.copyOf(other.startNanos, size);
+    this.endNanos = Arrays.copyOf(other.endNanos, size);
+    this.eventIds = Arrays.copyOf(other.eventIds, size);
+    this.statuses = Arrays.copyOf(other.statuses, size);
+    this.payloads = Arrays.copyOf(other.payloads, size);
+    this.parentSpans = Arrays.copyOf(other.parentSpans, size);
+    this.spanIds = Arrays.copyOf(other.spanIds, size);
+  }
+
+  /**
+   * Adds a statement event.
+   *
+   * @return whether the buffer is full and must be drained before the next event is added
+   */
+  public boolean add(
+      long startNanos,
+      long endNanos,
+      String eventId,
+      Status status,
+      @Nullable String payload,
+      SpanContext parentSpan,
+      long spanId) {
+    this.startNanos[size] = startNanos;
+    this.endNanos[size] = endNanos;
+    this.eventIds[size] = eventId;
+    this.statuses[size] = status;
+    this.payloads[size] = payload;
+    this.parentSpans[size] = parentSpan;
+    this.spanIds[size] = spanId;
+    return ++size == this.startNanos.length;
+  }
+
+  /** Returns whether the buffer has no events. */
+  public boolean isEmpty() {
+    return size == 0;
+  }
+
+  /** Returns the number of events in the buffer. */
+  public int size() {
+    return size;
+  }
+
+  /**
+   * Converts the events in the buffer to wall-clock time and passes them to the writer in the order
+   * in which they were added, leaving the buffer empty.
+   */
+  public void drain(Consumer<EventInfo> writer) {
+    for (int i = 0; i < size; i++) {
+      writer.accept(
+          ImmutableEventInfo.of(
+                  clock.toInstant(startNanos[i]),
+                  clock.toInstant(endNanos[i]),
+                  eventIds[i],
+                  EventType.EXEC_STATEMENT,
+                  statuses[i])
+              .withPayload(payloads[i])
+              .withSpanContext(parentSpans[i].createChild(spanIds[i])));
+    }
+    clear();
+  }
+
+  /** Moves the events in the buffer to a new buffer of their size, leaving this buffer empty. */
+  StatementEventBuffer drainToCopy() {
+    StatementEventBuffer copy = new StatementEventBuffer(this);
+    clear();
+    return copy;
+  }
+
+  /**
+   * Sets the columns of an event, in the order of the telemetry table, as the {@link EventInserter}
+   * writes them.
+   */
+  void getColumns(int index, String[] columns) {
+    SpanContext parentSpan = parentSpans[index];
+    columns[0] = clock.toInstant(startNanos[index]).toString();
+    columns[1] = clock.toInstant(endNanos[index]).toString();
+    columns[2] = eventIds[index];
+    columns[3] = EventType.EXEC_STATEMENT.toString();
+    columns[4] = statuses[index].toString();
+    columns[5] = payloads[index];
+    columns[6] = parentSpan.getTraceId();
+    columns[7] = SpanContext.formatSpanId(spanIds[index]);
+    columns[8] = SpanContext.formatSpanId(parentSpan.getSpanId());
+  }
+
+  private void clear() {
+    // Do not keep references to the payloads of drained events
+    Arrays.fill(eventIds, 0, size, null);
+    Arrays.fill(payloads, 0, size, null);
+    Arrays.fill(parentSpans, 0, size, null);
+    size = 0;
+  }
+}
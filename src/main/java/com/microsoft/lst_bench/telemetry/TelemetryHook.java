@@ -15,6 +15,10 @@
  */
 package com.microsoft.lst_bench.telemetry;
 
+/**
+ * Shutdown hook that closes the telemetry registry, so that buffered events are written to the
+ * database when the driver exits.
+ */
 public class TelemetryHook extends Thread {
 
   private final JDBCTelemetryRegistry telemetryRegistry;
@@ -25,6 +29,6 @@ public class TelemetryHook extends Thread {
 
   @Override
   public void run() {
-    telemetryRegistry.flush();
+    telemetryRegistry.close();
   }
 }
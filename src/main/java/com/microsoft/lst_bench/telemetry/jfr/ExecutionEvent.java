@@ -0,0 +1,49 @@
+/*
+ * Copyright (c) Microsoft Corporation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.microsoft.lst_bench.telemetry.jfr;
+
+import com.microsoft.lst_bench.telemetry.EventInfo.Status;
+import jdk.jfr.Category;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.StackTrace;
+
+/**
+ * Base class of the JDK Flight Recorder events emitted for each execution level, so driver-side
+ * activity such as GC pauses, socket reads, or thread parking can be analyzed on the same timeline
+ * as the benchmark. An event is begun when the execution starts and completed when its telemetry
+ * event is written. Creating and completing events is free if no recording is running.
+ */
+@Category("LST-Bench")
+@StackTrace(false)
+public abstract class ExecutionEvent extends Event {
+
+  @Label("Event Id")
+  String eventId;
+
+  @Label("Status")
+  String status;
+
+  /** Ends the event and commits it, if a recording with the event enabled is running. */
+  public void complete(String eventId, Status status) {
+    end();
+    if (shouldCommit()) {
+      this.eventId = eventId;
+      this.status = status.toString();
+      commit();
+    }
+  }
+}
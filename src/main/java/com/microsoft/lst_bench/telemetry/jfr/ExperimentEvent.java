@@ -0,0 +1,34 @@
+/*
+ * Copyright (c) Microsoft Corporation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.microsoft.lst_bench.telemetry.jfr;
+
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/** Execution of a repetition of the experiment. */
+@Name("lst_bench.Experiment")
+@Label("Experiment")
+@Description("Execution of a repetition of the experiment")
+public class ExperimentEvent extends ExecutionEvent {
+
+  @Label("Repetition")
+  int repetition;
+
+  public ExperimentEvent(int repetition) {
+    this.repetition = repetition;
+  }
+}
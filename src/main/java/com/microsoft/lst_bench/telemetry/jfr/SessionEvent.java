@@ -0,0 +1,34 @@
+/*
+ * Copyright (c) Microsoft Corporation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.microsoft.lst_bench.telemetry.jfr;
+
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/** Execution of a session, including the time to acquire its connection. */
+@Name("lst_bench.Session")
+@Label("Session")
+@Description("Execution of a session, including the time to acquire its connection")
+public class SessionEvent extends ExecutionEvent {
+
+  @Label("Connection Id")
+  String connectionId;
+
+  public SessionEvent(String connectionId) {
+    this.connectionId = connectionId;
+  }
+}
@@ -0,0 +1,47 @@
+/*
+ * Copyright (c) Microsoft Corporation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.microsoft.lst_bench.telemetry.jfr;
+
+import javax.annotation.Nullable;
+import jdk.jfr.Description;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/** Execution of a statement, or of the batch that contains it. */
+@Name("lst_bench.Statement")
+@Label("Statement")
+@Description("Execution of a statement, or of the batch that contains it")
+public class StatementEvent extends ExecutionEvent {
+
+  private static final EventType EVENT_TYPE = EventType.getEventType(StatementEvent.class);
+
+  @Label("Rows")
+  @Description("Rows returned or updated, or -1 if unknown")
+  long rows = -1;
+
+  /**
+   * Returns a new event if a recording with statement events enabled is running, or null otherwise,
+   * so statements do not allocate events that would never be committed.
+   */
+  @Nullable public static StatementEvent createIfEnabled() {
+    return EVENT_TYPE.isEnabled() ? new StatementEvent() : null;
+  }
+
+  public void setRows(long rows) {
+    this.rows = rows;
+  }
+}
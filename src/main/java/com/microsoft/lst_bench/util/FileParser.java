@@ -22,6 +22,7 @@ import java.io.InputStreamReader;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -34,18 +35,27 @@ public class FileParser {
     // Defeat instantiation
   }
 
-  public static List<String> getPermutationOrder(String permutationOrdersDirectory, int counter) {
+  /**
+   * Reads every permutation order file in a directory.
+   *
+   * @param permutationOrdersDirectory the directory with the permutation order files
+   * @return the file identifiers of each permutation order, in the order the files are listed
+   */
+  public static List<List<String>> getPermutationOrders(String permutationOrdersDirectory) {
     File directory = new File(permutationOrdersDirectory);
     File[] files = directory.listFiles();
     if (files == null) {
       throw new IllegalArgumentException(
           "Cannot find permutation order files in directory: " + permutationOrdersDirectory);
     }
-    if (counter >= files.length) {
-      throw new IllegalArgumentException(
-          "Cannot find permutation order file with index: " + counter);
+    List<List<String>> permutationOrders = new ArrayList<>(files.length);
+    for (File file : files) {
+      permutationOrders.add(getPermutationOrder(file));
     }
-    File file = files[counter];
+    return permutationOrders;
+  }
+
+  private static List<String> getPermutationOrder(File file) {
     List<String> permutationOrder = new ArrayList<>();
     try (BufferedReader br =
         new BufferedReader(
@@ -61,41 +71,47 @@ public class FileParser {
       throw new RuntimeException(
           "Cannot read permutation order file: " + file.getAbsolutePath(), e);
     }
-    return permutationOrder;
+    return Collections.unmodifiableList(permutationOrder);
   }
 
-  public static Map<String, Object> getParameterValues(String parameterValuesFile, int counter) {
-    Map<String, Object> values = new HashMap<>();
+  /**
+   * Reads every line of a parameter values file.
+   *
+   * @param parameterValuesFile the file, with a header line with the parameter names
+   * @return the parameter values of each line after the header
+   */
+  public static List<Map<String, Object>> getParameterValues(String parameterValuesFile) {
     File file = new File(parameterValuesFile);
     if (!file.exists()) {
       throw new IllegalArgumentException(
           "Cannot find parameter values file: " + parameterValuesFile);
     }
+    List<Map<String, Object>> parameterValues = new ArrayList<>();
     try (BufferedReader br =
         new BufferedReader(
             new InputStreamReader(Files.newInputStream(file.toPath()), StandardCharsets.UTF_8))) {
       String header = br.readLine();
-      String line = null;
-      for (int j = 1; j <= counter; j++) {
-        line = br.readLine();
-      }
-      if (line == null) {
-        throw new IllegalArgumentException("Cannot find parameter values with index: " + counter);
-      }
-      StringTokenizer stHeader = new StringTokenizer(header, "|");
-      StringTokenizer stLine = new StringTokenizer(line, "|");
-      while (stHeader.hasMoreTokens()) {
-        String headerToken = stHeader.nextToken();
-        String lineToken = stLine.nextToken();
-        values.put(headerToken, lineToken);
-      }
-      if (stLine.hasMoreTokens()) {
-        throw new IllegalArgumentException(
-            "Parameter values line " + counter + " has more values than header");
+      String line;
+      while ((line = br.readLine()) != null) {
+        Map<String, Object> values = new HashMap<>();
+        StringTokenizer stHeader = new StringTokenizer(header, "|");
+        StringTokenizer stLine = new StringTokenizer(line, "|");
+        while (stHeader.hasMoreTokens()) {
+          String headerToken = stHeader.nextToken();
+          String lineToken = stLine.nextToken();
+          values.put(headerToken, lineToken);
+        }
+        if (stLine.hasMoreTokens()) {
+          throw new IllegalArgumentException(
+              "Parameter values line "
+                  + (parameterValues.size() + 1)
+                  + " has more values than header");
+        }
+        parameterValues.add(Collections.unmodifiableMap(values));
       }
     } catch (IOException e) {
       throw new RuntimeException("Cannot read parameter values file: " + file.getAbsolutePath(), e);
     }
-    return values;
+    return parameterValues;
   }
 }
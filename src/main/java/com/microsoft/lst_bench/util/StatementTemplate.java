@@ -0,0 +1,120 @@
+/*
+ * Copyright (c) Microsoft Corporation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.microsoft.lst_bench.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A statement split into literal segments and parameter slots, so that parameters can be replaced
+ * without scanning the text every time the statement is executed.
+ *
+ * <p>The syntax is the same as in {@link StringUtils#format(String, Map)}: {@code ${name}} is
+ * replaced with the value of the parameter, {@code ${name:-default}} falls back to the default if
+ * the parameter has no value, {@code $${name}} escapes the placeholder, and placeholders without a
+ * value are left unchanged. Unlike {@link StringUtils#format(String, Map)}, placeholders inside
+ * parameter values are not replaced.
+ */
+public final class StatementTemplate {
+
+  // Expected length of a parameter value, used to size the rendered statement
+  private static final int ESTIMATED_VALUE_LENGTH = 16;
+
+  // There is one more literal than parameters, the literals surround the parameters
+  private final String[] literals;
+  private final String[] names;
+  private final String[] defaults;
+  private final String[] placeholders;
+  private final int estimatedLength;
+
+  private StatementTemplate(
+      String[] literals, String[] names, String[] defaults, String[] placeholders) {
+    this.literals = literals;
+    this.names = names;
+    this.defaults = defaults;
+    this.placeholders = placeholders;
+    int length = names.length * ESTIMATED_VALUE_LENGTH;
+    for (String literal : literals) {
+      length += literal.length();
+    }
+    this.estimatedLength = length;
+  }
+
+  /** Splits a statement into literal segments and parameter slots. */
+  public static StatementTemplate compile(String text) {
+    List<String> literals = new ArrayList<>();
+    List<String> names = new ArrayList<>();
+    List<String> defaults = new ArrayList<>();
+    List<String> placeholders = new ArrayList<>();
+    StringBuilder literal = new StringBuilder();
+    int i = 0;
+    while (i < text.length()) {
+      int start = text.indexOf("${", i);
+      int end = start < 0 ? -1 : text.indexOf('}', start + 2);
+      if (end < 0) {
+        literal.append(text, i, text.length());
+        break;
+      }
+      if (start > i && text.charAt(start - 1) == '$') {
+        // Escaped placeholder
+        literal.append(text, i, start - 1).append("${");
+        i = start + 2;
+        continue;
+      }
+      literal.append(text, i, start);
+      literals.add(literal.toString());
+      literal.setLength(0);
+      String variable = text.substring(start + 2, end);
+      int defaultIndex = variable.indexOf(":-");
+      names.add(defaultIndex < 0 ? variable : variable.substring(0, defaultIndex));
+      defaults.add(defaultIndex < 0 ? null : variable.substring(defaultIndex + 2));
+      placeholders.add(text.substring(start, end + 1));
+      i = end + 1;
+    }
+    literals.add(literal.toString());
+    return new StatementTemplate(
+        literals.toArray(new String[0]),
+        names.toArray(new String[0]),
+        defaults.toArray(new String[0]),
+        placeholders.toArray(new String[0]));
+  }
+
+  /** Returns whether the statement has parameters. */
+  public boolean hasParameters() {
+    return names.length > 0;
+  }
+
+  /** Replaces the parameters with their values. */
+  public String render(Map<String, ?> values) {
+    if (names.length == 0) {
+      return literals[0];
+    }
+    StringBuilder sb = new StringBuilder(estimatedLength);
+    for (int i = 0; i < names.length; i++) {
+      sb.append(literals[i]);
+      Object value = values.get(names[i]);
+      if (value != null) {
+        sb.append(value);
+      } else if (defaults[i] != null) {
+        sb.append(defaults[i]);
+      } else {
+        sb.append(placeholders[i]);
+      }
+    }
+    return sb.append(literals[names.length]).toString();
+  }
+}
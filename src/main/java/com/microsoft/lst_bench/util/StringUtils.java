@@ -19,7 +19,10 @@ import com.microsoft.lst_bench.exec.FileExec;
 import com.microsoft.lst_bench.exec.ImmutableFileExec;
 import com.microsoft.lst_bench.exec.ImmutableStatementExec;
 import com.microsoft.lst_bench.exec.StatementExec;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
+import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 import org.apache.commons.text.StringSubstitutor;
@@ -27,6 +30,8 @@ import org.apache.commons.text.StringSubstitutor;
 /** Utility class for string operations. */
 public class StringUtils {
 
+  private static final Pattern PLACEHOLDER_PATTERN = Pattern.compile("('?)\\$\\{([^}]+)}('?)");
+
   private StringUtils() {
     // Defeat instantiation
   }
@@ -48,8 +53,39 @@ public class StringUtils {
       // Nothing to do
       return statement;
     }
-    return ImmutableStatementExec.of(
-        statement.getId(), StringUtils.format(statement.getStatement(), parameterValues));
+    return ImmutableStatementExec.copyOf(statement)
+        .withStatement(StringUtils.format(statement.getStatement(), parameterValues));
+  }
+
+  /**
+   * Replaces the placeholders of the bind parameters in a statement with JDBC parameter markers,
+   * and records their values in the order in which they appear. Placeholders enclosed in single
+   * quotes are replaced together with the quotes. Placeholders with a quote on one side only, e.g.,
+   * in {@code '${path}${suffix}'}, are part of a larger literal and cannot be bound, so they are
+   * left in the statement like bind parameters without a value, to be replaced in the text.
+   */
+  public static StatementExec bindParameters(
+      StatementExec statement, Map<String, Object> parameterValues, List<String> bindParameters) {
+    Matcher matcher = PLACEHOLDER_PATTERN.matcher(statement.getStatement());
+    StringBuilder sb = new StringBuilder();
+    List<Object> values = new ArrayList<>(statement.getParameters());
+    while (matcher.find()) {
+      String name = matcher.group(2);
+      boolean openingQuote = !matcher.group(1).isEmpty();
+      boolean closingQuote = !matcher.group(3).isEmpty();
+      if (!bindParameters.contains(name)
+          || !parameterValues.containsKey(name)
+          || openingQuote != closingQuote) {
+        matcher.appendReplacement(sb, Matcher.quoteReplacement(matcher.group()));
+        continue;
+      }
+      matcher.appendReplacement(sb, "?");
+      values.add(parameterValues.get(name));
+    }
+    matcher.appendTail(sb);
+    return ImmutableStatementExec.copyOf(statement)
+        .withStatement(sb.toString())
+        .withParameters(values);
   }
 
   public static FileExec replaceParameters(FileExec file, Map<String, Object> parameterValues) {
@@ -64,6 +100,15 @@ public class StringUtils {
             .collect(Collectors.toList()));
   }
 
+  public static FileExec bindParameters(
+      FileExec file, Map<String, Object> parameterValues, List<String> bindParameters) {
+    return ImmutableFileExec.of(
+        file.getId(),
+        file.getStatements().stream()
+            .map(s -> bindParameters(s, parameterValues, bindParameters))
+            .collect(Collectors.toList()));
+  }
+
   public static FileExec replaceRegex(FileExec f, String regex, String replacement) {
     Pattern pattern = Pattern.compile(regex);
     return ImmutableFileExec.of(
@@ -71,8 +116,8 @@ public class StringUtils {
         f.getStatements().stream()
             .map(
                 s ->
-                    ImmutableStatementExec.of(
-                        s.getId(), pattern.matcher(s.getStatement()).replaceAll(replacement)))
+                    ImmutableStatementExec.copyOf(s)
+                        .withStatement(pattern.matcher(s.getStatement()).replaceAll(replacement)))
             .collect(Collectors.toList()));
   }
 }
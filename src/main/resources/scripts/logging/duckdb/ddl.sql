@@ -6,5 +6,18 @@ CREATE
             event_id STRING,
             event_type STRING,
             event_status STRING,
-            event_data STRING
+            event_data STRING,
+            trace_id STRING,
+            span_id STRING,
+            parent_span_id STRING
         );
+
+-- Tables created before the span columns were added are migrated in place
+ALTER TABLE
+    experiment_telemetry ADD COLUMN IF NOT EXISTS trace_id STRING;
+
+ALTER TABLE
+    experiment_telemetry ADD COLUMN IF NOT EXISTS span_id STRING;
+
+ALTER TABLE
+    experiment_telemetry ADD COLUMN IF NOT EXISTS parent_span_id STRING;
@@ -0,0 +1,8 @@
+-- Adds the span columns to a telemetry table created before they were introduced.
+-- Spark cannot add columns only if they do not exist, so run this script once per table.
+ALTER TABLE
+    ${catalog}.${database}.experiment_telemetry ADD COLUMNS(
+        trace_id STRING,
+        span_id STRING,
+        parent_span_id STRING
+    );
@@ -9,7 +9,10 @@ CREATE
             event_id STRING,
             event_type STRING,
             event_status STRING,
-            event_data STRING
+            event_data STRING,
+            trace_id STRING,
+            span_id STRING,
+            parent_span_id STRING
         )
             USING csv OPTIONS(
             PATH '${path}experiment/'
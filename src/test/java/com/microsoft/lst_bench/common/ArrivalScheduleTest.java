@@ -0,0 +1,133 @@
+/*
+ * Copyright (c) Microsoft Corporation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.microsoft.lst_bench.common;
+
+import com.microsoft.lst_bench.input.ImmutableArrival;
+import com.microsoft.lst_bench.input.ImmutableArrivalStage;
+import com.microsoft.lst_bench.input.Phase;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+/** Tests for the arrival times generated for open-loop sessions. */
+public class ArrivalScheduleTest {
+
+  private static final long START_NANOS = 1_000_000_000L;
+
+  @Test
+  public void testConstantRate() {
+    Phase.Arrival arrival =
+        ImmutableArrival.builder().process(Phase.ArrivalProcess.CONSTANT).rate(2).build();
+    assertOffsets(List.of(0.5, 1.0, 1.5, 2.0), arrival);
+  }
+
+  @Test
+  public void testRampProfile() {
+    // The rate grows from 1 to 3 over 2 seconds, so the integral of the rate is t + t^2 / 2
+    Phase.Arrival arrival =
+        ImmutableArrival.builder()
+            .process(Phase.ArrivalProcess.CONSTANT)
+            .rate(1)
+            .addProfile(stage(Phase.StageShape.RAMP, 2, 3))
+            .build();
+    assertOffsets(
+        List.of(Math.sqrt(3) - 1, Math.sqrt(5) - 1, Math.sqrt(7) - 1, 2.0, 2.0 + 1.0 / 3), arrival);
+  }
+
+  @Test
+  public void testStepAndSpikeProfiles() {
+    // A step keeps its rate after the stage ends
+    Phase.Arrival step =
+        ImmutableArrival.builder()
+            .process(Phase.ArrivalProcess.CONSTANT)
+            .rate(1)
+            .addProfile(stage(Phase.StageShape.STEP, 1, 4))
+            .build();
+    assertOffsets(List.of(0.25, 0.5, 0.75, 1.0, 1.25), step);
+    // A spike returns to the previous rate after the stage ends
+    Phase.Arrival spike =
+        ImmutableArrival.builder()
+            .process(Phase.ArrivalProcess.CONSTANT)
+            .rate(1)
+            .addProfile(stage(Phase.StageShape.SPIKE, 1, 4))
+            .build();
+    assertOffsets(List.of(0.25, 0.5, 0.75, 1.0, 2.0, 3.0), spike);
+  }
+
+  @Test
+  public void testPoissonWithSeedIsReproducible() {
+    Phase.Arrival arrival =
+        ImmutableArrival.builder()
+            .process(Phase.ArrivalProcess.POISSON)
+            .rate(100)
+            .seed(42L)
+            .build();
+    List<Long> first = arrivals(new ArrivalSchedule(arrival, 0, START_NANOS), 1000);
+    Assertions.assertEquals(first, arrivals(new ArrivalSchedule(arrival, 0, START_NANOS), 1000));
+    // Sessions derive different seeds from the same configuration
+    Assertions.assertNotEquals(first, arrivals(new ArrivalSchedule(arrival, 1, START_NANOS), 1000));
+    // The mean interarrival time matches the rate
+    double meanSeconds = (first.get(999) - START_NANOS) / 1e9 / 1000;
+    Assertions.assertEquals(0.01, meanSeconds, 0.001);
+  }
+
+  @Test
+  public void testValidateRejectsRateThatEndsAtZero() {
+    Assertions.assertThrows(
+        IllegalArgumentException.class,
+        () ->
+            ArrivalSchedule.validate(
+                ImmutableArrival.builder().process(Phase.ArrivalProcess.CONSTANT).rate(0).build()));
+    Assertions.assertThrows(
+        IllegalArgumentException.class,
+        () ->
+            ArrivalSchedule.validate(
+                ImmutableArrival.builder()
+                    .process(Phase.ArrivalProcess.CONSTANT)
+                    .rate(1)
+                    .addProfile(stage(Phase.StageShape.RAMP, 1, 0))
+                    .build()));
+    // A spike to zero is valid, since the rate returns to the previous one afterwards
+    ArrivalSchedule.validate(
+        ImmutableArrival.builder()
+            .process(Phase.ArrivalProcess.CONSTANT)
+            .rate(1)
+            .addProfile(stage(Phase.StageShape.SPIKE, 1, 0))
+            .build());
+  }
+
+  private static Phase.ArrivalStage stage(Phase.StageShape shape, double seconds, double rate) {
+    return ImmutableArrivalStage.builder().shape(shape).durationSeconds(seconds).rate(rate).build();
+  }
+
+  private static List<Long> arrivals(ArrivalSchedule schedule, int count) {
+    List<Long> arrivals = new ArrayList<>();
+    for (int i = 0; i < count; i++) {
+      arrivals.add(schedule.nextArrivalNanos());
+    }
+    return arrivals;
+  }
+
+  private static void assertOffsets(List<Double> expectedSeconds, Phase.Arrival arrival) {
+    List<Long> arrivals =
+        arrivals(new ArrivalSchedule(arrival, 0, START_NANOS), expectedSeconds.size());
+    for (int i = 0; i < expectedSeconds.size(); i++) {
+      Assertions.assertEquals(
+          expectedSeconds.get(i), (arrivals.get(i) - START_NANOS) / 1e9, 1e-6, "arrival " + i);
+    }
+  }
+}
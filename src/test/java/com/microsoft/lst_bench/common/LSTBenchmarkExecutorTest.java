@@ -0,0 +1,784 @@
+/*
+ * Copyright (c) Microsoft Corporation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.microsoft.lst_bench.common;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.yaml.YAMLMapper;
+import com.microsoft.lst_bench.input.TaskLibrary;
+import com.microsoft.lst_bench.input.TaskTemplate.ResultConsumption;
+import com.microsoft.lst_bench.input.Workload;
+import com.microsoft.lst_bench.input.config.ExperimentConfig;
+import com.microsoft.lst_bench.input.config.ImmutableConnectionConfig;
+import com.microsoft.lst_bench.input.config.ImmutableTelemetryConfig;
+import com.microsoft.lst_bench.input.config.TelemetryConfig;
+import com.microsoft.lst_bench.sql.ConnectionManager;
+import com.microsoft.lst_bench.sql.ResultSetConsumer;
+import com.microsoft.lst_bench.telemetry.JDBCTelemetryRegistry;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.BatchUpdateException;
+import java.sql.Connection;
+import java.sql.Driver;
+import java.sql.DriverManager;
+import java.sql.DriverPropertyInfo;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.SQLRecoverableException;
+import java.sql.Statement;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.logging.Logger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/** Tests for the execution of experiments against an in-memory database. */
+public class LSTBenchmarkExecutorTest {
+
+  private static final ObjectMapper MAPPER = new ObjectMapper();
+  private static final YAMLMapper YAML_MAPPER = new YAMLMapper();
+
+  @Test
+  public void testRetryAfterConnectionErrorUsesNewConnection(@TempDir Path tempDir)
+      throws Exception {
+    FlakyDriver.reset();
+    List<JsonNode> taskEvents =
+        runExperiment(
+            tempDir,
+            FlakyDriver.URL,
+            "SELECT 1;",
+            "retry: {max_attempts: 3, initial_backoff_ms: 1}",
+            "",
+            "EXEC_TASK");
+
+    // The first connection was dropped, and the retry succeeded on a new one
+    Assertions.assertEquals(2, FlakyDriver.CONNECTIONS.get());
+    Assertions.assertEquals(2, taskEvents.size());
+    Assertions.assertEquals("FAILURE", taskEvents.get(0).get("event_status").asText());
+    JsonNode failedAttempt = MAPPER.readTree(taskEvents.get(0).get("event_data").asText());
+    Assertions.assertEquals("TRANSIENT", failedAttempt.get("error_category").asText());
+    Assertions.assertTrue(failedAttempt.get("connection_replaced").asBoolean());
+    Assertions.assertEquals("SUCCESS", taskEvents.get(1).get("event_status").asText());
+    Assertions.assertEquals(
+        2, MAPPER.readTree(taskEvents.get(1).get("event_data").asText()).get("attempt").asInt());
+  }
+
+  @Test
+  public void testLatencyBreakdownAddsUpToStatementLatency(@TempDir Path tempDir) throws Exception {
+    List<JsonNode> statementEvents =
+        runExperiment(
+            tempDir,
+            "jdbc:duckdb:",
+            "SELECT 1;\nSELECT SUM(i) FROM range(5000000) t(i) GROUP BY i % 1000;",
+            "",
+            "latency_breakdown: true",
+            "EXEC_STATEMENT");
+
+    // The first statement loads the classes used to record statements, so the second is checked
+    Assertions.assertEquals(2, statementEvents.size());
+    JsonNode event = statementEvents.get(1);
+    JsonNode breakdown = MAPPER.readTree(event.get("event_data").asText()).get("latency_breakdown");
+    List<String> segments =
+        List.of(
+            "render_ms",
+            "prepare_ms",
+            "bind_ms",
+            "submit_to_return_ms",
+            "return_to_first_row_ms",
+            "drain_ms",
+            "close_ms");
+    Assertions.assertEquals(segments.size(), breakdown.size());
+    double segmentsMs = 0;
+    for (String segment : segments) {
+      Assertions.assertTrue(breakdown.get(segment).asDouble() >= 0, segment);
+      segmentsMs += breakdown.get(segment).asDouble();
+    }
+    // The event also covers building its payload, which is not part of any segment
+    double eventMs =
+        Duration.between(
+                    Instant.parse(event.get("event_start_time").asText()),
+                    Instant.parse(event.get("event_end_time").asText()))
+                .toNanos()
+            / 1e6;
+    Assertions.assertEquals(eventMs, segmentsMs, 5);
+  }
+
+  @Test
+  public void testMonotonicModeWritesBufferedStatementEvents(@TempDir Path tempDir)
+      throws Exception {
+    String query = "SELECT i, i * 2 FROM range(10) t(i)";
+    List<JsonNode> statementEvents =
+        runExperiment(
+            tempDir,
+            "jdbc:duckdb:",
+            "SELECT 1;\n" + query + ";\nSELECT 1 WHERE false;",
+            "result_consumption: fingerprint",
+            "timing_mode: monotonic",
+            "EXEC_STATEMENT");
+
+    Assertions.assertEquals(3, statementEvents.size());
+    for (int i = 0; i < statementEvents.size(); i++) {
+      JsonNode event = statementEvents.get(i);
+      Assertions.assertEquals("task.sql_" + i, event.get("event_id").asText());
+      Assertions.assertEquals("SUCCESS", event.get("event_status").asText());
+      Assertions.assertFalse(
+          Instant.parse(event.get("event_end_time").asText())
+              .isBefore(Instant.parse(event.get("event_start_time").asText())));
+    }
+    JsonNode payload = MAPPER.readTree(statementEvents.get(1).get("event_data").asText());
+    Assertions.assertEquals(10, payload.get("rows").asLong());
+    long fingerprint;
+    try (Connection connection = DriverManager.getConnection("jdbc:duckdb:");
+        Statement statement = connection.createStatement();
+        ResultSet rs = statement.executeQuery(query)) {
+      fingerprint = ResultSetConsumer.consume(rs, ResultConsumption.FINGERPRINT).getFingerprint();
+    }
+    Assertions.assertEquals(
+        String.format("%016x", fingerprint), payload.get("result_fingerprint").asText());
+    Assertions.assertTrue(payload.get("time_to_first_row_ms").asDouble() >= 0);
+    // Without rows, there is no time to the first row
+    payload = MAPPER.readTree(statementEvents.get(2).get("event_data").asText());
+    Assertions.assertEquals(0, payload.get("rows").asLong());
+    Assertions.assertFalse(payload.has("time_to_first_row_ms"));
+  }
+
+  @Test
+  public void testOpenLoopArrivalsDoNotWaitForPreviousTasks(@TempDir Path tempDir)
+      throws Exception {
+    // Tasks arrive every 50 ms and take at least 200 ms each, so they overlap
+    List<JsonNode> taskEvents =
+        runExperiment(
+            tempDir,
+            SlowDriver.URL,
+            "SELECT 1;",
+            "",
+            "duration_seconds: 1, arrival: {process: constant, rate: 20}",
+            "",
+            "EXEC_TASK");
+
+    // A closed-loop session would run at most 5 tasks in a second
+    Assertions.assertTrue(taskEvents.size() >= 15, "tasks: " + taskEvents.size());
+    Instant previousEnd = null;
+    int overlapping = 0;
+    for (JsonNode event : taskEvents) {
+      Assertions.assertEquals("SUCCESS", event.get("event_status").asText());
+      // Tasks do not queue behind the previous tasks of the session, which would add up to
+      // seconds of delay, but opening a connection may take a while in a cold JVM
+      double queueDelayMs =
+          MAPPER.readTree(event.get("event_data").asText()).get("queue_delay_ms").asDouble();
+      Assertions.assertTrue(queueDelayMs < 2 * SlowDriver.EXECUTE_MILLIS, "delay: " + queueDelayMs);
+      Instant start = Instant.parse(event.get("event_start_time").asText());
+      if (previousEnd != null && start.isBefore(previousEnd)) {
+        overlapping++;
+      }
+      previousEnd = Instant.parse(event.get("event_end_time").asText());
+    }
+    Assertions.assertTrue(overlapping >= 10, "overlapping: " + overlapping);
+  }
+
+  @Test
+  public void testPhasesStartAfterTheirDependencies(@TempDir Path tempDir) throws Exception {
+    // Phase c explicitly has no dependencies, otherwise it would depend on the phase before it
+    List<JsonNode> phaseEvents =
+        runWorkload(
+            tempDir,
+            SlowDriver.URL,
+            List.of("SELECT 1;"),
+            "",
+            "{id: a, sessions: [{tasks: [{template_id: task}]}]},"
+                + " {id: b, depends_on: [a], sessions: [{tasks: [{template_id: task}]}]},"
+                + " {id: c, depends_on: [], sessions: [{tasks: [{template_id: task}]}]},"
+                + " {id: d, depends_on: [b, c], sessions: [{tasks: [{template_id: task}]}]}",
+            "",
+            "EXEC_PHASE",
+            false);
+
+    Map<String, JsonNode> idToEvent = new HashMap<>();
+    for (JsonNode event : phaseEvents) {
+      Assertions.assertEquals("SUCCESS", event.get("event_status").asText());
+      idToEvent.put(event.get("event_id").asText(), event);
+    }
+    Assertions.assertEquals(Set.of("a", "b", "c", "d"), idToEvent.keySet());
+    // Phases start after all of their dependencies end
+    assertStartsAfterEnd(idToEvent.get("b"), idToEvent.get("a"));
+    assertStartsAfterEnd(idToEvent.get("d"), idToEvent.get("b"));
+    assertStartsAfterEnd(idToEvent.get("d"), idToEvent.get("c"));
+    // Phases without a dependency between them run concurrently
+    Assertions.assertTrue(
+        getTime(idToEvent.get("c"), "event_start_time")
+            .isBefore(getTime(idToEvent.get("a"), "event_end_time")));
+  }
+
+  @Test
+  public void testBatchGroupsStatements(@TempDir Path tempDir) throws Exception {
+    List<JsonNode> statementEvents =
+        runExperiment(
+            tempDir,
+            BatchDriver.URL,
+            "CREATE TABLE t (i INT);\n"
+                + "INSERT INTO t VALUES (1);\n"
+                + "INSERT INTO t VALUES (2), (3);\n"
+                + "INSERT INTO t SELECT * FROM t;\n"
+                + "DELETE FROM t WHERE i = 1;",
+            "batch_size: 2",
+            "",
+            "EXEC_STATEMENT");
+
+    // Statements are sent in batches of two, and the last batch has the remaining statement
+    statementEvents.sort(Comparator.comparing(event -> event.get("event_id").asText()));
+    Assertions.assertEquals(5, statementEvents.size());
+    List<Integer> batchSizes = new ArrayList<>();
+    for (JsonNode event : statementEvents) {
+      Assertions.assertEquals("SUCCESS", event.get("event_status").asText());
+      batchSizes.add(MAPPER.readTree(event.get("event_data").asText()).get("batch_size").asInt());
+    }
+    Assertions.assertEquals(List.of(2, 2, 2, 2, 1), batchSizes);
+    // Statements of a batch share its start time
+    for (int i = 0; i < 4; i += 2) {
+      Assertions.assertEquals(
+          statementEvents.get(i).get("event_start_time"),
+          statementEvents.get(i + 1).get("event_start_time"));
+    }
+    // The update count of each statement is reported
+    JsonNode copy = MAPPER.readTree(statementEvents.get(3).get("event_data").asText());
+    Assertions.assertEquals(3, copy.get("update_count").asInt());
+    JsonNode delete = MAPPER.readTree(statementEvents.get(4).get("event_data").asText());
+    Assertions.assertEquals(2, delete.get("update_count").asInt());
+  }
+
+  @Test
+  public void testBatchFailureFailsStatementsAndTask(@TempDir Path tempDir) throws Exception {
+    List<JsonNode> statementEvents =
+        runWorkload(
+            tempDir,
+            BatchDriver.URL,
+            List.of(
+                "CREATE TABLE t (i INT);\n"
+                    + "INSERT INTO missing VALUES (1);\n"
+                    + "INSERT INTO t VALUES (1);"),
+            "batch_size: 2",
+            "{id: phase, sessions: [{tasks: [{template_id: task}]}]}",
+            "",
+            "EXEC_STATEMENT",
+            true);
+
+    // The failed batch stops the file, so the statements after it do not run
+    statementEvents.sort(Comparator.comparing(event -> event.get("event_id").asText()));
+    Assertions.assertEquals(2, statementEvents.size());
+    Assertions.assertEquals("task.sql_1", statementEvents.get(1).get("event_id").asText());
+    Assertions.assertEquals("FAILURE", statementEvents.get(1).get("event_status").asText());
+    // The statement before the error succeeded, since the driver reported its update count
+    Assertions.assertEquals("task.sql_0", statementEvents.get(0).get("event_id").asText());
+    Assertions.assertEquals("SUCCESS", statementEvents.get(0).get("event_status").asText());
+  }
+
+  @Test
+  public void testParallelFilesWaitForConnectionsBeforeTaskStarts(@TempDir Path tempDir)
+      throws Exception {
+    // Each file takes at least 200 ms, so the task would take 600 ms if files ran one at a time
+    List<JsonNode> taskEvents =
+        runWorkload(
+            tempDir,
+            SlowDriver.URL,
+            List.of("SELECT 1;", "SELECT 2;", "SELECT 3;"),
+            "file_parallelism: 3",
+            "{id: phase, sessions: [{tasks: [{template_id: task}, {template_id: task}]}]}",
+            "",
+            "EXEC_TASK",
+            false);
+
+    // Both tasks run their files on the file executor of the phase
+    Assertions.assertEquals(2, taskEvents.size());
+    for (JsonNode event : taskEvents) {
+      Assertions.assertEquals("SUCCESS", event.get("event_status").asText());
+      JsonNode payload = MAPPER.readTree(event.get("event_data").asText());
+      // The time spent borrowing connections for the files is reported, not part of the task
+      Assertions.assertTrue(payload.get("file_connection_acquire_time_ms").asDouble() >= 0);
+      Duration taskDuration =
+          Duration.between(getTime(event, "event_start_time"), getTime(event, "event_end_time"));
+      Assertions.assertTrue(
+          taskDuration.toMillis() < 3 * SlowDriver.EXECUTE_MILLIS, taskDuration.toString());
+    }
+  }
+
+  @Test
+  public void testStatementPastTimeoutIsCancelled(@TempDir Path tempDir) throws Exception {
+    List<JsonNode> statementEvents =
+        runWorkload(
+            tempDir,
+            SlowDriver.URL,
+            List.of("SELECT /* sleep 30000 */ 1;"),
+            "",
+            "{id: phase, sessions: [{tasks: [{template_id: task}]}]}",
+            "statement_timeout_seconds: 1",
+            "EXEC_STATEMENT",
+            true);
+
+    // The statement is cancelled once it exceeds the timeout, instead of running for 30 seconds
+    Assertions.assertEquals(1, statementEvents.size());
+    JsonNode event = statementEvents.get(0);
+    Assertions.assertEquals("TIMEOUT", event.get("event_status").asText());
+    Duration statementDuration =
+        Duration.between(getTime(event, "event_start_time"), getTime(event, "event_end_time"));
+    Assertions.assertTrue(statementDuration.toMillis() >= 1000, statementDuration.toString());
+    Assertions.assertTrue(statementDuration.toMillis() < 10000, statementDuration.toString());
+  }
+
+  @Test
+  public void testFailFastCancelsSiblingSessions(@TempDir Path tempDir) throws Exception {
+    // The first session runs a statement that takes 30 seconds, while the statement of the second
+    // session is rewritten so that it fails
+    List<JsonNode> sessionEvents =
+        runWorkload(
+            tempDir,
+            SlowDriver.URL,
+            List.of("SELECT /* sleep 30000 */ 1;"),
+            "",
+            "{id: phase, sessions: [{tasks: [{template_id: task}]},"
+                + " {tasks: [{template_id: task,"
+                + " replace_regex: [{pattern: 'SELECT /\\* sleep 30000 \\*/', replacement:"
+                + " SELEC}]}]}]}",
+            "fail_fast: true",
+            "EXEC_SESSION",
+            true);
+
+    Assertions.assertEquals(2, sessionEvents.size());
+    List<String> statuses = new ArrayList<>();
+    for (JsonNode event : sessionEvents) {
+      statuses.add(event.get("event_status").asText());
+      // The slow session does not run until its statement completes
+      Duration sessionDuration =
+          Duration.between(getTime(event, "event_start_time"), getTime(event, "event_end_time"));
+      Assertions.assertTrue(sessionDuration.toMillis() < 10000, sessionDuration.toString());
+    }
+    statuses.sort(Comparator.naturalOrder());
+    Assertions.assertEquals(List.of("CANCELLED", "FAILURE"), statuses);
+  }
+
+  private static void assertStartsAfterEnd(JsonNode phase, JsonNode dependency) {
+    Assertions.assertFalse(
+        getTime(phase, "event_start_time").isBefore(getTime(dependency, "event_end_time")),
+        phase.get("event_id").asText() + " started before " + dependency.get("event_id").asText());
+  }
+
+  private static Instant getTime(JsonNode event, String field) {
+    return Instant.parse(event.get(field).asText());
+  }
+
+  /**
+   * Runs an experiment with a single session that executes one task, and returns the telemetry
+   * events of the given type in the order they started.
+   */
+  static List<JsonNode> runExperiment(
+      Path tempDir,
+      String url,
+      String sql,
+      String templateOptions,
+      String experimentOptions,
+      String eventType)
+      throws Exception {
+    return runExperiment(tempDir, url, sql, templateOptions, "", experimentOptions, eventType);
+  }
+
+  /**
+   * Runs an experiment with a single session that executes one task in a phase with the given
+   * options, and returns the telemetry events of the given type in the order they started.
+   */
+  static List<JsonNode> runExperiment(
+      Path tempDir,
+      String url,
+      String sql,
+      String templateOptions,
+      String phaseOptions,
+      String experimentOptions,
+      String eventType)
+      throws Exception {
+    return runWorkload(
+        tempDir,
+        url,
+        List.of(sql),
+        templateOptions,
+        "{id: phase, "
+            + phaseOptions
+            + (phaseOptions.isEmpty() ? "" : ", ")
+            + "sessions: [{tasks: [{template_id: task}]}]}",
+        experimentOptions,
+        eventType,
+        false);
+  }
+
+  /**
+   * Runs an experiment with the given phases, whose tasks use the template {@code task} with a file
+   * for each of the given scripts, and returns the telemetry events of the given type in the order
+   * they started. If a failure is expected, the experiment must fail, and the events written until
+   * then are returned.
+   */
+  static List<JsonNode> runWorkload(
+      Path tempDir,
+      String url,
+      List<String> sqlFiles,
+      String templateOptions,
+      String phases,
+      String experimentOptions,
+      String eventType,
+      boolean expectFailure)
+      throws Exception {
+    List<String> paths = new ArrayList<>();
+    for (int i = 0; i < sqlFiles.size(); i++) {
+      Path sqlFile = tempDir.resolve(i == 0 ? "task.sql" : "task_" + i + ".sql");
+      Files.writeString(sqlFile, sqlFiles.get(i));
+      paths.add("'" + sqlFile + "'");
+    }
+    TaskLibrary taskLibrary =
+        YAML_MAPPER.readValue(
+            "{version: 1, task_templates: [{id: task, files: ["
+                + String.join(", ", paths)
+                + "], "
+                + templateOptions
+                + "}]}",
+            TaskLibrary.class);
+    Workload workload =
+        YAML_MAPPER.readValue(
+            "{version: 1, id: workload, phases: [" + phases + "]}", Workload.class);
+    ExperimentConfig experimentConfig =
+        YAML_MAPPER.readValue(
+            "{version: 1, id: experiment, repetitions: 1, metadata: {}, " + experimentOptions + "}",
+            ExperimentConfig.class);
+    BenchmarkConfig config = BenchmarkConfig.from(experimentConfig, taskLibrary, workload);
+
+    TelemetryConfig telemetryConfig =
+        ImmutableTelemetryConfig.builder()
+            .version(1)
+            .connection(
+                ImmutableConnectionConfig.builder()
+                    .id("telemetry")
+                    .driver("org.duckdb.DuckDBDriver")
+                    .url("jdbc:duckdb:" + tempDir.resolve("telemetry.duckdb"))
+                    .build())
+            .isExecuteDDL(true)
+            .dDLFile("src/main/resources/scripts/logging/duckdb/ddl.sql")
+            .insertFile("src/main/resources/scripts/logging/duckdb/insert.sql")
+            .build();
+    ConnectionManager telemetryConnectionManager =
+        ConnectionManager.from(telemetryConfig.getConnection());
+    JDBCTelemetryRegistry registry =
+        new JDBCTelemetryRegistry(telemetryConnectionManager, telemetryConfig);
+    try (ConnectionManager connectionManager =
+        ConnectionManager.from(
+            ImmutableConnectionConfig.builder().id("c0").driver(getDriver(url)).url(url).build())) {
+      LSTBenchmarkExecutor executor =
+          new LSTBenchmarkExecutor(Map.of("c0", connectionManager), config, registry);
+      if (expectFailure) {
+        Assertions.assertThrows(Exception.class, executor::execute);
+      } else {
+        executor.execute();
+      }
+    } finally {
+      registry.close();
+    }
+
+    List<JsonNode> events = new ArrayList<>();
+    try (Connection connection = telemetryConnectionManager.createConnection();
+        Statement statement = connection.createStatement();
+        ResultSet rs =
+            statement.executeQuery(
+                "SELECT event_id, event_start_time, event_end_time, event_status, event_data"
+                    + " FROM experiment_telemetry WHERE event_type = '"
+                    + eventType
+                    + "' ORDER BY event_start_time")) {
+      while (rs.next()) {
+        events.add(
+            MAPPER
+                .createObjectNode()
+                .put("event_id", rs.getString(1))
+                .put("event_start_time", rs.getString(2))
+                .put("event_end_time", rs.getString(3))
+                .put("event_status", rs.getString(4))
+                .put("event_data", rs.getString(5)));
+      }
+    }
+    return events;
+  }
+
+  private static String getDriver(String url) {
+    Map<String, Class<? extends Driver>> urlToDriver =
+        Map.of(
+            FlakyDriver.URL, FlakyDriver.class,
+            SlowDriver.URL, SlowDriver.class,
+            BatchDriver.URL, BatchDriver.class);
+    Class<? extends Driver> driver = urlToDriver.get(url);
+    return driver == null ? "org.duckdb.DuckDBDriver" : driver.getName();
+  }
+
+  /** Driver that opens in-memory DuckDB connections and wraps them. */
+  abstract static class DelegatingDriver implements Driver {
+
+    private final String url;
+
+    DelegatingDriver(String url) {
+      this.url = url;
+    }
+
+    @Override
+    public Connection connect(String url, Properties info) throws SQLException {
+      if (!acceptsURL(url)) {
+        return null;
+      }
+      return wrap(DriverManager.getConnection("jdbc:duckdb:"));
+    }
+
+    /** Wraps a new connection. */
+    abstract Connection wrap(Connection connection);
+
+    /** Wraps the statements created by a connection with the given handler. */
+    static Connection wrapStatements(
+        Connection connection, Function<Statement, InvocationHandler> handler) {
+      return proxy(
+          Connection.class,
+          connection,
+          (c, method, args) -> {
+            Object result = invoke(connection, method, args);
+            if (result instanceof Statement) {
+              Statement statement = (Statement) result;
+              // Prepared statements keep their type so that parameters can still be bound
+              Class<?> type =
+                  result instanceof PreparedStatement ? PreparedStatement.class : Statement.class;
+              return Proxy.newProxyInstance(
+                  LSTBenchmarkExecutorTest.class.getClassLoader(),
+                  new Class<?>[] {type},
+                  handler.apply(statement));
+            }
+            return result;
+          });
+    }
+
+    static <T> T proxy(Class<T> type, T target, InvocationHandler handler) {
+      return type.cast(
+          Proxy.newProxyInstance(
+              LSTBenchmarkExecutorTest.class.getClassLoader(), new Class<?>[] {type}, handler));
+    }
+
+    static Object invoke(Object target, java.lang.reflect.Method method, Object[] args)
+        throws Throwable {
+      try {
+        return method.invoke(target, args);
+      } catch (InvocationTargetException e) {
+        throw e.getCause();
+      }
+    }
+
+    @Override
+    public boolean acceptsURL(String url) {
+      return url.startsWith(this.url);
+    }
+
+    @Override
+    public DriverPropertyInfo[] getPropertyInfo(String url, Properties info) {
+      return new DriverPropertyInfo[0];
+    }
+
+    @Override
+    public int getMajorVersion() {
+      return 1;
+    }
+
+    @Override
+    public int getMinorVersion() {
+      return 0;
+    }
+
+    @Override
+    public boolean jdbcCompliant() {
+      return false;
+    }
+
+    @Override
+    public Logger getParentLogger() throws SQLFeatureNotSupportedException {
+      throw new SQLFeatureNotSupportedException();
+    }
+  }
+
+  /**
+   * Driver that opens in-memory DuckDB connections. Statements executed on the first connection
+   * fail as if the connection had been dropped.
+   */
+  public static class FlakyDriver extends DelegatingDriver {
+
+    static final String URL = "jdbc:flaky:";
+    static final AtomicInteger CONNECTIONS = new AtomicInteger();
+
+    static {
+      try {
+        DriverManager.registerDriver(new FlakyDriver());
+      } catch (SQLException e) {
+        throw new ExceptionInInitializerError(e);
+      }
+    }
+
+    public FlakyDriver() {
+      super(URL);
+    }
+
+    static void reset() {
+      CONNECTIONS.set(0);
+    }
+
+    @Override
+    Connection wrap(Connection connection) {
+      if (CONNECTIONS.incrementAndGet() > 1) {
+        return connection;
+      }
+      return wrapStatements(
+          connection,
+          statement ->
+              (s, method, args) -> {
+                if (method.getName().startsWith("execute")) {
+                  throw new SQLRecoverableException("Connection reset", "08006");
+                }
+                return invoke(statement, method, args);
+              });
+    }
+  }
+
+  /**
+   * Driver that opens in-memory DuckDB connections where executing a statement takes at least
+   * {@link #EXECUTE_MILLIS}, or the time in a {@code /* sleep <millis> *}{@code /} comment in the
+   * statement, unless the statement is cancelled.
+   */
+  public static class SlowDriver extends DelegatingDriver {
+
+    static final String URL = "jdbc:slow:";
+    static final long EXECUTE_MILLIS = 200;
+    private static final Pattern SLEEP_PATTERN = Pattern.compile("/\\* sleep (\\d+) \\*/");
+
+    static {
+      try {
+        DriverManager.registerDriver(new SlowDriver());
+      } catch (SQLException e) {
+        throw new ExceptionInInitializerError(e);
+      }
+    }
+
+    public SlowDriver() {
+      super(URL);
+    }
+
+    @Override
+    Connection wrap(Connection connection) {
+      return wrapStatements(
+          connection,
+          statement -> {
+            CountDownLatch cancelled = new CountDownLatch(1);
+            return (s, method, args) -> {
+              if (method.getName().equals("cancel")) {
+                cancelled.countDown();
+              } else if (method.getName().startsWith("execute")
+                  && cancelled.await(getExecuteMillis(args), TimeUnit.MILLISECONDS)) {
+                throw new SQLException("Statement was cancelled", "57014");
+              }
+              return invoke(statement, method, args);
+            };
+          });
+    }
+
+    private static long getExecuteMillis(Object[] args) {
+      if (args != null && args.length > 0 && args[0] instanceof String) {
+        Matcher matcher = SLEEP_PATTERN.matcher((String) args[0]);
+        if (matcher.find()) {
+          return Long.parseLong(matcher.group(1));
+        }
+      }
+      return EXECUTE_MILLIS;
+    }
+  }
+
+  /**
+   * Driver that opens in-memory DuckDB connections and emulates batch execution, which DuckDB does
+   * not support, by executing the statements of a batch one at a time. Like most drivers, the batch
+   * stops at the first statement that fails, and the update counts of the statements before it are
+   * reported in the exception.
+   */
+  public static class BatchDriver extends DelegatingDriver {
+
+    static final String URL = "jdbc:batch:";
+
+    static {
+      try {
+        DriverManager.registerDriver(new BatchDriver());
+      } catch (SQLException e) {
+        throw new ExceptionInInitializerError(e);
+      }
+    }
+
+    public BatchDriver() {
+      super(URL);
+    }
+
+    @Override
+    Connection wrap(Connection connection) {
+      return wrapStatements(
+          connection,
+          statement -> {
+            List<String> batch = new ArrayList<>();
+            return (s, method, args) -> {
+              switch (method.getName()) {
+                case "addBatch":
+                  batch.add((String) args[0]);
+                  return null;
+                case "clearBatch":
+                  batch.clear();
+                  return null;
+                case "executeBatch":
+                  int[] updateCounts = new int[batch.size()];
+                  for (int i = 0; i < batch.size(); i++) {
+                    try {
+                      updateCounts[i] = statement.executeUpdate(batch.get(i));
+                    } catch (SQLException e) {
+                      batch.clear();
+                      throw new BatchUpdateException(
+                          e.getMessage(), e.getSQLState(), Arrays.copyOf(updateCounts, i), e);
+                    }
+                  }
+                  batch.clear();
+                  return updateCounts;
+                default:
+                  return invoke(statement, method, args);
+              }
+            };
+          });
+    }
+  }
+}
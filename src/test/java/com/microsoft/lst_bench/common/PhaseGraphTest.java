@@ -0,0 +1,92 @@
+/*
+ * Copyright (c) Microsoft Corporation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.microsoft.lst_bench.common;
+
+import com.microsoft.lst_bench.exec.ImmutablePhaseExec;
+import com.microsoft.lst_bench.exec.ImmutableSessionExec;
+import com.microsoft.lst_bench.exec.PhaseExec;
+import com.microsoft.lst_bench.exec.SessionExec;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+/** Tests for the dependency graph between phases. */
+public class PhaseGraphTest {
+
+  @Test
+  public void testAncestorsAreTransitive() {
+    PhaseGraph graph =
+        new PhaseGraph(
+            List.of(
+                createPhase("a", 1),
+                createPhase("b", 1, "a"),
+                createPhase("c", 1),
+                createPhase("d", 1, "b", "c")));
+    Assertions.assertEquals(Set.of(), graph.getAncestors("a"));
+    Assertions.assertEquals(Set.of("a"), graph.getAncestors("b"));
+    Assertions.assertEquals(Set.of("a", "b", "c"), graph.getAncestors("d"));
+  }
+
+  @Test
+  public void testMaxConcurrentSessions() {
+    // Phases that depend on each other run sequentially
+    Assertions.assertEquals(
+        3,
+        new PhaseGraph(
+                List.of(createPhase("a", 2), createPhase("b", 3, "a"), createPhase("c", 1, "b")))
+            .getMaxConcurrentSessions());
+    // Sessions of phases that do not depend on each other are added up, which is an upper bound
+    // since a and b cannot run at the same time
+    Assertions.assertEquals(
+        6,
+        new PhaseGraph(List.of(createPhase("a", 2), createPhase("b", 1, "a"), createPhase("c", 3)))
+            .getMaxConcurrentSessions());
+  }
+
+  @Test
+  public void testCyclesAreRejected() {
+    // A phase can only depend on phases declared before it, which rules out cycles
+    Assertions.assertThrows(
+        IllegalArgumentException.class, () -> new PhaseGraph(List.of(createPhase("a", 1, "a"))));
+    Assertions.assertThrows(
+        IllegalArgumentException.class,
+        () -> new PhaseGraph(List.of(createPhase("a", 1, "b"), createPhase("b", 1, "a"))));
+    Assertions.assertThrows(
+        IllegalArgumentException.class,
+        () ->
+            new PhaseGraph(
+                List.of(
+                    createPhase("a", 1, "c"), createPhase("b", 1, "a"), createPhase("c", 1, "b"))));
+  }
+
+  @Test
+  public void testUnknownAndDuplicatePhasesAreRejected() {
+    Assertions.assertThrows(
+        IllegalArgumentException.class,
+        () -> new PhaseGraph(List.of(createPhase("a", 1), createPhase("b", 1, "missing"))));
+    Assertions.assertThrows(
+        IllegalArgumentException.class,
+        () -> new PhaseGraph(List.of(createPhase("a", 1), createPhase("a", 1))));
+  }
+
+  private static PhaseExec createPhase(String id, int sessions, String... dependsOn) {
+    List<SessionExec> sessionExecs =
+        Collections.nCopies(sessions, ImmutableSessionExec.of(id, Collections.emptyList()));
+    return ImmutablePhaseExec.of(id, sessionExecs).withDependsOn(dependsOn);
+  }
+}
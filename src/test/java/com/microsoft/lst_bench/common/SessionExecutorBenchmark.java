@@ -0,0 +1,135 @@
+/*
+ * Copyright (c) Microsoft Corporation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.microsoft.lst_bench.common;
+
+import com.microsoft.lst_bench.input.config.ExperimentConfig.ExecutorMode;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Compares the driver-side overhead of the session executor modes. Each simulated session blocks
+ * for a fixed time per statement, mimicking a worker waiting on JDBC I/O, so the time above {@code
+ * STATEMENTS_PER_SESSION * STATEMENT_BLOCK_MILLIS} is scheduling overhead. At the end of each
+ * trial, the benchmark also prints the peak number of platform threads and the peak heap in use
+ * while all sessions are in flight. Note that platform thread stacks live outside the heap, while
+ * virtual thread stacks are stored in it.
+ *
+ * <p>Run the main method with the test classpath. The virtual mode requires Java 21 or later.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+@Fork(1)
+public class SessionExecutorBenchmark {
+
+  private static final int STATEMENTS_PER_SESSION = 10;
+  private static final long STATEMENT_BLOCK_MILLIS = 5;
+
+  @Param({"10", "100", "1000"})
+  public int sessions;
+
+  @Param({"PLATFORM", "VIRTUAL"})
+  public ExecutorMode mode;
+
+  // Footprint of the executor across all invocations in a trial
+  private long peakPlatformThreads;
+  private long peakHeapUsedBytes;
+
+  @Setup(Level.Trial)
+  public void setup() {
+    peakPlatformThreads = 0;
+    peakHeapUsedBytes = 0;
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    System.out.printf(
+        "%nFootprint for mode=%s, sessions=%d: peak platform threads=%d, peak heap used=%d KB%n",
+        mode, sessions, peakPlatformThreads, peakHeapUsedBytes / 1024);
+  }
+
+  @Benchmark
+  public void runSessions() throws Exception {
+    ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+    MemoryMXBean memoryBean = ManagementFactory.getMemoryMXBean();
+    threadBean.resetPeakThreadCount();
+
+    ExecutorService executor = SessionExecutors.create(mode, sessions);
+    try {
+      CountDownLatch started = new CountDownLatch(sessions);
+      List<Callable<Boolean>> workers = new ArrayList<>();
+      for (int i = 0; i < sessions; i++) {
+        workers.add(
+            () -> {
+              started.countDown();
+              for (int j = 0; j < STATEMENTS_PER_SESSION; j++) {
+                LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(STATEMENT_BLOCK_MILLIS));
+              }
+              return true;
+            });
+      }
+      List<Future<Boolean>> results = new ArrayList<>();
+      for (Callable<Boolean> worker : workers) {
+        results.add(executor.submit(worker));
+      }
+      started.await();
+      peakHeapUsedBytes = Math.max(peakHeapUsedBytes, memoryBean.getHeapMemoryUsage().getUsed());
+      for (Future<Boolean> result : results) {
+        result.get();
+      }
+    } finally {
+      executor.shutdown();
+      executor.awaitTermination(1, TimeUnit.MINUTES);
+    }
+    peakPlatformThreads = Math.max(peakPlatformThreads, threadBean.getPeakThreadCount());
+  }
+
+  public static void main(String[] args) throws Exception {
+    new Runner(
+            new OptionsBuilder()
+                .include(SessionExecutorBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .build())
+        .run();
+  }
+}
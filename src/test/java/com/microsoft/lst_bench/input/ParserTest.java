@@ -46,6 +46,13 @@ public class ParserTest {
     Assertions.assertEquals("2.2.0", experimentConfig.getMetadata().get("table_format_version"));
     Assertions.assertEquals("10", experimentConfig.getMetadata().get("scale_factor"));
     Assertions.assertEquals("cow", experimentConfig.getMetadata().get("mode"));
+    Assertions.assertEquals(
+        ExperimentConfig.RoutingStrategy.ROUND_ROBIN, experimentConfig.getConnectionRouting());
+    Assertions.assertEquals(
+        ExperimentConfig.ExecutorMode.PLATFORM, experimentConfig.getExecutorMode());
+    Assertions.assertEquals(Boolean.FALSE, experimentConfig.isFailFast());
+    Assertions.assertEquals(21600L, experimentConfig.getStatementTimeoutSeconds());
+    Assertions.assertEquals(86400L, experimentConfig.getTaskTimeoutSeconds());
     Assertions.assertNotNull(experimentConfig.getParameterValues());
     Assertions.assertEquals(
         "spark_catalog", experimentConfig.getParameterValues().get("external_catalog"));
@@ -85,12 +92,19 @@ public class ParserTest {
     Assertions.assertEquals("jdbc:hive2://127.0.0.1:10000", connection0.getUrl());
     Assertions.assertEquals("admin", connection0.getUsername());
     Assertions.assertEquals("p@ssw0rd0", connection0.getPassword());
+    Assertions.assertNotNull(connection0.getPool());
+    Assertions.assertEquals(8, connection0.getPool().getMaxSize());
+    Assertions.assertEquals(5, connection0.getPool().getValidationTimeoutSeconds());
+    Assertions.assertEquals(600L, connection0.getPool().getMaxIdleTimeSeconds());
+    Assertions.assertEquals(1800L, connection0.getPool().getMaxLifetimeSeconds());
+    Assertions.assertNull(connection0.getPool().getAcquireTimeoutSeconds());
     ConnectionConfig connection1 = connectionsConfig.getConnections().get(1);
     Assertions.assertEquals("spark_1", connection1.getId());
     Assertions.assertEquals("org.apache.hive.jdbc.HiveDriver", connection1.getDriver());
     Assertions.assertEquals("jdbc:hive2://127.0.0.1:10001", connection1.getUrl());
     Assertions.assertEquals("admin", connection1.getUsername());
     Assertions.assertEquals("p@ssw0rd1", connection1.getPassword());
+    Assertions.assertNull(connection1.getPool());
   }
 
   @Test
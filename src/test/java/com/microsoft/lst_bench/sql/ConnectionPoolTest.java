@@ -0,0 +1,187 @@
+/*
+ * Copyright (c) Microsoft Corporation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.microsoft.lst_bench.sql;
+
+import com.microsoft.lst_bench.exec.FileExec;
+import com.microsoft.lst_bench.exec.ImmutableFileExec;
+import com.microsoft.lst_bench.exec.ImmutablePhaseExec;
+import com.microsoft.lst_bench.exec.ImmutableSessionExec;
+import com.microsoft.lst_bench.exec.ImmutableTaskExec;
+import com.microsoft.lst_bench.exec.PhaseExec;
+import com.microsoft.lst_bench.exec.SessionExec;
+import com.microsoft.lst_bench.input.config.ExperimentConfig.RoutingStrategy;
+import com.microsoft.lst_bench.input.config.ImmutableConnectionConfig;
+import com.microsoft.lst_bench.input.config.ImmutablePool;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLTransientConnectionException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+/** Tests for the connection pool and the validation of pool sizes. */
+public class ConnectionPoolTest {
+
+  @Test
+  public void testTryAcquireReturnsNullWhenPoolIsExhausted() throws Exception {
+    try (ConnectionManager connectionManager = createConnectionManager(1)) {
+      try (PooledConnection connection = connectionManager.acquireConnection()) {
+        long startNanos = System.nanoTime();
+        Assertions.assertNull(connectionManager.tryAcquireConnection(100, TimeUnit.MILLISECONDS));
+        Assertions.assertTrue(System.nanoTime() - startNanos >= TimeUnit.MILLISECONDS.toNanos(100));
+      }
+      // The connection was given back, so it can be borrowed again
+      try (PooledConnection connection =
+          connectionManager.tryAcquireConnection(100, TimeUnit.MILLISECONDS)) {
+        Assertions.assertNotNull(connection);
+      }
+    }
+  }
+
+  @Test
+  public void testTryAcquireCanBeInterrupted() throws Exception {
+    try (ConnectionManager connectionManager = createConnectionManager(1);
+        PooledConnection connection = connectionManager.acquireConnection()) {
+      Thread.currentThread().interrupt();
+      try {
+        Assertions.assertThrows(
+            SQLTransientConnectionException.class,
+            () -> connectionManager.tryAcquireConnection(1, TimeUnit.MINUTES));
+        Assertions.assertTrue(Thread.currentThread().isInterrupted());
+      } finally {
+        Thread.interrupted();
+      }
+    }
+  }
+
+  @Test
+  public void testAcquireWithoutTimeoutCanBeInterrupted() throws Exception {
+    try (ConnectionManager connectionManager = createConnectionManager(1);
+        PooledConnection connection = connectionManager.acquireConnection()) {
+      Thread.currentThread().interrupt();
+      try {
+        Assertions.assertThrows(
+            SQLTransientConnectionException.class, connectionManager::acquireConnection);
+      } finally {
+        Thread.interrupted();
+      }
+    }
+  }
+
+  @Test
+  public void testCloseTwiceReturnsConnectionOnce() throws Exception {
+    try (ConnectionManager connectionManager = createConnectionManager(2)) {
+      PooledConnection connection = connectionManager.acquireConnection();
+      connection.close();
+      connection.close();
+      Assertions.assertEquals(0, connectionManager.getPoolBorrowed());
+      Assertions.assertEquals(1, connectionManager.getPoolSize());
+      // The connection can be borrowed and returned again
+      try (PooledConnection borrowedAgain = connectionManager.acquireConnection()) {
+        Assertions.assertSame(connection, borrowedAgain);
+        Assertions.assertEquals(1, connectionManager.getPoolBorrowed());
+      }
+      Assertions.assertEquals(0, connectionManager.getPoolBorrowed());
+    }
+  }
+
+  @Test
+  public void testSessionStateIsResetWhenConnectionIsReturned() throws Exception {
+    try (ConnectionManager connectionManager = createConnectionManager(1)) {
+      Connection physicalConnection;
+      try (PooledConnection connection = connectionManager.acquireConnection()) {
+        physicalConnection = connection.getConnection();
+        physicalConnection.setAutoCommit(false);
+        try (Statement statement = physicalConnection.createStatement()) {
+          statement.execute("CREATE TABLE t(i INT)");
+        }
+      }
+      // The next borrower gets the same connection, in auto-commit mode, and the open transaction
+      // was rolled back
+      try (PooledConnection connection = connectionManager.acquireConnection()) {
+        Assertions.assertSame(physicalConnection, connection.getConnection());
+        Assertions.assertTrue(connection.getConnection().getAutoCommit());
+        try (Statement statement = connection.getConnection().createStatement();
+            ResultSet rs =
+                statement.executeQuery(
+                    "SELECT COUNT(*) FROM information_schema.tables WHERE table_name = 't'")) {
+          Assertions.assertTrue(rs.next());
+          Assertions.assertEquals(0, rs.getInt(1));
+        }
+        // Session variables cannot be read through JDBC, so the connection is discarded instead
+        connection.trackSessionStatement("  set threads = 1");
+      }
+      try (PooledConnection connection = connectionManager.acquireConnection()) {
+        Assertions.assertNotSame(physicalConnection, connection.getConnection());
+        Assertions.assertTrue(physicalConnection.isClosed());
+      }
+    }
+  }
+
+  @Test
+  public void testSessionStatementsAreDetected() {
+    Assertions.assertTrue(SessionState.changesSessionState("SET x = 1"));
+    Assertions.assertTrue(SessionState.changesSessionState("\n  use db"));
+    Assertions.assertTrue(SessionState.changesSessionState("RESET x"));
+    Assertions.assertFalse(SessionState.changesSessionState("SELECT 1"));
+    Assertions.assertFalse(SessionState.changesSessionState("SETTINGS"));
+    Assertions.assertFalse(SessionState.changesSessionState("UPDATE t SET x = 1"));
+  }
+
+  @Test
+  public void testValidateRejectsPoolSmallerThanParallelSessions() {
+    try (ConnectionManager connectionManager = createConnectionManager(3)) {
+      ConnectionRouter router =
+          new ConnectionRouter(Map.of("c0", connectionManager), RoutingStrategy.ROUND_ROBIN);
+      // Two sessions running two files each need four connections at once
+      Assertions.assertThrows(
+          IllegalArgumentException.class, () -> router.validate(createPhase(2, 2)));
+      router.validate(createPhase(1, 2));
+      // Sessions that run files one after another wait for a connection to be returned
+      router.validate(createPhase(5, 1));
+    }
+  }
+
+  private static PhaseExec createPhase(int sessions, int fileParallelism) {
+    List<FileExec> files = new ArrayList<>();
+    for (int i = 0; i < fileParallelism; i++) {
+      files.add(ImmutableFileExec.of("file" + i, Collections.emptyList()));
+    }
+    List<SessionExec> sessionExecs = new ArrayList<>();
+    for (int i = 0; i < sessions; i++) {
+      sessionExecs.add(
+          ImmutableSessionExec.of(
+              String.valueOf(i),
+              List.of(ImmutableTaskExec.of("task", files).withFileParallelism(fileParallelism))));
+    }
+    return ImmutablePhaseExec.of("phase", sessionExecs);
+  }
+
+  private static ConnectionManager createConnectionManager(int maxSize) {
+    return ConnectionManager.from(
+        ImmutableConnectionConfig.builder()
+            .id("c0")
+            .driver("org.duckdb.DuckDBDriver")
+            .url("jdbc:duckdb:")
+            .pool(ImmutablePool.builder().maxSize(maxSize).build())
+            .build());
+  }
+}
@@ -0,0 +1,123 @@
+/*
+ * Copyright (c) Microsoft Corporation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.microsoft.lst_bench.sql;
+
+import com.microsoft.lst_bench.exec.ImmutableSessionExec;
+import com.microsoft.lst_bench.exec.SessionExec;
+import com.microsoft.lst_bench.input.config.ExperimentConfig.RoutingStrategy;
+import com.microsoft.lst_bench.input.config.ImmutableConnectionConfig;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+/** Tests for the assignment of sessions to connections. */
+public class ConnectionRouterTest {
+
+  @Test
+  public void testTargetEndpointOverridesStrategy() {
+    ConnectionRouter router = createRouter(3, RoutingStrategy.ROUND_ROBIN);
+    Assertions.assertEquals(
+        "c2", router.assign("phase", createSession("0").withTargetEndpoint("c2")));
+    Assertions.assertEquals(
+        "c2", router.assign("phase", createSession("1").withTargetEndpoint("c2")));
+    Assertions.assertThrows(
+        IllegalArgumentException.class,
+        () -> router.assign("phase", createSession("2").withTargetEndpoint("c3")));
+  }
+
+  @Test
+  public void testRoundRobin() {
+    ConnectionRouter router = createRouter(3, RoutingStrategy.ROUND_ROBIN);
+    List<String> assigned = new ArrayList<>();
+    for (int i = 0; i < 6; i++) {
+      assigned.add(router.assign("phase", createSession(String.valueOf(i))));
+    }
+    Assertions.assertEquals(List.of("c0", "c1", "c2", "c0", "c1", "c2"), assigned);
+  }
+
+  @Test
+  public void testLeastBusyFollowsRunningStatements() {
+    ConnectionRouter router = createRouter(2, RoutingStrategy.LEAST_BUSY);
+    // Sessions that start on idle connections are spread by the number of active sessions
+    String first = router.assign("phase", createSession("0"));
+    String second = router.assign("phase", createSession("1"));
+    Assertions.assertNotEquals(first, second);
+
+    // A concurrent phase is routed away from the connection that is running statements, even
+    // though both connections have the same number of sessions
+    router.statementStarted(first);
+    router.statementStarted(first);
+    Assertions.assertEquals(second, router.assign("other_phase", createSession("0")));
+    Assertions.assertEquals(second, router.assign("other_phase", createSession("1")));
+
+    // Once the statements finish, the connection with fewer sessions is preferred again
+    router.statementFinished(first);
+    router.statementFinished(first);
+    Assertions.assertEquals(first, router.assign("other_phase", createSession("2")));
+
+    // Released sessions no longer count
+    router.release(second);
+    router.release(second);
+    router.release(second);
+    Assertions.assertEquals(second, router.assign("other_phase", createSession("3")));
+  }
+
+  @Test
+  public void testHashBySessionIsStableAndNotRoundRobin() {
+    ConnectionRouter router = createRouter(4, RoutingStrategy.HASH_BY_SESSION);
+    ConnectionRouter otherRouter = createRouter(4, RoutingStrategy.HASH_BY_SESSION);
+    List<String> assigned = new ArrayList<>();
+    List<String> roundRobin = new ArrayList<>();
+    for (int i = 0; i < 32; i++) {
+      SessionExec session = createSession(String.valueOf(i));
+      String connectionId = router.assign("phase", session);
+      // Every run with the same connections assigns the session to the same connection
+      Assertions.assertEquals(connectionId, otherRouter.assign("phase", session));
+      assigned.add(connectionId);
+      roundRobin.add("c" + (i % 4));
+    }
+    Assertions.assertNotEquals(roundRobin, assigned);
+    // The phase is part of the key, so the same sessions are spread differently in another phase
+    List<String> otherPhase = new ArrayList<>();
+    for (int i = 0; i < 32; i++) {
+      otherPhase.add(router.assign("other_phase", createSession(String.valueOf(i))));
+    }
+    Assertions.assertNotEquals(assigned, otherPhase);
+  }
+
+  private static ImmutableSessionExec createSession(String id) {
+    return ImmutableSessionExec.of(id, Collections.emptyList());
+  }
+
+  private static ConnectionRouter createRouter(int connections, RoutingStrategy strategy) {
+    Map<String, ConnectionManager> idToConnectionManager = new LinkedHashMap<>();
+    for (int i = 0; i < connections; i++) {
+      idToConnectionManager.put(
+          "c" + i,
+          ConnectionManager.from(
+              ImmutableConnectionConfig.builder()
+                  .id("c" + i)
+                  .driver("org.duckdb.DuckDBDriver")
+                  .url("jdbc:duckdb:")
+                  .build()));
+    }
+    return new ConnectionRouter(idToConnectionManager, strategy);
+  }
+}
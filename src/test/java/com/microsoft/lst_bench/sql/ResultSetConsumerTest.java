@@ -0,0 +1,114 @@
+/*
+ * Copyright (c) Microsoft Corporation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.microsoft.lst_bench.sql;
+
+import com.microsoft.lst_bench.input.TaskTemplate.ResultConsumption;
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+/** Tests for the fingerprints of result sets. */
+public class ResultSetConsumerTest {
+
+  @Test
+  public void testDecimalFingerprintDoesNotDependOnScale() throws SQLException {
+    try (Connection connection = DriverManager.getConnection("jdbc:duckdb:")) {
+      long fingerprint = fingerprint(connection, "SELECT CAST(1.0 AS DECIMAL(4, 1))");
+      Assertions.assertEquals(
+          fingerprint, fingerprint(connection, "SELECT CAST(1.00 AS DECIMAL(5, 2))"));
+      Assertions.assertNotEquals(
+          fingerprint, fingerprint(connection, "SELECT CAST(1.01 AS DECIMAL(5, 2))"));
+      Assertions.assertEquals(
+          fingerprint(connection, "SELECT CAST(0.0 AS DECIMAL(4, 1))"),
+          fingerprint(connection, "SELECT CAST(0.000 AS DECIMAL(6, 3))"));
+    }
+  }
+
+  @Test
+  public void testLongDecimalsHashLikeShortDecimals() {
+    // Long decimals fall back to their normalized value, which must agree with the short path
+    Assertions.assertEquals(
+        ResultSetConsumer.hashDecimal(new BigDecimal("1.5")),
+        ResultSetConsumer.hashDecimal(new BigDecimal("1.500000000000000000000")));
+    Assertions.assertNotEquals(
+        ResultSetConsumer.hashDecimal(new BigDecimal("1.5")),
+        ResultSetConsumer.hashDecimal(new BigDecimal("1.500000000000000000001")));
+    Assertions.assertEquals(
+        ResultSetConsumer.hashDecimal(new BigDecimal("12345678901234567890.1")),
+        ResultSetConsumer.hashDecimal(new BigDecimal("12345678901234567890.100")));
+    Assertions.assertEquals(
+        ResultSetConsumer.hashDecimal(BigDecimal.ZERO),
+        ResultSetConsumer.hashDecimal(new BigDecimal("-0.000")));
+  }
+
+  @Test
+  public void testMixIsMurmurHash3Finalizer() {
+    // Reference values of fmix64
+    Assertions.assertEquals(0xB456BCFC34C2CB2CL, ResultSetConsumer.mix(1));
+    Assertions.assertEquals(0x810879608E4259CCL, ResultSetConsumer.mix(42));
+    Assertions.assertEquals(0, ResultSetConsumer.mix(0));
+  }
+
+  @Test
+  public void testFingerprintDoesNotDependOnRowOrder() throws SQLException {
+    try (Connection connection = DriverManager.getConnection("jdbc:duckdb:")) {
+      long fingerprint =
+          fingerprint(connection, "SELECT * FROM (VALUES (1, 'a'), (2, 'b'), (3, 'c')) ORDER BY 1");
+      Assertions.assertEquals(
+          fingerprint,
+          fingerprint(
+              connection, "SELECT * FROM (VALUES (1, 'a'), (2, 'b'), (3, 'c')) ORDER BY 1 DESC"));
+      // Values that move between rows change the fingerprint
+      Assertions.assertNotEquals(
+          fingerprint,
+          fingerprint(connection, "SELECT * FROM (VALUES (1, 'b'), (2, 'a'), (3, 'c'))"));
+      // Duplicated rows are counted
+      Assertions.assertNotEquals(
+          fingerprint,
+          fingerprint(connection, "SELECT * FROM (VALUES (1, 'a'), (2, 'b'), (3, 'c'), (3, 'c'))"));
+    }
+  }
+
+  @Test
+  public void testNullIsDifferentFromEmptyAndZero() throws SQLException {
+    try (Connection connection = DriverManager.getConnection("jdbc:duckdb:")) {
+      long nullString = fingerprint(connection, "SELECT CAST(NULL AS VARCHAR)");
+      Assertions.assertNotEquals(nullString, fingerprint(connection, "SELECT ''"));
+      long nullInteger = fingerprint(connection, "SELECT CAST(NULL AS INTEGER)");
+      Assertions.assertNotEquals(nullInteger, fingerprint(connection, "SELECT 0"));
+      long nullDecimal = fingerprint(connection, "SELECT CAST(NULL AS DECIMAL(4, 1))");
+      Assertions.assertNotEquals(
+          nullDecimal, fingerprint(connection, "SELECT CAST(0.0 AS DECIMAL(4, 1))"));
+      long nullBlob = fingerprint(connection, "SELECT CAST(NULL AS BLOB)");
+      Assertions.assertNotEquals(nullBlob, fingerprint(connection, "SELECT ''::BLOB"));
+      // The position of a null within the row matters
+      Assertions.assertNotEquals(
+          fingerprint(connection, "SELECT NULL, ''"), fingerprint(connection, "SELECT '', NULL"));
+    }
+  }
+
+  private static long fingerprint(Connection connection, String sql) throws SQLException {
+    try (Statement statement = connection.createStatement();
+        ResultSet rs = statement.executeQuery(sql)) {
+      return ResultSetConsumer.consume(rs, ResultConsumption.FINGERPRINT).getFingerprint();
+    }
+  }
+}
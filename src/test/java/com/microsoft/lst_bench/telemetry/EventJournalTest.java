@@ -0,0 +1,105 @@
+/*
+ * Copyright (c) Microsoft Corporation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.microsoft.lst_bench.telemetry;
+
+import com.microsoft.lst_bench.telemetry.EventInfo.EventType;
+import com.microsoft.lst_bench.telemetry.EventInfo.Status;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/** Tests for the local journal of telemetry events. */
+public class EventJournalTest {
+
+  @Test
+  public void testAppendAfterCloseIsDroppedAndCounted(@TempDir Path tempDir) throws Exception {
+    EventJournal journal = new EventJournal(tempDir, 1 << 16);
+    Assertions.assertTrue(journal.append(createEvent(0)));
+    journal.close();
+    Assertions.assertFalse(journal.append(createEvent(1)));
+    Assertions.assertFalse(journal.append(createEvent(2)));
+    Assertions.assertEquals(1, journal.getAppendedEvents());
+    Assertions.assertEquals(2, journal.getLateEvents());
+    Assertions.assertEquals(1, readEvents(tempDir));
+  }
+
+  @Test
+  public void testConcurrentAppendsWhileClosing(@TempDir Path tempDir) throws Exception {
+    // Small segments, so that writers also race with rotations
+    EventJournal journal = new EventJournal(tempDir, 4096);
+    int writers = 4;
+    int eventsPerWriter = 5000;
+    ExecutorService executor = Executors.newFixedThreadPool(writers);
+    CountDownLatch started = new CountDownLatch(writers);
+    List<Future<Long>> results = new ArrayList<>();
+    try {
+      for (int i = 0; i < writers; i++) {
+        results.add(
+            executor.submit(
+                () -> {
+                  started.countDown();
+                  long appended = 0;
+                  for (int j = 0; j < eventsPerWriter; j++) {
+                    if (journal.append(createEvent(j))) {
+                      appended++;
+                    }
+                  }
+                  return appended;
+                }));
+      }
+      started.await();
+      journal.close();
+      long appended = 0;
+      for (Future<Long> result : results) {
+        // Writers do not fail when the journal is closed under them
+        appended += result.get();
+      }
+      Assertions.assertEquals(appended, journal.getAppendedEvents());
+      Assertions.assertEquals((long) writers * eventsPerWriter, appended + journal.getLateEvents());
+      // Every event that was appended can be read back
+      Assertions.assertEquals(appended, readEvents(tempDir));
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  private static EventInfo createEvent(int i) {
+    Instant start = Instant.ofEpochSecond(1_700_000_000L, i);
+    return ImmutableEventInfo.of(
+        start, start.plusMillis(1), "event_" + i, EventType.EXEC_STATEMENT, Status.SUCCESS);
+  }
+
+  private static long readEvents(Path directory) throws Exception {
+    AtomicLong events = new AtomicLong();
+    new EventJournalReader(directory)
+        .read(
+            batch -> {
+              events.addAndGet(batch.size());
+              return true;
+            },
+            100);
+    return events.get();
+  }
+}
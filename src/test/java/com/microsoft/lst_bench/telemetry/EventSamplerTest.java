@@ -0,0 +1,106 @@
+/*
+ * Copyright (c) Microsoft Corporation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.microsoft.lst_bench.telemetry;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.microsoft.lst_bench.input.config.ImmutableSampling;
+import com.microsoft.lst_bench.telemetry.EventInfo.EventType;
+import com.microsoft.lst_bench.telemetry.EventInfo.Status;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+/** Tests for the sampling of telemetry events. */
+public class EventSamplerTest {
+
+  private static final ObjectMapper MAPPER = new ObjectMapper();
+
+  @Test
+  public void testKeepsFailuresSlowestAndTailWhileCountingAll() throws Exception {
+    EventSampler sampler =
+        new EventSampler(
+            List.of(
+                ImmutableSampling.builder()
+                    .eventType(EventType.EXEC_STATEMENT)
+                    .keepSlowest(3)
+                    .keepAbovePercentile(99.0)
+                    .build()));
+    Instant start = Instant.now();
+    List<Integer> durations = new ArrayList<>();
+    for (int i = 1; i <= 10_000; i++) {
+      durations.add(i);
+    }
+    Collections.shuffle(durations);
+
+    List<EventInfo> kept = new ArrayList<>();
+    for (int durationMillis : durations) {
+      EventInfo event =
+          ImmutableEventInfo.of(
+              start,
+              start.plusMillis(durationMillis),
+              "query1.sql_0",
+              EventType.EXEC_STATEMENT,
+              Status.SUCCESS);
+      if (sampler.sample(event)) {
+        kept.add(event);
+      }
+    }
+    for (int i = 0; i < 5; i++) {
+      EventInfo failure =
+          ImmutableEventInfo.of(
+              start, start.plusMillis(1), "query2.sql_0", EventType.EXEC_STATEMENT, Status.FAILURE);
+      Assertions.assertTrue(sampler.sample(failure));
+      kept.add(failure);
+    }
+    // Types without a policy are always kept
+    Assertions.assertTrue(
+        sampler.sample(
+            ImmutableEventInfo.of(
+                start, start.plusSeconds(1), "task_1", EventType.EXEC_TASK, Status.SUCCESS)));
+
+    // Only the tail above the estimated 99th percentile is kept as it happens
+    long keptSuccesses = kept.stream().filter(e -> e.getStatus() == Status.SUCCESS).count();
+    Assertions.assertTrue(keptSuccesses < 500, "Kept " + keptSuccesses + " events");
+
+    List<EventInfo> drained = sampler.drain();
+    List<EventInfo> slowest =
+        drained.stream()
+            .filter(e -> e.getEventType() == EventType.EXEC_STATEMENT)
+            .collect(Collectors.toList());
+    Assertions.assertEquals(3, slowest.size());
+    List<EventInfo> summaries =
+        drained.stream()
+            .filter(e -> e.getEventType() == EventType.SAMPLING_SUMMARY)
+            .collect(Collectors.toList());
+    Assertions.assertEquals(1, summaries.size());
+    JsonNode payload = MAPPER.readTree(summaries.get(0).getPayload());
+    Assertions.assertEquals("EXEC_STATEMENT", payload.get("event_type").asText());
+    Assertions.assertEquals(10_005, payload.get("events").asLong());
+    Assertions.assertEquals(10_000, payload.at("/status_counts/SUCCESS").asLong());
+    Assertions.assertEquals(5, payload.at("/status_counts/FAILURE").asLong());
+    Assertions.assertEquals(kept.size() + 3, payload.get("kept_events").asLong());
+    // 1 + 2 + ... + 10000 ms, plus 5 ms of failures
+    Assertions.assertEquals(50_005_005.0, payload.get("total_duration_ms").asDouble(), 1e-6);
+
+    // Counters are reported as the difference with the previous drain
+    Assertions.assertTrue(sampler.drain().isEmpty());
+  }
+}
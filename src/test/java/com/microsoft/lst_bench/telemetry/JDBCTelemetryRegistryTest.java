@@ -0,0 +1,559 @@
+/*
+ * Copyright (c) Microsoft Corporation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.microsoft.lst_bench.telemetry;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.microsoft.lst_bench.input.config.ConnectionConfig;
+import com.microsoft.lst_bench.input.config.ImmutableConnectionConfig;
+import com.microsoft.lst_bench.input.config.ImmutableFlush;
+import com.microsoft.lst_bench.input.config.ImmutableJournal;
+import com.microsoft.lst_bench.input.config.ImmutableTelemetryConfig;
+import com.microsoft.lst_bench.input.config.TelemetryConfig;
+import com.microsoft.lst_bench.sql.ConnectionManager;
+import com.microsoft.lst_bench.telemetry.EventInfo.EventType;
+import com.microsoft.lst_bench.telemetry.EventInfo.Status;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/** Stress tests for concurrent writes to the telemetry registry. */
+public class JDBCTelemetryRegistryTest {
+
+  private static final ObjectMapper MAPPER = new ObjectMapper();
+
+  private static final int SESSIONS = 400;
+  private static final int EVENTS_PER_SESSION = 250;
+
+  @Test
+  public void testEventBufferKeepsAllEventsInOrder() throws Exception {
+    EventBuffer buffer = new EventBuffer();
+    List<EventInfo> drained = new ArrayList<>();
+    AtomicBoolean producing = new AtomicBoolean(true);
+    // The consumer drains while the producers are still adding events
+    Thread consumer =
+        new Thread(
+            () -> {
+              while (producing.get()) {
+                buffer.drainTo(drained);
+              }
+            });
+    consumer.start();
+    runSessions(buffer::add);
+    producing.set(false);
+    consumer.join();
+    buffer.drainTo(drained);
+    Assertions.assertTrue(buffer.isEmpty());
+
+    Assertions.assertEquals(SESSIONS * EVENTS_PER_SESSION, drained.size());
+    // Events of each session are drained in the order in which they were added
+    int[] nextEvent = new int[SESSIONS];
+    for (EventInfo event : drained) {
+      String[] ids = event.getEventId().split("_");
+      int session = Integer.parseInt(ids[0]);
+      Assertions.assertEquals(nextEvent[session]++, Integer.parseInt(ids[1]));
+    }
+    for (int session = 0; session < SESSIONS; session++) {
+      Assertions.assertEquals(EVENTS_PER_SESSION, nextEvent[session]);
+    }
+  }
+
+  @Test
+  public void testConcurrentWritesAndFlushes(@TempDir Path tempDir) throws Exception {
+    ConnectionManager connectionManager = createConnectionManager(tempDir);
+    JDBCTelemetryRegistry registry =
+        new JDBCTelemetryRegistry(connectionManager, createTelemetryConfig(tempDir).build());
+    AtomicBoolean producing = new AtomicBoolean(true);
+    // Phases flush while other sessions are still writing events
+    Thread flusher =
+        new Thread(
+            () -> {
+              while (producing.get()) {
+                registry.flush();
+                try {
+                  Thread.sleep(10);
+                } catch (InterruptedException e) {
+                  Thread.currentThread().interrupt();
+                  return;
+                }
+              }
+            });
+    flusher.start();
+    runSessions(registry::writeEvent);
+    producing.set(false);
+    flusher.join();
+    registry.flush();
+
+    try (Connection connection = connectionManager.createConnection();
+        Statement statement = connection.createStatement();
+        ResultSet rs =
+            statement.executeQuery(
+                "SELECT COUNT(*), COUNT(DISTINCT event_id) FROM experiment_telemetry")) {
+      Assertions.assertTrue(rs.next());
+      Assertions.assertEquals(SESSIONS * EVENTS_PER_SESSION, rs.getLong(1));
+      Assertions.assertEquals(SESSIONS * EVENTS_PER_SESSION, rs.getLong(2));
+    }
+  }
+
+  @Test
+  public void testBackgroundFlusherBlocksWhenQueueIsFull(@TempDir Path tempDir) throws Exception {
+    ConnectionManager connectionManager = createConnectionManager(tempDir);
+    // The flusher only runs when it is asked to, so the queue fills up
+    JDBCTelemetryRegistry registry =
+        createRegistry(
+            connectionManager,
+            tempDir,
+            ImmutableFlush.builder()
+                .intervalSeconds(3_600L)
+                .batchSize(1_000)
+                .queueCapacity(10)
+                .overflowPolicy(TelemetryConfig.OverflowPolicy.BLOCK)
+                .build());
+    CountDownLatch written = new CountDownLatch(1);
+    Thread producer =
+        new Thread(
+            () -> {
+              writeEvents(registry, 11);
+              written.countDown();
+            });
+    producer.start();
+
+    // The last event does not fit in the queue, so the producer waits for the flusher
+    Assertions.assertFalse(written.await(500, TimeUnit.MILLISECONDS));
+    Assertions.assertEquals(Thread.State.TIMED_WAITING, producer.getState());
+    Assertions.assertEquals(1, registry.getBlockedWrites());
+    Assertions.assertEquals(10, registry.getBufferedEvents());
+    Assertions.assertEquals(0, registry.getDroppedEvents());
+
+    // The flush frees the queue and releases the producer
+    registry.flush();
+    Assertions.assertTrue(written.await(10, TimeUnit.SECONDS));
+    producer.join();
+    registry.close();
+
+    // Every event is written, along with the metrics of the background flush
+    Assertions.assertEquals(11, countEvents(connectionManager, false));
+    Assertions.assertEquals(1, countEvents(connectionManager, true));
+  }
+
+  @Test
+  public void testBlockedWritesSpillAfterTimeout(@TempDir Path tempDir) throws Exception {
+    ConnectionManager connectionManager = createConnectionManager(tempDir);
+    Path spillDirectory = tempDir.resolve("spill");
+    // The flusher never runs on its own, as if the database stayed unavailable
+    JDBCTelemetryRegistry registry =
+        createRegistry(
+            connectionManager,
+            tempDir,
+            ImmutableFlush.builder()
+                .intervalSeconds(3_600L)
+                .batchSize(1_000)
+                .queueCapacity(10)
+                .overflowPolicy(TelemetryConfig.OverflowPolicy.BLOCK)
+                .blockTimeoutMs(100L)
+                .spillDirectory(spillDirectory.toString())
+                .build());
+    long startNanos = System.nanoTime();
+    writeEvents(registry, 13);
+
+    // Each write that does not fit waits for the timeout and then spills its event
+    Assertions.assertTrue(System.nanoTime() - startNanos >= TimeUnit.MILLISECONDS.toNanos(300));
+    Assertions.assertEquals(3, registry.getBlockedWrites());
+    Assertions.assertEquals(3, registry.getSpilledEvents());
+    Assertions.assertEquals(10, registry.getBufferedEvents());
+    Assertions.assertEquals(0, registry.getDroppedEvents());
+
+    registry.close();
+
+    // Spilled events are replayed once the database accepts events again
+    Assertions.assertEquals(13, countEvents(connectionManager, false));
+    try (Stream<Path> files = Files.list(spillDirectory)) {
+      Assertions.assertEquals(0, files.count());
+    }
+  }
+
+  @Test
+  public void testBackgroundFlusherSpillsWhenQueueIsFull(@TempDir Path tempDir) throws Exception {
+    ConnectionManager connectionManager = createConnectionManager(tempDir);
+    Path spillDirectory = tempDir.resolve("spill");
+    JDBCTelemetryRegistry registry =
+        createRegistry(
+            connectionManager,
+            tempDir,
+            ImmutableFlush.builder()
+                .intervalSeconds(3_600L)
+                .batchSize(1_000)
+                .queueCapacity(10)
+                .overflowPolicy(TelemetryConfig.OverflowPolicy.SPILL)
+                .spillDirectory(spillDirectory.toString())
+                .build());
+    writeEvents(registry, 25);
+
+    // The events that did not fit in the queue are in the spill file, in order
+    Assertions.assertEquals(15, registry.getSpilledEvents());
+    Assertions.assertEquals(10, registry.getBufferedEvents());
+    List<String> spilledLines;
+    try (Stream<Path> files = Files.list(spillDirectory)) {
+      List<Path> spillFiles = files.collect(Collectors.toList());
+      Assertions.assertEquals(1, spillFiles.size());
+      spilledLines = Files.readAllLines(spillFiles.get(0));
+    }
+    Assertions.assertEquals(15, spilledLines.size());
+    for (int i = 0; i < spilledLines.size(); i++) {
+      Assertions.assertEquals(
+          "event_" + (i + 10), MAPPER.readTree(spilledLines.get(i)).get("event_id").asText());
+    }
+    Assertions.assertEquals(0, countEvents(connectionManager, false));
+
+    registry.close();
+
+    // Spilled events are replayed, and the spill file is removed once it is empty
+    Assertions.assertEquals(25, countEvents(connectionManager, false));
+    try (Connection connection = connectionManager.createConnection();
+        Statement statement = connection.createStatement();
+        ResultSet rs =
+            statement.executeQuery(
+                "SELECT COUNT(DISTINCT event_id) FROM experiment_telemetry WHERE event_id IN ("
+                    + IntStream.range(10, 25)
+                        .mapToObj(i -> "'event_" + i + "'")
+                        .collect(Collectors.joining(", "))
+                    + ")")) {
+      Assertions.assertTrue(rs.next());
+      Assertions.assertEquals(15, rs.getLong(1));
+    }
+    try (Stream<Path> files = Files.list(spillDirectory)) {
+      Assertions.assertEquals(0, files.count());
+    }
+  }
+
+  @Test
+  public void testInsertsBindPayloadsInChunks(@TempDir Path tempDir) throws Exception {
+    ConnectionManager connectionManager = createConnectionManager(tempDir);
+    // Listing the columns keeps the DuckDB appender from being used, so events are bound to
+    // prepared statements in chunks, with a partial chunk at the end
+    Path insertFile = tempDir.resolve("insert.sql");
+    Files.write(
+        insertFile,
+        Collections.singletonList(
+            "INSERT INTO experiment_telemetry(event_start_time, event_end_time, event_id, "
+                + "event_type, event_status, event_data, trace_id, span_id, parent_span_id) "
+                + "VALUES ${tuples};"));
+    JDBCTelemetryRegistry registry =
+        new JDBCTelemetryRegistry(
+            connectionManager,
+            createTelemetryConfig(tempDir)
+                .insertFile(insertFile.toString())
+                .insertChunkSize(7)
+                .build());
+    Instant now = Instant.now();
+    for (int i = 0; i < 100; i++) {
+      registry.writeEvent(
+          ImmutableEventInfo.of(now, now, "event_" + i, EventType.EXEC_STATEMENT, Status.SUCCESS)
+              .withPayload(i % 2 == 0 ? "{\"error\": \"it's quoted\"}" : null));
+    }
+    registry.flush();
+
+    try (Connection connection = connectionManager.createConnection();
+        Statement statement = connection.createStatement();
+        ResultSet rs =
+            statement.executeQuery(
+                "SELECT COUNT(*), COUNT(event_data), MIN(event_data) FROM experiment_telemetry")) {
+      Assertions.assertTrue(rs.next());
+      Assertions.assertEquals(100, rs.getLong(1));
+      Assertions.assertEquals(50, rs.getLong(2));
+      Assertions.assertEquals("{\"error\": \"it's quoted\"}", rs.getString(3));
+    }
+  }
+
+  @Test
+  public void testFailedChunkDoesNotDuplicateEvents(@TempDir Path tempDir) throws Exception {
+    ConnectionManager connectionManager = createConnectionManager(tempDir);
+    // The constraint rejects one event, so the flush fails after some chunks were inserted
+    try (Connection connection = connectionManager.createConnection();
+        Statement statement = connection.createStatement()) {
+      statement.execute(
+          "CREATE TABLE experiment_telemetry(event_start_time STRING, event_end_time STRING, "
+              + "event_id STRING, event_type STRING, event_status STRING, event_data STRING, "
+              + "trace_id STRING, span_id STRING, parent_span_id STRING, "
+              + "CHECK (event_id <> 'event_50'))");
+    }
+    Path insertFile = tempDir.resolve("insert.sql");
+    Files.write(
+        insertFile,
+        Collections.singletonList(
+            "INSERT INTO experiment_telemetry(event_start_time, event_end_time, event_id, "
+                + "event_type, event_status, event_data, trace_id, span_id, parent_span_id) "
+                + "VALUES ${tuples};"));
+    JDBCTelemetryRegistry registry =
+        new JDBCTelemetryRegistry(
+            connectionManager,
+            createTelemetryConfig(tempDir)
+                .insertFile(insertFile.toString())
+                .insertChunkSize(7)
+                .build());
+    writeEvents(registry, 100);
+    registry.flush();
+    Assertions.assertEquals(0, countEvents(connectionManager, false));
+
+    // Replace the table with one without the constraint, so the next flush succeeds
+    try (Connection connection = connectionManager.createConnection();
+        Statement statement = connection.createStatement()) {
+      statement.execute("CREATE TABLE telemetry_copy AS SELECT * FROM experiment_telemetry");
+      statement.execute("DROP TABLE experiment_telemetry");
+      statement.execute("ALTER TABLE telemetry_copy RENAME TO experiment_telemetry");
+    }
+    registry.flush();
+
+    try (Connection connection = connectionManager.createConnection();
+        Statement statement = connection.createStatement();
+        ResultSet rs =
+            statement.executeQuery(
+                "SELECT COUNT(*), COUNT(DISTINCT event_id) FROM experiment_telemetry "
+                    + "WHERE event_type = '"
+                    + EventType.EXEC_STATEMENT
+                    + "'")) {
+      Assertions.assertTrue(rs.next());
+      Assertions.assertEquals(100, rs.getLong(1));
+      Assertions.assertEquals(100, rs.getLong(2));
+    }
+    registry.close();
+  }
+
+  @Test
+  public void testStatementEventsAreWrittenFromColumns(@TempDir Path tempDir) throws Exception {
+    ConnectionManager connectionManager = createConnectionManager(tempDir);
+    JDBCTelemetryRegistry registry =
+        new JDBCTelemetryRegistry(connectionManager, createTelemetryConfig(tempDir).build());
+    MonotonicClock clock = new MonotonicClock();
+    SpanContext fileSpan = SpanContext.root();
+    StatementEventBuffer statementEvents = new StatementEventBuffer(10, clock);
+    long startNanos = System.nanoTime();
+    for (int i = 0; i < 5; i++) {
+      statementEvents.add(
+          startNanos + i,
+          startNanos + i + 1_000,
+          "statement_" + i,
+          i == 4 ? Status.FAILURE : Status.SUCCESS,
+          i == 4 ? null : "{\"rows\":" + i + "}",
+          fileSpan,
+          i + 1);
+    }
+    Instant now = Instant.now();
+    registry.writeEvent(
+        ImmutableEventInfo.of(now, now, "file", EventType.EXEC_FILE, Status.SUCCESS)
+            .withSpanContext(fileSpan));
+    registry.writeStatementEvents(statementEvents);
+    // The buffer is left empty and the registry keeps its own copy of the events
+    Assertions.assertTrue(statementEvents.isEmpty());
+    statementEvents.add(
+        startNanos, startNanos, "reused", Status.SUCCESS, null, fileSpan, SpanContext.newSpanId());
+    registry.close();
+
+    try (Connection connection = connectionManager.createConnection();
+        Statement statement = connection.createStatement();
+        ResultSet rs =
+            statement.executeQuery(
+                "SELECT event_start_time, event_end_time, event_id, event_status, event_data, "
+                    + "trace_id, span_id, parent_span_id FROM experiment_telemetry "
+                    + "WHERE event_type = 'EXEC_STATEMENT' ORDER BY event_id")) {
+      for (int i = 0; i < 5; i++) {
+        Assertions.assertTrue(rs.next());
+        Assertions.assertEquals(clock.toInstant(startNanos + i).toString(), rs.getString(1));
+        Assertions.assertEquals(
+            clock.toInstant(startNanos + i + 1_000).toString(), rs.getString(2));
+        Assertions.assertEquals("statement_" + i, rs.getString(3));
+        Assertions.assertEquals(i == 4 ? "FAILURE" : "SUCCESS", rs.getString(4));
+        Assertions.assertEquals(i == 4 ? null : "{\"rows\":" + i + "}", rs.getString(5));
+        Assertions.assertEquals(fileSpan.getTraceId(), rs.getString(6));
+        Assertions.assertEquals(SpanContext.formatSpanId(i + 1), rs.getString(7));
+        Assertions.assertEquals(SpanContext.formatSpanId(fileSpan.getSpanId()), rs.getString(8));
+      }
+      Assertions.assertFalse(rs.next());
+    }
+    Assertions.assertEquals(6, countEvents(connectionManager, false));
+  }
+
+  @Test
+  public void testDdlAddsSpanColumnsToExistingTable(@TempDir Path tempDir) throws Exception {
+    ConnectionManager connectionManager = createConnectionManager(tempDir);
+    // Table created by a version without the span columns
+    try (Connection connection = connectionManager.createConnection();
+        Statement statement = connection.createStatement()) {
+      statement.execute(
+          "CREATE TABLE experiment_telemetry(event_start_time STRING, event_end_time STRING, "
+              + "event_id STRING, event_type STRING, event_status STRING, event_data STRING)");
+      statement.execute(
+          "INSERT INTO experiment_telemetry VALUES ('t0', 't1', 'old', 'EXEC_TASK', 'SUCCESS', "
+              + "NULL)");
+    }
+    JDBCTelemetryRegistry registry =
+        new JDBCTelemetryRegistry(connectionManager, createTelemetryConfig(tempDir).build());
+    Instant now = Instant.now();
+    registry.writeEvent(
+        ImmutableEventInfo.of(now, now, "new", EventType.EXEC_STATEMENT, Status.SUCCESS)
+            .withSpanContext(ImmutableSpanContext.of("0123456789abcdef0123456789abcdef", 1L, 2L)));
+    registry.close();
+
+    try (Connection connection = connectionManager.createConnection();
+        Statement statement = connection.createStatement();
+        ResultSet rs =
+            statement.executeQuery(
+                "SELECT event_id, trace_id FROM experiment_telemetry ORDER BY event_id")) {
+      Assertions.assertTrue(rs.next());
+      Assertions.assertEquals("new", rs.getString(1));
+      Assertions.assertEquals("0123456789abcdef0123456789abcdef", rs.getString(2));
+      Assertions.assertTrue(rs.next());
+      Assertions.assertEquals("old", rs.getString(1));
+      Assertions.assertNull(rs.getString(2));
+      Assertions.assertFalse(rs.next());
+    }
+  }
+
+  @Test
+  public void testJournalRecoversEventsAfterCrash(@TempDir Path tempDir) throws Exception {
+    ConnectionManager connectionManager = createConnectionManager(tempDir);
+    Path journalDirectory = tempDir.resolve("journal");
+    TelemetryConfig.Journal journalConfig =
+        ImmutableJournal.builder()
+            .directory(journalDirectory.toString())
+            .segmentSizeMb(1)
+            .isWriteToDatabase(false)
+            .build();
+    JDBCTelemetryRegistry registry =
+        new JDBCTelemetryRegistry(
+            connectionManager, createTelemetryConfig(tempDir).journal(journalConfig).build());
+    runSessions(registry::writeEvent);
+    // The driver crashes before the registry is closed, and the database has no events
+    registry.flush();
+    Assertions.assertEquals(0, countEvents(connectionManager, false));
+    try (Stream<Path> files = Files.list(journalDirectory)) {
+      Assertions.assertTrue(files.count() > 1);
+    }
+
+    long loadedEvents =
+        new EventJournalLoader(createTelemetryConfig(tempDir).isExecuteDDL(false).build())
+            .load(journalDirectory);
+    Assertions.assertEquals(SESSIONS * EVENTS_PER_SESSION, loadedEvents);
+    Assertions.assertEquals(SESSIONS * EVENTS_PER_SESSION, countEvents(connectionManager, false));
+    registry.close();
+  }
+
+  private static ConnectionManager createConnectionManager(Path tempDir) {
+    return ConnectionManager.from(createConnectionConfig(tempDir));
+  }
+
+  private static ConnectionConfig createConnectionConfig(Path tempDir) {
+    return ImmutableConnectionConfig.builder()
+        .id("telemetry")
+        .driver("org.duckdb.DuckDBDriver")
+        .url("jdbc:duckdb:" + tempDir.resolve("telemetry.duckdb"))
+        .build();
+  }
+
+  /** Returns a builder of a configuration that writes to DuckDB without a background flusher. */
+  private static ImmutableTelemetryConfig.Builder createTelemetryConfig(Path tempDir) {
+    return ImmutableTelemetryConfig.builder()
+        .version(1)
+        .connection(createConnectionConfig(tempDir))
+        .isExecuteDDL(true)
+        .dDLFile("src/main/resources/scripts/logging/duckdb/ddl.sql")
+        .insertFile("src/main/resources/scripts/logging/duckdb/insert.sql");
+  }
+
+  private static JDBCTelemetryRegistry createRegistry(
+      ConnectionManager connectionManager, Path tempDir, TelemetryConfig.Flush flushConfig)
+      throws SQLException {
+    return new JDBCTelemetryRegistry(
+        connectionManager, createTelemetryConfig(tempDir).flush(flushConfig).build());
+  }
+
+  /** Writes events with consecutive ids from the current thread. */
+  private static void writeEvents(JDBCTelemetryRegistry registry, int count) {
+    for (int i = 0; i < count; i++) {
+      Instant now = Instant.now();
+      registry.writeEvent(
+          ImmutableEventInfo.of(now, now, "event_" + i, EventType.EXEC_STATEMENT, Status.SUCCESS));
+    }
+  }
+
+  private static long countEvents(ConnectionManager connectionManager, boolean flushEvents)
+      throws SQLException {
+    try (Connection connection = connectionManager.createConnection();
+        Statement statement = connection.createStatement();
+        ResultSet rs =
+            statement.executeQuery(
+                "SELECT COUNT(DISTINCT event_id) FROM experiment_telemetry WHERE event_type "
+                    + (flushEvents ? "=" : "<>")
+                    + " '"
+                    + EventType.FLUSH_TELEMETRY
+                    + "'")) {
+      Assertions.assertTrue(rs.next());
+      return rs.getLong(1);
+    }
+  }
+
+  /** Runs sessions that write events concurrently, each on its own thread. */
+  private static void runSessions(EventWriter writer) throws Exception {
+    ExecutorService executor = Executors.newFixedThreadPool(SESSIONS);
+    try {
+      CountDownLatch start = new CountDownLatch(1);
+      List<Future<?>> results = new ArrayList<>();
+      for (int i = 0; i < SESSIONS; i++) {
+        int session = i;
+        results.add(
+            executor.submit(
+                () -> {
+                  start.await();
+                  for (int j = 0; j < EVENTS_PER_SESSION; j++) {
+                    Instant now = Instant.now();
+                    writer.write(
+                        ImmutableEventInfo.of(
+                            now, now, session + "_" + j, EventType.EXEC_STATEMENT, Status.SUCCESS));
+                  }
+                  return null;
+                }));
+      }
+      start.countDown();
+      for (Future<?> result : results) {
+        result.get();
+      }
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  private interface EventWriter {
+    void write(EventInfo event) throws SQLException;
+  }
+}
@@ -0,0 +1,71 @@
+/*
+ * Copyright (c) Microsoft Corporation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.microsoft.lst_bench.telemetry;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.microsoft.lst_bench.telemetry.EventInfo.EventType;
+import com.microsoft.lst_bench.telemetry.EventInfo.Status;
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+/** Tests for the aggregation of event latencies into histograms. */
+public class LatencyHistogramsTest {
+
+  private static final ObjectMapper MAPPER = new ObjectMapper();
+
+  @Test
+  public void testPhaseHistogramsRollUpIntoRepetition() throws Exception {
+    LatencyHistograms repetition = new LatencyHistograms(null);
+    LatencyHistograms phase = new LatencyHistograms(repetition);
+    Instant start = Instant.now();
+    // 1 to 1000 ms for the same statement, and one phase event recorded in the repetition only
+    for (int i = 1; i <= 1000; i++) {
+      phase.record(
+          ImmutableEventInfo.of(
+              start,
+              start.plusMillis(i),
+              "query1.sql_0",
+              EventType.EXEC_STATEMENT,
+              Status.SUCCESS));
+    }
+    repetition.record(
+        ImmutableEventInfo.of(
+            start, start.plusSeconds(2), "phase_1", EventType.EXEC_PHASE, Status.SUCCESS));
+
+    List<EventInfo> phaseSummaries = phase.summarize(start, Map.of("scope", "phase"));
+    Assertions.assertEquals(1, phaseSummaries.size());
+    EventInfo summary = phaseSummaries.get(0);
+    Assertions.assertEquals(EventType.LATENCY_HISTOGRAM, summary.getEventType());
+    Assertions.assertEquals("query1.sql_0", summary.getEventId());
+    JsonNode payload = MAPPER.readTree(summary.getPayload());
+    Assertions.assertEquals("EXEC_STATEMENT", payload.get("event_type").asText());
+    Assertions.assertEquals("phase", payload.get("scope").asText());
+    Assertions.assertEquals(1000, payload.get("count").asLong());
+    // Values are accurate to 3 significant digits
+    Assertions.assertEquals(500.0, payload.get("p50_ms").asDouble(), 0.5);
+    Assertions.assertEquals(990.0, payload.get("p99_ms").asDouble(), 1.0);
+    Assertions.assertEquals(1000.0, payload.get("max_ms").asDouble(), 1.0);
+
+    List<EventInfo> repetitionSummaries = repetition.summarize(start, Map.of());
+    Assertions.assertEquals(2, repetitionSummaries.size());
+    // Latencies are not summarized twice
+    Assertions.assertTrue(phase.summarize(start, Map.of()).isEmpty());
+  }
+}
@@ -0,0 +1,76 @@
+/*
+ * Copyright (c) Microsoft Corporation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.microsoft.lst_bench.telemetry;
+
+import com.microsoft.lst_bench.telemetry.EventInfo.Status;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+/** Tests for the live metrics and the endpoint that serves them. */
+public class LiveMetricsTest {
+
+  @Test
+  public void testEndpointServesPrometheusMetrics() throws Exception {
+    LiveMetrics metrics = new LiveMetrics();
+    metrics.registerGauge("telemetry_buffered_events", () -> 7);
+    LiveMetrics.Phase setup = metrics.startPhase("setup");
+    metrics.sessionStarted();
+    setup.statementExecuted(Status.SUCCESS, TimeUnit.MILLISECONDS.toNanos(3));
+    setup.statementExecuted(Status.SUCCESS, TimeUnit.SECONDS.toNanos(2));
+    setup.statementExecuted(Status.FAILURE, TimeUnit.MILLISECONDS.toNanos(20));
+    setup.taskCompleted();
+    LiveMetrics.Phase load = metrics.startPhase("load");
+    metrics.finishPhase(load);
+
+    try (MetricsEndpoint endpoint = new MetricsEndpoint(0, metrics)) {
+      HttpResponse<String> response =
+          HttpClient.newHttpClient()
+              .send(
+                  HttpRequest.newBuilder(
+                          URI.create("http://127.0.0.1:" + endpoint.getPort() + "/metrics"))
+                      .build(),
+                  HttpResponse.BodyHandlers.ofString());
+      Assertions.assertEquals(200, response.statusCode());
+      String body = response.body();
+      Assertions.assertTrue(body.contains("lst_bench_sessions_in_flight 1\n"));
+      Assertions.assertTrue(body.contains("lst_bench_phase_running{phase=\"setup\"} 1\n"));
+      Assertions.assertTrue(body.contains("lst_bench_phase_running{phase=\"load\"} 0\n"));
+      Assertions.assertTrue(
+          body.contains("lst_bench_statements_total{phase=\"setup\",status=\"success\"} 2\n"));
+      Assertions.assertTrue(
+          body.contains("lst_bench_statements_total{phase=\"setup\",status=\"failure\"} 1\n"));
+      Assertions.assertTrue(body.contains("lst_bench_tasks_completed_total{phase=\"setup\"} 1\n"));
+      // Buckets are cumulative
+      Assertions.assertTrue(
+          body.contains(
+              "lst_bench_statement_duration_seconds_bucket{phase=\"setup\",le=\"0.005\"} 1\n"));
+      Assertions.assertTrue(
+          body.contains(
+              "lst_bench_statement_duration_seconds_bucket{phase=\"setup\",le=\"0.05\"} 2\n"));
+      Assertions.assertTrue(
+          body.contains(
+              "lst_bench_statement_duration_seconds_bucket{phase=\"setup\",le=\"+Inf\"} 3\n"));
+      Assertions.assertTrue(
+          body.contains("lst_bench_statement_duration_seconds_count{phase=\"setup\"} 3\n"));
+      Assertions.assertTrue(body.contains("lst_bench_telemetry_buffered_events 7\n"));
+    }
+  }
+}
@@ -0,0 +1,210 @@
+/*
+ * Copyright (c) Microsoft Corporation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.microsoft.lst_bench.telemetry;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.microsoft.lst_bench.input.config.ImmutableConnectionConfig;
+import com.microsoft.lst_bench.input.config.ImmutableJournal;
+import com.microsoft.lst_bench.input.config.ImmutableTelemetryConfig;
+import com.microsoft.lst_bench.input.config.TelemetryConfig;
+import com.microsoft.lst_bench.sql.ConnectionManager;
+import com.microsoft.lst_bench.telemetry.EventInfo.EventType;
+import com.microsoft.lst_bench.telemetry.EventInfo.Status;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.List;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/** Tests for the export of journaled and stored events as OTLP JSON spans. */
+public class OtlpTraceExporterTest {
+
+  private static final ObjectMapper MAPPER = new ObjectMapper();
+
+  @Test
+  public void testExportsJournaledSpansWithParents(@TempDir Path tempDir) throws Exception {
+    Path journalDirectory = tempDir.resolve("journal");
+    Instant start = Instant.ofEpochSecond(1_700_000_000L, 123);
+    SpanContext experimentSpan = SpanContext.root();
+    SpanContext statementSpan = experimentSpan.createChild().createChild();
+    try (EventJournal journal = new EventJournal(journalDirectory, 1 << 20)) {
+      journal.append(
+          ImmutableEventInfo.of(
+                  start,
+                  start.plusMillis(5),
+                  "query1.sql_0",
+                  EventType.EXEC_STATEMENT,
+                  Status.TIMEOUT)
+              .withPayload("{\"rows\":1}")
+              .withSpanContext(statementSpan));
+      journal.append(
+          ImmutableEventInfo.of(
+                  start,
+                  start.plusSeconds(1),
+                  "experiment",
+                  EventType.EXEC_EXPERIMENT,
+                  Status.SUCCESS)
+              .withSpanContext(experimentSpan));
+      // Not part of a trace, so it is not exported
+      journal.append(
+          ImmutableEventInfo.of(
+              start,
+              start.plusMillis(1),
+              "telemetry_flush",
+              EventType.FLUSH_TELEMETRY,
+              Status.SUCCESS));
+    }
+
+    Path outputFile = tempDir.resolve("traces.jsonl");
+    Assertions.assertEquals(2, OtlpTraceExporter.export(journalDirectory, outputFile));
+
+    List<String> lines = Files.readAllLines(outputFile, StandardCharsets.UTF_8);
+    Assertions.assertEquals(1, lines.size());
+    JsonNode spans = MAPPER.readTree(lines.get(0)).at("/resourceSpans/0/scopeSpans/0/spans");
+    Assertions.assertEquals(2, spans.size());
+    JsonNode statement = spans.get(0);
+    Assertions.assertEquals(experimentSpan.getTraceId(), statement.get("traceId").asText());
+    Assertions.assertEquals(
+        SpanContext.formatSpanId(statementSpan.getSpanId()), statement.get("spanId").asText());
+    Assertions.assertEquals(
+        SpanContext.formatSpanId(statementSpan.getParentSpanId()),
+        statement.get("parentSpanId").asText());
+    Assertions.assertEquals("query1.sql_0", statement.get("name").asText());
+    Assertions.assertEquals("1700000000000000123", statement.get("startTimeUnixNano").asText());
+    Assertions.assertEquals(2, statement.at("/status/code").asInt());
+    Assertions.assertEquals("TIMEOUT", statement.at("/status/message").asText());
+    Assertions.assertEquals("lst_bench.event_data", statement.at("/attributes/2/key").asText());
+    JsonNode experiment = spans.get(1);
+    Assertions.assertFalse(experiment.has("parentSpanId"));
+    Assertions.assertEquals(1, experiment.at("/status/code").asInt());
+  }
+
+  @Test
+  public void testExportsSpansFromTelemetryTable(@TempDir Path tempDir) throws Exception {
+    TelemetryConfig telemetryConfig = createTelemetryConfig(tempDir).build();
+    SpanContext experimentSpan = SpanContext.root();
+    SpanContext statementSpan = experimentSpan.createChild().createChild();
+    Instant start = Instant.ofEpochSecond(1_700_000_000L, 123);
+    try (ConnectionManager connectionManager =
+        ConnectionManager.from(telemetryConfig.getConnection())) {
+      JDBCTelemetryRegistry registry =
+          new JDBCTelemetryRegistry(connectionManager, telemetryConfig);
+      writeEvents(registry, start, experimentSpan, statementSpan);
+      registry.close();
+    }
+
+    Path outputFile = tempDir.resolve("traces.jsonl");
+    Assertions.assertEquals(2, OtlpTraceExporter.export(telemetryConfig, outputFile));
+
+    JsonNode spans = readSpans(outputFile);
+    Assertions.assertEquals(2, spans.size());
+    for (JsonNode span : spans) {
+      if (span.get("name").asText().equals("query1.sql_0")) {
+        Assertions.assertEquals(
+            SpanContext.formatSpanId(statementSpan.getSpanId()), span.get("spanId").asText());
+        Assertions.assertEquals(
+            SpanContext.formatSpanId(statementSpan.getParentSpanId()),
+            span.get("parentSpanId").asText());
+        Assertions.assertEquals("1700000000000000123", span.get("startTimeUnixNano").asText());
+        Assertions.assertEquals("TIMEOUT", span.at("/status/message").asText());
+      } else {
+        Assertions.assertEquals("experiment", span.get("name").asText());
+        Assertions.assertFalse(span.has("parentSpanId"));
+      }
+    }
+  }
+
+  @Test
+  public void testExportsJournalThatReplacesTheDatabase(@TempDir Path tempDir) throws Exception {
+    Path journalDirectory = tempDir.resolve("journal");
+    TelemetryConfig telemetryConfig =
+        createTelemetryConfig(tempDir)
+            .journal(
+                ImmutableJournal.builder()
+                    .directory(journalDirectory.toString())
+                    .isWriteToDatabase(false)
+                    .build())
+            .build();
+    try (ConnectionManager connectionManager =
+        ConnectionManager.from(telemetryConfig.getConnection())) {
+      JDBCTelemetryRegistry registry =
+          new JDBCTelemetryRegistry(connectionManager, telemetryConfig);
+      SpanContext experimentSpan = SpanContext.root();
+      writeEvents(registry, Instant.now(), experimentSpan, experimentSpan.createChild());
+      registry.close();
+    }
+
+    // The table is empty, so the spans can only come from the journal
+    Path outputFile = tempDir.resolve("traces.jsonl");
+    Assertions.assertEquals(2, OtlpTraceExporter.export(telemetryConfig, outputFile));
+    Assertions.assertEquals(2, readSpans(outputFile).size());
+  }
+
+  private static ImmutableTelemetryConfig.Builder createTelemetryConfig(Path tempDir) {
+    return ImmutableTelemetryConfig.builder()
+        .version(1)
+        .connection(
+            ImmutableConnectionConfig.builder()
+                .id("telemetry")
+                .driver("org.duckdb.DuckDBDriver")
+                .url("jdbc:duckdb:" + tempDir.resolve("telemetry.duckdb"))
+                .build())
+        .isExecuteDDL(true)
+        .dDLFile("src/main/resources/scripts/logging/duckdb/ddl.sql")
+        .insertFile("src/main/resources/scripts/logging/duckdb/insert.sql");
+  }
+
+  /** Writes a statement and an experiment event with spans, and an event without a span. */
+  private static void writeEvents(
+      JDBCTelemetryRegistry registry,
+      Instant start,
+      SpanContext experimentSpan,
+      SpanContext statementSpan) {
+    registry.writeEvent(
+        ImmutableEventInfo.of(
+                start,
+                start.plusMillis(5),
+                "query1.sql_0",
+                EventType.EXEC_STATEMENT,
+                Status.TIMEOUT)
+            .withSpanContext(statementSpan));
+    registry.writeEvent(
+        ImmutableEventInfo.of(
+                start,
+                start.plusSeconds(1),
+                "experiment",
+                EventType.EXEC_EXPERIMENT,
+                Status.SUCCESS)
+            .withSpanContext(experimentSpan));
+    registry.writeEvent(
+        ImmutableEventInfo.of(
+            start,
+            start.plusMillis(1),
+            "telemetry_flush",
+            EventType.FLUSH_TELEMETRY,
+            Status.SUCCESS));
+  }
+
+  private static JsonNode readSpans(Path outputFile) throws Exception {
+    List<String> lines = Files.readAllLines(outputFile, StandardCharsets.UTF_8);
+    Assertions.assertEquals(1, lines.size());
+    return MAPPER.readTree(lines.get(0)).at("/resourceSpans/0/scopeSpans/0/spans");
+  }
+}
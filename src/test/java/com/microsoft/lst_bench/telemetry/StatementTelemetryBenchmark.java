@@ -0,0 +1,117 @@
+/*
+ * Copyright (c) Microsoft Corporation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.microsoft.lst_bench.telemetry;
+
+import com.microsoft.lst_bench.telemetry.EventInfo.EventType;
+import com.microsoft.lst_bench.telemetry.EventInfo.Status;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Compares the telemetry overhead of one statement execution. The wall-clock path reads {@link
+ * Instant#now()} twice and adds an {@link ImmutableEventInfo} to the event buffer of the registry,
+ * as statements do by default, while the monotonic path reads {@link System#nanoTime()} twice and
+ * adds the event to a {@link StatementEventBuffer}. The columns of the buffer are copied to a queue
+ * every {@value #STATEMENTS_PER_FILE} statements, as the registry does when a file completes, so
+ * the copy is included amortized over the statements. Monotonic events are only converted by the
+ * flusher when they are written, which is not included.
+ *
+ * <p>Run the main method with the test classpath from the root of the repository. The GC profiler
+ * reports the bytes allocated per statement.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class StatementTelemetryBenchmark {
+
+  private static final int STATEMENTS_PER_FILE = 1_024;
+  private static final String STATEMENT_ID = "query1.sql_0";
+
+  private EventBuffer eventBuffer;
+  private List<EventInfo> drainedEvents;
+  private MonotonicClock clock;
+  private StatementEventBuffer statementEvents;
+  private Queue<StatementEventBuffer> statementEventsStream;
+  private SpanContext fileSpan;
+
+  @Setup
+  public void setup() {
+    eventBuffer = new EventBuffer();
+    drainedEvents = new ArrayList<>(STATEMENTS_PER_FILE);
+    clock = new MonotonicClock();
+    statementEvents = new StatementEventBuffer(STATEMENTS_PER_FILE, clock);
+    statementEventsStream = new ConcurrentLinkedQueue<>();
+    fileSpan = SpanContext.root();
+  }
+
+  @Benchmark
+  public void wallClock() {
+    Instant startTime = Instant.now();
+    eventBuffer.add(
+        ImmutableEventInfo.of(
+                startTime, Instant.now(), STATEMENT_ID, EventType.EXEC_STATEMENT, Status.SUCCESS)
+            .withSpanContext(fileSpan.createChild()));
+    // Drain as the flusher would, so both paths keep the same events alive
+    eventBuffer.drainTo(drainedEvents);
+    drainedEvents.clear();
+  }
+
+  @Benchmark
+  public void monotonic() {
+    long startNanos = System.nanoTime();
+    if (statementEvents.add(
+        startNanos,
+        System.nanoTime(),
+        STATEMENT_ID,
+        Status.SUCCESS,
+        null,
+        fileSpan,
+        SpanContext.newSpanId())) {
+      // The events of the file are handed to the registry as columns once the file completes
+      statementEventsStream.add(statementEvents.drainToCopy());
+      statementEventsStream.poll();
+    }
+  }
+
+  public static void main(String[] args) throws Exception {
+    new Runner(
+            new OptionsBuilder()
+                .include(StatementTelemetryBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .build())
+        .run();
+  }
+}
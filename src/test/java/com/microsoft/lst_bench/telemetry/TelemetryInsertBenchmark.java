@@ -0,0 +1,199 @@
+/*
+ * Copyright (c) Microsoft Corporation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.microsoft.lst_bench.telemetry;
+
+import com.microsoft.lst_bench.exec.ImmutableStatementExec;
+import com.microsoft.lst_bench.exec.StatementExec;
+import com.microsoft.lst_bench.input.config.ImmutableConnectionConfig;
+import com.microsoft.lst_bench.sql.ConnectionManager;
+import com.microsoft.lst_bench.sql.PooledConnection;
+import com.microsoft.lst_bench.sql.SQLParser;
+import com.microsoft.lst_bench.telemetry.EventInfo.EventType;
+import com.microsoft.lst_bench.telemetry.EventInfo.Status;
+import com.microsoft.lst_bench.util.StringUtils;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import org.duckdb.DuckDBConnection;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Compares the cost of writing a flush worth of telemetry events to DuckDB. The literal path builds
+ * a single {@code VALUES} string for all events, as the registry used to do, while the prepared
+ * path binds the events to chunked prepared statements and the appender path uses the DuckDB
+ * appender. The transaction variants write the events with {@link EventInserter#insert}, which
+ * commits all chunks together. The table is emptied before each iteration.
+ *
+ * <p>Run the main method with the test classpath from the root of the repository.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class TelemetryInsertBenchmark {
+
+  private static final String DDL_FILE = "src/main/resources/scripts/logging/duckdb/ddl.sql";
+  private static final String INSERT_FILE = "src/main/resources/scripts/logging/duckdb/insert.sql";
+
+  @Param({"100000", "1000000"})
+  public int events;
+
+  @Param({"1000"})
+  public int chunkSize;
+
+  private Path directory;
+  private ConnectionManager connectionManager;
+  private PooledConnection connection;
+  private StatementExec insertStatement;
+  private EventInserter inserter;
+  private EventInserter preparedInserter;
+  private List<EventInfo> eventList;
+
+  @Setup
+  public void setup() throws Exception {
+    directory = Files.createTempDirectory("telemetry-insert-benchmark");
+    connectionManager =
+        ConnectionManager.from(
+            ImmutableConnectionConfig.builder()
+                .id("telemetry")
+                .driver("org.duckdb.DuckDBDriver")
+                .url("jdbc:duckdb:" + directory.resolve("telemetry.duckdb"))
+                .build());
+    connection = connectionManager.acquireConnection();
+    try (Statement statement = connection.getConnection().createStatement()) {
+      for (StatementExec ddl : SQLParser.getStatements(DDL_FILE).getStatements()) {
+        statement.execute(ddl.getStatement());
+      }
+    }
+    insertStatement = SQLParser.getStatements(INSERT_FILE).getStatements().get(0);
+    inserter = new EventInserter(Collections.singletonList(insertStatement), chunkSize);
+    // Listing the columns keeps the DuckDB appender from being used
+    preparedInserter =
+        new EventInserter(
+            Collections.singletonList(
+                ImmutableStatementExec.of(
+                    insertStatement.getId(),
+                    "INSERT INTO experiment_telemetry(event_start_time, event_end_time, event_id, "
+                        + "event_type, event_status, event_data, trace_id, span_id, "
+                        + "parent_span_id) VALUES ${tuples}")),
+            chunkSize);
+    eventList = new ArrayList<>(events);
+    Instant now = Instant.now();
+    for (int i = 0; i < events; i++) {
+      eventList.add(
+          ImmutableEventInfo.of(
+                  now, now, "query" + i + ".sql_0", EventType.EXEC_STATEMENT, Status.SUCCESS)
+              .withPayload("{\"rows\": " + i + "}"));
+    }
+  }
+
+  @Setup(Level.Iteration)
+  public void truncate() throws SQLException {
+    try (Statement statement = connection.getConnection().createStatement()) {
+      statement.execute("DELETE FROM experiment_telemetry");
+    }
+  }
+
+  @TearDown
+  public void tearDown() throws Exception {
+    connection.close();
+    connectionManager.close();
+    try (Stream<Path> files = Files.walk(directory)) {
+      for (Path file : files.sorted(Collections.reverseOrder()).collect(Collectors.toList())) {
+        Files.delete(file);
+      }
+    }
+  }
+
+  @Benchmark
+  public void literal() throws SQLException {
+    String tuples =
+        eventList.stream()
+            .map(
+                o ->
+                    String.join(
+                        ",",
+                        StringUtils.quote(o.getStartTime().toString()),
+                        StringUtils.quote(o.getEndTime().toString()),
+                        StringUtils.quote(o.getEventId()),
+                        StringUtils.quote(o.getEventType().toString()),
+                        StringUtils.quote(o.getStatus().toString()),
+                        StringUtils.quote(o.getPayload()),
+                        "NULL",
+                        "NULL",
+                        "NULL"))
+            .collect(Collectors.joining("),(", "(", ")"));
+    try (Statement statement = connection.getConnection().createStatement()) {
+      statement.execute(
+          StringUtils.replaceParameters(insertStatement, Collections.singletonMap("tuples", tuples))
+              .getStatement());
+    }
+  }
+
+  @Benchmark
+  public void prepared() throws SQLException {
+    inserter.insertWithPreparedStatement(
+        connection, insertStatement, eventList, Collections.emptyList());
+  }
+
+  @Benchmark
+  public void appender() throws SQLException {
+    inserter.insertWithAppender(
+        (DuckDBConnection) connection.getConnection(),
+        "experiment_telemetry",
+        eventList,
+        Collections.emptyList());
+  }
+
+  @Benchmark
+  public void preparedTransaction() throws SQLException {
+    preparedInserter.insert(connection, eventList);
+  }
+
+  @Benchmark
+  public void appenderTransaction() throws SQLException {
+    inserter.insert(connection, eventList);
+  }
+
+  public static void main(String[] args) throws Exception {
+    new Runner(new OptionsBuilder().include(TelemetryInsertBenchmark.class.getSimpleName()).build())
+        .run();
+  }
+}
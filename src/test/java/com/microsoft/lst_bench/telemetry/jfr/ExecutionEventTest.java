@@ -0,0 +1,69 @@
+/*
+ * Copyright (c) Microsoft Corporation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.microsoft.lst_bench.telemetry.jfr;
+
+import com.microsoft.lst_bench.telemetry.EventInfo.Status;
+import java.nio.file.Path;
+import java.util.List;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/** Tests for the flight recorder events of the execution levels. */
+public class ExecutionEventTest {
+
+  @Test
+  public void testCompletedEventsAreRecorded(@TempDir Path tempDir) throws Exception {
+    Path destination = tempDir.resolve("recording.jfr");
+    try (Recording recording = new Recording()) {
+      recording.enable(StatementEvent.class);
+      recording.enable(TaskEvent.class);
+      recording.start();
+      TaskEvent task = new TaskEvent(2);
+      task.begin();
+      StatementEvent statement = new StatementEvent();
+      statement.begin();
+      statement.setRows(42);
+      statement.complete("query1.sql_0", Status.SUCCESS);
+      task.complete("task_1", Status.FAILURE);
+      recording.stop();
+      recording.dump(destination);
+    }
+
+    List<RecordedEvent> events = RecordingFile.readAllEvents(destination);
+    RecordedEvent statementEvent = find(events, "lst_bench.Statement");
+    Assertions.assertEquals("query1.sql_0", statementEvent.getString("eventId"));
+    Assertions.assertEquals("SUCCESS", statementEvent.getString("status"));
+    Assertions.assertEquals(42, statementEvent.getLong("rows"));
+    RecordedEvent taskEvent = find(events, "lst_bench.Task");
+    Assertions.assertEquals("task_1", taskEvent.getString("eventId"));
+    Assertions.assertEquals("FAILURE", taskEvent.getString("status"));
+    Assertions.assertEquals(2, taskEvent.getInt("attempt"));
+    // The task started before the statement and ended after it
+    Assertions.assertFalse(taskEvent.getStartTime().isAfter(statementEvent.getStartTime()));
+    Assertions.assertFalse(taskEvent.getEndTime().isBefore(statementEvent.getEndTime()));
+  }
+
+  private static RecordedEvent find(List<RecordedEvent> events, String name) {
+    return events.stream()
+        .filter(e -> e.getEventType().getName().equals(name))
+        .findFirst()
+        .orElseThrow(() -> new AssertionError("Missing event: " + name));
+  }
+}
@@ -0,0 +1,109 @@
+/*
+ * Copyright (c) Microsoft Corporation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.microsoft.lst_bench.util;
+
+import com.microsoft.lst_bench.exec.StatementExec;
+import com.microsoft.lst_bench.sql.SQLParser;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Compares the cost of replacing runtime parameters in the statements of a task. The substitutor
+ * path copies the runtime parameter values and scans every statement with a {@link
+ * org.apache.commons.text.StringSubstitutor}, as tasks used to do, while the compiled path renders
+ * the precompiled {@link StatementTemplate} of each statement. Both paths are checked to produce
+ * the same text before the benchmark starts.
+ *
+ * <p>Run the main method with the test classpath from the root of the repository.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class StatementTemplateBenchmark {
+
+  @Param({
+    "src/main/resources/scripts/tpcds/single_user/spark/query2.sql",
+    "src/main/resources/scripts/tpcds/data_maintenance/spark/DF_SS.sql"
+  })
+  public String file;
+
+  private List<StatementExec> statements;
+  private Map<String, Object> runtimeParameterValues;
+
+  @Setup
+  public void setup() {
+    statements = SQLParser.getStatements(file).getStatements();
+    runtimeParameterValues = new HashMap<>();
+    runtimeParameterValues.put("repetition", 3);
+    runtimeParameterValues.put("experiment_start_time", "2023_01_01_00_00_00_000");
+    runtimeParameterValues.put("asof", "TIMESTAMP AS OF '2023-01-01 00:00:01.000 UTC'");
+    runtimeParameterValues.put("catalog", "spark_catalog");
+    runtimeParameterValues.put("database", "tpcds_sf1");
+    runtimeParameterValues.put("param1", "2000-05-20");
+    runtimeParameterValues.put("param2", "2000-05-21");
+    for (StatementExec statement : statements) {
+      String expected =
+          StringUtils.replaceParameters(statement, runtimeParameterValues).getStatement();
+      if (!expected.equals(statement.getTemplate().render(runtimeParameterValues))) {
+        throw new IllegalStateException("Rendering mismatch for statement " + statement.getId());
+      }
+    }
+  }
+
+  @Benchmark
+  public void substitutor(Blackhole blackhole) {
+    Map<String, Object> values = new HashMap<>(runtimeParameterValues);
+    for (StatementExec statement : statements) {
+      blackhole.consume(StringUtils.replaceParameters(statement, values).getStatement());
+    }
+  }
+
+  @Benchmark
+  public void compiled(Blackhole blackhole) {
+    for (StatementExec statement : statements) {
+      blackhole.consume(statement.getTemplate().render(runtimeParameterValues));
+    }
+  }
+
+  public static void main(String[] args) throws Exception {
+    new Runner(
+            new OptionsBuilder()
+                .include(StatementTemplateBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .build())
+        .run();
+  }
+}
@@ -0,0 +1,77 @@
+/*
+ * Copyright (c) Microsoft Corporation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.microsoft.lst_bench.util;
+
+import java.util.Map;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+/** Tests that precompiled statements render the same text as replacing parameters at runtime. */
+public class StatementTemplateTest {
+
+  private static final Map<String, Object> VALUES =
+      Map.of(
+          "catalog", "spark_catalog",
+          "database", "tpcds",
+          "repetition", 3,
+          "experiment_start_time", "2024_01_01_00_00_00",
+          "empty", "");
+
+  @ParameterizedTest
+  @ValueSource(
+      strings = {
+        "SELECT 1",
+        "",
+        "SELECT * FROM ${catalog}.${database}.store_sales",
+        // Repeated parameters
+        "INSERT INTO ${database}.t SELECT * FROM ${database}.s WHERE r = ${repetition}"
+            + " AND r <> ${repetition}",
+        // Adjacent parameters and parameters at the start and end of the statement
+        "${catalog}${database}${repetition}",
+        // Missing parameters are left unchanged
+        "SELECT * FROM ${missing}.t WHERE x = '${missing}' AND y = ${database}",
+        // Defaults
+        "SELECT ${missing:-42}, ${database:-default}, ${missing:-}",
+        // Empty values
+        "SELECT '${empty}' AS e",
+        // Escaped placeholders
+        "SELECT '$${database}', ${database}",
+        // Unterminated placeholders and lone dollar signs
+        "SELECT '${database' AS a, '$' AS b, ${database}",
+        "SELECT $1, $$, ${database}$"
+      })
+  public void testRenderMatchesRuntimeReplacement(String text) {
+    Assertions.assertEquals(
+        StringUtils.format(text, VALUES), StatementTemplate.compile(text).render(VALUES));
+  }
+
+  @Test
+  public void testHasParameters() {
+    Assertions.assertFalse(StatementTemplate.compile("SELECT 1").hasParameters());
+    Assertions.assertFalse(StatementTemplate.compile("SELECT '$${database}'").hasParameters());
+    Assertions.assertTrue(StatementTemplate.compile("SELECT ${missing}").hasParameters());
+  }
+
+  @Test
+  public void testRenderWithDifferentValues() {
+    StatementTemplate template = StatementTemplate.compile("SELECT ${repetition}, ${repetition}");
+    Assertions.assertEquals("SELECT 1, 1", template.render(Map.of("repetition", 1)));
+    Assertions.assertEquals("SELECT 2, 2", template.render(Map.of("repetition", 2)));
+    Assertions.assertEquals("SELECT ${repetition}, ${repetition}", template.render(Map.of()));
+  }
+}
@@ -0,0 +1,79 @@
+/*
+ * Copyright (c) Microsoft Corporation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.microsoft.lst_bench.util;
+
+import com.microsoft.lst_bench.exec.ImmutableStatementExec;
+import com.microsoft.lst_bench.exec.StatementExec;
+import java.util.List;
+import java.util.Map;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+/** Tests for the replacement of parameters in statements. */
+public class StringUtilsTest {
+
+  private static final Map<String, Object> VALUES =
+      Map.of("id", 7, "name", "lst", "data_path", "/data", "suffix", "_v2");
+
+  @Test
+  public void testBindUnquotedPlaceholder() {
+    StatementExec statement = bind("SELECT * FROM t WHERE id = ${id} AND id < ${id}", "id");
+    Assertions.assertEquals("SELECT * FROM t WHERE id = ? AND id < ?", statement.getStatement());
+    Assertions.assertEquals(List.of(7, 7), statement.getParameters());
+  }
+
+  @Test
+  public void testBindQuotedPlaceholderWithQuotes() {
+    StatementExec statement = bind("SELECT * FROM t WHERE name = '${name}' AND id = ${id}", "name");
+    // The quotes are replaced together with the placeholder, unbound parameters are left
+    Assertions.assertEquals(
+        "SELECT * FROM t WHERE name = ? AND id = ${id}", statement.getStatement());
+    Assertions.assertEquals(List.of("lst"), statement.getParameters());
+  }
+
+  @Test
+  public void testPlaceholdersQuotedOnOneSideAreNotBound() {
+    StatementExec statement =
+        bind(
+            "COPY t FROM '${data_path}${suffix}' WHERE id = ${id} AND name = 'x${name}'",
+            "data_path",
+            "suffix",
+            "id",
+            "name");
+    // Placeholders within a larger literal are left for text replacement, and the indexes of the
+    // parameters that are bound are not shifted by them
+    Assertions.assertEquals(
+        "COPY t FROM '${data_path}${suffix}' WHERE id = ? AND name = 'x${name}'",
+        statement.getStatement());
+    Assertions.assertEquals(List.of(7), statement.getParameters());
+    Assertions.assertEquals(
+        "COPY t FROM '/data_v2' WHERE id = ? AND name = 'xlst'",
+        StringUtils.replaceParameters(statement, VALUES).getStatement());
+  }
+
+  @Test
+  public void testMixedPlaceholdersKeepBindOrder() {
+    StatementExec statement =
+        bind("SELECT '${name}', ${id}, '${data_path}/x', '${name}'", "name", "id", "data_path");
+    Assertions.assertEquals("SELECT ?, ?, '${data_path}/x', ?", statement.getStatement());
+    Assertions.assertEquals(List.of("lst", 7, "lst"), statement.getParameters());
+  }
+
+  private static StatementExec bind(String sql, String... bindParameters) {
+    return StringUtils.bindParameters(
+        ImmutableStatementExec.of("statement", sql), VALUES, List.of(bindParameters));
+  }
+}